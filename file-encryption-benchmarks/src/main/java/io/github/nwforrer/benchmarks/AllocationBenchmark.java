@@ -0,0 +1,67 @@
+package io.github.nwforrer.benchmarks;
+
+import io.github.nwforrer.encryption.EncryptionFormat;
+import io.github.nwforrer.encryption.EncryptionProfile;
+import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the garbage produced by an encrypt and decrypt round trip from several threads at once, comparing
+ * {@link GPGEncryptionUtil} with the unpooled path it replaced (see {@link UnpooledEncryption}).
+ * <p>
+ * Run with `-prof gc` and compare `gc.alloc.rate.norm`, the bytes allocated per operation. Content is encrypted with a
+ * data key, so the comparison is not drowned out by the big integer arithmetic of a private key operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AllocationBenchmark {
+
+    private static final char[] DATA_KEY = "benchmark data key".toCharArray();
+
+    @Param({"4096", "65536"})
+    public long payloadSize;
+
+    @Param({"NONE", "ZIP"})
+    public String compression;
+
+    @Param({"pooled", "unpooled"})
+    public String engine;
+
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+
+    private EncryptionProfile profile;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // the unpooled path looks the provider up by name
+        Security.addProvider(new BouncyCastleProvider());
+        profile = BenchmarkProfiles.profile("AES_256", compression, false);
+    }
+
+    @Benchmark
+    public void roundTrip(Blackhole blackhole) throws Exception {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream((int) payloadSize + 1024);
+        if ("pooled".equals(engine)) {
+            gpgEncryptionUtil.encryptFileWithDataKey(new SyntheticInputStream(payloadSize, SyntheticInputStream.TEXT), encrypted,
+                    DATA_KEY, profile, null);
+            gpgEncryptionUtil.decryptFileWithDataKey(new ByteArrayInputStream(encrypted.toByteArray()), new NullOutputStream(blackhole),
+                    DATA_KEY, null, EncryptionFormat.BINARY);
+        } else {
+            UnpooledEncryption.encrypt(new SyntheticInputStream(payloadSize, SyntheticInputStream.TEXT), encrypted, DATA_KEY,
+                    profile.getSymmetricAlgorithm(), profile.getCompressionAlgorithm());
+            UnpooledEncryption.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), new NullOutputStream(blackhole), DATA_KEY);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.nwforrer.benchmarks;
+
+import io.github.nwforrer.encryption.PrivateKeyProvider;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.jcajce.*;
+
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.util.Date;
+
+/**
+ * Generates throwaway OpenPGP keys, so that the benchmarks run offline without any key files.
+ */
+public class BenchmarkKeys {
+
+    public static final char[] PASSPHRASE = "benchmark".toCharArray();
+
+    static {
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    private final PGPSecretKeyRing secretKeyRing;
+    private final PGPPrivateKey privateKey;
+
+    private BenchmarkKeys(PGPSecretKeyRing secretKeyRing) throws PGPException {
+        this.secretKeyRing = secretKeyRing;
+        this.privateKey = secretKeyRing.getSecretKey().extractPrivateKey(
+                new JcePBESecretKeyDecryptorBuilder().setProvider("BC").build(PASSPHRASE));
+    }
+
+    /**
+     * Generate an RSA key ring with a single master key used for both signing and encryption.
+     *
+     * @param bits RSA modulus size
+     * @return the generated keys
+     * @throws Exception thrown when the key cannot be generated
+     */
+    public static BenchmarkKeys rsa(int bits) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", "BC");
+        generator.initialize(bits);
+        PGPKeyPair keyPair = new JcaPGPKeyPair(PGPPublicKey.RSA_GENERAL, generator.generateKeyPair(), new Date());
+
+        PGPDigestCalculator sha1 = new JcaPGPDigestCalculatorProviderBuilder().build().get(PGPUtil.SHA1);
+        PGPKeyRingGenerator ringGenerator = new PGPKeyRingGenerator(PGPSignature.POSITIVE_CERTIFICATION, keyPair,
+                "benchmark@example.com", sha1, null, null,
+                new JcaPGPContentSignerBuilder(keyPair.getPublicKey().getAlgorithm(), PGPUtil.SHA256),
+                new JcePBESecretKeyEncryptorBuilder(PGPEncryptedData.AES_256, sha1).setProvider("BC").build(PASSPHRASE));
+
+        return new BenchmarkKeys(ringGenerator.generateSecretKeyRing());
+    }
+
+    public PGPPublicKey getPublicKey() {
+        return secretKeyRing.getPublicKey();
+    }
+
+    public PGPPrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    /**
+     * @return a provider handing out the already unlocked private key, so that the S2K derivation is not measured
+     */
+    public PrivateKeyProvider getPrivateKeyProvider() {
+        return keyID -> keyID == privateKey.getKeyID() ? privateKey : null;
+    }
+}
@@ -0,0 +1,37 @@
+package io.github.nwforrer.benchmarks;
+
+import io.github.nwforrer.encryption.EncryptionProfile;
+import io.github.nwforrer.encryption.EncryptionProfileRegistry;
+
+import java.util.Properties;
+
+/**
+ * Builds encryption profiles from the same names used in alfresco-global.properties, so that benchmark parameters read
+ * like the module configuration.
+ */
+public class BenchmarkProfiles {
+
+    private BenchmarkProfiles() {
+    }
+
+    /**
+     * @param cipher Cipher name, for example `AES_256`
+     * @param compression Compression name, for example `ZIP`
+     * @param armor Whether to armor the output
+     * @return the profile, with adaptive compression disabled so the requested compression is always used
+     */
+    public static EncryptionProfile profile(String cipher, String compression, boolean armor) {
+        String prefix = "io.github.nwforrer.encryption.";
+        Properties properties = new Properties();
+        properties.setProperty(prefix + "profiles", "benchmark");
+        properties.setProperty(prefix + "profile.benchmark.cipher", cipher);
+        properties.setProperty(prefix + "profile.benchmark.compression", compression);
+        properties.setProperty(prefix + "profile.benchmark.adaptive", "false");
+        properties.setProperty(prefix + "profile.benchmark.armor", String.valueOf(armor));
+
+        EncryptionProfileRegistry registry = new EncryptionProfileRegistry();
+        registry.setGlobalProperties(properties);
+        registry.init();
+        return registry.getProfile("benchmark");
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.nwforrer.benchmarks;
+
+import io.github.nwforrer.encryption.EncryptionProfile;
+import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link GPGEncryptionUtil#decryptFile} across payload sizes, ciphers, compression, armor, key sizes, and
+ * signed against unsigned messages.
+ * <p>
+ * Runs in throughput mode for sizing and in sample mode for the latency percentiles (p50, p99, ...). Add `-prof gc`
+ * for the allocation rate. The ciphertext is prepared once per trial and held in memory, so payloads are kept to sizes
+ * that fit the 1 GB heap.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DecryptBenchmark {
+
+    @Param({"1024", "1048576", "16777216"})
+    public long payloadSize;
+
+    @Param({SyntheticInputStream.RANDOM, SyntheticInputStream.TEXT})
+    public String content;
+
+    @Param({"AES_128", "AES_256", "TRIPLE_DES"})
+    public String cipher;
+
+    @Param({"NONE", "ZIP"})
+    public String compression;
+
+    @Param({"true", "false"})
+    public boolean armor;
+
+    @Param({"2048", "4096"})
+    public int keySize;
+
+    @Param({"false", "true"})
+    public boolean signed;
+
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+
+    private BenchmarkKeys keys;
+    private byte[] ciphertext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        keys = BenchmarkKeys.rsa(keySize);
+        EncryptionProfile profile = BenchmarkProfiles.profile(cipher, compression, armor);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (signed) {
+            SignedMessages.encryptAndSign(new SyntheticInputStream(payloadSize, content), out, keys, profile);
+        } else {
+            gpgEncryptionUtil.encryptFile(new SyntheticInputStream(payloadSize, content), out, keys.getPublicKey(), profile, null);
+        }
+        ciphertext = out.toByteArray();
+    }
+
+    @Benchmark
+    public void decrypt(Blackhole blackhole) throws Exception {
+        gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(ciphertext), new NullOutputStream(blackhole),
+                keys.getPrivateKeyProvider(), keys.getPublicKey());
+    }
+}
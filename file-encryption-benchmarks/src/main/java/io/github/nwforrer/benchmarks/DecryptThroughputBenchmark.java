@@ -0,0 +1,77 @@
+package io.github.nwforrer.benchmarks;
+
+import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decryption throughput of {@link GPGEncryptionUtil#decryptFile} against the old byte-at-a-time copy loop.
+ * <p>
+ * Scores are operations per second; multiply by `payloadSize` to get bytes per second. Payloads of 64 MB and more are
+ * staged in a temporary file rather than on the heap.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DecryptThroughputBenchmark {
+
+    private static final long IN_MEMORY_LIMIT = 64L * 1024 * 1024;
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long payloadSize;
+
+    @Param({"bulk", "byteAtATime"})
+    public String copy;
+
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+
+    private BenchmarkKeys keys;
+    private byte[] ciphertext;
+    private File ciphertextFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        keys = BenchmarkKeys.rsa(2048);
+
+        if (payloadSize < IN_MEMORY_LIMIT) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            gpgEncryptionUtil.encryptFile(new SyntheticInputStream(payloadSize), out, keys.getPublicKey());
+            ciphertext = out.toByteArray();
+        } else {
+            ciphertextFile = File.createTempFile("decrypt-benchmark", ".pgp");
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(ciphertextFile))) {
+                gpgEncryptionUtil.encryptFile(new SyntheticInputStream(payloadSize), out, keys.getPublicKey());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (ciphertextFile != null) {
+            Files.delete(ciphertextFile.toPath());
+        }
+    }
+
+    @Benchmark
+    public void decrypt(Blackhole blackhole) throws Exception {
+        try (InputStream in = openCiphertext()) {
+            OutputStream out = new NullOutputStream(blackhole);
+            if ("bulk".equals(copy)) {
+                gpgEncryptionUtil.decryptFile(in, out, keys.getPrivateKeyProvider(), keys.getPublicKey());
+            } else {
+                LegacyDecryption.decryptFile(in, out, keys.getPrivateKeyProvider());
+            }
+        }
+    }
+
+    private InputStream openCiphertext() throws IOException {
+        return ciphertext != null ? new ByteArrayInputStream(ciphertext) : new FileInputStream(ciphertextFile);
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.nwforrer.benchmarks;
+
+import io.github.nwforrer.encryption.EncryptionProfile;
+import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link GPGEncryptionUtil#encryptFile} across payload sizes, ciphers, compression, armor and key sizes.
+ * <p>
+ * Runs in throughput mode for sizing and in sample mode for the latency percentiles (p50, p99, ...). Add `-prof gc`
+ * for the allocation rate. The default parameters are a practical subset; pass `-p` to cover others, for example
+ * `-p cipher=CAST5,TWOFISH -p compression=ZLIB,BZIP2`.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgs = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EncryptBenchmark {
+
+    @Param({"1024", "1048576", "16777216"})
+    public long payloadSize;
+
+    @Param({SyntheticInputStream.RANDOM, SyntheticInputStream.TEXT})
+    public String content;
+
+    @Param({"AES_128", "AES_256", "TRIPLE_DES"})
+    public String cipher;
+
+    @Param({"NONE", "ZIP"})
+    public String compression;
+
+    @Param({"true", "false"})
+    public boolean armor;
+
+    @Param({"2048", "4096"})
+    public int keySize;
+
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+
+    private BenchmarkKeys keys;
+    private EncryptionProfile profile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        keys = BenchmarkKeys.rsa(keySize);
+        profile = BenchmarkProfiles.profile(cipher, compression, armor);
+    }
+
+    @Benchmark
+    public void encrypt(Blackhole blackhole) throws Exception {
+        gpgEncryptionUtil.encryptFile(new SyntheticInputStream(payloadSize, content), new NullOutputStream(blackhole),
+                keys.getPublicKey(), profile, null);
+    }
+}
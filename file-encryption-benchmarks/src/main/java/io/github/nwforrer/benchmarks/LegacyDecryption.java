@@ -0,0 +1,52 @@
+package io.github.nwforrer.benchmarks;
+
+import io.github.nwforrer.encryption.PrivateKeyProvider;
+import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyDataDecryptorFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+/**
+ * The decryption loop as it was before plaintext was copied in bulk: one read and one write call per byte. Kept as the
+ * baseline that {@link DecryptThroughputBenchmark} compares against.
+ */
+public class LegacyDecryption {
+
+    private LegacyDecryption() {
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static void decryptFile(InputStream in, OutputStream out, PrivateKeyProvider privateKeys) throws IOException, PGPException {
+        in = PGPUtil.getDecoderStream(in);
+
+        PGPObjectFactory pgpF = new PGPObjectFactory(in);
+        Object o = pgpF.nextObject();
+        PGPEncryptedDataList enc = o instanceof PGPEncryptedDataList ? (PGPEncryptedDataList) o : (PGPEncryptedDataList) pgpF.nextObject();
+
+        Iterator it = enc.getEncryptedDataObjects();
+        PGPPrivateKey sKey = null;
+        PGPPublicKeyEncryptedData pbe = null;
+        while (sKey == null && it.hasNext()) {
+            pbe = (PGPPublicKeyEncryptedData) it.next();
+            sKey = privateKeys.getPrivateKey(pbe.getKeyID());
+        }
+        if (sKey == null) {
+            throw new IllegalArgumentException("secret key for message not found.");
+        }
+
+        InputStream clear = pbe.getDataStream(new JcePublicKeyDataDecryptorFactoryBuilder().setProvider("BC").setContentProvider("BC").build(sKey));
+        Object message = new PGPObjectFactory(clear).nextObject();
+        if (message instanceof PGPCompressedData) {
+            message = new PGPObjectFactory(((PGPCompressedData) message).getDataStream()).nextObject();
+        }
+
+        InputStream unc = ((PGPLiteralData) message).getInputStream();
+        int ch;
+        while ((ch = unc.read()) >= 0) {
+            out.write(ch);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package io.github.nwforrer.benchmarks;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.OutputStream;
+
+/**
+ * Discards everything written to it, handing each write to a JMH {@link Blackhole} so it cannot be optimised away.
+ */
+public class NullOutputStream extends OutputStream {
+
+    private final Blackhole blackhole;
+
+    public NullOutputStream(Blackhole blackhole) {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void write(int b) {
+        blackhole.consume(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        blackhole.consume(b);
+    }
+}
@@ -0,0 +1,67 @@
+package io.github.nwforrer.benchmarks;
+
+import io.github.nwforrer.encryption.EncryptionProfile;
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePGPDataEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyKeyEncryptionMethodGenerator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.Date;
+
+/**
+ * Writes signed and encrypted messages, laid out the way `gpg --sign --encrypt` does: a one-pass signature, the
+ * literal data and the signature, all inside the compressed and encrypted packets.
+ */
+public class SignedMessages {
+
+    private SignedMessages() {
+    }
+
+    public static void encryptAndSign(InputStream in, OutputStream out, BenchmarkKeys keys, EncryptionProfile profile) throws IOException, PGPException, SignatureException {
+        OutputStream targetOut = profile.isArmored() ? new ArmoredOutputStream(out) : out;
+
+        PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
+                new JcePGPDataEncryptorBuilder(profile.getSymmetricAlgorithm())
+                        .setWithIntegrityPacket(true).setSecureRandom(new SecureRandom()).setProvider("BC"));
+        encryptedDataGenerator.addMethod(new JcePublicKeyKeyEncryptionMethodGenerator(keys.getPublicKey()).setProvider("BC"));
+        OutputStream encryptedOut = encryptedDataGenerator.open(targetOut, new byte[8192]);
+
+        PGPCompressedDataGenerator compressedDataGenerator = null;
+        OutputStream compressedOut = encryptedOut;
+        if (profile.getCompressionAlgorithm() != CompressionAlgorithmTags.UNCOMPRESSED) {
+            compressedDataGenerator = new PGPCompressedDataGenerator(profile.getCompressionAlgorithm());
+            compressedOut = compressedDataGenerator.open(encryptedOut);
+        }
+
+        PGPSignatureGenerator signatureGenerator = new PGPSignatureGenerator(
+                new JcaPGPContentSignerBuilder(keys.getPublicKey().getAlgorithm(), PGPUtil.SHA256).setProvider("BC"));
+        signatureGenerator.init(PGPSignature.BINARY_DOCUMENT, keys.getPrivateKey());
+        signatureGenerator.generateOnePassVersion(false).encode(compressedOut);
+
+        PGPLiteralDataGenerator literalDataGenerator = new PGPLiteralDataGenerator();
+        OutputStream literalOut = literalDataGenerator.open(compressedOut, PGPLiteralData.BINARY, "", new Date(), new byte[8192]);
+        byte[] buf = new byte[65536];
+        int len;
+        while ((len = in.read(buf)) > 0) {
+            literalOut.write(buf, 0, len);
+            signatureGenerator.update(buf, 0, len);
+        }
+        literalDataGenerator.close();
+
+        signatureGenerator.generate().encode(compressedOut);
+        if (compressedDataGenerator != null) {
+            compressedDataGenerator.close();
+        }
+        encryptedDataGenerator.close();
+        if (targetOut != out) {
+            targetOut.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.nwforrer.benchmarks;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Produces a fixed number of pseudo-random bytes without holding the payload in memory.
+ * <p>
+ * The bytes repeat every 64 KB, which is further apart than the deflate window, so the random payload behaves like
+ * content that is already compressed (scans, images, office documents). The text payload is random words from a small
+ * vocabulary, which deflates to roughly a third of its size like typical plain text.
+ */
+public class SyntheticInputStream extends InputStream {
+
+    public static final String RANDOM = "random";
+    public static final String TEXT = "text";
+
+    private static final byte[] RANDOM_BLOCK = new byte[65536];
+    private static final byte[] TEXT_BLOCK = new byte[65536];
+
+    private static final String[] WORDS = {"the", "encrypted", "content", "of", "a", "document", "is", "stored", "in",
+            "repository", "and", "key", "file", "node", "folder", "with", "for", "on", "user", "policy", "report",
+            "invoice", "contract", "date", "amount", "total", "customer", "account", "page", "section"};
+
+    static {
+        Random random = new Random(42);
+        random.nextBytes(RANDOM_BLOCK);
+
+        StringBuilder text = new StringBuilder();
+        while (text.length() < TEXT_BLOCK.length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        System.arraycopy(text.toString().getBytes(StandardCharsets.US_ASCII), 0, TEXT_BLOCK, 0, TEXT_BLOCK.length);
+    }
+
+    private final byte[] block;
+    private final long size;
+    private long position;
+
+    public SyntheticInputStream(long size) {
+        this(size, RANDOM);
+    }
+
+    /**
+     * @param size Number of bytes to produce
+     * @param content Either {@link #RANDOM} or {@link #TEXT}
+     */
+    public SyntheticInputStream(long size, String content) {
+        this.block = TEXT.equals(content) ? TEXT_BLOCK : RANDOM_BLOCK;
+        this.size = size;
+    }
+
+    @Override
+    public int read() {
+        if (position >= size) {
+            return -1;
+        }
+        return block[(int) (position++ % block.length)] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (position >= size) {
+            return -1;
+        }
+        int offset = (int) (position % block.length);
+        int count = (int) Math.min(Math.min(len, block.length - offset), size - position);
+        System.arraycopy(block, offset, b, off, count);
+        position += count;
+        return count;
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.nwforrer.benchmarks;
+
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBEDataDecryptorFactoryBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBEKeyEncryptionMethodGenerator;
+import org.bouncycastle.openpgp.operator.jcajce.JcePGPDataEncryptorBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * Data key encryption and decryption as they were before the provider, operator builders, deflaters, inflaters and
+ * packet buffers were shared: all of those are created per call and the provider is looked up by name. The copy buffer
+ * was already kept per thread, and still is here. Kept as the baseline that {@link AllocationBenchmark} compares
+ * against.
+ */
+public class UnpooledEncryption {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[65536]);
+
+    private UnpooledEncryption() {
+    }
+
+    public static void encrypt(InputStream in, OutputStream out, char[] dataKey, int symmetricAlgorithm, int compressionAlgorithm)
+            throws IOException, PGPException {
+        PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
+                new JcePGPDataEncryptorBuilder(symmetricAlgorithm).setWithIntegrityPacket(true).setProvider("BC"));
+        encryptedDataGenerator.addMethod(new JcePBEKeyEncryptionMethodGenerator(dataKey).setProvider("BC"));
+
+        OutputStream encryptedOut = encryptedDataGenerator.open(out, new byte[BUFFER_SIZE]);
+        OutputStream compressedData = compressionAlgorithm == CompressionAlgorithmTags.UNCOMPRESSED
+                ? encryptedOut
+                : new PGPCompressedDataGenerator(compressionAlgorithm).open(encryptedOut);
+        OutputStream literalOut = new PGPLiteralDataGenerator().open(compressedData, PGPLiteralDataGenerator.BINARY, "", new Date(), new byte[BUFFER_SIZE]);
+        copy(in, literalOut);
+        literalOut.close();
+        compressedData.close();
+        encryptedOut.close();
+    }
+
+    public static void decrypt(InputStream in, OutputStream out, char[] dataKey) throws IOException, PGPException {
+        PGPEncryptedDataList enc = (PGPEncryptedDataList) new PGPObjectFactory(in).nextObject();
+        PGPPBEEncryptedData encryptedData = (PGPPBEEncryptedData) enc.get(0);
+        InputStream clear = encryptedData.getDataStream(new JcePBEDataDecryptorFactoryBuilder(
+                new JcaPGPDigestCalculatorProviderBuilder().setProvider("BC").build()).setProvider("BC").build(dataKey));
+
+        Object message = new PGPObjectFactory(clear).nextObject();
+        if (message instanceof PGPCompressedData) {
+            message = new PGPObjectFactory(((PGPCompressedData) message).getDataStream()).nextObject();
+        }
+        copy(((PGPLiteralData) message).getInputStream(), out);
+        if (!encryptedData.verify()) {
+            throw new PGPException("message failed integrity check");
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = COPY_BUFFER.get();
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            out.write(buf, 0, len);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package io.github.nwforrer.actions;
+
+import io.github.nwforrer.encryption.RecipientRegistry;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns action parameter values into strings and back, keeping their types, for actions that are stored to be run
+ * later, such as the entries of the encryption queue and the jobs of bulk encryption.
+ * <p>
+ * Each value is prefixed with its type: booleans and lists of strings come back as they were, and anything else comes
+ * back as a string. Values stored without a prefix, before the types were kept, are read as the type the action
+ * declares for the parameter, or as strings when none is given.
+ */
+public final class ActionParams {
+
+    private static final String STRING_VALUE = "s:";
+    private static final String BOOLEAN_VALUE = "b:";
+    private static final String LIST_VALUE = "l:";
+
+    private ActionParams() {
+    }
+
+    /**
+     * @param params Parameters of an action
+     * @return the parameters as strings, without the ones that are null
+     */
+    public static Map<String, String> encode(Map<String, Serializable> params) {
+        Map<String, String> encoded = new LinkedHashMap<>();
+        for (Map.Entry<String, Serializable> param : params.entrySet()) {
+            if (param.getValue() != null) {
+                encoded.put(param.getKey(), encode(param.getValue()));
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * @param params Parameters as returned by {@link #encode(Map)}
+     * @return the parameters of the action
+     */
+    public static Map<String, Serializable> decode(Map<String, String> params) {
+        return decode(params, Collections.<String, Class<?>>emptyMap());
+    }
+
+    /**
+     * @param params Parameters as returned by {@link #encode(Map)}, or stored as plain strings
+     * @param types Types of the parameters of the action, used for values stored without a type: Boolean, Integer,
+     *              Long or List, where lists were stored comma-separated
+     * @return the parameters of the action
+     */
+    public static Map<String, Serializable> decode(Map<String, String> params, Map<String, Class<?>> types) {
+        Map<String, Serializable> decoded = new HashMap<>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            String value = param.getValue();
+            decoded.put(param.getKey(), isTagged(value) ? decode(value) : decodeUntagged(value, types.get(param.getKey())));
+        }
+        return decoded;
+    }
+
+    /**
+     * @return whether the value was stored with its type
+     */
+    public static boolean isTagged(String value) {
+        return value.startsWith(STRING_VALUE) || value.startsWith(BOOLEAN_VALUE) || value.startsWith(LIST_VALUE);
+    }
+
+    public static String encode(Serializable value) {
+        if (value instanceof Boolean) {
+            return BOOLEAN_VALUE + value;
+        }
+        if (value instanceof Collection) {
+            List<String> values = new ArrayList<>();
+            for (Object item : (Collection<?>) value) {
+                values.add(String.valueOf(item));
+            }
+            return LIST_VALUE + String.join("\n", values);
+        }
+        return STRING_VALUE + value;
+    }
+
+    public static Serializable decode(String value) {
+        if (value.startsWith(BOOLEAN_VALUE)) {
+            return Boolean.valueOf(value.substring(BOOLEAN_VALUE.length()));
+        }
+        if (value.startsWith(LIST_VALUE)) {
+            String content = value.substring(LIST_VALUE.length());
+            return content.isEmpty() ? new ArrayList<String>() : new ArrayList<>(Arrays.asList(content.split("\n")));
+        }
+        if (value.startsWith(STRING_VALUE)) {
+            return value.substring(STRING_VALUE.length());
+        }
+        return value;
+    }
+
+    private static Serializable decodeUntagged(String value, Class<?> type) {
+        if (type == Boolean.class) {
+            return Boolean.valueOf(value.trim());
+        }
+        if (type == Integer.class) {
+            return Integer.valueOf(value.trim());
+        }
+        if (type == Long.class) {
+            return Long.valueOf(value.trim());
+        }
+        if (type == List.class) {
+            return new ArrayList<>(RecipientRegistry.splitList(value));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,183 @@
+package io.github.nwforrer.actions;
+
+import io.github.nwforrer.batch.BulkEncryptionRangeWorker;
+import io.github.nwforrer.batch.FolderWorkProvider;
+import io.github.nwforrer.batch.QueryWorkProvider;
+import io.github.nwforrer.model.EncryptionModel;
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.action.ParameterDefinitionImpl;
+import org.alfresco.repo.action.executer.ActionExecuterAbstractBase;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.action.ParameterDefinition;
+import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.LogFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encrypts or decrypts every file beneath the actioned folder, or every node matching a query, using a pool of worker
+ * threads that commit their work in transaction batches.
+ * <p>
+ * With `distributed=true` the work is shared with the other members of the cluster instead, through the
+ * {@link BulkEncryptionRangeWorker}, and the action returns the id of the job as soon as it is submitted. Its progress
+ * is shown over JMX by the `io.github.nwforrer.encryption:type=WorkCoordinator` bean.
+ */
+public class BulkFileEncryptionAction extends ActionExecuterAbstractBase implements ApplicationEventPublisherAware {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkFileEncryptionAction.class);
+
+    public static final String PARAM_OPERATION = "operation";
+    public static final String PARAM_QUERY = "query";
+    public static final String PARAM_DISTRIBUTED = "distributed";
+
+    public static final String OPERATION_ENCRYPT = "encrypt";
+    public static final String OPERATION_DECRYPT = "decrypt";
+
+    private final ServiceRegistry serviceRegistry;
+
+    private ApplicationEventPublisher applicationEventPublisher;
+    private BulkEncryptionRangeWorker rangeWorker;
+    private int workerThreads;
+    private int batchSize;
+    private int pageSize;
+    private int loggingInterval;
+
+    public BulkFileEncryptionAction(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @Override
+    protected void executeImpl(Action action, NodeRef nodeRef) {
+        String operation = (String) action.getParameterValue(PARAM_OPERATION);
+        String query = (String) action.getParameterValue(PARAM_QUERY);
+
+        final String actionName;
+        final boolean encrypt;
+        if (OPERATION_ENCRYPT.equals(operation)) {
+            actionName = EncryptFileAction.NAME;
+            encrypt = true;
+        } else if (OPERATION_DECRYPT.equals(operation)) {
+            actionName = DecryptFileAction.NAME;
+            encrypt = false;
+        } else {
+            throw new AlfrescoRuntimeException("Unknown bulk encryption operation: " + operation);
+        }
+
+        // everything except the bulk parameters is passed through to the single file action
+        final Map<String, Serializable> fileActionParams = new HashMap<>(action.getParameterValues());
+        fileActionParams.remove(PARAM_OPERATION);
+        fileActionParams.remove(PARAM_QUERY);
+        fileActionParams.remove(PARAM_DISTRIBUTED);
+
+        final String runAsUser = AuthenticationUtil.getRunAsUser();
+
+        if (Boolean.TRUE.equals(action.getParameterValue(PARAM_DISTRIBUTED))) {
+            String distributedQuery = StringUtils.isEmpty(query) ? "ANCESTOR:\"" + nodeRef + "\" AND TYPE:\"cm:content\"" : query;
+            String jobId = rangeWorker.submit(distributedQuery, actionName, encrypt, fileActionParams, runAsUser);
+            LOGGER.info("Shared bulk {} action on query {} with the cluster as job {}.", operation, distributedQuery, jobId);
+            action.setParameterValue(PARAM_RESULT, jobId == null ? "nothing to " + operation : "job " + jobId);
+            return;
+        }
+
+        BatchProcessWorkProvider<NodeRef> workProvider;
+        if (StringUtils.isEmpty(query)) {
+            LOGGER.info("Executing bulk {} action on folder {}.", operation, nodeRef);
+            workProvider = new FolderWorkProvider(serviceRegistry.getFileFolderService(), serviceRegistry.getRetryingTransactionHelper(), nodeRef, pageSize);
+        } else {
+            LOGGER.info("Executing bulk {} action on query {}.", operation, query);
+            workProvider = new QueryWorkProvider(serviceRegistry.getSearchService(), serviceRegistry.getRetryingTransactionHelper(), query, pageSize);
+        }
+
+        final Map<NodeRef, String> failures = new ConcurrentHashMap<>();
+
+        BatchProcessor<NodeRef> batchProcessor = new BatchProcessor<>(
+                "BulkFileEncryption-" + operation,
+                serviceRegistry.getRetryingTransactionHelper(),
+                workProvider,
+                workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors(),
+                batchSize,
+                applicationEventPublisher,
+                LogFactory.getLog(BulkFileEncryptionAction.class),
+                loggingInterval);
+
+        batchProcessor.process(new BatchProcessor.BatchProcessWorkerAdaptor<NodeRef>() {
+            @Override
+            public void process(final NodeRef entry) {
+                // runAs restores whatever context the thread had, which is the caller's own when the batch runs on it
+                AuthenticationUtil.runAs(() -> {
+                    if (serviceRegistry.getNodeService().hasAspect(entry, EncryptionModel.ASPECT_ENCRYPTED) == encrypt) {
+                        return null;
+                    }
+
+                    try {
+                        Action fileAction = serviceRegistry.getActionService().createAction(actionName, fileActionParams);
+                        serviceRegistry.getActionService().executeAction(fileAction, entry, false, false);
+                        failures.remove(entry);
+                    } catch (RuntimeException e) {
+                        failures.put(entry, e.getMessage() == null ? e.getClass().getName() : e.getMessage());
+                        throw e;
+                    }
+                    return null;
+                }, runAsUser);
+            }
+        }, true);
+
+        for (Map.Entry<NodeRef, String> failure : failures.entrySet()) {
+            LOGGER.warn("Bulk {} failed for node {}: {}", operation, failure.getKey(), failure.getValue());
+        }
+        LOGGER.info("Bulk {} action finished: {} processed, {} failed.", operation, batchProcessor.getSuccessfullyProcessedEntries(), failures.size());
+
+        action.setParameterValue(PARAM_RESULT, batchProcessor.getSuccessfullyProcessedEntries() + " processed, " + failures.size() + " failed");
+    }
+
+    @Override
+    protected void addParameterDefinitions(List<ParameterDefinition> paramList) {
+        paramList.add(new ParameterDefinitionImpl(PARAM_OPERATION, DataTypeDefinition.TEXT, true, "Operation"));
+        paramList.add(new ParameterDefinitionImpl(PARAM_QUERY, DataTypeDefinition.TEXT, false, "Query"));
+        paramList.add(new ParameterDefinitionImpl(PARAM_DISTRIBUTED, DataTypeDefinition.BOOLEAN, false, "Share with Cluster"));
+        paramList.add(new ParameterDefinitionImpl(EncryptFileAction.PARAM_PUBLIC_KEY_PATH, DataTypeDefinition.TEXT, false, "Public Key Path"));
+        paramList.add(new ParameterDefinitionImpl(EncryptFileAction.PARAM_ENCRYPTION_PROFILE, DataTypeDefinition.TEXT, false, "Encryption Profile"));
+        paramList.add(new ParameterDefinitionImpl(EncryptFileAction.PARAM_ARMOR, DataTypeDefinition.BOOLEAN, false, "ASCII Armor"));
+        paramList.add(new ParameterDefinitionImpl(EncryptFileAction.PARAM_ASYNC, DataTypeDefinition.BOOLEAN, false, "Encrypt in Background"));
+        paramList.add(new ParameterDefinitionImpl(EncryptFileAction.PARAM_RECIPIENT_KEY_PATHS, DataTypeDefinition.TEXT, false, "Additional Recipient Key Paths", true));
+        paramList.add(new ParameterDefinitionImpl(EncryptFileAction.PARAM_SIGN, DataTypeDefinition.BOOLEAN, false, "Sign"));
+    }
+
+    @Override
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher) {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+
+    public void setRangeWorker(BulkEncryptionRangeWorker rangeWorker) {
+        this.rangeWorker = rangeWorker;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setLoggingInterval(int loggingInterval) {
+        this.loggingInterval = loggingInterval;
+    }
+}
@@ -0,0 +1,130 @@
+package io.github.nwforrer.actions;
+
+import io.github.nwforrer.content.ContentStreams;
+import io.github.nwforrer.encryption.EncryptionFormat;
+import io.github.nwforrer.encryption.EncryptionMetrics;
+import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import io.github.nwforrer.encryption.KeyRingCache;
+import io.github.nwforrer.encryption.PrivateKeyProvider;
+import io.github.nwforrer.encryption.RecipientRegistry;
+import io.github.nwforrer.encryption.SegmentedEncryption;
+import io.github.nwforrer.encryption.TimedOutputStream;
+import io.github.nwforrer.model.EncryptionModel;
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.action.ParameterDefinitionImpl;
+import org.alfresco.repo.action.executer.ActionExecuterAbstractBase;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.action.ParameterDefinition;
+import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Adds or revokes recipients of encrypted content by rewriting only the session key packets at the head of the
+ * message, so the cost does not depend on the size of the file. Recipients are given as public key files, and every key
+ * ring in a file is added or revoked.
+ * <p>
+ * The previous content is left in the content store until it is cleaned up, and revoked recipients who already hold the
+ * session key or a copy of the content can still decrypt it. Content encrypted with a data key has no recipients of its
+ * own and is rejected.
+ */
+public class ChangeRecipientsAction extends ActionExecuterAbstractBase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeRecipientsAction.class);
+
+    public static final String NAME = "change-recipients-action";
+
+    public static final String PARAM_ADD_KEY_PATHS = "add_key_paths";
+    public static final String PARAM_REVOKE_KEY_PATHS = "revoke_key_paths";
+
+    private final ServiceRegistry serviceRegistry;
+    private final GPGEncryptionUtil gpgEncryptionUtil;
+    private final KeyRingCache keyRingCache;
+    private final SegmentedEncryption segmentedEncryption;
+
+    private EncryptionMetrics metrics = new EncryptionMetrics();
+    private String privateKeyPath;
+    private String privateKeyPassword;
+
+    public ChangeRecipientsAction(ServiceRegistry serviceRegistry, GPGEncryptionUtil gpgEncryptionUtil, KeyRingCache keyRingCache,
+                                  SegmentedEncryption segmentedEncryption) {
+        this.serviceRegistry = serviceRegistry;
+        this.gpgEncryptionUtil = gpgEncryptionUtil;
+        this.keyRingCache = keyRingCache;
+        this.segmentedEncryption = segmentedEncryption;
+    }
+
+    @Override
+    protected void executeImpl(Action action, NodeRef nodeRef) {
+        LOGGER.info("Executing change recipients action.");
+
+        if (!serviceRegistry.getNodeService().hasAspect(nodeRef, EncryptionModel.ASPECT_ENCRYPTED)) {
+            throw new AlfrescoRuntimeException("Node " + nodeRef + " is not encrypted");
+        }
+
+        ContentReader reader = serviceRegistry.getContentService().getReader(nodeRef, ContentModel.PROP_CONTENT);
+        ContentWriter writer = serviceRegistry.getContentService().getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
+
+        EncryptionFormat format = EncryptionFormat.fromValue(
+                (String) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_FORMAT));
+
+        try (InputStream nodeContent = ContentStreams.openInputStream(reader, gpgEncryptionUtil.getChannelStreams());
+             OutputStream out = new TimedOutputStream(ContentStreams.openOutputStream(writer, gpgEncryptionUtil.getChannelStreams()),
+                     metrics, EncryptionMetrics.CONTENT_WRITE)) {
+            List<PGPPublicKey> added = new ArrayList<>();
+            for (String path : RecipientRegistry.splitList(action.getParameterValue(PARAM_ADD_KEY_PATHS))) {
+                added.addAll(keyRingCache.getPublicKeys(path));
+            }
+            List<Long> revoked = new ArrayList<>();
+            for (String path : RecipientRegistry.splitList(action.getParameterValue(PARAM_REVOKE_KEY_PATHS))) {
+                for (PGPPublicKey key : keyRingCache.getPublicKeys(path)) {
+                    revoked.add(key.getKeyID());
+                }
+            }
+
+            PrivateKeyProvider privateKeys = added.isEmpty() ? null
+                    : keyRingCache.getPrivateKeyProvider(privateKeyPath, privateKeyPassword.toCharArray());
+            List<Long> recipients = format == EncryptionFormat.SEGMENTED
+                    ? segmentedEncryption.changeRecipients(nodeContent, out, privateKeys, added, revoked)
+                    : gpgEncryptionUtil.changeRecipients(nodeContent, out, privateKeys, added, revoked, format);
+            ArrayList<String> keyIds = new ArrayList<>();
+            for (Long keyID : recipients) {
+                keyIds.add(Long.toHexString(keyID));
+            }
+            serviceRegistry.getNodeService().setProperty(nodeRef, EncryptionModel.PROP_KEY_IDS, keyIds);
+            LOGGER.info("Node {} is now encrypted to {} recipients.", nodeRef, recipients.size());
+        } catch (Exception e) {
+            LOGGER.error("Failed to change recipients.", e);
+            throw new AlfrescoRuntimeException("Failed to change the recipients of the file.", e);
+        }
+    }
+
+    @Override
+    protected void addParameterDefinitions(List<ParameterDefinition> paramList) {
+        paramList.add(new ParameterDefinitionImpl(PARAM_ADD_KEY_PATHS, DataTypeDefinition.TEXT, false, "Recipient Key Paths to Add", true));
+        paramList.add(new ParameterDefinitionImpl(PARAM_REVOKE_KEY_PATHS, DataTypeDefinition.TEXT, false, "Recipient Key Paths to Revoke", true));
+    }
+
+    public void setMetrics(EncryptionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setPrivateKeyPath(String privateKeyPath) {
+        this.privateKeyPath = privateKeyPath;
+    }
+
+    public void setPrivateKeyPassword(String privateKeyPassword) {
+        this.privateKeyPassword = privateKeyPassword;
+    }
+}
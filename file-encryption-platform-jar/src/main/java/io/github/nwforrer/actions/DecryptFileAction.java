@@ -1,52 +1,108 @@
 package io.github.nwforrer.actions;
 
+import io.github.nwforrer.content.ContentStreams;
+import io.github.nwforrer.encryption.DataKeyManager;
+import io.github.nwforrer.encryption.EncryptionFormat;
+import io.github.nwforrer.encryption.EncryptionMetrics;
 import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import io.github.nwforrer.encryption.KeyRingCache;
+import io.github.nwforrer.encryption.PlaintextDigest;
+import io.github.nwforrer.encryption.PrivateKeyProvider;
+import io.github.nwforrer.encryption.RecordedKeyProvider;
+import io.github.nwforrer.encryption.SegmentedEncryption;
+import io.github.nwforrer.encryption.SignaturePolicy;
+import io.github.nwforrer.encryption.SignatureVerification;
+import io.github.nwforrer.encryption.TimedOutputStream;
 import io.github.nwforrer.model.EncryptionModel;
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.model.ContentModel;
+import org.alfresco.repo.action.ParameterDefinitionImpl;
 import org.alfresco.repo.action.executer.ActionExecuterAbstractBase;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.action.Action;
 import org.alfresco.service.cmr.action.ParameterDefinition;
+import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
 import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.apache.commons.lang.StringUtils;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Serializable;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class DecryptFileAction extends ActionExecuterAbstractBase {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DecryptFileAction.class);
 
+    public static final String NAME = "decrypt-file-action";
+
+    public static final String PARAM_VERIFY = "verify";
+
     private final ServiceRegistry serviceRegistry;
     private final GPGEncryptionUtil gpgEncryptionUtil;
+    private final KeyRingCache keyRingCache;
+    private final DataKeyManager dataKeyManager;
+    private final SegmentedEncryption segmentedEncryption;
 
+    private EncryptionMetrics metrics = new EncryptionMetrics();
     private String publicKeyPath;
     private String privateKeyPath;
     private String privateKeyPassword;
+    private String trustedSignerKeyPaths;
+    private SignaturePolicy signaturePolicy = SignaturePolicy.RECORD;
 
-    public DecryptFileAction(ServiceRegistry serviceRegistry, GPGEncryptionUtil gpgEncryptionUtil) {
+    public DecryptFileAction(ServiceRegistry serviceRegistry, GPGEncryptionUtil gpgEncryptionUtil, KeyRingCache keyRingCache,
+                             DataKeyManager dataKeyManager, SegmentedEncryption segmentedEncryption) {
         this.serviceRegistry = serviceRegistry;
         this.gpgEncryptionUtil = gpgEncryptionUtil;
+        this.keyRingCache = keyRingCache;
+        this.dataKeyManager = dataKeyManager;
+        this.segmentedEncryption = segmentedEncryption;
     }
 
     @Override
     protected void executeImpl(Action action, NodeRef nodeRef) {
+        if (Boolean.TRUE.equals(action.getParameterValue(PARAM_VERIFY))) {
+            verify(nodeRef);
+            return;
+        }
+
         LOGGER.info("Executing decrypt file action.");
 
         ContentReader reader = serviceRegistry.getContentService().getReader(nodeRef, ContentModel.PROP_CONTENT);
         ContentWriter writer = serviceRegistry.getContentService().getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
+        Long plaintextSize = (Long) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_PLAINTEXT_SIZE);
+        // the writer is closed after the encrypted aspect is removed, and would otherwise put the encrypted mimetype back
+        String mimetype = (String) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_MIMETYPE);
+        if (mimetype != null) {
+            writer.setMimetype(mimetype);
+        }
 
-        try (InputStream privateKey = new FileInputStream(privateKeyPath);
-             InputStream publicKey = new FileInputStream(publicKeyPath);
-             InputStream nodeContent = reader.getContentInputStream();
-             OutputStream out = writer.getContentOutputStream()) {
-            gpgEncryptionUtil.decryptFile(nodeContent, out, privateKey, publicKey, privateKeyPassword.toCharArray());
+        try (InputStream nodeContent = ContentStreams.openInputStream(reader, gpgEncryptionUtil.getChannelStreams());
+             OutputStream out = new TimedOutputStream(ContentStreams.openOutputStream(writer, gpgEncryptionUtil.getChannelStreams(),
+                     plaintextSize == null ? -1 : plaintextSize),
+                     metrics, EncryptionMetrics.CONTENT_WRITE)) {
+            SignatureVerification verification = decrypt(nodeRef, nodeContent, out);
+
+            // the decrypted content has already been written, throwing rolls the write back along with the transaction
+            if (!signaturePolicy.accepts(verification)) {
+                throw new PGPException("Signature " + verification + " is not accepted by signature policy " + signaturePolicy);
+            }
 
             // strip the .pgp extension if it exists.
             String fileName = (String) serviceRegistry.getNodeService().getProperty(nodeRef, ContentModel.PROP_NAME);
@@ -56,15 +112,113 @@ public class DecryptFileAction extends ActionExecuterAbstractBase {
             }
 
             serviceRegistry.getNodeService().removeAspect(nodeRef, EncryptionModel.ASPECT_ENCRYPTED);
+            if (signaturePolicy != SignaturePolicy.IGNORE) {
+                Map<QName, Serializable> signatureProperties = new HashMap<>();
+                signatureProperties.put(EncryptionModel.PROP_SIGNATURE_STATUS, verification.getStatus().getValue());
+                if (verification.getSignerKeyID() != null) {
+                    signatureProperties.put(EncryptionModel.PROP_VERIFIED_SIGNER_KEY_ID, Long.toHexString(verification.getSignerKeyID()));
+                }
+                signatureProperties.put(EncryptionModel.PROP_SIGNATURE_VERIFIED_AT, new Date());
+                serviceRegistry.getNodeService().addAspect(nodeRef, EncryptionModel.ASPECT_SIGNATURE_VERIFIED, signatureProperties);
+            }
         } catch (Exception e) {
+            metrics.recordFailure(EncryptionMetrics.DECRYPT, e);
             LOGGER.error("Failed to decrypt file.", e);
             throw new AlfrescoRuntimeException("Failed to decrypt the file.", e);
         }
     }
 
+    /**
+     * Decrypt the content in one streaming pass without writing it anywhere, and compare its size and digest with the
+     * ones recorded when it was encrypted. Nothing on the node changes; content that does not match, or whose signature
+     * the signature policy does not accept, fails the action.
+     */
+    private void verify(NodeRef nodeRef) {
+        LOGGER.info("Verifying the encrypted content of node {}.", nodeRef);
+
+        String expectedDigest = (String) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_PLAINTEXT_DIGEST);
+        Long expectedSize = (Long) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_PLAINTEXT_SIZE);
+        ContentReader reader = serviceRegistry.getContentService().getReader(nodeRef, ContentModel.PROP_CONTENT);
+
+        try (InputStream nodeContent = ContentStreams.openInputStream(reader, gpgEncryptionUtil.getChannelStreams())) {
+            if (expectedDigest == null) {
+                throw new IllegalStateException("Node " + nodeRef + " has no recorded digest to verify its content against");
+            }
+            PlaintextDigest plaintext = gpgEncryptionUtil.newPlaintextDigest(null);
+            SignatureVerification verification = decrypt(nodeRef, nodeContent, plaintext);
+            String digest = plaintext.getDigest();
+            if (!expectedDigest.equals(digest) || (expectedSize != null && expectedSize != plaintext.getSize())) {
+                throw new PGPException("Content of node " + nodeRef + " does not match its recorded digest: expected " + expectedDigest
+                        + " of " + expectedSize + " bytes, got " + digest + " of " + plaintext.getSize() + " bytes");
+            }
+            if (!signaturePolicy.accepts(verification)) {
+                throw new PGPException("Signature " + verification + " is not accepted by signature policy " + signaturePolicy);
+            }
+            LOGGER.info("Content of node {} matches its recorded digest {}.", nodeRef, digest);
+        } catch (Exception e) {
+            metrics.recordFailure(EncryptionMetrics.VERIFY, e);
+            LOGGER.error("Failed to verify file.", e);
+            throw new AlfrescoRuntimeException("Failed to verify the file.", e);
+        }
+    }
+
+    /**
+     * Decrypt the content of the node with whichever key and format it was encrypted with.
+     *
+     * @return the result of checking the signature, unsigned for segmented content, which is never signed
+     */
+    @SuppressWarnings("unchecked")
+    private SignatureVerification decrypt(NodeRef nodeRef, InputStream nodeContent, OutputStream out) throws IOException, PGPException, SignatureException {
+        // content encrypted before the format was recorded has no value, and is detected from the content
+        EncryptionFormat format = EncryptionFormat.fromValue(
+                (String) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_FORMAT));
+        String dataKeyId = (String) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_DATA_KEY_ID);
+
+        PrivateKeyProvider privateKeys = new RecordedKeyProvider(
+                keyRingCache.getPrivateKeyProvider(privateKeyPath, privateKeyPassword.toCharArray()),
+                (List<String>) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_KEY_IDS));
+        if (dataKeyId != null) {
+            char[] dataKey = dataKeyManager.getKey(dataKeyId, privateKeys);
+            try {
+                if (format == EncryptionFormat.SEGMENTED) {
+                    segmentedEncryption.decrypt(nodeContent, out, null, dataKey);
+                    return SignatureVerification.UNSIGNED;
+                }
+                return gpgEncryptionUtil.decryptAndVerifyWithDataKey(nodeContent, out, dataKey, getTrustedKeys(), format);
+            } finally {
+                Arrays.fill(dataKey, '\0');
+            }
+        } else if (format == EncryptionFormat.SEGMENTED) {
+            segmentedEncryption.decrypt(nodeContent, out, privateKeys, null);
+            return SignatureVerification.UNSIGNED;
+        }
+        return gpgEncryptionUtil.decryptAndVerify(nodeContent, out, privateKeys, getTrustedKeys(), format);
+    }
+
+    /**
+     * @return every key in the trusted signer key files, or the public key file when none are configured, or no keys
+     * at all when signatures are ignored
+     */
+    private List<PGPPublicKey> getTrustedKeys() throws IOException, PGPException {
+        if (signaturePolicy == SignaturePolicy.IGNORE) {
+            return Collections.emptyList();
+        }
+        List<PGPPublicKey> keys = new ArrayList<>();
+        for (String path : (StringUtils.isEmpty(trustedSignerKeyPaths) ? publicKeyPath : trustedSignerKeyPaths).split(",")) {
+            if (!path.trim().isEmpty()) {
+                keys.addAll(keyRingCache.getVerificationKeys(path.trim()));
+            }
+        }
+        return keys;
+    }
+
     @Override
     protected void addParameterDefinitions(List<ParameterDefinition> list) {
-        // not needed
+        list.add(new ParameterDefinitionImpl(PARAM_VERIFY, DataTypeDefinition.BOOLEAN, false, "Verify Only"));
+    }
+
+    public void setMetrics(EncryptionMetrics metrics) {
+        this.metrics = metrics;
     }
 
     public void setPublicKeyPath(String publicKeyPath) {
@@ -78,5 +232,13 @@ public class DecryptFileAction extends ActionExecuterAbstractBase {
     public void setPrivateKeyPassword(String privateKeyPassword) {
         this.privateKeyPassword = privateKeyPassword;
     }
+
+    public void setTrustedSignerKeyPaths(String trustedSignerKeyPaths) {
+        this.trustedSignerKeyPaths = trustedSignerKeyPaths;
+    }
+
+    public void setSignaturePolicy(String signaturePolicy) {
+        this.signaturePolicy = SignaturePolicy.fromValue(signaturePolicy);
+    }
 }
 
@@ -1,43 +1,106 @@
 package io.github.nwforrer.actions;
 
+import io.github.nwforrer.content.ContentStreams;
+import io.github.nwforrer.encryption.ContentDigests;
+import io.github.nwforrer.encryption.DedupEntry;
+import io.github.nwforrer.encryption.DedupIndex;
+import io.github.nwforrer.encryption.EncryptionProfile;
+import io.github.nwforrer.encryption.EncryptionProfileRegistry;
+import io.github.nwforrer.encryption.DataKey;
+import io.github.nwforrer.encryption.DataKeyManager;
+import io.github.nwforrer.encryption.EncryptionMetrics;
+import io.github.nwforrer.encryption.EncryptionResult;
 import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import io.github.nwforrer.encryption.KeyRingCache;
+import io.github.nwforrer.encryption.RecipientRegistry;
+import io.github.nwforrer.encryption.SegmentedEncryption;
+import io.github.nwforrer.encryption.SigningKey;
+import io.github.nwforrer.encryption.TimedOutputStream;
 import io.github.nwforrer.model.EncryptionModel;
+import io.github.nwforrer.queue.EncryptionQueue;
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.action.ParameterDefinitionImpl;
 import org.alfresco.repo.action.executer.ActionExecuterAbstractBase;
+import org.alfresco.repo.tenant.TenantUtil;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.action.Action;
 import org.alfresco.service.cmr.action.ParameterDefinition;
 import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
+import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
 import org.apache.commons.lang.StringUtils;
 import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class EncryptFileAction extends ActionExecuterAbstractBase {
     private static final Logger LOGGER = LoggerFactory.getLogger(EncryptFileAction.class);
 
+    public static final String NAME = "encrypt-file-action";
+
     public static final String PARAM_PUBLIC_KEY_PATH = "public_key_path";
+    public static final String PARAM_ENCRYPTION_PROFILE = "encryption_profile";
+    public static final String PARAM_ARMOR = "armor";
+    public static final String PARAM_ASYNC = "async";
+    public static final String PARAM_RECIPIENT_KEY_PATHS = "recipient_key_paths";
+    public static final String PARAM_SIGN = "sign";
 
     private final ServiceRegistry serviceRegistry;
     private final GPGEncryptionUtil gpgEncryptionUtil;
+    private final KeyRingCache keyRingCache;
+    private final EncryptionProfileRegistry encryptionProfileRegistry;
+    private final EncryptionQueue encryptionQueue;
+    private final DataKeyManager dataKeyManager;
+    private final RecipientRegistry recipientRegistry;
+    private final SegmentedEncryption segmentedEncryption;
+    private final DedupIndex dedupIndex;
 
+    private EncryptionMetrics metrics = new EncryptionMetrics();
     private String publicKeyPath;
+    private String signingKeyPath;
+    private String signingKeyPassword;
+    private boolean signByDefault;
 
-    public EncryptFileAction(ServiceRegistry serviceRegistry, GPGEncryptionUtil gpgEncryptionUtil) {
+    public EncryptFileAction(ServiceRegistry serviceRegistry, GPGEncryptionUtil gpgEncryptionUtil, KeyRingCache keyRingCache,
+                             EncryptionProfileRegistry encryptionProfileRegistry, EncryptionQueue encryptionQueue,
+                             DataKeyManager dataKeyManager, RecipientRegistry recipientRegistry,
+                             SegmentedEncryption segmentedEncryption, DedupIndex dedupIndex) {
         this.serviceRegistry = serviceRegistry;
         this.gpgEncryptionUtil = gpgEncryptionUtil;
+        this.keyRingCache = keyRingCache;
+        this.encryptionProfileRegistry = encryptionProfileRegistry;
+        this.encryptionQueue = encryptionQueue;
+        this.dataKeyManager = dataKeyManager;
+        this.recipientRegistry = recipientRegistry;
+        this.segmentedEncryption = segmentedEncryption;
+        this.dedupIndex = dedupIndex;
     }
 
     @Override
     protected void executeImpl(Action action, NodeRef nodeRef) {
+        if (Boolean.TRUE.equals(action.getParameterValue(PARAM_ASYNC))) {
+            LOGGER.info("Queueing node {} for encryption.", nodeRef);
+
+            Map<String, Serializable> params = new HashMap<>(action.getParameterValues());
+            params.remove(PARAM_ASYNC);
+            encryptionQueue.enqueue(nodeRef, params);
+            return;
+        }
+
         LOGGER.info("Executing encrypt file action.");
 
         String publicKeyPathParam = (String)action.getParameterValue(PARAM_PUBLIC_KEY_PATH);
@@ -45,32 +108,215 @@ public class EncryptFileAction extends ActionExecuterAbstractBase {
 
         LOGGER.info("Using public key at path: " + encryptionPublicKey);
 
+        String profileParam = (String)action.getParameterValue(PARAM_ENCRYPTION_PROFILE);
+        EncryptionProfile profile = StringUtils.isEmpty(profileParam) ? encryptionProfileRegistry.getDefaultProfile() : encryptionProfileRegistry.getProfile(profileParam);
+
+        Boolean armorParam = (Boolean)action.getParameterValue(PARAM_ARMOR);
+        if (armorParam != null) {
+            profile = profile.withArmored(armorParam);
+        }
+
         ContentReader reader = serviceRegistry.getContentService().getReader(nodeRef, ContentModel.PROP_CONTENT);
-        ContentWriter writer = serviceRegistry.getContentService().getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
 
-        try (InputStream publicKey = new FileInputStream(encryptionPublicKey);
-             InputStream nodeContent = reader.getContentInputStream();
-             OutputStream out = writer.getContentOutputStream()) {
-            gpgEncryptionUtil.encryptFile(nodeContent, out, publicKey);
+        try {
+            List<String> recipientKeyPaths = new ArrayList<>(recipientRegistry.getRecipientKeyPaths(
+                    serviceRegistry.getSiteService().getSiteShortName(nodeRef)));
+            recipientKeyPaths.addAll(RecipientRegistry.splitList(action.getParameterValue(PARAM_RECIPIENT_KEY_PATHS)));
+            if (profile.isEnvelope() && !recipientKeyPaths.isEmpty()) {
+                throw new IllegalArgumentException("Additional recipients cannot be used with envelope profile " + profile.getName());
+            }
 
-            // add a .pgp extension to filename
+            Boolean signParam = (Boolean) action.getParameterValue(PARAM_SIGN);
+            SigningKey signingKey = null;
+            if (signParam == null ? signByDefault : signParam) {
+                if (profile.isSegmented()) {
+                    throw new IllegalArgumentException("Content cannot be signed with segmented profile " + profile.getName());
+                }
+                signingKey = keyRingCache.getSigningKey(signingKeyPath, signingKeyPassword.toCharArray());
+            }
+
+            List<Long> keyIDs = getKeyIDs(profile, encryptionPublicKey, recipientKeyPaths);
+            // signed ciphertext carries the signer, so it is not shared
+            String digest = profile.isDedup() && signingKey == null ? getDigest(reader) : null;
+            String dedupKey = digest == null ? null : ContentDigests.dedupKey(TenantUtil.getCurrentDomain(), profile, keyIDs, digest);
+            DedupEntry existing = dedupKey == null ? null : findCiphertext(dedupKey);
+
+            Map<QName, Serializable> aspectProperties = new HashMap<>();
+            ArrayList<String> keyIds = new ArrayList<>();
+            for (Long keyID : keyIDs) {
+                keyIds.add(Long.toHexString(keyID));
+            }
+            aspectProperties.put(EncryptionModel.PROP_KEY_IDS, keyIds);
+            aspectProperties.put(EncryptionModel.PROP_ENCRYPTED_AT, new Date());
+            // the original mimetype is recorded by EncryptedContentBehaviour as the aspect is added
             String fileName = (String) serviceRegistry.getNodeService().getProperty(nodeRef, ContentModel.PROP_NAME);
-            fileName += ".pgp";
-            serviceRegistry.getNodeService().setProperty(nodeRef, ContentModel.PROP_NAME, fileName);
+            aspectProperties.put(EncryptionModel.PROP_ORIGINAL_NAME, fileName);
+            if (existing != null) {
+                LOGGER.info("Content of node {} was already encrypted, sharing {}", nodeRef, existing.getContentUrl());
+                shareCiphertext(nodeRef, existing);
+                aspectProperties.put(EncryptionModel.PROP_FORMAT, existing.getFormat().getValue());
+                if (existing.getDataKeyId() != null) {
+                    aspectProperties.put(EncryptionModel.PROP_DATA_KEY_ID, existing.getDataKeyId());
+                }
+                aspectProperties.put(EncryptionModel.PROP_CIPHER, existing.getCipher());
+                aspectProperties.put(EncryptionModel.PROP_COMPRESSION, existing.getCompression());
+                aspectProperties.put(EncryptionModel.PROP_PLAINTEXT_SIZE, reader.getSize());
+                aspectProperties.put(EncryptionModel.PROP_PLAINTEXT_DIGEST, digest);
+            } else {
+                ContentWriter writer = serviceRegistry.getContentService().getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
+                EncryptionResult result = encrypt(reader, writer, profile, encryptionPublicKey, recipientKeyPaths, signingKey, aspectProperties);
+                aspectProperties.put(EncryptionModel.PROP_FORMAT, profile.getFormat().getValue());
+                aspectProperties.put(EncryptionModel.PROP_CIPHER, result.getCipher());
+                aspectProperties.put(EncryptionModel.PROP_COMPRESSION, result.getCompression());
+                aspectProperties.put(EncryptionModel.PROP_PLAINTEXT_SIZE, result.getPlaintextSize());
+                aspectProperties.put(EncryptionModel.PROP_PLAINTEXT_DIGEST, result.getPlaintextDigest());
+                if (signingKey != null) {
+                    aspectProperties.put(EncryptionModel.PROP_SIGNER_KEY_ID, Long.toHexString(signingKey.getKeyID()));
+                }
+                if (dedupKey != null) {
+                    dedupIndex.put(dedupKey, new DedupEntry(writer.getContentUrl(), writer.getSize(), profile.getFormat(),
+                            (String) aspectProperties.get(EncryptionModel.PROP_DATA_KEY_ID), result.getCipher(), result.getCompression()));
+                }
+            }
 
-            serviceRegistry.getNodeService().addAspect(nodeRef, EncryptionModel.ASPECT_ENCRYPTED, null);
+            // add a .pgp extension to filename
+            serviceRegistry.getNodeService().setProperty(nodeRef, ContentModel.PROP_NAME, fileName + ".pgp");
+
+            serviceRegistry.getNodeService().addAspect(nodeRef, EncryptionModel.ASPECT_ENCRYPTED, aspectProperties);
         } catch (Exception e) {
+            metrics.recordFailure(EncryptionMetrics.ENCRYPT, e);
             LOGGER.error("Failed to encrypt file.", e);
             throw new AlfrescoRuntimeException("Failed to encrypt file", e);
         }
     }
 
+    /**
+     * Encrypt the content of the reader to the writer, signing it in the same pass if a signing key is given. The id of
+     * the data key is added to the aspect properties when envelope encryption is used.
+     *
+     * @return what the encryption did
+     */
+    private EncryptionResult encrypt(ContentReader reader, ContentWriter writer, EncryptionProfile profile, String encryptionPublicKey,
+                                     List<String> recipientKeyPaths, SigningKey signingKey,
+                                     Map<QName, Serializable> aspectProperties) throws IOException, PGPException {
+        try (InputStream nodeContent = ContentStreams.openInputStream(reader, gpgEncryptionUtil.getChannelStreams());
+             OutputStream out = new TimedOutputStream(ContentStreams.openOutputStream(writer, gpgEncryptionUtil.getChannelStreams(),
+                     reader.getSize()), metrics, EncryptionMetrics.CONTENT_WRITE)) {
+            if (profile.isEnvelope()) {
+                DataKey dataKey = dataKeyManager.getCurrentKey(TenantUtil.getCurrentDomain(), keyRingCache.getPublicKey(encryptionPublicKey));
+                aspectProperties.put(EncryptionModel.PROP_DATA_KEY_ID, dataKey.getId());
+                try {
+                    if (profile.isSegmented()) {
+                        return segmentedEncryption.encryptWithDataKey(nodeContent, out, dataKey.getKey(), profile.getSegmentSize());
+                    } else {
+                        return gpgEncryptionUtil.encryptFileWithDataKey(nodeContent, out, dataKey.getKey(), profile, reader.getMimetype(), signingKey);
+                    }
+                } finally {
+                    Arrays.fill(dataKey.getKey(), '\0');
+                }
+            } else if (profile.isSegmented()) {
+                return segmentedEncryption.encrypt(nodeContent, out, getRecipients(encryptionPublicKey, recipientKeyPaths), profile.getSegmentSize());
+            } else {
+                return gpgEncryptionUtil.encryptFile(nodeContent, out, getRecipients(encryptionPublicKey, recipientKeyPaths), profile, reader.getMimetype(), signingKey);
+            }
+        }
+    }
+
+    /**
+     * The plaintext has to be digested before it is encrypted, to find out whether it needs encrypting at all. That is
+     * an extra read of the content, but digesting is far cheaper than encrypting and storing it again. Without dedup the
+     * digest comes from the encryption itself.
+     */
+    private String getDigest(ContentReader reader) throws IOException {
+        long start = System.nanoTime();
+        String digest;
+        try (InputStream in = ContentStreams.openInputStream(reader.getReader(), gpgEncryptionUtil.getChannelStreams())) {
+            digest = ContentDigests.sha256(in);
+        }
+        metrics.recordStage(EncryptionMetrics.DEDUP_DIGEST, start);
+        return digest;
+    }
+
+    /**
+     * @return ids of the keys the content is encrypted to: the key that wraps the data key for envelope profiles,
+     * otherwise every recipient
+     */
+    private List<Long> getKeyIDs(EncryptionProfile profile, String encryptionPublicKey, List<String> recipientKeyPaths) throws IOException, PGPException {
+        List<Long> keyIDs = new ArrayList<>();
+        if (profile.isEnvelope()) {
+            keyIDs.add(keyRingCache.getPublicKey(encryptionPublicKey).getKeyID());
+        } else {
+            for (PGPPublicKey recipient : getRecipients(encryptionPublicKey, recipientKeyPaths)) {
+                keyIDs.add(recipient.getKeyID());
+            }
+        }
+        return keyIDs;
+    }
+
+    /**
+     * @return the indexed ciphertext for the key, or null if there is none or its content has since been deleted
+     */
+    private DedupEntry findCiphertext(String dedupKey) throws IOException {
+        DedupEntry entry = dedupIndex.get(dedupKey);
+        if (entry != null && !serviceRegistry.getContentService().getRawReader(entry.getContentUrl()).exists()) {
+            LOGGER.info("Dropping dedup entry for {}, the content no longer exists", entry.getContentUrl());
+            dedupIndex.remove(dedupKey);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Point the node's content at existing ciphertext, the same way a copy shares the content of its original.
+     */
+    private void shareCiphertext(NodeRef nodeRef, DedupEntry entry) {
+        ContentData content = (ContentData) serviceRegistry.getNodeService().getProperty(nodeRef, ContentModel.PROP_CONTENT);
+        serviceRegistry.getNodeService().setProperty(nodeRef, ContentModel.PROP_CONTENT, new ContentData(entry.getContentUrl(),
+                content.getMimetype(), entry.getSize(), content.getEncoding(), content.getLocale()));
+    }
+
     @Override
     protected void addParameterDefinitions(List<ParameterDefinition> paramList) {
         paramList.add(new ParameterDefinitionImpl(PARAM_PUBLIC_KEY_PATH, DataTypeDefinition.TEXT, false, "Public Key Path"));
+        paramList.add(new ParameterDefinitionImpl(PARAM_ENCRYPTION_PROFILE, DataTypeDefinition.TEXT, false, "Encryption Profile"));
+        paramList.add(new ParameterDefinitionImpl(PARAM_ARMOR, DataTypeDefinition.BOOLEAN, false, "ASCII Armor"));
+        paramList.add(new ParameterDefinitionImpl(PARAM_ASYNC, DataTypeDefinition.BOOLEAN, false, "Encrypt in Background"));
+        paramList.add(new ParameterDefinitionImpl(PARAM_RECIPIENT_KEY_PATHS, DataTypeDefinition.TEXT, false, "Additional Recipient Key Paths", true));
+        paramList.add(new ParameterDefinitionImpl(PARAM_SIGN, DataTypeDefinition.BOOLEAN, false, "Sign"));
+    }
+
+    /**
+     * @return the public key followed by every key in the recipient key files, without duplicates
+     */
+    private List<PGPPublicKey> getRecipients(String publicKeyPath, List<String> recipientKeyPaths) throws IOException, PGPException {
+        Map<Long, PGPPublicKey> recipients = new LinkedHashMap<>();
+        PGPPublicKey publicKey = keyRingCache.getPublicKey(publicKeyPath);
+        recipients.put(publicKey.getKeyID(), publicKey);
+        for (String path : recipientKeyPaths) {
+            for (PGPPublicKey key : keyRingCache.getPublicKeys(path)) {
+                recipients.put(key.getKeyID(), key);
+            }
+        }
+        return new ArrayList<>(recipients.values());
+    }
+
+    public void setMetrics(EncryptionMetrics metrics) {
+        this.metrics = metrics;
     }
 
     public void setPublicKeyPath(String publicKeyPath) {
         this.publicKeyPath = publicKeyPath;
     }
+
+    public void setSigningKeyPath(String signingKeyPath) {
+        this.signingKeyPath = signingKeyPath;
+    }
+
+    public void setSigningKeyPassword(String signingKeyPassword) {
+        this.signingKeyPassword = signingKeyPassword;
+    }
+
+    public void setSignByDefault(boolean signByDefault) {
+        this.signByDefault = signByDefault;
+    }
 }
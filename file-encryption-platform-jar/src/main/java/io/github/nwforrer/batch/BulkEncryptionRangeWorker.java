@@ -0,0 +1,186 @@
+package io.github.nwforrer.batch;
+
+import io.github.nwforrer.actions.ActionParams;
+import io.github.nwforrer.cluster.RangeProgress;
+import io.github.nwforrer.cluster.RangeWorker;
+import io.github.nwforrer.cluster.WorkCoordinator;
+import io.github.nwforrer.cluster.WorkJob;
+import io.github.nwforrer.model.EncryptionModel;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs bulk encryption and decryption across the cluster through the {@link WorkCoordinator}.
+ * <p>
+ * A job covers the database ids of the nodes matching a query, from the lowest to the highest when it was submitted, so
+ * that ranges of it can be handed to different members and split further while they are worked on. Each chunk is
+ * worked on a page of nodes at a time, in order of database id, and each node in its own transaction. Nodes already in
+ * the requested state are skipped, so a chunk that is worked on again after a member fails does no harm.
+ */
+public class BulkEncryptionRangeWorker implements RangeWorker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkEncryptionRangeWorker.class);
+
+    public static final String TYPE = "bulk-file-encryption";
+
+    private static final String PARAM_QUERY = "query";
+    private static final String PARAM_ACTION_NAME = "actionName";
+    private static final String PARAM_ENCRYPT = "encrypt";
+    private static final String PARAM_RUN_AS = "runAs";
+    // parameters of the single file action, tagged with their type since job parameters are strings
+    private static final String ACTION_PARAM_PREFIX = "action.";
+
+    private final ServiceRegistry serviceRegistry;
+    private final WorkCoordinator coordinator;
+
+    private int pageSize = 500;
+    private int rangesPerJob = 8;
+
+    public BulkEncryptionRangeWorker(ServiceRegistry serviceRegistry, WorkCoordinator coordinator) {
+        this.serviceRegistry = serviceRegistry;
+        this.coordinator = coordinator;
+    }
+
+    public void init() {
+        coordinator.register(TYPE, this);
+    }
+
+    /**
+     * Share a bulk operation with the cluster. Nodes created after it is submitted are left out if their database ids
+     * are higher than any matching node's when it was submitted.
+     *
+     * @param query Query matching the nodes to work on
+     * @param actionName Name of the action run on each node
+     * @param encrypt True when the action encrypts, so that encrypted nodes are skipped, false when it decrypts
+     * @param actionParams Parameters of the action, of type String, Boolean or a list of Strings
+     * @param runAsUser User the action is run as
+     * @return the id of the job, or null if no node matches the query
+     */
+    public String submit(String query, String actionName, boolean encrypt, Map<String, Serializable> actionParams, String runAsUser) {
+        Long min = findDbId(query, true);
+        Long max = findDbId(query, false);
+        if (min == null || max == null) {
+            return null;
+        }
+
+        Map<String, String> params = new HashMap<>();
+        params.put(PARAM_QUERY, query);
+        params.put(PARAM_ACTION_NAME, actionName);
+        params.put(PARAM_ENCRYPT, Boolean.toString(encrypt));
+        params.put(PARAM_RUN_AS, runAsUser);
+        for (Map.Entry<String, Serializable> param : actionParams.entrySet()) {
+            if (param.getValue() != null) {
+                params.put(ACTION_PARAM_PREFIX + param.getKey(), ActionParams.encode(param.getValue()));
+            }
+        }
+        return coordinator.submit(TYPE, params, min, max + 1, rangesPerJob);
+    }
+
+    @Override
+    public RangeProgress process(WorkJob job, long from, long to) {
+        Map<String, String> params = job.getParams();
+        return AuthenticationUtil.runAs(() -> processPage(params, from, to), params.get(PARAM_RUN_AS));
+    }
+
+    private RangeProgress processPage(Map<String, String> params, long from, long to) {
+        RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        boolean encrypt = Boolean.parseBoolean(params.get(PARAM_ENCRYPT));
+        String actionName = params.get(PARAM_ACTION_NAME);
+        Map<String, Serializable> actionParams = new HashMap<>();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (param.getKey().startsWith(ACTION_PARAM_PREFIX)) {
+                actionParams.put(param.getKey().substring(ACTION_PARAM_PREFIX.length()), ActionParams.decode(param.getValue()));
+            }
+        }
+
+        List<NodeRef> nodes = new ArrayList<>();
+        long next = txnHelper.doInTransaction(() -> {
+            SearchParameters sp = new SearchParameters();
+            sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+            sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+            sp.setQuery("(" + params.get(PARAM_QUERY) + ") AND sys:node-dbid:[" + from + " TO " + (to - 1) + "]");
+            sp.addSort("@" + ContentModel.PROP_NODE_DBID, true);
+            sp.setMaxItems(pageSize);
+
+            ResultSet results = serviceRegistry.getSearchService().query(sp);
+            try {
+                nodes.addAll(results.getNodeRefs());
+            } finally {
+                results.close();
+            }
+            if (nodes.size() < pageSize) {
+                return to;
+            }
+            Long last = (Long) serviceRegistry.getNodeService().getProperty(nodes.get(nodes.size() - 1), ContentModel.PROP_NODE_DBID);
+            return last + 1;
+        }, true, true);
+
+        long processed = 0;
+        long failed = 0;
+        for (NodeRef nodeRef : nodes) {
+            try {
+                boolean done = txnHelper.doInTransaction(() -> {
+                    if (!serviceRegistry.getNodeService().exists(nodeRef)
+                            || serviceRegistry.getNodeService().hasAspect(nodeRef, EncryptionModel.ASPECT_ENCRYPTED) == encrypt) {
+                        return false;
+                    }
+                    Action fileAction = serviceRegistry.getActionService().createAction(actionName, actionParams);
+                    serviceRegistry.getActionService().executeAction(fileAction, nodeRef, false, false);
+                    return true;
+                }, false, true);
+                if (done) {
+                    processed++;
+                }
+            } catch (RuntimeException e) {
+                failed++;
+                LOGGER.warn("Bulk {} failed for node {}: {}", actionName, nodeRef, e.getMessage() == null ? e.getClass().getName() : e.getMessage());
+            }
+        }
+        return new RangeProgress(next, processed, failed);
+    }
+
+    private Long findDbId(String query, boolean lowest) {
+        return serviceRegistry.getRetryingTransactionHelper().doInTransaction(() -> {
+            SearchParameters sp = new SearchParameters();
+            sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+            sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+            sp.setQuery(query);
+            sp.addSort("@" + ContentModel.PROP_NODE_DBID, lowest);
+            sp.setMaxItems(1);
+
+            ResultSet results = serviceRegistry.getSearchService().query(sp);
+            try {
+                if (results.length() == 0) {
+                    return null;
+                }
+                return (Long) serviceRegistry.getNodeService().getProperty(results.getNodeRef(0), ContentModel.PROP_NODE_DBID);
+            } finally {
+                results.close();
+            }
+        }, true, false);
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setRangesPerJob(int rangesPerJob) {
+        this.rangesPerJob = rangesPerJob;
+    }
+}
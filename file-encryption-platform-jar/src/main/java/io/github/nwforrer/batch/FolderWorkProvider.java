@@ -0,0 +1,80 @@
+package io.github.nwforrer.batch;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Supplies the files beneath a folder, walking the folder tree one page of children at a time.
+ * <p>
+ * Children are sorted by creation date, which does not change while the files are being processed, so that renaming
+ * files as they are encrypted or decrypted does not shift the pages.
+ */
+public class FolderWorkProvider implements BatchProcessWorkProvider<NodeRef> {
+
+    private static final List<Pair<QName, Boolean>> SORT_PROPS =
+            Collections.singletonList(new Pair<>(ContentModel.PROP_CREATED, true));
+
+    private final FileFolderService fileFolderService;
+    private final RetryingTransactionHelper retryingTransactionHelper;
+    private final int pageSize;
+
+    private final Deque<NodeRef> folders = new ArrayDeque<>();
+    private NodeRef currentFolder;
+    private int skipCount;
+
+    public FolderWorkProvider(FileFolderService fileFolderService, RetryingTransactionHelper retryingTransactionHelper, NodeRef rootFolder, int pageSize) {
+        this.fileFolderService = fileFolderService;
+        this.retryingTransactionHelper = retryingTransactionHelper;
+        this.pageSize = pageSize;
+        this.folders.push(rootFolder);
+    }
+
+    @Override
+    public int getTotalEstimatedWorkSize() {
+        // the size of the tree is not known until it has been walked
+        return -1;
+    }
+
+    @Override
+    public Collection<NodeRef> getNextWork() {
+        return retryingTransactionHelper.doInTransaction(() -> {
+            List<NodeRef> work = new ArrayList<>(pageSize);
+            while (work.isEmpty() && (currentFolder != null || !folders.isEmpty())) {
+                if (currentFolder == null) {
+                    currentFolder = folders.pop();
+                    skipCount = 0;
+                }
+
+                PagingResults<FileInfo> page = fileFolderService.list(currentFolder, true, true, null, SORT_PROPS, new PagingRequest(skipCount, pageSize));
+                for (FileInfo child : page.getPage()) {
+                    if (child.isFolder()) {
+                        folders.push(child.getNodeRef());
+                    } else {
+                        work.add(child.getNodeRef());
+                    }
+                }
+
+                skipCount += page.getPage().size();
+                if (!page.hasMoreItems()) {
+                    currentFolder = null;
+                }
+            }
+            return work;
+        }, true, true);
+    }
+}
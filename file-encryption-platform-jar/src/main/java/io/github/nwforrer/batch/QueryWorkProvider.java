@@ -0,0 +1,71 @@
+package io.github.nwforrer.batch;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Supplies the nodes matching a search query, one page of results at a time.
+ * <p>
+ * Pages are requested by skip count, so the query should not filter on anything the batch itself changes (such as
+ * the encrypted aspect); the workers skip nodes that are already in the requested state instead.
+ */
+public class QueryWorkProvider implements BatchProcessWorkProvider<NodeRef> {
+
+    private final SearchService searchService;
+    private final RetryingTransactionHelper retryingTransactionHelper;
+    private final String query;
+    private final int pageSize;
+
+    private int skipCount;
+    private boolean done;
+    private int estimatedSize = -1;
+
+    public QueryWorkProvider(SearchService searchService, RetryingTransactionHelper retryingTransactionHelper, String query, int pageSize) {
+        this.searchService = searchService;
+        this.retryingTransactionHelper = retryingTransactionHelper;
+        this.query = query;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public int getTotalEstimatedWorkSize() {
+        return estimatedSize;
+    }
+
+    @Override
+    public Collection<NodeRef> getNextWork() {
+        if (done) {
+            return Collections.emptyList();
+        }
+
+        return retryingTransactionHelper.doInTransaction(() -> {
+            SearchParameters sp = new SearchParameters();
+            sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+            sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+            sp.setQuery(query);
+            sp.addSort("@" + ContentModel.PROP_CREATED, true);
+            sp.setSkipCount(skipCount);
+            sp.setMaxItems(pageSize);
+
+            ResultSet results = searchService.query(sp);
+            try {
+                Collection<NodeRef> work = results.getNodeRefs();
+                estimatedSize = (int) Math.min(Integer.MAX_VALUE, results.getNumberFound());
+                skipCount += work.size();
+                done = work.isEmpty() || !results.hasMore();
+                return work;
+            } finally {
+                results.close();
+            }
+        }, true, true);
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.nwforrer.behaviour;
+
+import io.github.nwforrer.model.EncryptionModel;
+import org.alfresco.model.ContentModel;
+import org.alfresco.model.RenditionModel;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps encrypted content away from the parts of the repository that would read it as if it were plaintext.
+ * <p>
+ * When a node is encrypted its renditions, which were made from the plaintext, are deleted, and further renditions are
+ * prevented with `rn:preventRenditions`. Content indexing is switched off with `cm:indexControl`, and the content
+ * mimetype is set to `application/pgp-encrypted`, so that metadata extractors and transformers do not match it. The
+ * original mimetype is kept in `encryption:mimetype`. When the node is decrypted the mimetype is restored and the
+ * aspects this behaviour added are removed again; aspects the node already had are left alone.
+ */
+public class EncryptedContentBehaviour implements NodeServicePolicies.OnAddAspectPolicy, NodeServicePolicies.BeforeRemoveAspectPolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EncryptedContentBehaviour.class);
+
+    private final PolicyComponent policyComponent;
+    private final ServiceRegistry serviceRegistry;
+
+    public EncryptedContentBehaviour(PolicyComponent policyComponent, ServiceRegistry serviceRegistry) {
+        this.policyComponent = policyComponent;
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void init() {
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnAddAspectPolicy.QNAME, EncryptionModel.ASPECT_ENCRYPTED,
+                new JavaBehaviour(this, "onAddAspect", NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeRemoveAspectPolicy.QNAME, EncryptionModel.ASPECT_ENCRYPTED,
+                new JavaBehaviour(this, "beforeRemoveAspect", NotificationFrequency.EVERY_EVENT));
+    }
+
+    @Override
+    public void onAddAspect(NodeRef nodeRef, QName aspectTypeQName) {
+        NodeService nodeService = serviceRegistry.getNodeService();
+        if (!nodeService.exists(nodeRef)) {
+            return;
+        }
+
+        for (ChildAssociationRef rendition : serviceRegistry.getRenditionService().getRenditions(nodeRef)) {
+            LOGGER.debug("Deleting rendition {} of encrypted node {}", rendition.getChildRef(), nodeRef);
+            nodeService.deleteNode(rendition.getChildRef());
+        }
+
+        ArrayList<QName> addedAspects = new ArrayList<>();
+        if (!nodeService.hasAspect(nodeRef, RenditionModel.ASPECT_PREVENT_RENDITIONS)) {
+            nodeService.addAspect(nodeRef, RenditionModel.ASPECT_PREVENT_RENDITIONS, null);
+            addedAspects.add(RenditionModel.ASPECT_PREVENT_RENDITIONS);
+        }
+        if (!nodeService.hasAspect(nodeRef, ContentModel.ASPECT_INDEX_CONTROL)) {
+            Map<QName, Serializable> indexControl = new HashMap<>();
+            indexControl.put(ContentModel.PROP_IS_INDEXED, true);
+            indexControl.put(ContentModel.PROP_IS_CONTENT_INDEXED, false);
+            nodeService.addAspect(nodeRef, ContentModel.ASPECT_INDEX_CONTROL, indexControl);
+            addedAspects.add(ContentModel.ASPECT_INDEX_CONTROL);
+        }
+        nodeService.setProperty(nodeRef, EncryptionModel.PROP_ADDED_ASPECTS, addedAspects);
+
+        ContentData content = (ContentData) nodeService.getProperty(nodeRef, ContentModel.PROP_CONTENT);
+        if (content != null && !EncryptionModel.MIMETYPE_ENCRYPTED.equals(content.getMimetype())) {
+            nodeService.setProperty(nodeRef, EncryptionModel.PROP_MIMETYPE, content.getMimetype());
+            nodeService.setProperty(nodeRef, ContentModel.PROP_CONTENT,
+                    ContentData.setMimetype(content, EncryptionModel.MIMETYPE_ENCRYPTED));
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void beforeRemoveAspect(NodeRef nodeRef, QName aspectTypeQName) {
+        NodeService nodeService = serviceRegistry.getNodeService();
+        if (!nodeService.exists(nodeRef)) {
+            return;
+        }
+
+        String mimetype = (String) nodeService.getProperty(nodeRef, EncryptionModel.PROP_MIMETYPE);
+        ContentData content = (ContentData) nodeService.getProperty(nodeRef, ContentModel.PROP_CONTENT);
+        if (mimetype != null && content != null) {
+            nodeService.setProperty(nodeRef, ContentModel.PROP_CONTENT, ContentData.setMimetype(content, mimetype));
+        }
+
+        List<QName> addedAspects = (List<QName>) nodeService.getProperty(nodeRef, EncryptionModel.PROP_ADDED_ASPECTS);
+        for (QName aspect : addedAspects == null ? Collections.<QName>emptyList() : addedAspects) {
+            nodeService.removeAspect(nodeRef, aspect);
+        }
+    }
+}
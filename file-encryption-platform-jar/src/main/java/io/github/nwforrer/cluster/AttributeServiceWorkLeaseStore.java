@@ -0,0 +1,65 @@
+package io.github.nwforrer.cluster;
+
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.lock.JobLockService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Stores the lease table in the repository's attribute table, which every member of the cluster shares.
+ * <p>
+ * The table is one attribute, changed under a cluster-wide job lock so that members never overwrite each other's
+ * changes, and each change is saved in its own transaction. Changes are small and quick, so the lock is only held for a
+ * few milliseconds at a time. Changes that leave the table as it was, such as a member finding no work, are not saved,
+ * and reads take no lock.
+ */
+public class AttributeServiceWorkLeaseStore implements WorkLeaseStore {
+
+    private static final String ATTRIBUTE_KEY = "io.github.nwforrer.encryption.work";
+    private static final QName LOCK = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, "io.github.nwforrer.encryption.work");
+    private static final long LOCK_TIME_TO_LIVE = 30000;
+    private static final long LOCK_RETRY_WAIT = 50;
+    private static final int LOCK_RETRY_COUNT = 200;
+
+    private final ServiceRegistry serviceRegistry;
+
+    public AttributeServiceWorkLeaseStore(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public WorkTable read() {
+        return serviceRegistry.getRetryingTransactionHelper().doInTransaction(() -> WorkTable.fromMap(
+                (Map<String, Serializable>) serviceRegistry.getAttributeService().getAttribute(ATTRIBUTE_KEY)), true, true);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T update(Function<WorkTable, T> change) {
+        JobLockService jobLockService = serviceRegistry.getJobLockService();
+        String lockToken = jobLockService.getLock(LOCK, LOCK_TIME_TO_LIVE, LOCK_RETRY_WAIT, LOCK_RETRY_COUNT);
+        try {
+            return serviceRegistry.getRetryingTransactionHelper().doInTransaction(() -> {
+                AttributeService attributeService = serviceRegistry.getAttributeService();
+                Map<String, Serializable> stored = (Map<String, Serializable>) attributeService.getAttribute(ATTRIBUTE_KEY);
+                WorkTable table = WorkTable.fromMap(stored);
+                T result = change.apply(table);
+                HashMap<String, Serializable> changed = table.toMap();
+                if (!changed.equals(stored == null ? Collections.emptyMap() : stored)) {
+                    attributeService.setAttribute(changed, ATTRIBUTE_KEY);
+                }
+                return result;
+            }, false, true);
+        } finally {
+            jobLockService.releaseLock(lockToken, LOCK);
+        }
+    }
+}
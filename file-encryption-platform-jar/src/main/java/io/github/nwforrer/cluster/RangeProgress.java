@@ -0,0 +1,34 @@
+package io.github.nwforrer.cluster;
+
+/**
+ * How far a {@link RangeWorker} got through a chunk.
+ */
+public class RangeProgress {
+
+    private final long next;
+    private final long processed;
+    private final long failed;
+
+    /**
+     * @param next First position not worked on
+     * @param processed Number of items worked on successfully
+     * @param failed Number of items that failed
+     */
+    public RangeProgress(long next, long processed, long failed) {
+        this.next = next;
+        this.processed = processed;
+        this.failed = failed;
+    }
+
+    public long getNext() {
+        return next;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public long getFailed() {
+        return failed;
+    }
+}
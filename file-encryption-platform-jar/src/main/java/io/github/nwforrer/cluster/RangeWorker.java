@@ -0,0 +1,24 @@
+package io.github.nwforrer.cluster;
+
+/**
+ * Does the work of one type of {@link WorkJob}, a chunk of positions at a time. Every member of the cluster registers
+ * the same workers with its {@link WorkCoordinator}.
+ * <p>
+ * A chunk can be worked on again, by this or another member, if the member working on it fails before the chunk is
+ * recorded as done, so working on an item twice must be harmless.
+ */
+public interface RangeWorker {
+
+    /**
+     * Work on the items of the job from `from` up to but not including `to`, or on as many of them as fit in one go.
+     * Failures of single items should be counted rather than thrown; throwing fails the whole chunk, which is retried
+     * later.
+     *
+     * @param job Job the chunk belongs to
+     * @param from First position of the chunk
+     * @param to End of the chunk
+     * @return how far the worker got, which must be past `from`, and how many items it worked on
+     * @throws Exception thrown when the chunk could not be worked on
+     */
+    RangeProgress process(WorkJob job, long from, long to) throws Exception;
+}
@@ -0,0 +1,463 @@
+package io.github.nwforrer.cluster;
+
+import io.github.nwforrer.encryption.NamedThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares {@link WorkJob jobs} between the members of a cluster, exported over JMX as
+ * `io.github.nwforrer.encryption:type=WorkCoordinator`.
+ * <p>
+ * Every member runs a coordinator over the same {@link WorkLeaseStore}. A job is split into ranges when it is
+ * submitted, and each worker thread of each member leases a range and works through it a chunk at a time, recording
+ * its progress and renewing the lease after every chunk. Leases are also renewed in the background while a chunk is
+ * being worked on, so only a member that has stopped loses them. When a lease runs out, the range is free for any
+ * member to take over from the last chunk recorded as done.
+ * <p>
+ * A thread that finds no free range steals half of the unreserved part of the largest range another member is working
+ * on, so the work keeps being spread over every member until the job is nearly done, however it was split at first. A
+ * chunk that fails is retried after `retryDelay`, by whichever member gets to it, and its range is given up on after
+ * `maxAttempts` failures.
+ */
+public class WorkCoordinator implements WorkCoordinatorMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WorkCoordinator.class);
+
+    private final WorkLeaseStore store;
+    private final String memberId;
+    private final Map<String, RangeWorker> workers = new ConcurrentHashMap<>();
+
+    private int workerThreads = 2;
+    private long leaseDuration = 60000;
+    private long pollInterval = 10000;
+    private long chunkSize = 1000;
+    private int maxAttempts = 3;
+    private long retryDelay = 60000;
+
+    private ExecutorService threads;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+    private final Object idle = new Object();
+    // ranges being worked on by a thread of this member, as jobId/rangeId
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param store Store of the table shared by the cluster
+     * @param memberId Id of this member, unique within the cluster, or empty for the host name and a random suffix
+     */
+    public WorkCoordinator(WorkLeaseStore store, String memberId) {
+        this.store = store;
+        this.memberId = memberId == null || memberId.isEmpty() ? defaultMemberId() : memberId;
+    }
+
+    public synchronized void init() {
+        running = true;
+        threads = Executors.newFixedThreadPool(workerThreads, new NamedThreadFactory("WorkCoordinator-worker-"));
+        for (int i = 0; i < workerThreads; i++) {
+            threads.execute(this::work);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("WorkCoordinator-heartbeat-"));
+        long heartbeat = Math.max(1, leaseDuration / 3);
+        scheduler.scheduleWithFixedDelay(this::renewLeases, heartbeat, heartbeat, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop working, and hand back the ranges this member holds so that other members carry on with them straight
+     * away rather than once the leases run out.
+     */
+    public synchronized void destroy() {
+        halt();
+        try {
+            store.update(table -> {
+                for (WorkJob job : table.getJobs()) {
+                    for (WorkRange range : job.getRanges()) {
+                        if (memberId.equals(range.getOwner())) {
+                            range.setOwner(null);
+                            range.setReservedTo(range.getNext());
+                            range.setExpiresAt(0);
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to hand back the ranges of member " + memberId + ", they are taken over when their leases run out", e);
+        }
+    }
+
+    /**
+     * Stop working without handing back the ranges this member holds, as if it had failed.
+     */
+    synchronized void halt() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (threads != null) {
+            threads.shutdownNow();
+            try {
+                threads.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param type Type of the jobs the worker works on
+     * @param worker Worker of jobs of the type
+     */
+    public void register(String type, RangeWorker worker) {
+        workers.put(type, worker);
+    }
+
+    /**
+     * Share a job with the cluster. Any member with a worker for its type can work on it.
+     *
+     * @param type Type of the job, naming its {@link RangeWorker}
+     * @param params Parameters passed to the worker
+     * @param start First position of the job
+     * @param end End of the job, exclusive
+     * @param ranges Number of ranges to split the job into at first
+     * @return the id of the job
+     */
+    public String submit(String type, Map<String, String> params, long start, long end, int ranges) {
+        if (end <= start) {
+            throw new IllegalArgumentException("Job has no positions to work on: [" + start + ", " + end + ")");
+        }
+        String jobId = UUID.randomUUID().toString();
+        long now = System.currentTimeMillis();
+        store.update(table -> {
+            WorkJob job = new WorkJob(jobId, type, params, now, start, end);
+            long count = Math.max(1, Math.min(ranges, end - start));
+            for (long i = 0; i < count; i++) {
+                job.addRange(start + (end - start) * i / count, start + (end - start) * (i + 1) / count);
+            }
+            table.addJob(job);
+            return null;
+        });
+        LOGGER.info("Submitted {} job {} over [{}, {}) in {} ranges", type, jobId, start, end, ranges);
+        synchronized (idle) {
+            idle.notifyAll();
+        }
+        return jobId;
+    }
+
+    @Override
+    public void cancel(String jobId) {
+        // members working on it find out when they next record their progress
+        boolean cancelled = store.update(table -> {
+            boolean exists = table.getJob(jobId) != null;
+            table.removeJob(jobId);
+            return exists;
+        });
+        if (cancelled) {
+            LOGGER.info("Cancelled job {}", jobId);
+        }
+    }
+
+    @Override
+    public String getMemberId() {
+        return memberId;
+    }
+
+    @Override
+    public int getHeldRangeCount() {
+        return held.size();
+    }
+
+    @Override
+    public Map<String, String> getJobs() {
+        Map<String, String> jobs = new LinkedHashMap<>();
+        for (WorkJob job : store.read().getJobs()) {
+            long owners = job.getRanges().stream().filter(range -> range.getOwner() != null).map(WorkRange::getOwner).distinct().count();
+            jobs.put(job.getId(), job.getType() + ": " + job.getRemaining() + " of " + (job.getEnd() - job.getStart())
+                    + " positions left in " + job.getRanges().size() + " ranges, " + owners + " members working, "
+                    + job.getProcessed() + " processed, " + job.getFailed() + " failed, " + job.getFailedRanges() + " ranges failed");
+        }
+        return jobs;
+    }
+
+    private void work() {
+        while (running && !Thread.currentThread().isInterrupted()) {
+            try {
+                // an empty table is the usual case between jobs, and needs no lock
+                Lease lease = store.read().isEmpty() ? null : store.update(this::acquire);
+                if (lease == null) {
+                    synchronized (idle) {
+                        idle.wait(pollInterval);
+                    }
+                    continue;
+                }
+                held.add(lease.key());
+                try {
+                    workOn(lease);
+                } finally {
+                    held.remove(lease.key());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to lease work, trying again in " + pollInterval + " ms", e);
+                sleep(pollInterval);
+            }
+        }
+    }
+
+    private void workOn(Lease lease) {
+        RangeWorker worker = workers.get(lease.job.getType());
+        while (lease != null && running) {
+            RangeProgress progress;
+            try {
+                progress = worker.process(lease.job, lease.from, lease.to);
+                if (progress.getNext() <= lease.from || progress.getNext() > lease.to) {
+                    throw new IllegalStateException("Worker of " + lease.job.getType() + " jobs got to " + progress.getNext()
+                            + " in chunk [" + lease.from + ", " + lease.to + ")");
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    // shutting down; the chunk is worked on again by whoever takes the range
+                    return;
+                }
+                Lease failed = lease;
+                boolean givenUp = store.update(table -> fail(table, failed, e));
+                if (givenUp) {
+                    LOGGER.error("Giving up on range [" + lease.from + ", " + lease.rangeEnd + ") of job " + lease.job.getId()
+                            + " after " + maxAttempts + " attempts", e);
+                } else {
+                    LOGGER.warn("Failed to work on chunk [" + lease.from + ", " + lease.to + ") of job " + lease.job.getId()
+                            + ", retrying in " + retryDelay + " ms", e);
+                }
+                return;
+            }
+
+            Lease current = lease;
+            Advance advance = store.update(table -> advance(table, current, progress));
+            if (advance.finished != null) {
+                WorkJob job = advance.finished;
+                LOGGER.info("Finished {} job {} in {} ms: {} processed, {} failed, {} ranges failed", job.getType(), job.getId(),
+                        System.currentTimeMillis() - job.getCreatedAt(), job.getProcessed(), job.getFailed(), job.getFailedRanges());
+            } else if (advance.lost) {
+                LOGGER.warn("Lost the lease on range {} of job {}, it was taken over or the job was cancelled", lease.rangeId, lease.job.getId());
+            }
+            lease = advance.next;
+        }
+    }
+
+    /**
+     * Lease a free range, or split one that another member is working on.
+     *
+     * @return the first chunk of the leased range, or null if there is nothing to work on
+     */
+    private Lease acquire(WorkTable table) {
+        long now = System.currentTimeMillis();
+        WorkJob victimJob = null;
+        WorkRange victim = null;
+        for (WorkJob job : table.getJobs()) {
+            if (!workers.containsKey(job.getType())) {
+                continue;
+            }
+            for (WorkRange range : job.getRanges()) {
+                if (held.contains(key(job, range))) {
+                    continue;
+                }
+                if (range.getExpiresAt() <= now) {
+                    return claim(job, range, now);
+                }
+                // ranges waiting to be retried are left alone
+                if (range.getOwner() != null && (victim == null || range.getUnreserved() > victim.getUnreserved())) {
+                    victimJob = job;
+                    victim = range;
+                }
+            }
+        }
+
+        if (victim == null || victim.getUnreserved() < 2 * chunkSize) {
+            return null;
+        }
+        long split = victim.getEnd() - victim.getUnreserved() / 2;
+        WorkRange stolen = victimJob.addRange(split, victim.getEnd());
+        victim.setEnd(split);
+        LOGGER.debug("Took [{}, {}) of job {} from member {}", split, stolen.getEnd(), victimJob.getId(), victim.getOwner());
+        return claim(victimJob, stolen, now);
+    }
+
+    private Lease claim(WorkJob job, WorkRange range, long now) {
+        range.setOwner(memberId);
+        range.setExpiresAt(now + leaseDuration);
+        return reserve(job, range);
+    }
+
+    private Lease reserve(WorkJob job, WorkRange range) {
+        long to = Math.min(range.getNext() + chunkSize, range.getEnd());
+        range.setReservedTo(to);
+        return new Lease(job, range.getId(), range.getNext(), to, range.getEnd());
+    }
+
+    /**
+     * Record the progress of a chunk, and reserve the next chunk of the range.
+     */
+    private Advance advance(WorkTable table, Lease lease, RangeProgress progress) {
+        WorkJob job = table.getJob(lease.job.getId());
+        WorkRange range = job == null ? null : job.getRange(lease.rangeId);
+        if (range == null || !memberId.equals(range.getOwner())) {
+            return new Advance(null, null, true);
+        }
+        job.addProgress(progress.getProcessed(), progress.getFailed());
+        range.setNext(Math.max(range.getNext(), progress.getNext()));
+        range.setAttempts(0);
+        if (range.getNext() >= range.getEnd()) {
+            job.getRanges().remove(range);
+            if (job.getRanges().isEmpty()) {
+                table.removeJob(job.getId());
+                return new Advance(null, job, false);
+            }
+            return new Advance(null, null, false);
+        }
+        range.setExpiresAt(System.currentTimeMillis() + leaseDuration);
+        return new Advance(reserve(job, range), null, false);
+    }
+
+    /**
+     * Hand back a range whose chunk failed, to be retried after a delay.
+     *
+     * @return whether the range has failed too often and was given up on
+     */
+    private boolean fail(WorkTable table, Lease lease, Exception failure) {
+        WorkJob job = table.getJob(lease.job.getId());
+        WorkRange range = job == null ? null : job.getRange(lease.rangeId);
+        if (range == null || !memberId.equals(range.getOwner())) {
+            return false;
+        }
+        range.setOwner(null);
+        range.setReservedTo(range.getNext());
+        range.setAttempts(range.getAttempts() + 1);
+        range.setLastError(failure.getMessage() == null ? failure.getClass().getName() : failure.getMessage());
+        if (range.getAttempts() < maxAttempts) {
+            range.setExpiresAt(System.currentTimeMillis() + retryDelay);
+            return false;
+        }
+        job.getRanges().remove(range);
+        job.addFailedRange();
+        if (job.getRanges().isEmpty()) {
+            table.removeJob(job.getId());
+        }
+        return true;
+    }
+
+    private void renewLeases() {
+        if (held.isEmpty()) {
+            return;
+        }
+        try {
+            store.update(table -> {
+                long expiresAt = System.currentTimeMillis() + leaseDuration;
+                for (WorkJob job : table.getJobs()) {
+                    for (WorkRange range : job.getRanges()) {
+                        if (memberId.equals(range.getOwner()) && held.contains(key(job, range))) {
+                            range.setExpiresAt(expiresAt);
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to renew the leases of member " + memberId, e);
+        }
+    }
+
+    private static String defaultMemberId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "member";
+        }
+        // a restarted member must not pick up the ranges it held before it stopped as if it were still working on them
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static String key(WorkJob job, WorkRange range) {
+        return job.getId() + "/" + range.getId();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setLeaseDuration(long leaseDuration) {
+        this.leaseDuration = leaseDuration;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public void setChunkSize(long chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * A chunk of a range leased by this member.
+     */
+    private static class Lease {
+        private final WorkJob job;
+        private final int rangeId;
+        private final long from;
+        private final long to;
+        private final long rangeEnd;
+
+        Lease(WorkJob job, int rangeId, long from, long to, long rangeEnd) {
+            this.job = job;
+            this.rangeId = rangeId;
+            this.from = from;
+            this.to = to;
+            this.rangeEnd = rangeEnd;
+        }
+
+        String key() {
+            return job.getId() + "/" + rangeId;
+        }
+    }
+
+    private static class Advance {
+        private final Lease next;
+        private final WorkJob finished;
+        private final boolean lost;
+
+        Advance(Lease next, WorkJob finished, boolean lost) {
+            this.next = next;
+            this.finished = finished;
+            this.lost = lost;
+        }
+    }
+}
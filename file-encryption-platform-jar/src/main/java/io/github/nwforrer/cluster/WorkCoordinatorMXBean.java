@@ -0,0 +1,28 @@
+package io.github.nwforrer.cluster;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link WorkCoordinator}.
+ */
+public interface WorkCoordinatorMXBean {
+
+    String getMemberId();
+
+    /**
+     * @return number of ranges this member is working on now
+     */
+    int getHeldRangeCount();
+
+    /**
+     * @return progress of every job shared by the cluster, by job id
+     */
+    Map<String, String> getJobs();
+
+    /**
+     * Drop a job on every member. Chunks already being worked on are finished.
+     *
+     * @param jobId Id of the job
+     */
+    void cancel(String jobId);
+}
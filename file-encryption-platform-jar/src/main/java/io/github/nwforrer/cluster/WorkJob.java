@@ -0,0 +1,168 @@
+package io.github.nwforrer.cluster;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A piece of work shared by the members of the cluster: the positions from `start` up to but not including `end`, such
+ * as a span of node database ids, split into {@link WorkRange ranges}. The job's type names the {@link RangeWorker} that
+ * works on it, and its parameters are passed to that worker.
+ */
+public class WorkJob {
+
+    private static final String ID = "id";
+    private static final String TYPE = "type";
+    private static final String PARAMS = "params";
+    private static final String CREATED_AT = "createdAt";
+    private static final String START = "start";
+    private static final String END = "end";
+    private static final String PROCESSED = "processed";
+    private static final String FAILED = "failed";
+    private static final String FAILED_RANGES = "failedRanges";
+    private static final String NEXT_RANGE_ID = "nextRangeId";
+    private static final String RANGES = "ranges";
+
+    private final String id;
+    private final String type;
+    private final Map<String, String> params;
+    private final long createdAt;
+    private final long start;
+    private final long end;
+    private long processed;
+    private long failed;
+    private int failedRanges;
+    private int nextRangeId;
+    private final List<WorkRange> ranges = new ArrayList<>();
+
+    WorkJob(String id, String type, Map<String, String> params, long createdAt, long start, long end) {
+        this.id = id;
+        this.type = type;
+        this.params = Collections.unmodifiableMap(new LinkedHashMap<>(params));
+        this.createdAt = createdAt;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return number of items worked on successfully, as reported by the workers
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return number of items that failed, as reported by the workers
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return number of ranges given up on after failing too many times
+     */
+    public int getFailedRanges() {
+        return failedRanges;
+    }
+
+    public List<WorkRange> getRanges() {
+        return ranges;
+    }
+
+    WorkRange getRange(int rangeId) {
+        for (WorkRange range : ranges) {
+            if (range.getId() == rangeId) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    WorkRange addRange(long start, long end) {
+        WorkRange range = new WorkRange(nextRangeId++, start, end);
+        ranges.add(range);
+        return range;
+    }
+
+    void addProgress(long processed, long failed) {
+        this.processed += processed;
+        this.failed += failed;
+    }
+
+    void addFailedRange() {
+        failedRanges++;
+    }
+
+    /**
+     * @return number of positions that have not been worked on yet
+     */
+    long getRemaining() {
+        long remaining = 0;
+        for (WorkRange range : ranges) {
+            remaining += range.getEnd() - range.getNext();
+        }
+        return remaining;
+    }
+
+    HashMap<String, Serializable> toMap() {
+        HashMap<String, Serializable> map = new HashMap<>();
+        map.put(ID, id);
+        map.put(TYPE, type);
+        map.put(PARAMS, new HashMap<>(params));
+        map.put(CREATED_AT, createdAt);
+        map.put(START, start);
+        map.put(END, end);
+        map.put(PROCESSED, processed);
+        map.put(FAILED, failed);
+        map.put(FAILED_RANGES, failedRanges);
+        map.put(NEXT_RANGE_ID, nextRangeId);
+        ArrayList<HashMap<String, Serializable>> rangeMaps = new ArrayList<>();
+        for (WorkRange range : ranges) {
+            rangeMaps.add(range.toMap());
+        }
+        map.put(RANGES, rangeMaps);
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    static WorkJob fromMap(Map<String, Serializable> map) {
+        WorkJob job = new WorkJob((String) map.get(ID), (String) map.get(TYPE), (Map<String, String>) map.get(PARAMS),
+                (Long) map.get(CREATED_AT), (Long) map.get(START), (Long) map.get(END));
+        job.processed = (Long) map.get(PROCESSED);
+        job.failed = (Long) map.get(FAILED);
+        job.failedRanges = (Integer) map.get(FAILED_RANGES);
+        job.nextRangeId = (Integer) map.get(NEXT_RANGE_ID);
+        for (Map<String, Serializable> range : (List<Map<String, Serializable>>) map.get(RANGES)) {
+            job.ranges.add(WorkRange.fromMap(range));
+        }
+        return job;
+    }
+}
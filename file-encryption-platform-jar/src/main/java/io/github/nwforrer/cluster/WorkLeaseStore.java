@@ -0,0 +1,26 @@
+package io.github.nwforrer.cluster;
+
+import java.util.function.Function;
+
+/**
+ * Where the members of a cluster keep the {@link WorkTable} they share.
+ */
+public interface WorkLeaseStore {
+
+    /**
+     * Read the table as it is now, without locking it. Changes made to the returned table are not saved.
+     *
+     * @return a copy of the table
+     */
+    WorkTable read();
+
+    /**
+     * Read the table, apply the change to it and save it, with no other change to the table in between on any member of
+     * the cluster. The table is only saved if the change changed it. The change may be applied more than once if saving
+     * has to be retried, so it must not have effects outside the table.
+     *
+     * @param change Change to the table, returning a result for the caller
+     * @return the result of the change
+     */
+    <T> T update(Function<WorkTable, T> change);
+}
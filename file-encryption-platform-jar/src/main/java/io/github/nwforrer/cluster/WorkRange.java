@@ -0,0 +1,158 @@
+package io.github.nwforrer.cluster;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A range of positions of a {@link WorkJob}, from `start` up to but not including `end`, that is worked on by one member
+ * of the cluster at a time.
+ * <p>
+ * The member holding the lease works through the range in chunks: it reserves the chunk from `next` to `reservedTo`,
+ * and moves `next` past the chunk once it is done. A member that takes the range over after the lease expired starts
+ * again from `next`, so a chunk that was being worked on when its member failed is worked on again. `end` can be moved
+ * down by another member splitting the range, but never below `reservedTo`.
+ */
+public class WorkRange {
+
+    private static final String ID = "id";
+    private static final String START = "start";
+    private static final String END = "end";
+    private static final String NEXT = "next";
+    private static final String RESERVED_TO = "reservedTo";
+    private static final String OWNER = "owner";
+    private static final String EXPIRES_AT = "expiresAt";
+    private static final String ATTEMPTS = "attempts";
+    private static final String LAST_ERROR = "lastError";
+
+    private final int id;
+    private final long start;
+    private long end;
+    private long next;
+    private long reservedTo;
+    private String owner;
+    private long expiresAt;
+    private int attempts;
+    private String lastError;
+
+    WorkRange(int id, long start, long end) {
+        this.id = id;
+        this.start = start;
+        this.end = end;
+        this.next = start;
+        this.reservedTo = start;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    void setEnd(long end) {
+        this.end = end;
+    }
+
+    /**
+     * @return the first position that has not been worked on yet
+     */
+    public long getNext() {
+        return next;
+    }
+
+    void setNext(long next) {
+        this.next = next;
+    }
+
+    /**
+     * @return the end of the chunk the owner is working on, which the range cannot be split below
+     */
+    public long getReservedTo() {
+        return reservedTo;
+    }
+
+    void setReservedTo(long reservedTo) {
+        this.reservedTo = reservedTo;
+    }
+
+    /**
+     * @return id of the member holding the lease, or null if nobody does
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * @return time the lease runs out, or before which a failed range is not retried, in milliseconds since the epoch
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    /**
+     * @return number of positions that are neither done nor reserved
+     */
+    long getUnreserved() {
+        return end - Math.max(next, reservedTo);
+    }
+
+    HashMap<String, Serializable> toMap() {
+        HashMap<String, Serializable> map = new HashMap<>();
+        map.put(ID, id);
+        map.put(START, start);
+        map.put(END, end);
+        map.put(NEXT, next);
+        map.put(RESERVED_TO, reservedTo);
+        map.put(OWNER, owner);
+        map.put(EXPIRES_AT, expiresAt);
+        map.put(ATTEMPTS, attempts);
+        map.put(LAST_ERROR, lastError);
+        return map;
+    }
+
+    static WorkRange fromMap(Map<String, Serializable> map) {
+        WorkRange range = new WorkRange((Integer) map.get(ID), (Long) map.get(START), (Long) map.get(END));
+        range.next = (Long) map.get(NEXT);
+        range.reservedTo = (Long) map.get(RESERVED_TO);
+        range.owner = (String) map.get(OWNER);
+        range.expiresAt = (Long) map.get(EXPIRES_AT);
+        range.attempts = (Integer) map.get(ATTEMPTS);
+        range.lastError = (String) map.get(LAST_ERROR);
+        return range;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + next + ", " + end + ")";
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.nwforrer.cluster;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every job shared by the cluster, with its ranges and who holds them: the lease table. It is read, changed and saved
+ * as a whole through a {@link WorkLeaseStore}, and kept as plain maps when stored so that stored values do not depend
+ * on the serialized form of a class.
+ */
+public class WorkTable {
+
+    private final Map<String, WorkJob> jobs = new LinkedHashMap<>();
+
+    /**
+     * @return the jobs, oldest first
+     */
+    public Collection<WorkJob> getJobs() {
+        List<WorkJob> sorted = new ArrayList<>(jobs.values());
+        sorted.sort(Comparator.comparingLong(WorkJob::getCreatedAt));
+        return sorted;
+    }
+
+    public WorkJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    void addJob(WorkJob job) {
+        jobs.put(job.getId(), job);
+    }
+
+    void removeJob(String jobId) {
+        jobs.remove(jobId);
+    }
+
+    public boolean isEmpty() {
+        return jobs.isEmpty();
+    }
+
+    /**
+     * @return the table as plain maps and lists, keyed by job id
+     */
+    public HashMap<String, Serializable> toMap() {
+        HashMap<String, Serializable> map = new HashMap<>();
+        for (WorkJob job : jobs.values()) {
+            map.put(job.getId(), job.toMap());
+        }
+        return map;
+    }
+
+    /**
+     * @param map Table saved by {@link #toMap()}, or null for an empty table
+     * @return the table
+     */
+    @SuppressWarnings("unchecked")
+    public static WorkTable fromMap(Map<String, Serializable> map) {
+        WorkTable table = new WorkTable();
+        if (map != null) {
+            for (Serializable job : map.values()) {
+                table.addJob(WorkJob.fromMap((Map<String, Serializable>) job));
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.nwforrer.content;
+
+import io.github.nwforrer.encryption.DedupEntry;
+import io.github.nwforrer.encryption.DedupIndex;
+import io.github.nwforrer.encryption.EncryptionFormat;
+import org.alfresco.service.ServiceRegistry;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores the dedup index in the repository's attribute table.
+ * <p>
+ * Entries are written in the caller's transaction, so an entry is rolled back along with the node that first stored
+ * the ciphertext. Entries are kept as plain maps so that stored values do not depend on the serialized form of a class.
+ */
+public class AttributeServiceDedupIndex implements DedupIndex {
+
+    private static final String ATTRIBUTE_KEY = "io.github.nwforrer.encryption.dedup";
+
+    private static final String CONTENT_URL = "contentUrl";
+    private static final String SIZE = "size";
+    private static final String FORMAT = "format";
+    private static final String DATA_KEY_ID = "dataKeyId";
+    private static final String CIPHER = "cipher";
+    private static final String COMPRESSION = "compression";
+
+    private final ServiceRegistry serviceRegistry;
+
+    public AttributeServiceDedupIndex(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public DedupEntry get(String key) {
+        Map<String, Serializable> value = (Map<String, Serializable>) serviceRegistry.getAttributeService().getAttribute(ATTRIBUTE_KEY, key);
+        if (value == null) {
+            return null;
+        }
+        return new DedupEntry((String) value.get(CONTENT_URL), (Long) value.get(SIZE),
+                EncryptionFormat.fromValue((String) value.get(FORMAT)), (String) value.get(DATA_KEY_ID),
+                (String) value.get(CIPHER), (String) value.get(COMPRESSION));
+    }
+
+    @Override
+    public void put(String key, DedupEntry entry) {
+        HashMap<String, Serializable> value = new HashMap<>();
+        value.put(CONTENT_URL, entry.getContentUrl());
+        value.put(SIZE, entry.getSize());
+        value.put(FORMAT, entry.getFormat().getValue());
+        value.put(DATA_KEY_ID, entry.getDataKeyId());
+        value.put(CIPHER, entry.getCipher());
+        value.put(COMPRESSION, entry.getCompression());
+        serviceRegistry.getAttributeService().setAttribute(value, ATTRIBUTE_KEY, key);
+    }
+
+    @Override
+    public void remove(String key) {
+        serviceRegistry.getAttributeService().removeAttribute(ATTRIBUTE_KEY, key);
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.nwforrer.content;
+
+import io.github.nwforrer.encryption.ChannelStreams;
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.repo.content.filestore.FileContentWriter;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Opens content for the encryption actions. Content in a file content store is read and written through its file
+ * channel in large chunks; other stores are read and written through their own streams.
+ */
+public final class ContentStreams {
+
+    private ContentStreams() {
+    }
+
+    /**
+     * @param reader Reader of the content
+     * @param channelStreams Chunk settings used when the content is on local disk; the read buffer is sized to the file
+     * @return stream over the content
+     */
+    public static InputStream openInputStream(ContentReader reader, ChannelStreams channelStreams) {
+        if (!(reader instanceof FileContentReader)) {
+            return reader.getContentInputStream();
+        }
+        try {
+            return channelStreams.newInputStream(reader.getFileChannel(), reader.getSize());
+        } catch (IOException e) {
+            throw new ContentIOException("Failed to open file channel of content: " + reader, e);
+        }
+    }
+
+    /**
+     * @param writer Writer of the content; the content is committed when the stream is closed
+     * @param channelStreams Chunk settings used when the content is on local disk
+     * @return stream to the content
+     */
+    public static OutputStream openOutputStream(ContentWriter writer, ChannelStreams channelStreams) {
+        return openOutputStream(writer, channelStreams, -1);
+    }
+
+    /**
+     * @param writer Writer of the content; the content is committed when the stream is closed
+     * @param channelStreams Chunk settings used when the content is on local disk
+     * @param expectedSize Bytes expected to be written, or a negative value if unknown, used to size the write buffer
+     * @return stream to the content
+     */
+    public static OutputStream openOutputStream(ContentWriter writer, ChannelStreams channelStreams, long expectedSize) {
+        if (!(writer instanceof FileContentWriter)) {
+            return writer.getContentOutputStream();
+        }
+        return channelStreams.newOutputStream(writer.getWritableChannel(), expectedSize);
+    }
+}
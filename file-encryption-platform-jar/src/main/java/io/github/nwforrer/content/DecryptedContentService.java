@@ -0,0 +1,97 @@
+package io.github.nwforrer.content;
+
+import io.github.nwforrer.encryption.DataKeyManager;
+import io.github.nwforrer.encryption.EncryptionFormat;
+import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import io.github.nwforrer.encryption.KeyRingCache;
+import io.github.nwforrer.encryption.PrivateKeyProvider;
+import io.github.nwforrer.encryption.RecordedKeyProvider;
+import io.github.nwforrer.encryption.SegmentedEncryption;
+import io.github.nwforrer.model.EncryptionModel;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.bouncycastle.openpgp.PGPException;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Gives read access to the plaintext of encrypted nodes without decrypting them in place.
+ * <p>
+ * Readers come from the public content service, so the caller must have read permission on the node. The reader of an
+ * encrypted node reports the mimetype the content had before it was encrypted.
+ */
+public class DecryptedContentService {
+
+    private final ServiceRegistry serviceRegistry;
+    private final GPGEncryptionUtil gpgEncryptionUtil;
+    private final KeyRingCache keyRingCache;
+    private final DataKeyManager dataKeyManager;
+    private final SegmentedEncryption segmentedEncryption;
+
+    private String privateKeyPath;
+    private String privateKeyPassword;
+
+    public DecryptedContentService(ServiceRegistry serviceRegistry, GPGEncryptionUtil gpgEncryptionUtil, KeyRingCache keyRingCache,
+                                   DataKeyManager dataKeyManager, SegmentedEncryption segmentedEncryption) {
+        this.serviceRegistry = serviceRegistry;
+        this.gpgEncryptionUtil = gpgEncryptionUtil;
+        this.keyRingCache = keyRingCache;
+        this.dataKeyManager = dataKeyManager;
+        this.segmentedEncryption = segmentedEncryption;
+    }
+
+    /**
+     * Get a reader for the content of a node. If the node is encrypted, the reader decrypts the content as it is read.
+     *
+     * @param nodeRef Node to read
+     * @param propertyQName Content property to read
+     * @return reader for the plaintext content, or null if the node has no content
+     */
+    @SuppressWarnings("unchecked")
+    public ContentReader getReader(NodeRef nodeRef, QName propertyQName) {
+        ContentReader reader = serviceRegistry.getContentService().getReader(nodeRef, propertyQName);
+        if (reader == null || !serviceRegistry.getNodeService().hasAspect(nodeRef, EncryptionModel.ASPECT_ENCRYPTED)) {
+            return reader;
+        }
+
+        EncryptionFormat format = EncryptionFormat.fromValue(
+                (String) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_FORMAT));
+        PrivateKeyProvider privateKeys = new RecordedKeyProvider(
+                keyRingCache.getPrivateKeyProvider(privateKeyPath, privateKeyPassword.toCharArray()),
+                (List<String>) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_KEY_IDS));
+        String dataKeyId = (String) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_DATA_KEY_ID);
+        DecryptingContentReader decryptingReader;
+        if (dataKeyId == null) {
+            decryptingReader = new DecryptingContentReader(reader, gpgEncryptionUtil, segmentedEncryption, privateKeys, format);
+        } else {
+            try {
+                decryptingReader = new DecryptingContentReader(reader, gpgEncryptionUtil, segmentedEncryption, null,
+                        dataKeyManager.getKey(dataKeyId, privateKeys), format);
+            } catch (IOException | PGPException e) {
+                throw new ContentIOException("Failed to unwrap data key " + dataKeyId + " for node " + nodeRef, e);
+            }
+        }
+
+        String mimetype = (String) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_MIMETYPE);
+        if (mimetype != null) {
+            decryptingReader.setMimetype(mimetype);
+        }
+        Long plaintextSize = (Long) serviceRegistry.getNodeService().getProperty(nodeRef, EncryptionModel.PROP_PLAINTEXT_SIZE);
+        if (plaintextSize != null) {
+            decryptingReader.setPlaintextSize(plaintextSize);
+        }
+        return decryptingReader;
+    }
+
+    public void setPrivateKeyPath(String privateKeyPath) {
+        this.privateKeyPath = privateKeyPath;
+    }
+
+    public void setPrivateKeyPassword(String privateKeyPassword) {
+        this.privateKeyPassword = privateKeyPassword;
+    }
+}
@@ -0,0 +1,156 @@
+package io.github.nwforrer.content;
+
+import io.github.nwforrer.encryption.EncryptionFormat;
+import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import io.github.nwforrer.encryption.PrivateKeyProvider;
+import io.github.nwforrer.encryption.SegmentedEncryption;
+import org.alfresco.repo.content.AbstractContentReader;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.bouncycastle.openpgp.PGPException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reader over encrypted content that decrypts the content as it is read. Nothing is written back to the content store.
+ * <p>
+ * OpenPGP messages cannot seek, so ranged reads skip by decrypting and discarding the content before the range. Content
+ * in the segmented format seeks straight to the segment holding the start of the range.
+ */
+public class DecryptingContentReader extends AbstractContentReader {
+
+    private final ContentReader encryptedReader;
+    private final GPGEncryptionUtil gpgEncryptionUtil;
+    private final SegmentedEncryption segmentedEncryption;
+    private final PrivateKeyProvider privateKeys;
+    private final char[] dataKey;
+    private final EncryptionFormat format;
+
+    private long size = -1;
+
+    /**
+     * @param encryptedReader Reader of the encrypted content
+     * @param gpgEncryptionUtil Used to decrypt the content
+     * @param segmentedEncryption Used to decrypt content in the segmented format
+     * @param privateKeys Provider of the private keys used to decrypt the content
+     * @param format Format of the encrypted content, or null to detect it from the content
+     */
+    public DecryptingContentReader(ContentReader encryptedReader, GPGEncryptionUtil gpgEncryptionUtil,
+                                   SegmentedEncryption segmentedEncryption, PrivateKeyProvider privateKeys,
+                                   EncryptionFormat format) {
+        this(encryptedReader, gpgEncryptionUtil, segmentedEncryption, privateKeys, null, format);
+    }
+
+    /**
+     * @param encryptedReader Reader of the encrypted content
+     * @param gpgEncryptionUtil Used to decrypt the content
+     * @param segmentedEncryption Used to decrypt content in the segmented format
+     * @param privateKeys Provider of the private keys used to decrypt the content, if it is not encrypted with a data key
+     * @param dataKey Data key the content is encrypted with, or null if it is encrypted to a public key
+     * @param format Format of the encrypted content, or null to detect it from the content
+     */
+    public DecryptingContentReader(ContentReader encryptedReader, GPGEncryptionUtil gpgEncryptionUtil,
+                                   SegmentedEncryption segmentedEncryption, PrivateKeyProvider privateKeys,
+                                   char[] dataKey, EncryptionFormat format) {
+        super(encryptedReader.getContentUrl());
+        this.encryptedReader = encryptedReader;
+        this.gpgEncryptionUtil = gpgEncryptionUtil;
+        this.segmentedEncryption = segmentedEncryption;
+        this.privateKeys = privateKeys;
+        this.dataKey = dataKey;
+        this.format = format;
+
+        setMimetype(encryptedReader.getMimetype());
+        setEncoding(encryptedReader.getEncoding());
+        setLocale(encryptedReader.getLocale());
+    }
+
+    /**
+     * Set the size of the decrypted content when it is already known, typically from encryption:plaintextSize, so that
+     * {@link #getSize()} does not have to work it out from the content.
+     *
+     * @param plaintextSize Size of the decrypted content in bytes
+     */
+    public synchronized void setPlaintextSize(long plaintextSize) {
+        this.size = plaintextSize;
+    }
+
+    @Override
+    protected ContentReader createReader() throws ContentIOException {
+        DecryptingContentReader reader = new DecryptingContentReader(encryptedReader.getReader(), gpgEncryptionUtil,
+                segmentedEncryption, privateKeys, dataKey, format);
+        synchronized (this) {
+            reader.size = size;
+        }
+        return reader;
+    }
+
+    @Override
+    protected ReadableByteChannel getDirectReadableChannel() throws ContentIOException {
+        return Channels.newChannel(openDecryptedStream(encryptedReader));
+    }
+
+    /**
+     * Segmented content is returned as the decrypting stream itself, rather than through a channel, so that
+     * {@link InputStream#skip(long)} seeks in the encrypted content instead of reading through it.
+     */
+    @Override
+    public InputStream getContentInputStream() throws ContentIOException {
+        if (format == EncryptionFormat.SEGMENTED) {
+            return openDecryptedStream(encryptedReader.getReader());
+        }
+        return super.getContentInputStream();
+    }
+
+    @Override
+    public boolean exists() {
+        return encryptedReader.exists();
+    }
+
+    @Override
+    public long getLastModified() {
+        return encryptedReader.getLastModified();
+    }
+
+    /**
+     * Unless it was set with {@link #setPlaintextSize(long)}, the first call works the size out. The plaintext size of an
+     * OpenPGP message is not stored with the content, so the content is decrypted to count it. The size of segmented
+     * content is worked out from its header and encrypted size.
+     *
+     * @return size of the decrypted content
+     */
+    @Override
+    public synchronized long getSize() {
+        if (size < 0 && format == EncryptionFormat.SEGMENTED) {
+            try (InputStream in = encryptedReader.getReader().getContentInputStream()) {
+                size = SegmentedEncryption.getPlaintextSize(in, encryptedReader.getSize());
+            } catch (IOException e) {
+                throw new ContentIOException("Failed to read the decrypted size of content: " + this, e);
+            }
+        } else if (size < 0) {
+            try (InputStream in = openDecryptedStream(encryptedReader.getReader())) {
+                size = in.skip(Long.MAX_VALUE);
+            } catch (IOException e) {
+                throw new ContentIOException("Failed to read the decrypted size of content: " + this, e);
+            }
+        }
+        return size;
+    }
+
+    private InputStream openDecryptedStream(ContentReader reader) {
+        try {
+            if (format == EncryptionFormat.SEGMENTED) {
+                return segmentedEncryption.openDecryptedStream(reader.getFileChannel(), privateKeys, dataKey);
+            }
+            if (dataKey != null) {
+                return gpgEncryptionUtil.openDecryptedStreamWithDataKey(reader.getContentInputStream(), dataKey, format);
+            }
+            return gpgEncryptionUtil.openDecryptedStream(reader.getContentInputStream(), privateKeys, format);
+        } catch (IOException | PGPException e) {
+            throw new ContentIOException("Failed to decrypt content: " + this, e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.nwforrer.encryption;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Access-ordered map that drops its least recently used entry once it holds more than `maxEntries`. Not thread-safe.
+ */
+class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxEntries;
+
+    BoundedMap(int maxEntries) {
+        super(16, 0.75f, true);
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        if (size() > maxEntries) {
+            onEvict(eldest.getValue());
+            return true;
+        }
+        return false;
+    }
+
+    protected void onEvict(V value) {
+        // nothing to release by default
+    }
+}
@@ -0,0 +1,282 @@
+package io.github.nwforrer.encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Adapts NIO channels to the streams the encryption pipeline works on, reading and writing the channel in large chunks
+ * through direct buffers.
+ * <p>
+ * File channels can also be read through memory-mapped regions instead, which avoids the copy from the kernel into a
+ * read buffer. Mapped regions are released when they are garbage collected, so mapping is best suited to a 64-bit JVM.
+ */
+public class ChannelStreams {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final long MAPPED_REGION_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Smallest buffer allocated for a stream with a size hint, which leaves room for the framing encryption adds.
+     */
+    static final int MIN_SIZED_CHUNK = 8192;
+
+    private final int chunkSize;
+    private final boolean mapFiles;
+
+    public ChannelStreams() {
+        this(DEFAULT_CHUNK_SIZE, false);
+    }
+
+    /**
+     * @param chunkSize Bytes read from or written to a channel at a time
+     * @param mapFiles Whether file channels are read through memory-mapped regions rather than a read buffer
+     */
+    public ChannelStreams(int chunkSize, boolean mapFiles) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.mapFiles = mapFiles;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param channel Channel to read; it is closed when the stream is closed
+     * @return stream over the rest of the channel
+     * @throws IOException thrown when the file channel cannot be positioned
+     */
+    public InputStream newInputStream(ReadableByteChannel channel) throws IOException {
+        return newInputStream(channel, -1);
+    }
+
+    /**
+     * @param channel Channel to read; it is closed when the stream is closed
+     * @param sizeHint Bytes expected to be read, or a negative value if unknown. Small content gets a buffer to fit
+     *                 rather than a full chunk.
+     * @return stream over the rest of the channel
+     * @throws IOException thrown when the file channel cannot be positioned
+     */
+    public InputStream newInputStream(ReadableByteChannel channel, long sizeHint) throws IOException {
+        if (mapFiles && channel instanceof FileChannel) {
+            return new MappedInputStream((FileChannel) channel);
+        }
+        return new ChannelInputStream(channel, bufferSize(sizeHint));
+    }
+
+    /**
+     * @param channel Channel to write; it is closed when the stream is closed
+     * @return stream that writes to the channel in chunks; call flush to write out a partial chunk without closing it
+     */
+    public OutputStream newOutputStream(WritableByteChannel channel) {
+        return newOutputStream(channel, -1);
+    }
+
+    /**
+     * @param channel Channel to write; it is closed when the stream is closed
+     * @param sizeHint Bytes expected to be written, or a negative value if unknown. Small content gets a buffer to fit
+     *                 rather than a full chunk.
+     * @return stream that writes to the channel in chunks; call flush to write out a partial chunk without closing it
+     */
+    public OutputStream newOutputStream(WritableByteChannel channel, long sizeHint) {
+        return new ChannelOutputStream(channel, bufferSize(sizeHint));
+    }
+
+    /**
+     * @return the chunk size, or less for content known to be smaller than a chunk
+     */
+    int bufferSize(long sizeHint) {
+        if (sizeHint < 0) {
+            return chunkSize;
+        }
+        return (int) Math.min(chunkSize, Math.max(MIN_SIZED_CHUNK, sizeHint));
+    }
+
+    private static class ChannelInputStream extends InputStream {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer;
+        private boolean eof;
+
+        ChannelInputStream(ReadableByteChannel channel, int chunkSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(chunkSize);
+            this.buffer.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private boolean fill() throws IOException {
+            while (!buffer.hasRemaining() && !eof) {
+                buffer.clear();
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+            }
+            return buffer.hasRemaining();
+        }
+    }
+
+    private static class MappedInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long size;
+        private long position;
+        private MappedByteBuffer region;
+
+        MappedInputStream(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            this.position = channel.position();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!map()) {
+                return -1;
+            }
+            return region.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!map()) {
+                return -1;
+            }
+            int count = Math.min(len, region.remaining());
+            region.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long buffered = region == null ? 0 : region.remaining();
+            long skipped = Math.max(0, Math.min(n, buffered + size - position));
+            if (region != null && skipped <= buffered) {
+                region.position(region.position() + (int) skipped);
+            } else {
+                position += skipped - buffered;
+                region = null;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return region == null ? 0 : region.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            region = null;
+            channel.close();
+        }
+
+        private boolean map() throws IOException {
+            if (region != null && region.hasRemaining()) {
+                return true;
+            }
+            if (position >= size) {
+                return false;
+            }
+            long length = Math.min(MAPPED_REGION_SIZE, size - position);
+            region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return true;
+        }
+    }
+
+    private static class ChannelOutputStream extends OutputStream {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+
+        ChannelOutputStream(WritableByteChannel channel, int chunkSize) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(chunkSize);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    drain();
+                }
+                int count = Math.min(len, buffer.remaining());
+                buffer.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!channel.isOpen()) {
+                return;
+            }
+            try {
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.nwforrer.encryption;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Supplies keystore passphrases configured in alfresco-global.properties.
+ * <p>
+ * The passphrase of a key ring is looked up by the ID of its master key, as 16 hex digits, in
+ * `io.github.nwforrer.encryption.keystore.passphrase.&lt;keyID&gt;`, then by the name of its key file in
+ * `io.github.nwforrer.encryption.keystore.passphrase.&lt;fileName&gt;`, and finally falls back to
+ * `io.github.nwforrer.encryption.keystore.passphrase`.
+ */
+public class ConfiguredPassphraseProvider implements PassphraseProvider {
+
+    private static final String PREFIX = "io.github.nwforrer.encryption.keystore.passphrase";
+
+    private Properties globalProperties = new Properties();
+
+    @Override
+    public char[] getPassphrase(long masterKeyID, String keyFile) {
+        String keyID = String.format("%016x", masterKeyID);
+        String passphrase = globalProperties.getProperty(PREFIX + "." + keyID);
+        if (passphrase == null) {
+            passphrase = globalProperties.getProperty(PREFIX + "." + keyID.toUpperCase(Locale.ROOT));
+        }
+        if (passphrase == null) {
+            passphrase = globalProperties.getProperty(PREFIX + "." + new File(keyFile).getName());
+        }
+        if (passphrase == null) {
+            passphrase = globalProperties.getProperty(PREFIX);
+        }
+        return passphrase == null ? null : passphrase.toCharArray();
+    }
+
+    public void setGlobalProperties(Properties globalProperties) {
+        this.globalProperties = globalProperties;
+    }
+}
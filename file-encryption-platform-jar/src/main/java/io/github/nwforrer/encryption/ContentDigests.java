@@ -0,0 +1,93 @@
+package io.github.nwforrer.encryption;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Digests used to find content that was already encrypted, see {@link DedupIndex}.
+ * <p>
+ * Sharing ciphertext reveals which nodes hold the same content to anyone who can see content URLs, and the index
+ * reveals whether a given document was ever encrypted to anyone who can compute its digest and read the index. Only
+ * enable dedup for profiles where that is acceptable.
+ */
+public final class ContentDigests {
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentDigests() {
+    }
+
+    /**
+     * @param in Content to digest; it is read to the end but not closed
+     * @return the hex encoded SHA-256 digest of the content
+     * @throws IOException thrown when the content cannot be read
+     */
+    public static String sha256(InputStream in) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buf = new byte[BUFFER_SIZE];
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            digest.update(buf, 0, len);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param text Text to digest, encoded as UTF-8
+     * @return the hex encoded SHA-256 digest of the text
+     */
+    public static String sha256(String text) {
+        return toHex(newSha256().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * The key ties the plaintext to everything that decides what its ciphertext can be decrypted by and how it is laid
+     * out, so that content is only shared between nodes that would otherwise have been encrypted the same way.
+     *
+     * @param tenant Tenant domain, or an empty string for the default domain
+     * @param profile Profile the content is encrypted with
+     * @param recipientKeyIDs Ids of the public keys that can decrypt the content, or of the key that wraps the data key
+     * @param contentDigest Digest of the plaintext, from {@link #sha256(InputStream)}
+     * @return the hex encoded dedup key
+     */
+    public static String dedupKey(String tenant, EncryptionProfile profile, Collection<Long> recipientKeyIDs, String contentDigest) {
+        List<Long> keyIDs = new ArrayList<>(recipientKeyIDs);
+        Collections.sort(keyIDs);
+
+        StringBuilder key = new StringBuilder()
+                .append(tenant).append('\n')
+                .append(profile.getName()).append('\n')
+                .append(profile.getFormat().getValue()).append('\n')
+                .append(profile.isEnvelope() ? "envelope" : "recipients");
+        for (Long keyID : keyIDs) {
+            key.append('\n').append(Long.toHexString(keyID));
+        }
+        key.append('\n').append(contentDigest);
+        return sha256(key.toString());
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,323 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Chooses the JCA provider of the symmetric ciphers and digests that process the content of OpenPGP messages.
+ * <p>
+ * BouncyCastle implements the OpenPGP packet layer and the public key operations, and stays in charge of them. The
+ * content itself goes through a plain CFB cipher and message digests, which the JDK provides too, with intrinsics for
+ * AES and SHA on hardware that has them. Each algorithm is given either a configured provider, or with `auto` the
+ * fastest provider that produces the same output as BouncyCastle in a short benchmark run by {@link #init()}.
+ * Algorithms that a provider does not implement, or implements differently, stay with BouncyCastle.
+ * <p>
+ * The AES/GCM cipher of {@link SegmentedEncryption} is chosen the same way from the content cipher providers, except
+ * that providers are checked against a known answer, since this version of BouncyCastle does not take the JCA's GCM
+ * parameters. When no provider passes, the first installed provider of the cipher is used.
+ */
+public class CryptoProviders {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CryptoProviders.class);
+
+    public static final String AUTO = "auto";
+
+    /**
+     * The BouncyCastle provider, looked up once; a private instance is used if BC is not registered.
+     */
+    static final Provider BOUNCY_CASTLE = resolveBouncyCastle();
+
+    private static final Map<Integer, String> CIPHERS = new LinkedHashMap<>();
+    private static final Map<Integer, String> DIGESTS = new LinkedHashMap<>();
+
+    static final String SEGMENT_CIPHER = "AES/GCM/NoPadding";
+    // AES-256-GCM of 16 zero bytes with a zero key and nonce: test case 14 of the GCM specification
+    private static final byte[] SEGMENT_CIPHER_ANSWER = hex("cea7403d4d606b6e074ec5d3baf39d18d0d1c8a799996bf0265b98b5d48ab919");
+
+    static {
+        // the names BouncyCastle's OpenPGP operators ask providers for, of the ciphers encryption profiles can choose
+        CIPHERS.put(SymmetricKeyAlgorithmTags.AES_128, "AES");
+        CIPHERS.put(SymmetricKeyAlgorithmTags.AES_192, "AES");
+        CIPHERS.put(SymmetricKeyAlgorithmTags.AES_256, "AES");
+        CIPHERS.put(SymmetricKeyAlgorithmTags.TWOFISH, "Twofish");
+        CIPHERS.put(SymmetricKeyAlgorithmTags.CAST5, "CAST5");
+        CIPHERS.put(SymmetricKeyAlgorithmTags.TRIPLE_DES, "DESEDE");
+
+        // the standard names of the digests, which providers are probed for
+        DIGESTS.put(HashAlgorithmTags.SHA1, "SHA-1");
+        DIGESTS.put(HashAlgorithmTags.SHA256, "SHA-256");
+        DIGESTS.put(HashAlgorithmTags.SHA384, "SHA-384");
+        DIGESTS.put(HashAlgorithmTags.SHA512, "SHA-512");
+    }
+
+    private static final int SAMPLE_SIZE = 65536;
+    private static final int MEASURED_ROUNDS = 3;
+
+    private final String cipherProvider;
+    private final String digestProvider;
+    private final Map<Integer, Provider> cipherProviders = new LinkedHashMap<>();
+    private final Map<Integer, Provider> digestProviders = new LinkedHashMap<>();
+    private Provider segmentCipherProvider;
+
+    private long benchmarkMillis = 25;
+
+    /**
+     * Use BouncyCastle for everything.
+     */
+    public CryptoProviders() {
+        this(BouncyCastleProvider.PROVIDER_NAME, BouncyCastleProvider.PROVIDER_NAME);
+    }
+
+    /**
+     * @param cipherProvider Name of the provider of the content ciphers, or `auto` to benchmark the installed providers
+     * @param digestProvider Name of the provider of the content digests, or `auto` to benchmark the installed providers
+     */
+    public CryptoProviders(String cipherProvider, String digestProvider) {
+        this.cipherProvider = cipherProvider;
+        this.digestProvider = digestProvider;
+    }
+
+    /**
+     * Resolve the provider of each algorithm, benchmarking the candidates of any set to `auto`.
+     */
+    public void init() {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        new Random(0).nextBytes(sample);
+
+        for (Map.Entry<Integer, String> cipher : CIPHERS.entrySet()) {
+            String name = EncryptionProfileRegistry.cipherName(cipher.getKey());
+            byte[] key = Arrays.copyOf(sample, keyLength(cipher.getKey()));
+            cipherProviders.put(cipher.getKey(), select(name, cipherProvider,
+                    provider -> encrypt(provider, cipher.getKey(), cipher.getValue(), key, sample)));
+        }
+        for (Map.Entry<Integer, String> digest : DIGESTS.entrySet()) {
+            digestProviders.put(digest.getKey(), select(digest.getValue(), digestProvider,
+                    provider -> digest(provider, digest.getValue(), sample)));
+        }
+        segmentCipherProvider = selectSegmentCipher(sample);
+    }
+
+    /**
+     * @param symmetricAlgorithm OpenPGP symmetric algorithm
+     * @return provider of the CFB cipher that encrypts content with the algorithm
+     */
+    public Provider getCipherProvider(int symmetricAlgorithm) {
+        Provider provider = cipherProviders.get(symmetricAlgorithm);
+        return provider != null ? provider : BOUNCY_CASTLE;
+    }
+
+    /**
+     * @param hashAlgorithm OpenPGP hash algorithm
+     * @return provider of the message digest that hashes content with the algorithm
+     */
+    public Provider getDigestProvider(int hashAlgorithm) {
+        Provider provider = digestProviders.get(hashAlgorithm);
+        return provider != null ? provider : BOUNCY_CASTLE;
+    }
+
+    /**
+     * @return provider of the AES/GCM cipher that seals the segments of segmented content, or null to use the first
+     * installed provider of it
+     */
+    public Provider getSegmentCipherProvider() {
+        return segmentCipherProvider;
+    }
+
+    public void setBenchmarkMillis(long benchmarkMillis) {
+        this.benchmarkMillis = benchmarkMillis;
+    }
+
+    private List<Provider> candidates(String name) {
+        if (AUTO.equalsIgnoreCase(name)) {
+            List<Provider> candidates = new ArrayList<>(Arrays.asList(Security.getProviders()));
+            if (!candidates.contains(BOUNCY_CASTLE)) {
+                candidates.add(BOUNCY_CASTLE);
+            }
+            return candidates;
+        }
+        Provider provider = BouncyCastleProvider.PROVIDER_NAME.equals(name) ? BOUNCY_CASTLE : Security.getProvider(name);
+        if (provider == null) {
+            LOGGER.warn("Crypto provider {} is not installed, using {}", name, BouncyCastleProvider.PROVIDER_NAME);
+            return Collections.singletonList(BOUNCY_CASTLE);
+        }
+        return Arrays.asList(provider, BOUNCY_CASTLE);
+    }
+
+    /**
+     * @param providerName Configured provider, or `auto`
+     * @return the configured provider if it agrees with BouncyCastle, or with `auto` the fastest provider that agrees
+     * with it, or the most preferred one when benchmarking is off
+     */
+    private Provider select(String algorithm, String providerName, Operation operation) {
+        List<Provider> candidates = candidates(providerName);
+        byte[] expected;
+        try {
+            expected = operation.run(BOUNCY_CASTLE);
+        } catch (GeneralSecurityException e) {
+            // nothing to compare the other providers with
+            return BOUNCY_CASTLE;
+        }
+
+        List<Provider> correct = new ArrayList<>();
+        for (Provider candidate : candidates) {
+            try {
+                if (candidate == BOUNCY_CASTLE || Arrays.equals(expected, operation.run(candidate))) {
+                    correct.add(candidate);
+                } else {
+                    LOGGER.warn("{} from {} does not match {}, not using it", algorithm, candidate.getName(), BouncyCastleProvider.PROVIDER_NAME);
+                }
+            } catch (GeneralSecurityException e) {
+                LOGGER.debug("{} is not available from {}", algorithm, candidate.getName(), e);
+            }
+        }
+        return fastest(algorithm, providerName, correct, operation);
+    }
+
+    private Provider selectSegmentCipher(byte[] sample) {
+        List<Provider> correct = new ArrayList<>();
+        for (Provider candidate : candidates(cipherProvider)) {
+            try {
+                if (Arrays.equals(SEGMENT_CIPHER_ANSWER, seal(candidate, new byte[32], new byte[16]))) {
+                    correct.add(candidate);
+                } else {
+                    LOGGER.warn("{} from {} does not give the known answer, not using it", SEGMENT_CIPHER, candidate.getName());
+                }
+            } catch (GeneralSecurityException e) {
+                LOGGER.debug("{} is not available from {}", SEGMENT_CIPHER, candidate.getName(), e);
+            }
+        }
+        if (correct.isEmpty()) {
+            LOGGER.info("Using the first installed provider for {}", SEGMENT_CIPHER);
+            return null;
+        }
+        byte[] key = Arrays.copyOf(sample, 32);
+        return fastest(SEGMENT_CIPHER, cipherProvider, correct, provider -> seal(provider, key, sample));
+    }
+
+    /**
+     * @param correct Providers that give the right output, most preferred first
+     * @return the first of the providers, or with `auto` the fastest one
+     */
+    private Provider fastest(String algorithm, String providerName, List<Provider> correct, Operation operation) {
+        if (correct.size() == 1 || benchmarkMillis <= 0 || !AUTO.equalsIgnoreCase(providerName)) {
+            // a configured provider comes before BouncyCastle, and is used without measuring it
+            LOGGER.info("Using {} for {}", correct.get(0).getName(), algorithm);
+            return correct.get(0);
+        }
+
+        // every candidate is warmed up before any is measured, and measured in turns, so that one does not gain from
+        // the JIT compiling code they share while another is measured
+        double[] rates = new double[correct.size()];
+        for (Provider candidate : correct) {
+            run(candidate, operation);
+        }
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            for (int i = 0; i < correct.size(); i++) {
+                rates[i] = Math.max(rates[i], run(correct.get(i), operation));
+            }
+        }
+
+        int fastest = 0;
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < correct.size(); i++) {
+            summary.append(i == 0 ? "" : ", ").append(correct.get(i).getName()).append(String.format(" %.0f MB/s", rates[i]));
+            if (rates[i] > rates[fastest]) {
+                fastest = i;
+            }
+        }
+        LOGGER.info("Using {} for {} ({})", correct.get(fastest).getName(), algorithm, summary);
+        return correct.get(fastest);
+    }
+
+    /**
+     * Runs the operation for {@link #benchmarkMillis}.
+     *
+     * @return throughput in MB/s
+     */
+    private double run(Provider provider, Operation operation) {
+        try {
+            long start = System.nanoTime();
+            long runs = 0;
+            do {
+                operation.run(provider);
+                runs++;
+            } while (System.nanoTime() - start < benchmarkMillis * 1000000);
+            return runs * (double) SAMPLE_SIZE * 1000 / (System.nanoTime() - start);
+        } catch (GeneralSecurityException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Encrypts the sample the way BouncyCastle's OpenPGP operators use the provider when there is an integrity packet,
+     * down to the name of the key, which some providers are strict about.
+     */
+    private static byte[] encrypt(Provider provider, int symmetricAlgorithm, String name, byte[] key, byte[] sample) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(name + "/CFB/NoPadding", provider);
+        // BouncyCastle names triple DES keys DES_EDE, which the JDK does not accept
+        String keyName = symmetricAlgorithm == SymmetricKeyAlgorithmTags.TRIPLE_DES ? "DES_EDE" : name;
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, keyName), new IvParameterSpec(new byte[cipher.getBlockSize()]));
+        return cipher.doFinal(sample);
+    }
+
+    private static byte[] seal(Provider provider, byte[] key, byte[] sample) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(SEGMENT_CIPHER, provider);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, new byte[12]));
+        return cipher.doFinal(sample);
+    }
+
+    private static byte[] hex(String value) {
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(value.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static byte[] digest(Provider provider, String name, byte[] sample) throws GeneralSecurityException {
+        // BouncyCastle's OpenPGP operators ask for the name without the hyphen, so the provider must answer to both
+        MessageDigest.getInstance(name.replace("-", ""), provider);
+        return MessageDigest.getInstance(name, provider).digest(sample);
+    }
+
+    private static int keyLength(int symmetricAlgorithm) {
+        switch (symmetricAlgorithm) {
+            case SymmetricKeyAlgorithmTags.AES_128:
+            case SymmetricKeyAlgorithmTags.CAST5:
+                return 16;
+            case SymmetricKeyAlgorithmTags.AES_192:
+            case SymmetricKeyAlgorithmTags.TRIPLE_DES:
+                return 24;
+            default:
+                return 32;
+        }
+    }
+
+    private static Provider resolveBouncyCastle() {
+        Provider provider = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+        return provider != null ? provider : new BouncyCastleProvider();
+    }
+
+    private interface Operation {
+        byte[] run(Provider provider) throws GeneralSecurityException;
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.nwforrer.encryption;
+
+/**
+ * A data key handed out by {@link DataKeyManager}: the id that is stored on encrypted nodes, and the key itself.
+ */
+public class DataKey {
+
+    private final String id;
+    private final char[] key;
+
+    DataKey(String id, char[] key) {
+        this.id = id;
+        this.key = key;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the data key, used as the passphrase of OpenPGP passphrase-encrypted messages
+     */
+    public char[] getKey() {
+        return key;
+    }
+}
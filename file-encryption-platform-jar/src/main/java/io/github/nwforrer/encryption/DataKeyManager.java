@@ -0,0 +1,217 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Hands out symmetric data keys for envelope encryption, so that encrypting and decrypting many files costs one
+ * public key operation per data key instead of one per file.
+ * <p>
+ * Each tenant has a current data key, which is replaced once it is older than the rotation period or the public key
+ * changes. Data keys are stored in a {@link WrappedKeyStore} as OpenPGP messages encrypted to the public key, and an
+ * unwrapped copy of recently used keys is kept in memory. A wrapped key can be unwrapped with `gpg --decrypt` to
+ * decrypt content outside Alfresco.
+ */
+public class DataKeyManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DataKeyManager.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_ROTATION_PERIOD = 24L * 60 * 60 * 1000;
+
+    private static final int DATA_KEY_SIZE = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final WrappedKeyStore wrappedKeyStore;
+    private final GPGEncryptionUtil gpgEncryptionUtil;
+    private final SecureRandom random = new SecureRandom();
+
+    private final Map<String, CurrentKey> currentKeys = new HashMap<>();
+    private final Map<String, char[]> keys;
+    // ids of data keys wrapped again with another public key, by the original id and the public key
+    private final Map<String, String> rewrapped;
+
+    private long rotationPeriod = DEFAULT_ROTATION_PERIOD;
+
+    public DataKeyManager(WrappedKeyStore wrappedKeyStore, GPGEncryptionUtil gpgEncryptionUtil) {
+        this(wrappedKeyStore, gpgEncryptionUtil, DEFAULT_MAX_ENTRIES);
+    }
+
+    public DataKeyManager(WrappedKeyStore wrappedKeyStore, GPGEncryptionUtil gpgEncryptionUtil, int maxEntries) {
+        this.wrappedKeyStore = wrappedKeyStore;
+        this.gpgEncryptionUtil = gpgEncryptionUtil;
+        this.keys = new BoundedMap<String, char[]>(maxEntries) {
+            @Override
+            protected void onEvict(char[] value) {
+                Arrays.fill(value, '\0');
+            }
+        };
+        this.rewrapped = new BoundedMap<>(maxEntries);
+    }
+
+    /**
+     * Get the data key to encrypt new content with. A new key is generated, wrapped and stored if the tenant has no
+     * current key, if the current key is older than the rotation period, or if it was wrapped with a different public
+     * key.
+     *
+     * @param tenant Tenant domain, or an empty string for the default domain
+     * @param publicKey Public key to wrap new data keys with
+     * @return the current data key. The caller should clear the key when it is done with it.
+     * @throws IOException thrown when a new data key cannot be stored
+     * @throws PGPException thrown when a new data key cannot be wrapped
+     */
+    public synchronized DataKey getCurrentKey(String tenant, PGPPublicKey publicKey) throws IOException, PGPException {
+        long now = System.currentTimeMillis();
+        CurrentKey current = currentKeys.get(tenant);
+        if (current == null || current.publicKeyID != publicKey.getKeyID() || now - current.created >= rotationPeriod
+                || !keys.containsKey(current.id)) {
+            current = new CurrentKey(generateKey(publicKey), publicKey.getKeyID(), now);
+            currentKeys.put(tenant, current);
+            LOGGER.info("Rotated data key for tenant '{}', new key is {}", tenant, current.id);
+        }
+        return new DataKey(current.id, keys.get(current.id).clone());
+    }
+
+    /**
+     * Get a data key to decrypt content with, unwrapping it with a private key if it is not already in memory.
+     *
+     * @param keyId Id of the data key
+     * @param privateKeys Provider of the private keys used to unwrap the data key
+     * @return the data key. The caller should clear the key when it is done with it.
+     * @throws IOException thrown when the data key cannot be read
+     * @throws PGPException thrown when the data key does not exist or cannot be unwrapped
+     */
+    public char[] getKey(String keyId, PrivateKeyProvider privateKeys) throws IOException, PGPException {
+        synchronized (this) {
+            char[] key = keys.get(keyId);
+            if (key != null) {
+                return key.clone();
+            }
+        }
+
+        byte[] wrappedKey = wrappedKeyStore.get(keyId);
+        if (wrappedKey == null) {
+            throw new PGPException("unknown data key " + keyId);
+        }
+
+        // the private key operation is slow, so run it outside of the lock
+        ByteArrayOutputStream out = new ByteArrayOutputStream(DATA_KEY_SIZE * 2);
+        try {
+            gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(wrappedKey), out, privateKeys, null);
+        } catch (SignatureException e) {
+            throw new PGPException("unable to unwrap data key " + keyId, e);
+        }
+        byte[] unwrapped = out.toByteArray();
+        char[] key = new char[unwrapped.length];
+        for (int i = 0; i < unwrapped.length; i++) {
+            key[i] = (char) unwrapped[i];
+        }
+        Arrays.fill(unwrapped, (byte) 0);
+
+        synchronized (this) {
+            keys.put(keyId, key);
+        }
+        return key.clone();
+    }
+
+    /**
+     * Wrap an existing data key with another public key, so that content encrypted with it can be handed over to the
+     * key without being encrypted again. A data key is only wrapped once for each public key, however many nodes ask.
+     *
+     * @param keyId Id of the data key
+     * @param privateKeys Provider of the private keys used to unwrap the data key
+     * @param publicKey Public key to wrap the data key with
+     * @return id of the same data key, wrapped with the public key
+     * @throws IOException thrown when the data key cannot be read or stored
+     * @throws PGPException thrown when the data key does not exist or cannot be unwrapped or wrapped
+     */
+    public String rewrap(String keyId, PrivateKeyProvider privateKeys, PGPPublicKey publicKey) throws IOException, PGPException {
+        String rewrapKey = keyId + ":" + Long.toHexString(publicKey.getKeyID());
+        synchronized (this) {
+            String id = rewrapped.get(rewrapKey);
+            if (id != null) {
+                return id;
+            }
+        }
+
+        char[] key = getKey(keyId, privateKeys);
+        synchronized (this) {
+            String id = rewrapped.get(rewrapKey);
+            if (id == null) {
+                try {
+                    id = storeKey(key, publicKey);
+                } catch (IOException | PGPException e) {
+                    Arrays.fill(key, '\0');
+                    throw e;
+                }
+                rewrapped.put(rewrapKey, id);
+                LOGGER.info("Wrapped data key {} with public key {}, as data key {}", keyId, Long.toHexString(publicKey.getKeyID()), id);
+            } else {
+                Arrays.fill(key, '\0');
+            }
+            return id;
+        }
+    }
+
+    private String generateKey(PGPPublicKey publicKey) throws IOException, PGPException {
+        byte[] bytes = new byte[DATA_KEY_SIZE];
+        random.nextBytes(bytes);
+        char[] key = new char[DATA_KEY_SIZE * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            key[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            key[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        Arrays.fill(bytes, (byte) 0);
+        return storeKey(key, publicKey);
+    }
+
+    /**
+     * Wrap and store a data key under a new id, keeping the key in memory.
+     */
+    private String storeKey(char[] key, PGPPublicKey publicKey) throws IOException, PGPException {
+        byte[] encoded = new byte[key.length];
+        for (int i = 0; i < key.length; i++) {
+            encoded[i] = (byte) key[i];
+        }
+        ByteArrayOutputStream wrapped = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(encoded), wrapped, publicKey,
+                EncryptionProfile.DEFAULT, null);
+        Arrays.fill(encoded, (byte) 0);
+
+        String id = UUID.randomUUID().toString();
+        wrappedKeyStore.put(id, wrapped.toByteArray());
+        keys.put(id, key);
+        return id;
+    }
+
+    /**
+     * @param rotationPeriod Milliseconds after which a new data key is used for new content
+     */
+    public void setRotationPeriod(long rotationPeriod) {
+        this.rotationPeriod = rotationPeriod;
+    }
+
+    private static class CurrentKey {
+        private final String id;
+        private final long publicKeyID;
+        private final long created;
+
+        CurrentKey(String id, long publicKeyID, long created) {
+            this.id = id;
+            this.publicKeyID = publicKeyID;
+            this.created = created;
+        }
+    }
+}
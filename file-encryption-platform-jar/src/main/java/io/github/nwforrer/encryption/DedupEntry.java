@@ -0,0 +1,55 @@
+package io.github.nwforrer.encryption;
+
+/**
+ * Ciphertext recorded in a {@link DedupIndex}: where it is stored, and what a node sharing it needs to decrypt it.
+ */
+public class DedupEntry {
+
+    private final String contentUrl;
+    private final long size;
+    private final EncryptionFormat format;
+    private final String dataKeyId;
+    private final String cipher;
+    private final String compression;
+
+    /**
+     * @param contentUrl Content URL of the ciphertext
+     * @param size Size of the ciphertext in bytes
+     * @param format Format of the ciphertext
+     * @param dataKeyId Id of the data key the ciphertext is encrypted with, or null if it is encrypted to public keys
+     * @param cipher Cipher the ciphertext is encrypted with, or null if it was not recorded
+     * @param compression Compression applied before encrypting, or null if it was not recorded
+     */
+    public DedupEntry(String contentUrl, long size, EncryptionFormat format, String dataKeyId, String cipher, String compression) {
+        this.contentUrl = contentUrl;
+        this.size = size;
+        this.format = format;
+        this.dataKeyId = dataKeyId;
+        this.cipher = cipher;
+        this.compression = compression;
+    }
+
+    public String getContentUrl() {
+        return contentUrl;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public EncryptionFormat getFormat() {
+        return format;
+    }
+
+    public String getDataKeyId() {
+        return dataKeyId;
+    }
+
+    public String getCipher() {
+        return cipher;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+}
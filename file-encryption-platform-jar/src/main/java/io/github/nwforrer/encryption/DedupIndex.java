@@ -0,0 +1,34 @@
+package io.github.nwforrer.encryption;
+
+import java.io.IOException;
+
+/**
+ * Index of content that was already encrypted, keyed by {@link ContentDigests#dedupKey}, so that identical content
+ * encrypted for the same recipients can share one ciphertext.
+ */
+public interface DedupIndex {
+
+    /**
+     * @param key Dedup key of the plaintext, profile and recipients
+     * @return the ciphertext stored for the key, or null if there is none
+     * @throws IOException thrown when the index cannot be read
+     */
+    DedupEntry get(String key) throws IOException;
+
+    /**
+     * Record the ciphertext of newly encrypted content, replacing any existing entry for the key.
+     *
+     * @param key Dedup key of the plaintext, profile and recipients
+     * @param entry Ciphertext the content was encrypted to
+     * @throws IOException thrown when the entry cannot be stored
+     */
+    void put(String key, DedupEntry entry) throws IOException;
+
+    /**
+     * Forget the ciphertext stored for a key, for example because the content it points to no longer exists.
+     *
+     * @param key Dedup key of the plaintext, profile and recipients
+     * @throws IOException thrown when the entry cannot be removed
+     */
+    void remove(String key) throws IOException;
+}
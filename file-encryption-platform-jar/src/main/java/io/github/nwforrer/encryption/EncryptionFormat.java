@@ -0,0 +1,45 @@
+package io.github.nwforrer.encryption;
+
+/**
+ * How encrypted content is laid out, as recorded on the encrypted aspect.
+ */
+public enum EncryptionFormat {
+    /**
+     * OpenPGP message wrapped in ASCII armor.
+     */
+    ARMORED("armored"),
+    /**
+     * Raw OpenPGP packets.
+     */
+    BINARY("binary"),
+    /**
+     * Independently sealed AES-GCM segments, see {@link SegmentedEncryption}.
+     */
+    SEGMENTED("segmented");
+
+    private final String value;
+
+    EncryptionFormat(String value) {
+        this.value = value;
+    }
+
+    /**
+     * @return the value stored in the encryption:format property
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @param value Value of the encryption:format property, may be null
+     * @return the matching format, or null if the format is not known
+     */
+    public static EncryptionFormat fromValue(String value) {
+        for (EncryptionFormat format : values()) {
+            if (format.value.equals(value)) {
+                return format;
+            }
+        }
+        return null;
+    }
+}
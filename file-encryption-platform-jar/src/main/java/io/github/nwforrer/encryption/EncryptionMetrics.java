@@ -0,0 +1,192 @@
+package io.github.nwforrer.encryption;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers for encryption and decryption, exported over JMX as
+ * `io.github.nwforrer.encryption:type=EncryptionMetrics`.
+ * <p>
+ * Stages are timed separately, so that it is clear whether time goes to loading keys, unlocking private keys,
+ * decrypting session keys, processing the stream, or writing content. The stream stages include the time spent
+ * writing to the destination, which is also recorded on its own as {@link #CONTENT_WRITE} where the caller measures it.
+ */
+public class EncryptionMetrics implements EncryptionMetricsMXBean {
+
+    public static final String ENCRYPT = "encrypt";
+    public static final String DECRYPT = "decrypt";
+    public static final String REKEY = "rekey";
+    public static final String VERIFY = "verify";
+
+    public static final String KEY_LOAD = "keyLoad";
+    public static final String PRIVATE_KEY_EXTRACTION = "privateKeyExtraction";
+    public static final String SESSION_KEY_DECRYPT = "sessionKeyDecrypt";
+    public static final String ENCRYPT_STREAM = "encryptStream";
+    public static final String DECRYPT_STREAM = "decryptStream";
+    public static final String CONTENT_WRITE = "contentWrite";
+    public static final String DEDUP_DIGEST = "dedupDigest";
+
+    private static final long[] SIZE_BUCKETS = {1L << 10, 64L << 10, 1L << 20, 16L << 20, 256L << 20, 1L << 30};
+    private static final String[] SIZE_BUCKET_NAMES = {"le_1KB", "le_64KB", "le_1MB", "le_16MB", "le_256MB", "le_1GB", "gt_1GB"};
+
+    private final ConcurrentMap<String, Timer> stages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> payloadSizes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final LongAdder encryptCount = new LongAdder();
+    private final LongAdder decryptCount = new LongAdder();
+    private final LongAdder encryptedBytes = new LongAdder();
+    private final LongAdder decryptedBytes = new LongAdder();
+
+    /**
+     * @param stage Name of the stage
+     * @param startNanos Value of {@link System#nanoTime()} when the stage started
+     */
+    public void recordStage(String stage, long startNanos) {
+        recordStageNanos(stage, System.nanoTime() - startNanos);
+    }
+
+    public void recordStageNanos(String stage, long nanos) {
+        stages.computeIfAbsent(stage, s -> new Timer()).record(nanos);
+    }
+
+    /**
+     * Record a finished operation.
+     *
+     * @param operation {@link #ENCRYPT} or {@link #DECRYPT}
+     * @param plaintextBytes Size of the plaintext
+     */
+    public void recordPayload(String operation, long plaintextBytes) {
+        if (ENCRYPT.equals(operation)) {
+            encryptCount.increment();
+            encryptedBytes.add(plaintextBytes);
+        } else {
+            decryptCount.increment();
+            decryptedBytes.add(plaintextBytes);
+        }
+        payloadSizes.computeIfAbsent(operation + "." + sizeBucket(plaintextBytes), s -> new LongAdder()).increment();
+    }
+
+    /**
+     * @param operation Operation that failed
+     * @param failure Cause of the failure
+     */
+    public void recordFailure(String operation, Throwable failure) {
+        failures.computeIfAbsent(operation + "." + failure.getClass().getName(), s -> new LongAdder()).increment();
+    }
+
+    static String sizeBucket(long bytes) {
+        for (int i = 0; i < SIZE_BUCKETS.length; i++) {
+            if (bytes <= SIZE_BUCKETS[i]) {
+                return SIZE_BUCKET_NAMES[i];
+            }
+        }
+        return SIZE_BUCKET_NAMES[SIZE_BUCKET_NAMES.length - 1];
+    }
+
+    @Override
+    public long getEncryptCount() {
+        return encryptCount.sum();
+    }
+
+    @Override
+    public long getDecryptCount() {
+        return decryptCount.sum();
+    }
+
+    @Override
+    public long getEncryptedBytes() {
+        return encryptedBytes.sum();
+    }
+
+    @Override
+    public long getDecryptedBytes() {
+        return decryptedBytes.sum();
+    }
+
+    @Override
+    public long getFailureCount() {
+        long count = 0;
+        for (LongAdder failure : failures.values()) {
+            count += failure.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        stages.forEach((stage, timer) -> counts.put(stage, timer.count.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getStageTotalMillis() {
+        Map<String, Double> totals = new TreeMap<>();
+        stages.forEach((stage, timer) -> totals.put(stage, toMillis(timer.totalNanos.sum())));
+        return totals;
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMillis() {
+        Map<String, Double> means = new TreeMap<>();
+        stages.forEach((stage, timer) -> {
+            long count = timer.count.sum();
+            means.put(stage, count == 0 ? 0 : toMillis(timer.totalNanos.sum()) / count);
+        });
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getStageMaxMillis() {
+        Map<String, Double> maxes = new TreeMap<>();
+        stages.forEach((stage, timer) -> maxes.put(stage, toMillis(timer.maxNanos.get())));
+        return maxes;
+    }
+
+    @Override
+    public Map<String, Long> getPayloadSizeHistogram() {
+        return snapshot(payloadSizes);
+    }
+
+    @Override
+    public Map<String, Long> getFailures() {
+        return snapshot(failures);
+    }
+
+    @Override
+    public void reset() {
+        stages.clear();
+        payloadSizes.clear();
+        failures.clear();
+        encryptCount.reset();
+        decryptCount.reset();
+        encryptedBytes.reset();
+        decryptedBytes.reset();
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> snapshot = new TreeMap<>();
+        counters.forEach((name, counter) -> snapshot.put(name, counter.sum()));
+        return snapshot;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+}
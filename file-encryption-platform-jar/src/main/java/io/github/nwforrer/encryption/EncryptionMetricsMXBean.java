@@ -0,0 +1,53 @@
+package io.github.nwforrer.encryption;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link EncryptionMetrics}. Times are in milliseconds.
+ */
+public interface EncryptionMetricsMXBean {
+
+    long getEncryptCount();
+
+    long getDecryptCount();
+
+    long getEncryptedBytes();
+
+    long getDecryptedBytes();
+
+    long getFailureCount();
+
+    /**
+     * @return number of times each stage ran
+     */
+    Map<String, Long> getStageCounts();
+
+    /**
+     * @return total time spent in each stage
+     */
+    Map<String, Double> getStageTotalMillis();
+
+    /**
+     * @return mean time spent in each stage
+     */
+    Map<String, Double> getStageMeanMillis();
+
+    /**
+     * @return longest time spent in each stage
+     */
+    Map<String, Double> getStageMaxMillis();
+
+    /**
+     * @return number of payloads per size bucket, keyed by operation and bucket upper bound, for example
+     * `encrypt.le_1MB`
+     */
+    Map<String, Long> getPayloadSizeHistogram();
+
+    /**
+     * @return number of failures, keyed by operation and exception type, for example
+     * `decrypt.org.bouncycastle.openpgp.PGPException`
+     */
+    Map<String, Long> getFailures();
+
+    void reset();
+}
@@ -0,0 +1,216 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Describes how {@link GPGEncryptionUtil} encrypts content: the symmetric cipher, the compression algorithm and level,
+ * whether compression is skipped for content that is already compressed, whether the output is armored, whether
+ * content is encrypted with a shared data key rather than directly to the public key, whether it is written in the
+ * segmented format rather than as an OpenPGP message, and whether identical content shares its ciphertext.
+ */
+public class EncryptionProfile {
+
+    public static final EncryptionProfile DEFAULT = builder("default")
+            .compression(CompressionAlgorithmTags.ZIP)
+            .adaptiveCompression(true)
+            .armored(true)
+            .build();
+
+    private final String name;
+    private final int symmetricAlgorithm;
+    private final int compressionAlgorithm;
+    private final int compressionLevel;
+    private final boolean adaptiveCompression;
+    private final Set<String> incompressibleMimetypes;
+    private final boolean armored;
+    private final boolean envelope;
+    private final int segmentSize;
+    private final boolean dedup;
+
+    /**
+     * @param name Name of the profile
+     * @param symmetricAlgorithm OpenPGP symmetric algorithm ID used to encrypt content
+     * @param compressionAlgorithm OpenPGP compression algorithm ID, or `UNCOMPRESSED` to disable compression
+     * @param compressionLevel Deflater compression level (1-9), or -1 for the default level
+     * @param adaptiveCompression Whether to skip compression for content that does not look compressible
+     * @param incompressibleMimetypes Mimetypes that are never compressed when adaptive compression is enabled
+     * @param armored Whether to wrap the output in ASCII armor, rather than writing binary OpenPGP packets
+     * @param envelope Whether to encrypt with a data key that is wrapped once with the public key, rather than doing a
+     *                 public key operation for every file
+     * @param segmentSize Bytes of plaintext per segment in the {@link SegmentedEncryption segmented format}, or 0 to
+     *                    write an OpenPGP message
+     * @param dedup Whether content that was already encrypted with this profile, for the same recipients, reuses the
+     *              existing ciphertext instead of being encrypted again
+     */
+    public EncryptionProfile(String name, int symmetricAlgorithm, int compressionAlgorithm, int compressionLevel,
+                             boolean adaptiveCompression, Set<String> incompressibleMimetypes, boolean armored,
+                             boolean envelope, int segmentSize, boolean dedup) {
+        this.name = name;
+        this.symmetricAlgorithm = symmetricAlgorithm;
+        this.compressionAlgorithm = compressionAlgorithm;
+        this.compressionLevel = compressionLevel;
+        this.adaptiveCompression = adaptiveCompression;
+        this.incompressibleMimetypes = incompressibleMimetypes;
+        this.armored = armored;
+        this.envelope = envelope;
+        this.segmentSize = segmentSize;
+        this.dedup = dedup;
+    }
+
+    /**
+     * Start a profile that encrypts with AES-256, without compression, armor, a data key, segments or deduplication.
+     *
+     * @param name Name of the profile
+     * @return a builder of the profile
+     */
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    /**
+     * @param armored Whether to wrap the output in ASCII armor
+     * @return a copy of this profile with the given armor setting
+     */
+    public EncryptionProfile withArmored(boolean armored) {
+        if (armored == this.armored) {
+            return this;
+        }
+        return new EncryptionProfile(name, symmetricAlgorithm, compressionAlgorithm, compressionLevel, adaptiveCompression,
+                incompressibleMimetypes, armored, envelope, segmentSize, dedup);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getSymmetricAlgorithm() {
+        return symmetricAlgorithm;
+    }
+
+    public int getCompressionAlgorithm() {
+        return compressionAlgorithm;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public boolean isAdaptiveCompression() {
+        return adaptiveCompression;
+    }
+
+    public boolean isArmored() {
+        return armored;
+    }
+
+    public boolean isEnvelope() {
+        return envelope;
+    }
+
+    public boolean isSegmented() {
+        return segmentSize > 0;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public boolean isDedup() {
+        return dedup;
+    }
+
+    public EncryptionFormat getFormat() {
+        if (isSegmented()) {
+            return EncryptionFormat.SEGMENTED;
+        }
+        return armored ? EncryptionFormat.ARMORED : EncryptionFormat.BINARY;
+    }
+
+    /**
+     * @param mimetype Mimetype of the content, may be null
+     * @return true if content of this mimetype is known to be compressed already
+     */
+    public boolean isIncompressible(String mimetype) {
+        return mimetype != null && incompressibleMimetypes.contains(mimetype);
+    }
+
+    @Override
+    public String toString() {
+        return "EncryptionProfile[" + name + "]";
+    }
+
+    /**
+     * Builds an {@link EncryptionProfile}; see its constructor for what each setting means.
+     */
+    public static class Builder {
+        private final String name;
+        private int symmetricAlgorithm = SymmetricKeyAlgorithmTags.AES_256;
+        private int compressionAlgorithm = CompressionAlgorithmTags.UNCOMPRESSED;
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private boolean adaptiveCompression;
+        private Set<String> incompressibleMimetypes = Collections.emptySet();
+        private boolean armored;
+        private boolean envelope;
+        private int segmentSize;
+        private boolean dedup;
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        public Builder cipher(int symmetricAlgorithm) {
+            this.symmetricAlgorithm = symmetricAlgorithm;
+            return this;
+        }
+
+        public Builder compression(int compressionAlgorithm) {
+            this.compressionAlgorithm = compressionAlgorithm;
+            return this;
+        }
+
+        public Builder compressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        public Builder adaptiveCompression(boolean adaptiveCompression) {
+            this.adaptiveCompression = adaptiveCompression;
+            return this;
+        }
+
+        public Builder incompressibleMimetypes(Set<String> incompressibleMimetypes) {
+            this.incompressibleMimetypes = incompressibleMimetypes;
+            return this;
+        }
+
+        public Builder armored(boolean armored) {
+            this.armored = armored;
+            return this;
+        }
+
+        public Builder envelope(boolean envelope) {
+            this.envelope = envelope;
+            return this;
+        }
+
+        public Builder segmentSize(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        public Builder dedup(boolean dedup) {
+            this.dedup = dedup;
+            return this;
+        }
+
+        public EncryptionProfile build() {
+            return new EncryptionProfile(name, symmetricAlgorithm, compressionAlgorithm, compressionLevel, adaptiveCompression,
+                    incompressibleMimetypes, armored, envelope, segmentSize, dedup);
+        }
+    }
+}
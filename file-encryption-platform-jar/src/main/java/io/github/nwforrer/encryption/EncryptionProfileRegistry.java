@@ -0,0 +1,140 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Holds the encryption profiles configured in alfresco-global.properties.
+ * <p>
+ * Profiles are listed in `io.github.nwforrer.encryption.profiles`, and each one is configured with the properties
+ * `io.github.nwforrer.encryption.profile.&lt;name&gt;.cipher`, `.compression`, `.compression-level`, `.adaptive`,
+ * `.armor`, `.envelope`, `.segment-size` and `.dedup`.
+ */
+public class EncryptionProfileRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EncryptionProfileRegistry.class);
+
+    private static final String PREFIX = "io.github.nwforrer.encryption.";
+
+    private static final Map<String, Integer> CIPHERS = new HashMap<>();
+    private static final Map<String, Integer> COMPRESSIONS = new HashMap<>();
+
+    static {
+        CIPHERS.put("AES_128", SymmetricKeyAlgorithmTags.AES_128);
+        CIPHERS.put("AES_192", SymmetricKeyAlgorithmTags.AES_192);
+        CIPHERS.put("AES_256", SymmetricKeyAlgorithmTags.AES_256);
+        CIPHERS.put("TWOFISH", SymmetricKeyAlgorithmTags.TWOFISH);
+        CIPHERS.put("CAST5", SymmetricKeyAlgorithmTags.CAST5);
+        CIPHERS.put("TRIPLE_DES", SymmetricKeyAlgorithmTags.TRIPLE_DES);
+
+        COMPRESSIONS.put("NONE", CompressionAlgorithmTags.UNCOMPRESSED);
+        COMPRESSIONS.put("ZIP", CompressionAlgorithmTags.ZIP);
+        COMPRESSIONS.put("ZLIB", CompressionAlgorithmTags.ZLIB);
+        COMPRESSIONS.put("BZIP2", CompressionAlgorithmTags.BZIP2);
+    }
+
+    private final Map<String, EncryptionProfile> profiles = new HashMap<>();
+    private Properties globalProperties = new Properties();
+    private EncryptionProfile defaultProfile = EncryptionProfile.DEFAULT;
+
+    public void init() {
+        Set<String> incompressibleMimetypes = Collections.unmodifiableSet(
+                splitList(globalProperties.getProperty(PREFIX + "adaptive.incompressible-mimetypes", "")));
+
+        for (String name : splitList(globalProperties.getProperty(PREFIX + "profiles", ""))) {
+            String profilePrefix = PREFIX + "profile." + name + ".";
+            EncryptionProfile profile = EncryptionProfile.builder(name)
+                    .cipher(lookup(CIPHERS, globalProperties.getProperty(profilePrefix + "cipher", "AES_256"), name))
+                    .compression(lookup(COMPRESSIONS, globalProperties.getProperty(profilePrefix + "compression", "ZIP"), name))
+                    .compressionLevel(Integer.parseInt(globalProperties.getProperty(profilePrefix + "compression-level", String.valueOf(Deflater.DEFAULT_COMPRESSION)).trim()))
+                    .adaptiveCompression(Boolean.parseBoolean(globalProperties.getProperty(profilePrefix + "adaptive", "true").trim()))
+                    .incompressibleMimetypes(incompressibleMimetypes)
+                    .armored(Boolean.parseBoolean(globalProperties.getProperty(profilePrefix + "armor", "true").trim()))
+                    .envelope(Boolean.parseBoolean(globalProperties.getProperty(profilePrefix + "envelope", "false").trim()))
+                    .segmentSize(Integer.parseInt(globalProperties.getProperty(profilePrefix + "segment-size", "0").trim()))
+                    .dedup(Boolean.parseBoolean(globalProperties.getProperty(profilePrefix + "dedup", "false").trim()))
+                    .build();
+            profiles.put(name, profile);
+            LOGGER.debug("Registered encryption profile {}", name);
+        }
+
+        String defaultName = globalProperties.getProperty(PREFIX + "default-profile");
+        if (defaultName != null && !defaultName.trim().isEmpty()) {
+            defaultProfile = getProfile(defaultName.trim());
+        }
+    }
+
+    /**
+     * @param name Name of the profile
+     * @return the profile with the given name
+     * @throws IllegalArgumentException thrown when no profile with the given name is configured
+     */
+    public EncryptionProfile getProfile(String name) {
+        EncryptionProfile profile = profiles.get(name);
+        if (profile == null) {
+            throw new IllegalArgumentException("Unknown encryption profile: " + name);
+        }
+        return profile;
+    }
+
+    public EncryptionProfile getDefaultProfile() {
+        return defaultProfile;
+    }
+
+    public void setGlobalProperties(Properties globalProperties) {
+        this.globalProperties = globalProperties;
+    }
+
+    /**
+     * @param algorithm OpenPGP symmetric key algorithm ID
+     * @return the name of the cipher as used in profiles, or the algorithm ID if it has no name
+     */
+    public static String cipherName(int algorithm) {
+        return name(CIPHERS, algorithm);
+    }
+
+    /**
+     * @param algorithm OpenPGP compression algorithm ID
+     * @return the name of the compression algorithm as used in profiles, or the algorithm ID if it has no name
+     */
+    public static String compressionName(int algorithm) {
+        return name(COMPRESSIONS, algorithm);
+    }
+
+    private static String name(Map<String, Integer> values, int id) {
+        for (Map.Entry<String, Integer> entry : values.entrySet()) {
+            if (entry.getValue() == id) {
+                return entry.getKey();
+            }
+        }
+        return Integer.toString(id);
+    }
+
+    private static int lookup(Map<String, Integer> values, String value, String profileName) {
+        Integer id = values.get(value.trim().toUpperCase());
+        if (id == null) {
+            throw new IllegalArgumentException("Unsupported algorithm '" + value + "' in encryption profile " + profileName);
+        }
+        return id;
+    }
+
+    private static Set<String> splitList(String value) {
+        Set<String> values = new HashSet<>();
+        for (String item : value.split(",")) {
+            if (!item.trim().isEmpty()) {
+                values.add(item.trim());
+            }
+        }
+        return values;
+    }
+}
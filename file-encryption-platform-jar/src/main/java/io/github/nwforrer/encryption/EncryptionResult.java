@@ -0,0 +1,47 @@
+package io.github.nwforrer.encryption;
+
+/**
+ * What encrypting a piece of content actually did, which can differ from what the profile asked for: the recipients'
+ * cipher preferences can pick another cipher, and adaptive profiles skip compression of incompressible content.
+ */
+public class EncryptionResult {
+
+    /**
+     * Cipher of content in the segmented format.
+     */
+    public static final String SEGMENTED_CIPHER = "AES_256_GCM";
+
+    private final String cipher;
+    private final String compression;
+    private final long plaintextSize;
+    private final String plaintextDigest;
+
+    /**
+     * @param cipher Name of the cipher, as used in encryption profiles
+     * @param compression Name of the compression algorithm, as used in encryption profiles
+     * @param plaintextSize Bytes of plaintext encrypted
+     * @param plaintextDigest Hex encoded SHA-256 digest of the plaintext encrypted
+     */
+    public EncryptionResult(String cipher, String compression, long plaintextSize, String plaintextDigest) {
+        this.cipher = cipher;
+        this.compression = compression;
+        this.plaintextSize = plaintextSize;
+        this.plaintextDigest = plaintextDigest;
+    }
+
+    public String getCipher() {
+        return cipher;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public long getPlaintextSize() {
+        return plaintextSize;
+    }
+
+    public String getPlaintextDigest() {
+        return plaintextDigest;
+    }
+}
@@ -1,24 +1,106 @@
 package io.github.nwforrer.encryption;
 
+import org.bouncycastle.bcpg.ArmoredInputStream;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.ContainedPacket;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
 import org.bouncycastle.openpgp.PGPUtil;
 import org.bouncycastle.openpgp.*;
+import org.bouncycastle.openpgp.operator.PBEDataDecryptorFactory;
+import org.bouncycastle.openpgp.operator.PGPDataDecryptor;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculatorProvider;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
+import org.bouncycastle.openpgp.operator.PublicKeyDataDecryptorFactory;
 import org.bouncycastle.openpgp.operator.jcajce.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.SecureRandom;
 import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Encrypts and decrypts OpenPGP messages.
+ * <p>
+ * One instance is shared by every action, so it is thread-safe once configured: it holds no per-call state. What is
+ * costly to create is created once and shared, namely the BouncyCastle provider and the JCE operator builders, which
+ * only hand out new ciphers and digests. Deflaters, inflaters and buffers cannot be shared, so they come from per-thread
+ * pools instead, see {@link PooledCompression}.
+ * <p>
+ * BouncyCastle parses and writes the packets and does the public key operations. The cipher that encrypts the content,
+ * and the digests that hash it, come from the providers chosen by {@link CryptoProviders}.
+ */
 @Component
 public class GPGEncryptionUtil {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(GPGEncryptionUtil.class);
+
     public static final String BC_PROVIDER = "BC";
 
+    // looked up once rather than by name on every operation; falls back to a private instance if BC is not registered
+    private static final Provider PROVIDER = CryptoProviders.BOUNCY_CASTLE;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     private static final int BUFFER_CHUNK_SIZE = 8192; // used as a chunk size when processing buffers into an OutputStream
+    private static final int COPY_BUFFER_SIZE = 65536; // used when copying plaintext between streams
+    private static final int ENTROPY_SAMPLE_SIZE = 4096; // bytes sampled to decide whether content is worth compressing
+    private static final int MIN_ENTROPY_SAMPLE_SIZE = 512; // smaller samples say too little about the content
+    private static final double INCOMPRESSIBLE_ENTROPY = 7.5; // bits per byte above which content is treated as compressed
+
+    // one copy buffer per thread, so that concurrent actions do not allocate a new buffer per call
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[COPY_BUFFER_SIZE]);
+
+    // the builders only hold the provider and random source, and create new operators on every build
+    private static final JcePublicKeyDataDecryptorFactoryBuilder PUBLIC_KEY_DECRYPTORS =
+            new JcePublicKeyDataDecryptorFactoryBuilder().setProvider(PROVIDER).setContentProvider(PROVIDER);
+    private static final PGPDigestCalculatorProvider DIGEST_CALCULATORS = digestCalculators(PROVIDER);
+    private static final JcePBESecretKeyDecryptorBuilder SECRET_KEY_DECRYPTORS =
+            new JcePBESecretKeyDecryptorBuilder(DIGEST_CALCULATORS).setProvider(PROVIDER);
+    private static final JcaPGPContentVerifierBuilderProvider VERIFIERS = new JcaPGPContentVerifierBuilderProvider().setProvider(PROVIDER);
+
+    private EncryptionMetrics metrics = new EncryptionMetrics();
+    private ChannelStreams channelStreams = new ChannelStreams();
+    private CryptoProviders cryptoProviders = new CryptoProviders();
+    private PartialPackets partialPackets = new PartialPackets();
+
+    // builders whose content cipher or digest provider depends on the algorithm; cleared when the providers change
+    private final Map<Integer, JcePGPDataEncryptorBuilder> encryptorBuilders = new ConcurrentHashMap<>();
+    private final Map<Integer, JcaPGPContentSignerBuilder> signerBuilders = new ConcurrentHashMap<>();
+    // builders by the provider of their content cipher or digest
+    private final Map<Provider, JcePublicKeyDataDecryptorFactoryBuilder> contentDecryptors = new ConcurrentHashMap<>();
+    private final Map<Provider, JcePBEDataDecryptorFactoryBuilder> dataKeyDecryptors = new ConcurrentHashMap<>();
+    private final Map<Provider, PGPDigestCalculatorProvider> digestCalculators = new ConcurrentHashMap<>();
+    private final PGPDigestCalculatorProvider contentDigests = algorithm ->
+            digestCalculators.computeIfAbsent(cryptoProviders.getDigestProvider(algorithm), GPGEncryptionUtil::digestCalculators).get(algorithm);
 
     /**
      * Decrypt the content available in the given `in` parameter, and write it to the given `out` parameter.
@@ -32,45 +114,259 @@ public class GPGEncryptionUtil {
      * @throws SignatureException thrown when encountering issues parsing the public/private key
      * @throws PGPException thrown when unable to parse the encrypted content
      */
-    @SuppressWarnings("rawtypes")
     public void decryptFile(InputStream in, OutputStream out, InputStream privateKeyIn, InputStream publicKeyIn, char[] passwd) throws IOException, SignatureException, PGPException {
-        in = PGPUtil.getDecoderStream(in);
+        final PGPSecretKeyRingCollection pgpSec = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(privateKeyIn));
+        decryptFile(in, out, keyID -> findSecretKey(pgpSec, keyID, passwd), readPublicKeyFromCol(publicKeyIn));
+    }
 
-        PGPObjectFactory pgpF = new PGPObjectFactory(in);
-        Object o = pgpF.nextObject();
-        PGPEncryptedDataList enc = o instanceof PGPEncryptedDataList?(PGPEncryptedDataList)o : (PGPEncryptedDataList)pgpF.nextObject();
+    /**
+     * Decrypt the content available in the given `in` parameter, and write it to the given `out` parameter. Whether
+     * the content is armored is detected from the content.
+     *
+     * @param in InputStream of content to be decrypted
+     * @param out OutputStream to write the decrypted content to
+     * @param privateKeys Provider of the private keys used to decrypt the content
+     * @param publicKey Public key used to verify signed content
+     * @throws IOException thrown when encountering exceptions reading the input, or writing to the output.
+     * @throws SignatureException thrown when encountering issues parsing the public/private key
+     * @throws PGPException thrown when unable to parse the encrypted content
+     */
+    public void decryptFile(InputStream in, OutputStream out, PrivateKeyProvider privateKeys, PGPPublicKey publicKey) throws IOException, SignatureException, PGPException {
+        decryptFile(in, out, privateKeys, publicKey, null);
+    }
 
-        Iterator it = enc.getEncryptedDataObjects();
-        PGPPrivateKey sKey = null;
-        PGPPublicKeyEncryptedData pbe = null;
-        PGPSecretKeyRingCollection  pgpSec = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(privateKeyIn));
+    /**
+     * Decrypt the content available in the given `in` parameter, and write it to the given `out` parameter.
+     *
+     * @param in InputStream of content to be decrypted
+     * @param out OutputStream to write the decrypted content to
+     * @param privateKeys Provider of the private keys used to decrypt the content
+     * @param publicKey Public key used to verify signed content, may be null
+     * @param format Format of the encrypted content, or null to detect it from the content
+     * @throws IOException thrown when encountering exceptions reading the input, or writing to the output.
+     * @throws SignatureException thrown when the content was signed with the public key, and the signature does not match
+     * @throws PGPException thrown when unable to parse the encrypted content
+     */
+    public void decryptFile(InputStream in, OutputStream out, PrivateKeyProvider privateKeys, PGPPublicKey publicKey, EncryptionFormat format) throws IOException, SignatureException, PGPException {
+        checkSignature(decryptAndVerify(in, out, privateKeys, trustedKeys(publicKey), format));
+    }
 
-        while (sKey == null && it.hasNext()){
-            pbe = (PGPPublicKeyEncryptedData)it.next();
-            sKey = findSecretKey(pgpSec, pbe.getKeyID(), passwd);
-        }
-        if (sKey == null){
-            throw new IllegalArgumentException("secret key for message not found.");
-        }
+    /**
+     * Decrypt the content available in the given `in` parameter, write it to the given `out` parameter, and check the
+     * signature on it in the same pass. The content is written whatever the outcome, so the caller has to discard it
+     * if it does not accept the result.
+     *
+     * @param in InputStream of content to be decrypted
+     * @param out OutputStream to write the decrypted content to
+     * @param privateKeys Provider of the private keys used to decrypt the content
+     * @param trustedKeys Public keys whose signatures are checked. Signatures by other keys are reported as untrusted
+     *                    without being checked.
+     * @param format Format of the encrypted content, or null to detect it from the content
+     * @return the outcome of checking the signature
+     * @throws IOException thrown when encountering exceptions reading the input, or writing to the output.
+     * @throws SignatureException thrown when the signature cannot be checked
+     * @throws PGPException thrown when unable to parse the encrypted content, or the content fails its integrity check
+     */
+    public SignatureVerification decryptAndVerify(InputStream in, OutputStream out, PrivateKeyProvider privateKeys, Collection<PGPPublicKey> trustedKeys,
+                                                  EncryptionFormat format) throws IOException, SignatureException, PGPException {
+        return writeDecrypted(openClearStream(openDecoderStream(in, format), privateKeys, null), out, trustedKeys);
+    }
+
+    /**
+     * Decrypt content that was encrypted with a data key by
+     * {@link #encryptFileWithDataKey(InputStream, OutputStream, char[], EncryptionProfile, String)}, and write it to the
+     * given `out` parameter.
+     *
+     * @param in InputStream of content to be decrypted
+     * @param out OutputStream to write the decrypted content to
+     * @param dataKey Data key the content was encrypted with
+     * @param publicKey Public key used to verify signed content, may be null
+     * @param format Format of the encrypted content, or null to detect it from the content
+     * @throws IOException thrown when encountering exceptions reading the input, or writing to the output.
+     * @throws SignatureException thrown when the content was signed with the public key, and the signature does not match
+     * @throws PGPException thrown when unable to parse the encrypted content
+     */
+    public void decryptFileWithDataKey(InputStream in, OutputStream out, char[] dataKey, PGPPublicKey publicKey, EncryptionFormat format) throws IOException, SignatureException, PGPException {
+        checkSignature(decryptAndVerifyWithDataKey(in, out, dataKey, trustedKeys(publicKey), format));
+    }
+
+    /**
+     * Decrypt content that was encrypted with a data key, and check the signature on it in the same pass, as
+     * {@link #decryptAndVerify} does.
+     *
+     * @param in InputStream of content to be decrypted
+     * @param out OutputStream to write the decrypted content to
+     * @param dataKey Data key the content was encrypted with
+     * @param trustedKeys Public keys whose signatures are checked
+     * @param format Format of the encrypted content, or null to detect it from the content
+     * @return the outcome of checking the signature
+     * @throws IOException thrown when encountering exceptions reading the input, or writing to the output.
+     * @throws SignatureException thrown when the signature cannot be checked
+     * @throws PGPException thrown when unable to parse the encrypted content, or the content fails its integrity check
+     */
+    public SignatureVerification decryptAndVerifyWithDataKey(InputStream in, OutputStream out, char[] dataKey, Collection<PGPPublicKey> trustedKeys,
+                                                             EncryptionFormat format) throws IOException, SignatureException, PGPException {
+        return writeDecrypted(openClearStream(openDecoderStream(in, format), null, dataKey), out, trustedKeys);
+    }
 
-        InputStream clear = pbe.getDataStream(new JcePublicKeyDataDecryptorFactoryBuilder().setProvider(BC_PROVIDER).setContentProvider(BC_PROVIDER).build(sKey));
-        PGPObjectFactory plainFact = new PGPObjectFactory(clear);
+    /**
+     * Decrypt the content read from the `in` channel, and write it to the `out` channel. The channels are read and
+     * written in large chunks, and are left open.
+     *
+     * @param in Channel of content to be decrypted
+     * @param out Channel to write the decrypted content to
+     * @param privateKeys Provider of the private keys used to decrypt the content
+     * @param publicKey Public key used to verify signed content, may be null
+     * @param format Format of the encrypted content, or null to detect it from the content
+     * @throws IOException thrown when encountering exceptions reading the input, or writing to the output.
+     * @throws SignatureException thrown when the content was signed with the public key, and the signature does not match
+     * @throws PGPException thrown when unable to parse the encrypted content
+     */
+    public void decryptFile(ReadableByteChannel in, WritableByteChannel out, PrivateKeyProvider privateKeys, PGPPublicKey publicKey, EncryptionFormat format) throws IOException, SignatureException, PGPException {
+        OutputStream channelOut = channelStreams.newOutputStream(out);
+        decryptFile(channelStreams.newInputStream(in), channelOut, privateKeys, publicKey, format);
+        channelOut.flush();
+    }
+
+    private SignatureVerification writeDecrypted(ClearData clear, OutputStream out, Collection<PGPPublicKey> trustedKeys) throws IOException, SignatureException, PGPException {
+        PGPObjectFactory plainFact = new PGPObjectFactory(clear.stream);
+        long start = System.nanoTime();
         Object message = plainFact.nextObject();
         if (message instanceof PGPCompressedData) {
-            PGPCompressedData cData = (PGPCompressedData) message;
-            PGPObjectFactory pgpFact = new PGPObjectFactory(cData.getDataStream());
-            message = pgpFact.nextObject();
-            if (message instanceof PGPLiteralData) {
-                parsePGLiteralData((PGPLiteralData) message, out);
-            } else if (message instanceof PGPOnePassSignatureList) {
-                parsePGOnePassSignatureList(publicKeyIn, (PGPOnePassSignatureList) message, pgpFact, out);
-            } else {
+            plainFact = new PGPObjectFactory(PooledCompression.openDecompressed((PGPCompressedData) message));
+            message = plainFact.nextObject();
+        }
+
+        long size;
+        SignatureVerification verification;
+        if (message instanceof PGPLiteralData) {
+            size = parsePGLiteralData((PGPLiteralData) message, out);
+            verification = SignatureVerification.UNSIGNED;
+        } else if (message instanceof PGPOnePassSignatureList) {
+            PGPOnePassSignatureList signatures = (PGPOnePassSignatureList) message;
+            PGPOnePassSignature ops = null;
+            for (int i = 0; i < signatures.size() && ops == null; i++) {
+                PGPPublicKey signer = findKey(trustedKeys, signatures.get(i).getKeyID());
+                if (signer != null) {
+                    ops = signatures.get(i);
+                    ops.init(VERIFIERS, signer);
+                }
+            }
+
+            message = plainFact.nextObject();
+            if (!(message instanceof PGPLiteralData)) {
                 throw new PGPException("message is not a simple encrypted file - type unknown.");
             }
-        } else if (message instanceof PGPLiteralData) {
-            parsePGLiteralData((PGPLiteralData) message, out);
+            if (ops == null) {
+                // nobody we trust signed it, so there is no point hashing the content
+                size = parsePGLiteralData((PGPLiteralData) message, out);
+                verification = new SignatureVerification(SignatureVerification.Status.UNTRUSTED, signatures.get(0).getKeyID());
+            } else {
+                size = parsePGOnePassSignatureList(ops, (PGPLiteralData) message, out);
+                verification = verifySignature(ops, plainFact.nextObject());
+            }
         } else {
-            throw new PGPException("unable to verify message");
+            throw new PGPException("message is not a simple encrypted file - type unknown.");
+        }
+
+        if (clear.encryptedData.isIntegrityProtected() && !clear.encryptedData.verify()) {
+            throw new PGPException("message failed integrity check");
+        }
+        metrics.recordStage(EncryptionMetrics.DECRYPT_STREAM, start);
+        metrics.recordPayload(EncryptionMetrics.DECRYPT, size);
+        return verification;
+    }
+
+    private static SignatureVerification verifySignature(PGPOnePassSignature ops, Object message) throws SignatureException, PGPException {
+        if (message instanceof PGPSignatureList) {
+            PGPSignatureList signatures = (PGPSignatureList) message;
+            for (int i = 0; i < signatures.size(); i++) {
+                if (signatures.get(i).getKeyID() == ops.getKeyID()) {
+                    boolean valid = ops.verify(signatures.get(i));
+                    return new SignatureVerification(valid ? SignatureVerification.Status.VALID : SignatureVerification.Status.INVALID, ops.getKeyID());
+                }
+            }
+        }
+        // a one-pass signature without its signature packet
+        return new SignatureVerification(SignatureVerification.Status.INVALID, ops.getKeyID());
+    }
+
+    private static void checkSignature(SignatureVerification verification) throws SignatureException {
+        if (verification.getStatus() == SignatureVerification.Status.INVALID) {
+            throw new SignatureException("signature by key " + Long.toHexString(verification.getSignerKeyID()) + " does not match the content");
+        }
+    }
+
+    private static Collection<PGPPublicKey> trustedKeys(PGPPublicKey publicKey) {
+        return publicKey == null ? Collections.<PGPPublicKey>emptyList() : Collections.singletonList(publicKey);
+    }
+
+    private static PGPPublicKey findKey(Collection<PGPPublicKey> keys, long keyID) {
+        for (PGPPublicKey key : keys) {
+            if (key.getKeyID() == keyID) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Open a stream that decrypts the content available in the given `in` parameter as it is read, so that the
+     * plaintext never has to be written anywhere. Closing the returned stream closes `in`.
+     * <p>
+     * Signatures on signed content are not checked by this method. The integrity of the content is checked once it
+     * has been read to the end, and reading fails with an IOException if it was tampered with or truncated.
+     *
+     * @param in InputStream of content to be decrypted
+     * @param privateKeys Provider of the private keys used to decrypt the content
+     * @param format Format of the encrypted content, or null to detect it from the content
+     * @return stream of the decrypted content
+     * @throws IOException thrown when encountering exceptions reading the input
+     * @throws PGPException thrown when unable to parse the encrypted content
+     */
+    public InputStream openDecryptedStream(InputStream in, PrivateKeyProvider privateKeys, EncryptionFormat format) throws IOException, PGPException {
+        return openDecrypted(in, privateKeys, null, format);
+    }
+
+    /**
+     * Open a stream that decrypts content encrypted with a data key as it is read. Closing the returned stream closes
+     * `in`.
+     *
+     * @param in InputStream of content to be decrypted
+     * @param dataKey Data key the content was encrypted with
+     * @param format Format of the encrypted content, or null to detect it from the content
+     * @return stream of the decrypted content
+     * @throws IOException thrown when encountering exceptions reading the input
+     * @throws PGPException thrown when unable to parse the encrypted content
+     */
+    public InputStream openDecryptedStreamWithDataKey(InputStream in, char[] dataKey, EncryptionFormat format) throws IOException, PGPException {
+        return openDecrypted(in, null, dataKey, format);
+    }
+
+    private InputStream openDecrypted(InputStream in, PrivateKeyProvider privateKeys, char[] dataKey, EncryptionFormat format) throws IOException, PGPException {
+        boolean opened = false;
+        try {
+            ClearData clear = openClearStream(openDecoderStream(in, format), privateKeys, dataKey);
+            PGPObjectFactory plainFact = new PGPObjectFactory(clear.stream);
+            Object message = plainFact.nextObject();
+            if (message instanceof PGPCompressedData) {
+                plainFact = new PGPObjectFactory(PooledCompression.openDecompressed((PGPCompressedData) message));
+                message = plainFact.nextObject();
+            }
+            if (message instanceof PGPOnePassSignatureList) {
+                message = plainFact.nextObject();
+            }
+            if (!(message instanceof PGPLiteralData)) {
+                throw new PGPException("message is not a simple encrypted file - type unknown.");
+            }
+
+            InputStream decrypted = new DecryptedInputStream(((PGPLiteralData) message).getInputStream(), clear.encryptedData, in);
+            opened = true;
+            return decrypted;
+        } finally {
+            if (!opened) {
+                in.close();
+            }
         }
     }
 
@@ -84,78 +380,667 @@ public class GPGEncryptionUtil {
      * @throws PGPException thrown when unable to encrypt the content
      */
     public void encryptFile(InputStream in, OutputStream out, InputStream publicKeyIn) throws IOException, PGPException {
-        PGPPublicKey publicKey = readPublicKeyFromCol(publicKeyIn);
+        encryptFile(in, out, readPublicKeyFromCol(publicKeyIn));
+    }
+
+    /**
+     * Encrypts the content passed in the `in` stream with the default profile, and writes it to the `out` stream.
+     *
+     * @param in Content to be encrypted
+     * @param out Destination for the encrypted content
+     * @param publicKey Public key to encrypt the content
+     * @throws IOException thrown when encountering issues reading the input
+     * @throws PGPException thrown when unable to encrypt the content
+     */
+    public void encryptFile(InputStream in, OutputStream out, PGPPublicKey publicKey) throws IOException, PGPException {
+        encryptFile(in, out, publicKey, EncryptionProfile.DEFAULT, null);
+    }
+
+    /**
+     * Encrypts the content passed in the `in` stream, and writes it to the `out` stream.
+     *
+     * @param in Content to be encrypted
+     * @param out Destination for the encrypted content
+     * @param publicKey Public key to encrypt the content
+     * @param profile Cipher and compression settings to encrypt the content with
+     * @param mimetype Mimetype of the content, used to skip compression of already compressed content. May be null.
+     * @return the cipher and compression the content was encrypted with, and the size and digest of the plaintext
+     * @throws IOException thrown when encountering issues reading the input
+     * @throws PGPException thrown when unable to encrypt the content
+     */
+    public EncryptionResult encryptFile(InputStream in, OutputStream out, PGPPublicKey publicKey, EncryptionProfile profile, String mimetype) throws IOException, PGPException {
         if (publicKey != null) {
-            out = new ArmoredOutputStream(out);
+            return encryptFile(in, out, Collections.singletonList(publicKey), profile, mimetype);
+        } else {
+            throw new PGPException("unable to read public key file");
+        }
+    }
+
+    /**
+     * Encrypts the content passed in the `in` stream for several recipients, and writes it to the `out` stream. The
+     * payload is encrypted once, and the session key is encrypted separately to each recipient's public key, so any
+     * one of the matching private keys can decrypt the content.
+     *
+     * @param in Content to be encrypted
+     * @param out Destination for the encrypted content
+     * @param recipients Public keys to encrypt the content to
+     * @param profile Cipher and compression settings to encrypt the content with
+     * @param mimetype Mimetype of the content, used to skip compression of already compressed content. May be null.
+     * @return the cipher and compression the content was encrypted with, and the size and digest of the plaintext
+     * @throws IOException thrown when encountering issues reading the input
+     * @throws PGPException thrown when unable to encrypt the content
+     */
+    public EncryptionResult encryptFile(InputStream in, OutputStream out, List<PGPPublicKey> recipients, EncryptionProfile profile, String mimetype) throws IOException, PGPException {
+        return encryptFile(in, out, recipients, profile, mimetype, null);
+    }
+
+    /**
+     * Encrypts the content passed in the `in` stream for several recipients and signs it in the same pass, and writes it
+     * to the `out` stream. The message has the layout gpg writes for `gpg --sign --encrypt`: a one-pass signature packet,
+     * the literal data and the signature, inside the encrypted (and optionally compressed) data.
+     *
+     * @param in Content to be encrypted
+     * @param out Destination for the encrypted content
+     * @param recipients Public keys to encrypt the content to
+     * @param profile Cipher and compression settings to encrypt the content with
+     * @param mimetype Mimetype of the content, used to skip compression of already compressed content. May be null.
+     * @param signingKey Key to sign the content with, or null to leave it unsigned
+     * @return the cipher and compression the content was encrypted with, and the size and digest of the plaintext
+     * @throws IOException thrown when encountering issues reading the input
+     * @throws PGPException thrown when unable to encrypt or sign the content
+     */
+    public EncryptionResult encryptFile(InputStream in, OutputStream out, List<PGPPublicKey> recipients, EncryptionProfile profile, String mimetype,
+                                        SigningKey signingKey) throws IOException, PGPException {
+        if (recipients.isEmpty()) {
+            throw new PGPException("no recipients to encrypt the content to");
+        }
+
+        List<PGPKeyEncryptionMethodGenerator> methods = new ArrayList<>(recipients.size());
+        for (PGPPublicKey recipient : recipients) {
+            methods.add(new JcePublicKeyKeyEncryptionMethodGenerator(recipient).setProvider(PROVIDER).setSecureRandom(RANDOM));
+        }
+        return encrypt(in, out, methods, selectSymmetricAlgorithm(recipients, profile.getSymmetricAlgorithm()), profile, mimetype, signingKey);
+    }
+
+    /**
+     * Encrypts the content read from the `in` channel for several recipients, and writes it to the `out` channel. The
+     * channels are read and written in large chunks, and are left open.
+     *
+     * @param in Channel of content to be encrypted
+     * @param out Channel to write the encrypted content to
+     * @param recipients Public keys to encrypt the content to
+     * @param profile Cipher and compression settings to encrypt the content with
+     * @param mimetype Mimetype of the content, used to skip compression of already compressed content. May be null.
+     * @return the cipher and compression the content was encrypted with, and the size and digest of the plaintext
+     * @throws IOException thrown when encountering issues reading the input
+     * @throws PGPException thrown when unable to encrypt the content
+     */
+    public EncryptionResult encryptFile(ReadableByteChannel in, WritableByteChannel out, List<PGPPublicKey> recipients, EncryptionProfile profile, String mimetype) throws IOException, PGPException {
+        OutputStream channelOut = channelStreams.newOutputStream(out);
+        EncryptionResult result = encryptFile(channelStreams.newInputStream(in), channelOut, recipients, profile, mimetype);
+        channelOut.flush();
+        return result;
+    }
+
+    /**
+     * Encrypts the content passed in the `in` stream with a data key rather than a public key, and writes it to the
+     * `out` stream. The output is a standard OpenPGP passphrase-encrypted message, with the data key as passphrase, so
+     * it can also be decrypted outside Alfresco, for example with `gpg --decrypt`.
+     *
+     * @param in Content to be encrypted
+     * @param out Destination for the encrypted content
+     * @param dataKey Data key to encrypt the content with
+     * @param profile Cipher and compression settings to encrypt the content with
+     * @param mimetype Mimetype of the content, used to skip compression of already compressed content. May be null.
+     * @return the cipher and compression the content was encrypted with, and the size and digest of the plaintext
+     * @throws IOException thrown when encountering issues reading the input
+     * @throws PGPException thrown when unable to encrypt the content
+     */
+    public EncryptionResult encryptFileWithDataKey(InputStream in, OutputStream out, char[] dataKey, EncryptionProfile profile, String mimetype) throws IOException, PGPException {
+        return encryptFileWithDataKey(in, out, dataKey, profile, mimetype, null);
+    }
+
+    /**
+     * Encrypts the content passed in the `in` stream with a data key and signs it in the same pass, as
+     * {@link #encryptFile(InputStream, OutputStream, List, EncryptionProfile, String, SigningKey)} does.
+     *
+     * @param in Content to be encrypted
+     * @param out Destination for the encrypted content
+     * @param dataKey Data key to encrypt the content with
+     * @param profile Cipher and compression settings to encrypt the content with
+     * @param mimetype Mimetype of the content, used to skip compression of already compressed content. May be null.
+     * @param signingKey Key to sign the content with, or null to leave it unsigned
+     * @return the cipher and compression the content was encrypted with, and the size and digest of the plaintext
+     * @throws IOException thrown when encountering issues reading the input
+     * @throws PGPException thrown when unable to encrypt or sign the content
+     */
+    public EncryptionResult encryptFileWithDataKey(InputStream in, OutputStream out, char[] dataKey, EncryptionProfile profile, String mimetype,
+                                                   SigningKey signingKey) throws IOException, PGPException {
+        return encrypt(in, out, Collections.<PGPKeyEncryptionMethodGenerator>singletonList(new JcePBEKeyEncryptionMethodGenerator(dataKey).setProvider(PROVIDER).setSecureRandom(RANDOM)),
+                profile.getSymmetricAlgorithm(), profile, mimetype, signingKey);
+    }
+
+    private EncryptionResult encrypt(InputStream in, OutputStream out, List<PGPKeyEncryptionMethodGenerator> methods, int symmetricAlgorithm,
+                                     EncryptionProfile profile, String mimetype, SigningKey signingKey) throws IOException, PGPException {
+        long start = System.nanoTime();
 
-            PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
-                    new JcePGPDataEncryptorBuilder(PGPEncryptedData.TRIPLE_DES)
-                            .setWithIntegrityPacket(true)
-                            .setProvider(BC_PROVIDER)
-            );
-            encryptedDataGenerator.addMethod(new JcePublicKeyKeyEncryptionMethodGenerator(publicKey).setProvider(BC_PROVIDER));
+        PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(encryptorBuilder(symmetricAlgorithm));
+        for (PGPKeyEncryptionMethodGenerator method : methods) {
+            encryptedDataGenerator.addMethod(method);
+        }
+
+        // the pipeline holds these buffers, and those of the compressor and cipher, whatever the size of the content
+        PartialPackets packets = partialPackets;
+        byte[] sampleBuffer = PooledCompression.BUFFERS.borrow();
+        byte[] encryptedBuffer = packets.borrowEncryptedBuffer();
+        byte[] literalBuffer = packets.borrowLiteralBuffer();
+        int compressionAlgorithm;
+        PlaintextDigest plaintext;
+        try {
+            SampledInputStream sampledIn = new SampledInputStream(in, sampleBuffer);
+            compressionAlgorithm = selectCompressionAlgorithm(profile, mimetype, sampledIn);
+            in = sampledIn;
 
-            OutputStream encryptedOut = encryptedDataGenerator.open(out, new byte[BUFFER_CHUNK_SIZE]);
-            OutputStream compressedData = new PGPCompressedDataGenerator(PGPCompressedData.ZIP).open(encryptedOut);
+            OutputStream targetOut = profile.isArmored() ? openArmoredStream(out) : out;
 
-            OutputStream finalOut = new PGPLiteralDataGenerator().open(compressedData, PGPLiteralDataGenerator.BINARY, "", new Date(), new byte[BUFFER_CHUNK_SIZE]);
+            OutputStream encryptedOut = encryptedDataGenerator.open(targetOut, encryptedBuffer);
+            OutputStream compressedData = compressionAlgorithm == CompressionAlgorithmTags.UNCOMPRESSED
+                    ? encryptedOut
+                    : PooledCompression.openCompressed(encryptedOut, compressionAlgorithm, profile.getCompressionLevel());
 
-            byte[] buf = new byte[BUFFER_CHUNK_SIZE];
-            int len;
-            while ((len = in.read(buf)) > 0) {
-                finalOut.write(buf, 0, len);
+            PGPSignatureGenerator signatureGenerator = null;
+            if (signingKey != null) {
+                signatureGenerator = new PGPSignatureGenerator(signerBuilder(signingKey.getAlgorithm()));
+                signatureGenerator.init(PGPSignature.BINARY_DOCUMENT, signingKey.getPrivateKey());
+                signatureGenerator.generateOnePassVersion(false).encode(compressedData);
             }
 
+            OutputStream finalOut = new PGPLiteralDataGenerator().open(compressedData, PGPLiteralDataGenerator.BINARY, "", new Date(), literalBuffer);
+
+            // the plaintext is digested on its way into the literal data, rather than read again afterwards
+            plaintext = newPlaintextDigest(signatureGenerator == null ? finalOut : new SigningOutputStream(finalOut, signatureGenerator));
+            copy(in, plaintext);
+
             finalOut.close();
+            if (signatureGenerator != null) {
+                try {
+                    signatureGenerator.generate().encode(compressedData);
+                } catch (SignatureException e) {
+                    throw new PGPException("unable to sign content", e);
+                }
+            }
             compressedData.close();
             encryptedOut.close();
-            out.close();
-        } else {
-            throw new PGPException("unable to read public key file");
+            if (targetOut != out) {
+                // writes the armor footer; the caller's stream is left open
+                targetOut.close();
+            }
+        } finally {
+            packets.releaseLiteralBuffer(literalBuffer);
+            packets.releaseEncryptedBuffer(encryptedBuffer);
+            PooledCompression.BUFFERS.release(sampleBuffer);
         }
+        metrics.recordStage(EncryptionMetrics.ENCRYPT_STREAM, start);
+        metrics.recordPayload(EncryptionMetrics.ENCRYPT, plaintext.getSize());
+        return new EncryptionResult(EncryptionProfileRegistry.cipherName(symmetricAlgorithm),
+                EncryptionProfileRegistry.compressionName(compressionAlgorithm), plaintext.getSize(), plaintext.getDigest());
     }
 
-    private void parsePGOnePassSignatureList(InputStream publicKeyIn, PGPOnePassSignatureList message, PGPObjectFactory pgpFact, OutputStream out) throws IOException, PGPException, SignatureException {
-        PGPPublicKey key =readPublicKeyFromCol(publicKeyIn);
-        if (key != null){
-            PGPOnePassSignature ops = message.get(0);
-            ops.init(new JcaPGPContentVerifierBuilderProvider().setProvider(BC_PROVIDER), key);
+    @SuppressWarnings("rawtypes")
+    private ClearData openClearStream(InputStream in, PrivateKeyProvider privateKeys, char[] dataKey) throws IOException, PGPException {
+        PGPObjectFactory pgpF = new PGPObjectFactory(in);
+        Object o = pgpF.nextObject();
+        PGPEncryptedDataList enc = o instanceof PGPEncryptedDataList?(PGPEncryptedDataList)o : (PGPEncryptedDataList)pgpF.nextObject();
 
-            PGPLiteralData p2 = (PGPLiteralData) pgpFact.nextObject();
-            int ch;
-            InputStream dIn = p2.getInputStream();
-            while ((ch = dIn.read()) >= 0) {
-                ops.update((byte) ch);
-                out.write(ch);
+        Iterator it = enc.getEncryptedDataObjects();
+        PGPPrivateKey sKey = null;
+        PGPPublicKeyEncryptedData pbe = null;
+        PGPPBEEncryptedData passphraseData = null;
+
+        while (sKey == null && passphraseData == null && it.hasNext()){
+            Object encryptedData = it.next();
+            if (encryptedData instanceof PGPPublicKeyEncryptedData) {
+                if (privateKeys != null) {
+                    pbe = (PGPPublicKeyEncryptedData) encryptedData;
+                    sKey = privateKeys.getPrivateKey(pbe.getKeyID());
+                }
+            } else if (dataKey != null) {
+                passphraseData = (PGPPBEEncryptedData) encryptedData;
             }
+        }
+
+        long start = System.nanoTime();
+        ClearData clear;
+        if (sKey != null) {
+            clear = new ClearData(pbe.getDataStream(publicKeyDecryptor(sKey)), pbe);
+        } else if (passphraseData != null) {
+            clear = new ClearData(passphraseData.getDataStream(dataKeyDecryptor(dataKey)), passphraseData);
+        } else if (dataKey != null) {
+            throw new IllegalArgumentException("message is not encrypted with a data key.");
         } else {
-            throw new PGPException ("unable to find public key for signed file");
+            throw new IllegalArgumentException("secret key for message not found.");
+        }
+        metrics.recordStage(EncryptionMetrics.SESSION_KEY_DECRYPT, start);
+        return clear;
+    }
+
+    /**
+     * Change who can decrypt an encrypted message without re-encrypting it. Only the session key packets at the head
+     * of the message are rewritten: the session key is recovered with one of the given private keys and encrypted to
+     * each added recipient, the packets of revoked recipients are dropped, and the encrypted payload is copied through
+     * unchanged. The cost is therefore independent of the size of the content.
+     * <p>
+     * Revoking a recipient only removes their session key packet from this copy of the message. Anyone who has
+     * already recovered the session key, or holds an earlier copy of the content, can still decrypt it.
+     *
+     * @param in Encrypted message
+     * @param out Destination for the rewritten message, in the same format as the input
+     * @param privateKeys Provider of a private key for one of the current recipients. Only needed when adding recipients.
+     * @param added Public keys of recipients to add. Recipients that can already decrypt the message are re-added.
+     * @param revokedKeyIDs Key IDs of recipients to remove
+     * @param format Format of the encrypted content, or null to detect it from the content
+     * @return the key IDs of the recipients of the rewritten message
+     * @throws IOException thrown when encountering issues reading the input or writing the output
+     * @throws PGPException thrown when the session key cannot be recovered or re-encrypted
+     */
+    public List<Long> changeRecipients(InputStream in, OutputStream out, PrivateKeyProvider privateKeys, Collection<PGPPublicKey> added,
+                                       Collection<Long> revokedKeyIDs, EncryptionFormat format) throws IOException, PGPException {
+        InputStream decoded = openDecoderStream(in, format);
+        BCPGInputStream packetsIn = new BCPGInputStream(decoded);
+
+        // session key packets by key ID, in message order
+        Map<Long, PublicKeyEncSessionPacket> sessionKeys = new LinkedHashMap<>();
+        int tag;
+        while ((tag = packetsIn.nextPacketTag()) == PacketTags.PUBLIC_KEY_ENC_SESSION || tag == PacketTags.MARKER) {
+            Object packet = packetsIn.readPacket();
+            if (packet instanceof PublicKeyEncSessionPacket) {
+                sessionKeys.put(((PublicKeyEncSessionPacket) packet).getKeyID(), (PublicKeyEncSessionPacket) packet);
+            }
+        }
+        if (tag == PacketTags.SYMMETRIC_KEY_ENC_SESSION) {
+            throw new IllegalArgumentException("message is encrypted with a data key, its recipients cannot be changed.");
+        } else if (tag != PacketTags.SYMMETRIC_KEY_ENC && tag != PacketTags.SYM_ENC_INTEGRITY_PRO) {
+            throw new PGPException("message is not a simple encrypted file - type unknown.");
+        }
+
+        List<ContainedPacket> addedPackets = new ArrayList<>(added.size());
+        if (!added.isEmpty()) {
+            long start = System.nanoTime();
+            byte[] sessionInfo = recoverSessionInfo(sessionKeys.values(), privateKeys);
+            metrics.recordStage(EncryptionMetrics.SESSION_KEY_DECRYPT, start);
+            int symmetricAlgorithm = sessionInfo[0] & 0xff;
+            for (PGPPublicKey recipient : added) {
+                int[] preferred = preferredSymmetricAlgorithms(recipient);
+                if (preferred != null && !allows(preferred, symmetricAlgorithm)) {
+                    LOGGER.warn("Key {} does not allow symmetric algorithm {} used by the message", Long.toHexString(recipient.getKeyID()), symmetricAlgorithm);
+                }
+                sessionKeys.remove(recipient.getKeyID());
+                addedPackets.add(new JcePublicKeyKeyEncryptionMethodGenerator(recipient).setProvider(PROVIDER).setSecureRandom(RANDOM)
+                        .generate(symmetricAlgorithm, sessionInfo));
+            }
+            Arrays.fill(sessionInfo, (byte) 0);
+        }
+        sessionKeys.keySet().removeAll(revokedKeyIDs);
+        if (sessionKeys.isEmpty() && addedPackets.isEmpty()) {
+            throw new IllegalArgumentException("cannot revoke every recipient of a message.");
+        }
+
+        boolean armored = decoded instanceof ArmoredInputStream;
+        OutputStream targetOut = armored ? openArmoredStream(out) : out;
+        BCPGOutputStream packetsOut = new BCPGOutputStream(targetOut);
+        List<Long> recipients = new ArrayList<>(sessionKeys.keySet());
+        for (PublicKeyEncSessionPacket packet : sessionKeys.values()) {
+            packet.encode(packetsOut);
+        }
+        for (ContainedPacket packet : addedPackets) {
+            packet.encode(packetsOut);
+        }
+        for (PGPPublicKey recipient : added) {
+            recipients.add(recipient.getKeyID());
+        }
+
+        // the rest of the stream is the encrypted data packet, header included
+        copy(packetsIn, targetOut);
+        if (targetOut != out) {
+            targetOut.close();
+        }
+        return recipients;
+    }
+
+    /**
+     * @return the decrypted session info: the symmetric algorithm, the session key, and a two byte checksum
+     */
+    private static byte[] recoverSessionInfo(Collection<PublicKeyEncSessionPacket> sessionKeys, PrivateKeyProvider privateKeys) throws PGPException {
+        if (privateKeys != null) {
+            for (PublicKeyEncSessionPacket packet : sessionKeys) {
+                PGPPrivateKey key = privateKeys.getPrivateKey(packet.getKeyID());
+                if (key != null) {
+                    byte[] sessionInfo = PUBLIC_KEY_DECRYPTORS.build(key).recoverSessionData(packet.getAlgorithm(), packet.getEncSessionKey());
+                    int checksum = 0;
+                    for (int i = 1; i < sessionInfo.length - 2; i++) {
+                        checksum += sessionInfo[i] & 0xff;
+                    }
+                    if (sessionInfo.length < 4 || ((sessionInfo[sessionInfo.length - 2] & 0xff) << 8 | sessionInfo[sessionInfo.length - 1] & 0xff) != (checksum & 0xffff)) {
+                        throw new PGPException("key checksum failed");
+                    }
+                    return sessionInfo;
+                }
+            }
+        }
+        throw new IllegalArgumentException("secret key for message not found.");
+    }
+
+    /**
+     * Copy binary encrypted content into ASCII armor, for export to systems that expect armored messages.
+     *
+     * @param in Binary encrypted content
+     * @param out Destination for the armored content
+     * @throws IOException thrown when encountering issues reading the input or writing the output
+     */
+    public void armor(InputStream in, OutputStream out) throws IOException {
+        ArmoredOutputStream armoredOut = openArmoredStream(out);
+        copy(in, armoredOut);
+        armoredOut.close();
+    }
+
+    /**
+     * The armor encoder writes each character of its output separately, so it writes through a buffer, which it flushes
+     * when closed. The caller's stream is left open.
+     */
+    private static ArmoredOutputStream openArmoredStream(OutputStream out) {
+        return new ArmoredOutputStream(new BufferedOutputStream(out, BUFFER_CHUNK_SIZE));
+    }
+
+    private static InputStream openDecoderStream(InputStream in, EncryptionFormat format) throws IOException {
+        if (format == EncryptionFormat.BINARY) {
+            // binary packets are read in bulk once their headers are parsed, so a buffer here would only be copied through
+            return in;
+        }
+        // the armor decoder reads a byte at a time, so make sure those reads do not go straight to the content store
+        InputStream buffered = new BufferedInputStream(in, BUFFER_CHUNK_SIZE);
+        if (format == EncryptionFormat.ARMORED) {
+            return new ArmoredInputStream(buffered);
+        }
+        return PGPUtil.getDecoderStream(buffered);
+    }
+
+    /**
+     * Pick the symmetric algorithm to encrypt with. The profile's algorithm is used if the recipient key allows it,
+     * otherwise the recipient's most preferred algorithm is used instead.
+     */
+    static int selectSymmetricAlgorithm(PGPPublicKey publicKey, int requested) {
+        int[] preferred = preferredSymmetricAlgorithms(publicKey);
+        if (preferred == null || allows(preferred, requested)) {
+            return requested;
+        }
+
+        LOGGER.warn("Key {} does not allow symmetric algorithm {}, using {} instead", Long.toHexString(publicKey.getKeyID()), requested, preferred[0]);
+        return preferred[0];
+    }
+
+    /**
+     * Pick the symmetric algorithm to encrypt with for several recipients. The profile's algorithm is used if every
+     * recipient key allows it, otherwise the first algorithm in the recipients' preferences that all of them allow, and
+     * finally Triple DES, which every OpenPGP implementation has to support.
+     */
+    static int selectSymmetricAlgorithm(List<PGPPublicKey> recipients, int requested) {
+        if (recipients.size() == 1) {
+            return selectSymmetricAlgorithm(recipients.get(0), requested);
+        }
+
+        List<int[]> preferences = new ArrayList<>(recipients.size());
+        for (PGPPublicKey recipient : recipients) {
+            int[] preferred = preferredSymmetricAlgorithms(recipient);
+            if (preferred != null) {
+                preferences.add(preferred);
+            }
+        }
+        if (allowedByAll(preferences, requested)) {
+            return requested;
+        }
+        for (int[] preferred : preferences) {
+            for (int algorithm : preferred) {
+                if (allowedByAll(preferences, algorithm)) {
+                    LOGGER.warn("Recipients do not all allow symmetric algorithm {}, using {} instead", requested, algorithm);
+                    return algorithm;
+                }
+            }
+        }
+
+        LOGGER.warn("Recipients share no preferred symmetric algorithm, using Triple DES");
+        return SymmetricKeyAlgorithmTags.TRIPLE_DES;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static int[] preferredSymmetricAlgorithms(PGPPublicKey publicKey) {
+        Iterator it = publicKey.getSignatures();
+        while (it.hasNext()) {
+            PGPSignatureSubpacketVector hashed = ((PGPSignature) it.next()).getHashedSubPackets();
+            if (hashed != null) {
+                int[] preferred = hashed.getPreferredSymmetricAlgorithms();
+                if (preferred != null) {
+                    return preferred.length == 0 ? null : preferred;
+                }
+            }
         }
+        return null;
     }
 
-    private void parsePGLiteralData(PGPLiteralData message, OutputStream out) throws IOException {
-        InputStream unc = message.getInputStream();
-        int ch;
-        while ((ch = unc.read()) >= 0) {
-            out.write(ch);
+    private static boolean allowedByAll(List<int[]> preferences, int algorithm) {
+        for (int[] preferred : preferences) {
+            if (!allows(preferred, algorithm)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean allows(int[] preferred, int algorithm) {
+        for (int allowed : preferred) {
+            if (allowed == algorithm) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private PGPPrivateKey findSecretKey(PGPSecretKeyRingCollection pgpSec, long keyID, char[] pass)
+    /**
+     * Pick the compression algorithm to use. When adaptive compression is enabled, compression is skipped for known
+     * compressed mimetypes, and for content whose first block is close to random.
+     */
+    private static int selectCompressionAlgorithm(EncryptionProfile profile, String mimetype, SampledInputStream in) throws IOException {
+        int algorithm = profile.getCompressionAlgorithm();
+        if (algorithm == CompressionAlgorithmTags.UNCOMPRESSED || !profile.isAdaptiveCompression()) {
+            return algorithm;
+        }
+        if (profile.isIncompressible(mimetype)) {
+            LOGGER.debug("Not compressing content of type {}", mimetype);
+            return CompressionAlgorithmTags.UNCOMPRESSED;
+        }
+
+        int len = in.sample(ENTROPY_SAMPLE_SIZE);
+        if (len >= MIN_ENTROPY_SAMPLE_SIZE && entropy(in.getSample(), len) > INCOMPRESSIBLE_ENTROPY) {
+            LOGGER.debug("Not compressing high entropy content");
+            return CompressionAlgorithmTags.UNCOMPRESSED;
+        }
+        return algorithm;
+    }
+
+    /**
+     * @return the Shannon entropy of the given bytes, in bits per byte
+     */
+    static double entropy(byte[] buf, int len) {
+        int[] counts = new int[256];
+        for (int i = 0; i < len; i++) {
+            counts[buf[i] & 0xff]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / len;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+
+    private long parsePGOnePassSignatureList(PGPOnePassSignature ops, PGPLiteralData message, OutputStream out) throws IOException, SignatureException {
+        InputStream dIn = message.getInputStream();
+        byte[] buf = COPY_BUFFER.get();
+        long size = 0;
+        int len;
+        while ((len = dIn.read(buf)) >= 0) {
+            ops.update(buf, 0, len);
+            out.write(buf, 0, len);
+            size += len;
+        }
+        return size;
+    }
+
+    private long parsePGLiteralData(PGPLiteralData message, OutputStream out) throws IOException {
+        return copy(message.getInputStream(), out);
+    }
+
+    /**
+     * The digest recorded for content, SHA-256, from the provider chosen for it.
+     *
+     * @param out Stream the plaintext is passed on to, or null to only count and digest it
+     * @return a stream that counts and digests the plaintext written to it
+     */
+    public PlaintextDigest newPlaintextDigest(OutputStream out) {
+        try {
+            return new PlaintextDigest(out, MessageDigest.getInstance("SHA-256", cryptoProviders.getDigestProvider(PGPUtil.SHA256)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = COPY_BUFFER.get();
+        long size = 0;
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            out.write(buf, 0, len);
+            size += len;
+        }
+        return size;
+    }
+
+    static PGPPrivateKey findSecretKey(PGPSecretKeyRingCollection pgpSec, long keyID, char[] pass)
             throws PGPException {
         PGPSecretKey pgpSecKey = pgpSec.getSecretKey(keyID);
         if (pgpSecKey == null){
             return null;
         } else {
-            return pgpSecKey.extractPrivateKey(new JcePBESecretKeyDecryptorBuilder().setProvider(BC_PROVIDER).build(pass));
+            return extractPrivateKey(pgpSecKey, pass);
+        }
+    }
+
+    static PGPPrivateKey extractPrivateKey(PGPSecretKey secretKey, char[] pass) throws PGPException {
+        return secretKey.extractPrivateKey(SECRET_KEY_DECRYPTORS.build(pass));
+    }
+
+    private JcePGPDataEncryptorBuilder encryptorBuilder(int symmetricAlgorithm) {
+        return encryptorBuilders.computeIfAbsent(symmetricAlgorithm, algorithm -> new JcePGPDataEncryptorBuilder(algorithm)
+                .setWithIntegrityPacket(true)
+                .setProvider(cryptoProviders.getCipherProvider(algorithm))
+                .setSecureRandom(RANDOM));
+    }
+
+    private JcaPGPContentSignerBuilder signerBuilder(int keyAlgorithm) {
+        return signerBuilders.computeIfAbsent(keyAlgorithm, algorithm -> new JcaPGPContentSignerBuilder(algorithm, PGPUtil.SHA256)
+                .setProvider(PROVIDER)
+                .setDigestProvider(cryptoProviders.getDigestProvider(PGPUtil.SHA256))
+                .setSecureRandom(RANDOM));
+    }
+
+    /**
+     * @return decryptor that recovers the session key with BouncyCastle, and decrypts the content with the provider
+     * chosen for its cipher
+     */
+    private PublicKeyDataDecryptorFactory publicKeyDecryptor(final PGPPrivateKey privateKey) {
+        final PublicKeyDataDecryptorFactory sessionKeys = PUBLIC_KEY_DECRYPTORS.build(privateKey);
+        return new PublicKeyDataDecryptorFactory() {
+            @Override
+            public byte[] recoverSessionData(int keyAlgorithm, BigInteger[] secKeyData) throws PGPException {
+                return sessionKeys.recoverSessionData(keyAlgorithm, secKeyData);
+            }
+
+            @Override
+            public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket, int encAlgorithm, byte[] key) throws PGPException {
+                return contentDecryptors.computeIfAbsent(contentProvider(withIntegrityPacket, encAlgorithm),
+                        provider -> new JcePublicKeyDataDecryptorFactoryBuilder().setProvider(PROVIDER).setContentProvider(provider))
+                        .build(privateKey).createDataDecryptor(withIntegrityPacket, encAlgorithm, key);
+            }
+        };
+    }
+
+    /**
+     * @return decryptor that derives the key from the data key and decrypts the content with the providers chosen for
+     * its digest and cipher
+     */
+    private PBEDataDecryptorFactory dataKeyDecryptor(final char[] dataKey) {
+        return new PBEDataDecryptorFactory(dataKey, contentDigests) {
+            @Override
+            public byte[] recoverSessionData(int keyAlgorithm, byte[] key, byte[] secKeyData) throws PGPException {
+                return dataKeyDecryptors(contentProvider(true, keyAlgorithm)).build(dataKey).recoverSessionData(keyAlgorithm, key, secKeyData);
+            }
+
+            @Override
+            public PGPDataDecryptor createDataDecryptor(boolean withIntegrityPacket, int encAlgorithm, byte[] key) throws PGPException {
+                return dataKeyDecryptors(contentProvider(withIntegrityPacket, encAlgorithm)).build(dataKey)
+                        .createDataDecryptor(withIntegrityPacket, encAlgorithm, key);
+            }
+        };
+    }
+
+    private JcePBEDataDecryptorFactoryBuilder dataKeyDecryptors(Provider provider) {
+        return dataKeyDecryptors.computeIfAbsent(provider, p -> new JcePBEDataDecryptorFactoryBuilder(contentDigests).setProvider(p));
+    }
+
+    /**
+     * Content without an integrity packet is decrypted in OpenPGP's own CFB variant, which only BouncyCastle implements.
+     */
+    private Provider contentProvider(boolean withIntegrityPacket, int symmetricAlgorithm) {
+        return withIntegrityPacket ? cryptoProviders.getCipherProvider(symmetricAlgorithm) : PROVIDER;
+    }
+
+    private static PGPDigestCalculatorProvider digestCalculators(Provider provider) {
+        try {
+            return new JcaPGPDigestCalculatorProviderBuilder().setProvider(provider).build();
+        } catch (PGPException e) {
+            throw new IllegalStateException("OpenPGP digests are not available", e);
         }
     }
 
-    @SuppressWarnings("rawtypes")
     private PGPPublicKey readPublicKeyFromCol(InputStream in) throws IOException, PGPException {
-        PGPPublicKeyRing pkRing;
-        PGPPublicKeyRingCollection pkCol = new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(in));
+        return readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(in)));
+    }
 
+    /**
+     * @return the master key of every key ring in the collection, so that a key file can hold a whole team's keys
+     */
+    @SuppressWarnings("rawtypes")
+    static List<PGPPublicKey> readPublicKeys(PGPPublicKeyRingCollection pkCol) {
+        List<PGPPublicKey> keys = new ArrayList<>();
+        Iterator it = pkCol.getKeyRings();
+        while (it.hasNext()) {
+            Iterator pkIt = ((PGPPublicKeyRing) it.next()).getPublicKeys();
+            while (pkIt.hasNext()) {
+                PGPPublicKey key = (PGPPublicKey) pkIt.next();
+                if (key.isMasterKey()) {
+                    keys.add(key);
+                    break;
+                }
+            }
+        }
+        return keys;
+    }
+
+    @SuppressWarnings("rawtypes")
+    static PGPPublicKey readPublicKey(PGPPublicKeyRingCollection pkCol) {
+        PGPPublicKeyRing pkRing;
         Iterator it = pkCol.getKeyRings();
         while (it.hasNext()) {
             pkRing = (PGPPublicKeyRing) it.next();
@@ -168,5 +1053,263 @@ public class GPGEncryptionUtil {
         }
         return null;
     }
-}
 
+    /**
+     * @return every key, master and sub keys, of every key ring in the collection; a signature may have been made by
+     * any of them
+     */
+    @SuppressWarnings("rawtypes")
+    static List<PGPPublicKey> readAllPublicKeys(PGPPublicKeyRingCollection pkCol) {
+        List<PGPPublicKey> keys = new ArrayList<>();
+        Iterator it = pkCol.getKeyRings();
+        while (it.hasNext()) {
+            Iterator pkIt = ((PGPPublicKeyRing) it.next()).getPublicKeys();
+            while (pkIt.hasNext()) {
+                keys.add((PGPPublicKey) pkIt.next());
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the first secret key in the collection that can sign, preferring master keys, or null if there is none
+     */
+    @SuppressWarnings("rawtypes")
+    static PGPSecretKey readSigningKey(PGPSecretKeyRingCollection pgpSec) {
+        PGPSecretKey subKey = null;
+        Iterator it = pgpSec.getKeyRings();
+        while (it.hasNext()) {
+            Iterator skIt = ((PGPSecretKeyRing) it.next()).getSecretKeys();
+            while (skIt.hasNext()) {
+                PGPSecretKey key = (PGPSecretKey) skIt.next();
+                if (key.isSigningKey()) {
+                    if (key.isMasterKey()) {
+                        return key;
+                    }
+                    if (subKey == null) {
+                        subKey = key;
+                    }
+                }
+            }
+        }
+        return subKey;
+    }
+
+    @Autowired(required = false)
+    public void setMetrics(EncryptionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public EncryptionMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Autowired(required = false)
+    public void setChannelStreams(ChannelStreams channelStreams) {
+        this.channelStreams = channelStreams;
+    }
+
+    public ChannelStreams getChannelStreams() {
+        return channelStreams;
+    }
+
+    @Autowired(required = false)
+    public void setCryptoProviders(CryptoProviders cryptoProviders) {
+        this.cryptoProviders = cryptoProviders;
+        encryptorBuilders.clear();
+        signerBuilders.clear();
+    }
+
+    public CryptoProviders getCryptoProviders() {
+        return cryptoProviders;
+    }
+
+    @Autowired(required = false)
+    public void setPartialPackets(PartialPackets partialPackets) {
+        this.partialPackets = partialPackets;
+    }
+
+    public PartialPackets getPartialPackets() {
+        return partialPackets;
+    }
+
+    /**
+     * Literal data stream that feeds everything written through it to a signature generator.
+     */
+    private static class SigningOutputStream extends FilterOutputStream {
+        private final PGPSignatureGenerator signatureGenerator;
+
+        SigningOutputStream(OutputStream out, PGPSignatureGenerator signatureGenerator) {
+            super(out);
+            this.signatureGenerator = signatureGenerator;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            try {
+                signatureGenerator.update((byte) b);
+            } catch (SignatureException e) {
+                throw new IOException("unable to sign content", e);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            try {
+                signatureGenerator.update(b, off, len);
+            } catch (SignatureException e) {
+                throw new IOException("unable to sign content", e);
+            }
+        }
+    }
+
+    /**
+     * Stream that can read ahead a sample of its content without consuming it, into a buffer borrowed by the caller.
+     */
+    private static class SampledInputStream extends FilterInputStream {
+        private final byte[] sample;
+        private int position;
+        private int length;
+
+        SampledInputStream(InputStream in, byte[] sample) {
+            super(in);
+            this.sample = sample;
+        }
+
+        /**
+         * @return the number of bytes sampled, less than `size` only at the end of the content
+         */
+        int sample(int size) throws IOException {
+            int read;
+            while (length < size && (read = in.read(sample, length, size - length)) >= 0) {
+                length += read;
+            }
+            return length;
+        }
+
+        byte[] getSample() {
+            return sample;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return position < length ? sample[position++] & 0xff : in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position < length) {
+                int count = Math.min(len, length - position);
+                System.arraycopy(sample, position, b, off, count);
+                position += count;
+                return count;
+            }
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (position < length) {
+                int count = (int) Math.min(n, length - position);
+                position += count;
+                return count;
+            }
+            return in.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Decrypted stream of an encrypted data packet, along with the packet, which checks the integrity of the stream once
+     * it has been read.
+     */
+    private static class ClearData {
+        private final InputStream stream;
+        private final PGPEncryptedData encryptedData;
+
+        ClearData(InputStream stream, PGPEncryptedData encryptedData) {
+            this.stream = stream;
+            this.encryptedData = encryptedData;
+        }
+    }
+
+    /**
+     * Literal data stream that closes the encrypted source when it is closed, and skips by reading through the
+     * decrypted content in large blocks, since the cipher cannot seek. Once the literal data has been read to the end,
+     * the integrity packet of the message is checked, so that tampered or truncated content fails the read rather
+     * than being returned as if it were whole.
+     */
+    private static class DecryptedInputStream extends FilterInputStream {
+        private final PGPEncryptedData encryptedData;
+        private final InputStream source;
+        private boolean verified;
+
+        DecryptedInputStream(InputStream literalData, PGPEncryptedData encryptedData, InputStream source) {
+            super(literalData);
+            this.encryptedData = encryptedData;
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                verify();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                verify();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] buf = COPY_BUFFER.get();
+            long remaining = n;
+            while (remaining > 0) {
+                int len = read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (len < 0) {
+                    break;
+                }
+                remaining -= len;
+            }
+            return n - remaining;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        private void verify() throws IOException {
+            if (verified || !encryptedData.isIntegrityProtected()) {
+                return;
+            }
+            try {
+                if (!encryptedData.verify()) {
+                    throw new IOException("message failed integrity check");
+                }
+            } catch (PGPException e) {
+                throw new IOException("message failed integrity check", e);
+            }
+            verified = true;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches parsed key rings and unlocked private keys so that the encryption actions do not have to re-read the key
+ * files and re-run the S2K passphrase derivation on every call.
+ * <p>
+ * Key files are checked for changes on every lookup. When the modification time or size of a file changes, its
+ * contents are hashed, and the file is only re-parsed if the hash differs from the cached copy. The cache holds at most
+ * `maxEntries` key files and `maxEntries` unlocked private keys, evicting the least recently used entries first.
+ * Unlocked keys are cached by the passphrase they were unlocked with as well, so a wrong passphrase never gets a key
+ * unlocked by the right one.
+ * <p>
+ * Keys that are evicted or invalidated are only dropped. BouncyCastle holds the key material in immutable BigIntegers,
+ * so it cannot be cleared, and stays in memory until it is garbage collected.
+ */
+public class KeyRingCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyRingCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private final Map<String, KeyFileEntry<PGPPublicKeyRingCollection>> publicKeyRings;
+    private final Map<String, KeyFileEntry<PGPSecretKeyRingCollection>> secretKeyRings;
+    private final Map<PrivateKeyId, PGPPrivateKey> privateKeys;
+
+    private EncryptionMetrics metrics = new EncryptionMetrics();
+    private PrivateKeyProvider keyStore;
+
+    public KeyRingCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public KeyRingCache(final int maxEntries) {
+        this.publicKeyRings = new BoundedMap<>(maxEntries);
+        this.secretKeyRings = new BoundedMap<>(maxEntries);
+        this.privateKeys = new BoundedMap<>(maxEntries);
+    }
+
+    /**
+     * Get the key used to encrypt content for the public key file at the given path.
+     *
+     * @param path Path to the public key file
+     * @return the first master key in the file
+     * @throws IOException thrown when the key file cannot be read
+     * @throws PGPException thrown when the key file cannot be parsed, or contains no master key
+     */
+    public PGPPublicKey getPublicKey(String path) throws IOException, PGPException {
+        PGPPublicKey key = GPGEncryptionUtil.readPublicKey(getPublicKeyRings(path));
+        if (key == null) {
+            throw new PGPException("unable to read public key file");
+        }
+        return key;
+    }
+
+    /**
+     * Get the keys used to encrypt content for every key ring in the public key file at the given path.
+     *
+     * @param path Path to the public key file
+     * @return the master key of each key ring in the file
+     * @throws IOException thrown when the key file cannot be read
+     * @throws PGPException thrown when the key file cannot be parsed, or contains no master key
+     */
+    public List<PGPPublicKey> getPublicKeys(String path) throws IOException, PGPException {
+        List<PGPPublicKey> keys = GPGEncryptionUtil.readPublicKeys(getPublicKeyRings(path));
+        if (keys.isEmpty()) {
+            throw new PGPException("unable to read public key file");
+        }
+        return keys;
+    }
+
+    /**
+     * Get the keys whose signatures are trusted, for the public key file at the given path.
+     *
+     * @param path Path to the public key file
+     * @return every master and sub key in the file
+     * @throws IOException thrown when the key file cannot be read
+     * @throws PGPException thrown when the key file cannot be parsed, or contains no keys
+     */
+    public List<PGPPublicKey> getVerificationKeys(String path) throws IOException, PGPException {
+        List<PGPPublicKey> keys = GPGEncryptionUtil.readAllPublicKeys(getPublicKeyRings(path));
+        if (keys.isEmpty()) {
+            throw new PGPException("unable to read public key file");
+        }
+        return keys;
+    }
+
+    /**
+     * Get the parsed public key rings in the file at the given path.
+     *
+     * @param path Path to the public key file
+     * @return the parsed key rings
+     * @throws IOException thrown when the key file cannot be read
+     * @throws PGPException thrown when the key file cannot be parsed
+     */
+    public PGPPublicKeyRingCollection getPublicKeyRings(String path) throws IOException, PGPException {
+        File file = new File(path);
+        synchronized (this) {
+            KeyFileEntry<PGPPublicKeyRingCollection> entry = publicKeyRings.get(path);
+            if (entry != null && entry.isCurrent(file)) {
+                return entry.keys;
+            }
+        }
+
+        long start = System.nanoTime();
+        byte[] content = Files.readAllBytes(file.toPath());
+        byte[] hash = hash(content);
+        synchronized (this) {
+            KeyFileEntry<PGPPublicKeyRingCollection> entry = publicKeyRings.get(path);
+            if (entry != null && Arrays.equals(entry.hash, hash)) {
+                entry.touch(file);
+                metrics.recordStage(EncryptionMetrics.KEY_LOAD, start);
+                return entry.keys;
+            }
+        }
+
+        LOGGER.debug("Loading public key file {}", path);
+        PGPPublicKeyRingCollection keys = new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(new ByteArrayInputStream(content)));
+        synchronized (this) {
+            publicKeyRings.put(path, new KeyFileEntry<>(file, hash, keys));
+        }
+        metrics.recordStage(EncryptionMetrics.KEY_LOAD, start);
+        return keys;
+    }
+
+    /**
+     * Get the unlocked private key with the given key ID from the secret key file at the given path.
+     *
+     * @param path Path to the secret key file
+     * @param keyID ID of the key to unlock
+     * @param passphrase Passphrase protecting the key
+     * @return the unlocked private key, or null if the file does not contain the key
+     * @throws IOException thrown when the key file cannot be read
+     * @throws PGPException thrown when the key file cannot be parsed, or the key cannot be unlocked
+     */
+    public PGPPrivateKey getPrivateKey(String path, long keyID, char[] passphrase) throws IOException, PGPException {
+        PGPSecretKeyRingCollection keyRings = getSecretKeyRings(path);
+        PrivateKeyId id = new PrivateKeyId(path, keyID, passphrase);
+        synchronized (this) {
+            PGPPrivateKey key = privateKeys.get(id);
+            if (key != null) {
+                return key;
+            }
+        }
+
+        // the S2K derivation is deliberately slow, so run it outside of the lock
+        long start = System.nanoTime();
+        PGPPrivateKey key = GPGEncryptionUtil.findSecretKey(keyRings, keyID, passphrase);
+        metrics.recordStage(EncryptionMetrics.PRIVATE_KEY_EXTRACTION, start);
+        if (key != null) {
+            synchronized (this) {
+                privateKeys.put(id, key);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Get the unlocked key used to sign content, from the secret key file at the given path.
+     *
+     * @param path Path to the secret key file
+     * @param passphrase Passphrase protecting the key
+     * @return the first signing key in the file, preferring master keys
+     * @throws IOException thrown when the key file cannot be read
+     * @throws PGPException thrown when the key file cannot be parsed, contains no signing key, or the key cannot be
+     * unlocked
+     */
+    public SigningKey getSigningKey(String path, char[] passphrase) throws IOException, PGPException {
+        PGPSecretKey secretKey = GPGEncryptionUtil.readSigningKey(getSecretKeyRings(path));
+        if (secretKey == null) {
+            throw new PGPException("no signing key in private key file");
+        }
+        PGPPrivateKey key = getPrivateKey(path, secretKey.getKeyID(), passphrase);
+        return new SigningKey(key, secretKey.getPublicKey().getAlgorithm());
+    }
+
+    /**
+     * Get a {@link PrivateKeyProvider} that resolves keys from the secret key file at the given path through this
+     * cache, and then from the key store, if one is set.
+     *
+     * @param path Path to the secret key file, or empty to only use the key store
+     * @param passphrase Passphrase protecting the keys in the file
+     * @return a provider backed by this cache
+     */
+    public PrivateKeyProvider getPrivateKeyProvider(final String path, final char[] passphrase) {
+        final PrivateKeyProvider keyStore = this.keyStore;
+        if (path == null || path.isEmpty()) {
+            return keyStore != null ? keyStore : keyID -> null;
+        }
+        return keyID -> {
+            PGPPrivateKey key;
+            try {
+                key = getPrivateKey(path, keyID, passphrase);
+            } catch (IOException e) {
+                throw new PGPException("unable to read private key file", e);
+            }
+            return key != null || keyStore == null ? key : keyStore.getPrivateKey(keyID);
+        };
+    }
+
+    /**
+     * @param keyStore Further private keys, such as a {@link KeyStoreIndex}, looked up when a key is not in the
+     *                 configured private key file
+     */
+    public void setKeyStore(PrivateKeyProvider keyStore) {
+        this.keyStore = keyStore;
+    }
+
+    public void setMetrics(EncryptionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Drop everything cached for the key file at the given path.
+     *
+     * @param path Path to the key file
+     */
+    public synchronized void invalidate(String path) {
+        publicKeyRings.remove(path);
+        secretKeyRings.remove(path);
+        removePrivateKeys(path);
+    }
+
+    /**
+     * Drop all cached key files and private keys.
+     */
+    public synchronized void clear() {
+        publicKeyRings.clear();
+        secretKeyRings.clear();
+        privateKeys.clear();
+    }
+
+    private PGPSecretKeyRingCollection getSecretKeyRings(String path) throws IOException, PGPException {
+        File file = new File(path);
+        synchronized (this) {
+            KeyFileEntry<PGPSecretKeyRingCollection> entry = secretKeyRings.get(path);
+            if (entry != null && entry.isCurrent(file)) {
+                return entry.keys;
+            }
+        }
+
+        long start = System.nanoTime();
+        byte[] content = Files.readAllBytes(file.toPath());
+        byte[] hash = hash(content);
+        synchronized (this) {
+            KeyFileEntry<PGPSecretKeyRingCollection> entry = secretKeyRings.get(path);
+            if (entry != null && Arrays.equals(entry.hash, hash)) {
+                entry.touch(file);
+                metrics.recordStage(EncryptionMetrics.KEY_LOAD, start);
+                return entry.keys;
+            }
+        }
+
+        LOGGER.debug("Loading secret key file {}", path);
+        PGPSecretKeyRingCollection keys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(new ByteArrayInputStream(content)));
+        synchronized (this) {
+            secretKeyRings.put(path, new KeyFileEntry<>(file, hash, keys));
+            // keys unlocked from the previous version of the file may no longer be valid
+            removePrivateKeys(path);
+        }
+        metrics.recordStage(EncryptionMetrics.KEY_LOAD, start);
+        return keys;
+    }
+
+    private void removePrivateKeys(String path) {
+        Iterator<PrivateKeyId> it = privateKeys.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().path.equals(path)) {
+                it.remove();
+            }
+        }
+    }
+
+    private static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class KeyFileEntry<T> {
+        private final byte[] hash;
+        private final T keys;
+        private long lastModified;
+        private long length;
+
+        KeyFileEntry(File file, byte[] hash, T keys) {
+            this.hash = hash;
+            this.keys = keys;
+            touch(file);
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+
+        void touch(File file) {
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+    }
+
+    private static class PrivateKeyId {
+        private final String path;
+        private final long keyID;
+        // a hash rather than the passphrase itself, so the cache does not hold on to it
+        private final byte[] passphraseHash;
+
+        PrivateKeyId(String path, long keyID, char[] passphrase) {
+            this.path = path;
+            this.keyID = keyID;
+            ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(passphrase));
+            byte[] bytes = new byte[encoded.remaining()];
+            encoded.get(bytes);
+            try {
+                this.passphraseHash = hash(bytes);
+            } finally {
+                Arrays.fill(bytes, (byte) 0);
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PrivateKeyId)) {
+                return false;
+            }
+            PrivateKeyId other = (PrivateKeyId) o;
+            return keyID == other.keyID && path.equals(other.path) && Arrays.equals(passphraseHash, other.passphraseHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * path.hashCode() + Long.hashCode(keyID)) + Arrays.hashCode(passphraseHash);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the secret keys of every key file in a directory, indexed by key ID, so that content encrypted to any of
+ * hundreds of keys is decrypted without searching or re-reading the key files.
+ * <p>
+ * Master keys and sub keys are both indexed, since content is usually encrypted to a sub key. The directory is scanned
+ * on {@link #init()}, and again when a key is asked for that is not in the index, at most every `rescanInterval`
+ * milliseconds, so that keys added to the directory are picked up without a restart. Only files that changed since
+ * the last scan are parsed again; files that are not secret key rings, such as public keys, are skipped. Keys are
+ * unlocked when first used, with the passphrase from the {@link PassphraseProvider}, and then kept unlocked until
+ * their file changes or is removed. A key that cannot be unlocked, for want of a passphrase or with the wrong one, fails
+ * straight away until its file changes or the directory is scanned again.
+ */
+public class KeyStoreIndex implements PrivateKeyProvider {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyStoreIndex.class);
+
+    private final File directory;
+    private final PassphraseProvider passphrases;
+
+    private long rescanInterval = 60000;
+    private EncryptionMetrics metrics = new EncryptionMetrics();
+
+    // replaced as a whole by every scan, so that lookups need no lock
+    private volatile Map<Long, IndexedKey> keys = Collections.emptyMap();
+    // unlocked keys in the index, dropped once they leave it
+    private final Map<Long, PGPPrivateKey> unlocked = new ConcurrentHashMap<>();
+    // guarded by this
+    private final Map<String, KeyFile> files = new HashMap<>();
+    private volatile long lastScan;
+
+    /**
+     * @param directory Directory of secret key files, or empty for an empty key store
+     * @param passphrases Provider of the passphrases of the keys
+     */
+    public KeyStoreIndex(String directory, PassphraseProvider passphrases) {
+        this.directory = directory == null || directory.trim().isEmpty() ? null : new File(directory.trim());
+        this.passphrases = passphrases;
+    }
+
+    public void init() {
+        scan();
+    }
+
+    /**
+     * Forget every unlocked key.
+     */
+    public void destroy() {
+        unlocked.clear();
+    }
+
+    @Override
+    public PGPPrivateKey getPrivateKey(long keyID) throws PGPException {
+        IndexedKey indexed = keys.get(keyID);
+        if (indexed == null) {
+            if (System.currentTimeMillis() - lastScan < rescanInterval || !rescan()) {
+                return null;
+            }
+            indexed = keys.get(keyID);
+            if (indexed == null) {
+                return null;
+            }
+        }
+        PGPPrivateKey key = indexed.privateKey;
+        if (key != null) {
+            return key;
+        }
+        PGPException failure = indexed.failure;
+        if (failure != null) {
+            throw failure;
+        }
+        return unlock(indexed);
+    }
+
+    /**
+     * @return IDs of every key in the index
+     */
+    public Set<Long> getKeyIDs() {
+        return Collections.unmodifiableSet(keys.keySet());
+    }
+
+    /**
+     * @return number of keys unlocked so far
+     */
+    public int getUnlockedCount() {
+        return unlocked.size();
+    }
+
+    /**
+     * Scan the directory for new, changed and removed key files, and update the index to match.
+     */
+    public synchronized void scan() {
+        lastScan = System.currentTimeMillis();
+        if (directory == null) {
+            return;
+        }
+
+        File[] listed = directory.listFiles(file -> file.isFile() && !file.isHidden());
+        if (listed == null) {
+            LOGGER.warn("Key store directory {} cannot be read", directory);
+            return;
+        }
+        // in name order, so that the file a duplicated key is taken from does not depend on the file system
+        Arrays.sort(listed);
+
+        Map<String, KeyFile> current = new LinkedHashMap<>();
+        for (File file : listed) {
+            String path = file.getPath();
+            KeyFile keyFile = files.get(path);
+            if (keyFile == null || !keyFile.isCurrent(file)) {
+                keyFile = load(file);
+            }
+            current.put(path, keyFile);
+        }
+        files.clear();
+        files.putAll(current);
+
+        Map<Long, IndexedKey> index = new HashMap<>();
+        for (KeyFile keyFile : current.values()) {
+            for (IndexedKey key : keyFile.keys) {
+                IndexedKey existing = index.putIfAbsent(key.secretKey.getKeyID(), key);
+                if (existing != null) {
+                    LOGGER.warn("Key {} is in both {} and {}, using the first", Long.toHexString(key.secretKey.getKeyID()), existing.path, key.path);
+                }
+            }
+        }
+        keys = index;
+        // the passphrases may have changed since, so keys that failed to unlock are tried again
+        for (IndexedKey key : index.values()) {
+            key.failure = null;
+        }
+
+        // keys from files that changed or were removed are no longer the keys in the index
+        Iterator<Map.Entry<Long, PGPPrivateKey>> it = unlocked.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, PGPPrivateKey> entry = it.next();
+            IndexedKey indexed = index.get(entry.getKey());
+            if (indexed == null || indexed.privateKey != entry.getValue()) {
+                it.remove();
+            }
+        }
+        LOGGER.debug("Key store {} holds {} keys from {} files", directory, index.size(), current.size());
+    }
+
+    private synchronized boolean rescan() {
+        // another thread may have scanned while this one waited
+        if (directory == null || System.currentTimeMillis() - lastScan < rescanInterval) {
+            return false;
+        }
+        scan();
+        return true;
+    }
+
+    private KeyFile load(File file) {
+        long start = System.nanoTime();
+        KeyFile keyFile = new KeyFile(file);
+        try (InputStream in = PGPUtil.getDecoderStream(Files.newInputStream(file.toPath()))) {
+            PGPSecretKeyRingCollection rings = new PGPSecretKeyRingCollection(in);
+            Iterator<?> ringIt = rings.getKeyRings();
+            while (ringIt.hasNext()) {
+                PGPSecretKeyRing ring = (PGPSecretKeyRing) ringIt.next();
+                long masterKeyID = ring.getPublicKey().getKeyID();
+                Iterator<?> keyIt = ring.getSecretKeys();
+                while (keyIt.hasNext()) {
+                    keyFile.keys.add(new IndexedKey(file.getPath(), masterKeyID, (PGPSecretKey) keyIt.next()));
+                }
+            }
+            LOGGER.debug("Loaded {} keys from {}", keyFile.keys.size(), file);
+        } catch (IOException | PGPException | RuntimeException e) {
+            // remembered as empty until it changes, so that it is not parsed on every scan
+            keyFile.keys.clear();
+            LOGGER.debug("Skipping {}, which is not a secret key file: {}", file, e.getMessage());
+        }
+        metrics.recordStage(EncryptionMetrics.KEY_LOAD, start);
+        return keyFile;
+    }
+
+    private PGPPrivateKey unlock(IndexedKey indexed) throws PGPException {
+        // one thread runs the deliberately slow S2K derivation of a key while others wait for it
+        synchronized (indexed) {
+            if (indexed.privateKey != null) {
+                return indexed.privateKey;
+            }
+            if (indexed.failure != null) {
+                throw indexed.failure;
+            }
+            char[] passphrase = passphrases.getPassphrase(indexed.masterKeyID, indexed.path);
+            if (passphrase == null) {
+                indexed.failure = new PGPException("no passphrase for key " + Long.toHexString(indexed.secretKey.getKeyID()) + " in " + indexed.path);
+                throw indexed.failure;
+            }
+
+            long start = System.nanoTime();
+            PGPPrivateKey key;
+            try {
+                key = GPGEncryptionUtil.extractPrivateKey(indexed.secretKey, passphrase);
+            } catch (PGPException e) {
+                indexed.failure = e;
+                throw e;
+            } finally {
+                Arrays.fill(passphrase, '\0');
+            }
+            metrics.recordStage(EncryptionMetrics.PRIVATE_KEY_EXTRACTION, start);
+            indexed.privateKey = key;
+            // a scan may have replaced the key while it was being unlocked
+            if (keys.get(indexed.secretKey.getKeyID()) == indexed) {
+                unlocked.put(indexed.secretKey.getKeyID(), key);
+            }
+            return key;
+        }
+    }
+
+    public void setRescanInterval(long rescanInterval) {
+        this.rescanInterval = rescanInterval;
+    }
+
+    public void setMetrics(EncryptionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private static class IndexedKey {
+        private final String path;
+        private final long masterKeyID;
+        private final PGPSecretKey secretKey;
+        private volatile PGPPrivateKey privateKey;
+        // why the key could not be unlocked, until the next scan
+        private volatile PGPException failure;
+
+        IndexedKey(String path, long masterKeyID, PGPSecretKey secretKey) {
+            this.path = path;
+            this.masterKeyID = masterKeyID;
+            this.secretKey = secretKey;
+        }
+    }
+
+    private static class KeyFile {
+        private final long lastModified;
+        private final long length;
+        private final List<IndexedKey> keys = new ArrayList<>();
+
+        KeyFile(File file) {
+            this.lastModified = file.lastModified();
+            this.length = file.length();
+        }
+
+        boolean isCurrent(File file) {
+            return file.lastModified() == lastModified && file.length() == length;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.github.nwforrer.encryption;
+
+/**
+ * Sizes of the partial packets that encrypted content is written in, with per-thread pools of their buffers.
+ * <p>
+ * The length of the content is not known up front, so the literal data and the encrypted data are each written as a
+ * series of partial packets, one per filled buffer of the generator writing them. An encryption therefore holds the
+ * same few buffers whatever the size of the content. Larger packets mean fewer packet headers and larger writes to the
+ * layer below, at the cost of more memory per concurrent encryption. OpenPGP requires partial packets to be a power
+ * of two of at least 512 bytes, and BouncyCastle limits them to 2^30 bytes.
+ */
+public class PartialPackets {
+
+    public static final int DEFAULT_SIZE = PooledCompression.BUFFER_SIZE;
+
+    static final int MIN_SIZE = 512;
+    static final int MAX_SIZE = 1 << 30;
+
+    // buffers larger than the default are only kept for the next encryption on the same thread
+    private static final int MAX_IDLE_LARGE_BUFFERS = 2;
+
+    private final int literalSize;
+    private final int encryptedSize;
+    private final ThreadLocalPool<byte[]> literalBuffers;
+    private final ThreadLocalPool<byte[]> encryptedBuffers;
+
+    public PartialPackets() {
+        this(DEFAULT_SIZE, DEFAULT_SIZE);
+    }
+
+    /**
+     * @param literalSize Bytes of plaintext per partial literal data packet
+     * @param encryptedSize Bytes of ciphertext per partial encrypted data packet
+     */
+    public PartialPackets(int literalSize, int encryptedSize) {
+        this.literalSize = checkSize("literal", literalSize);
+        this.encryptedSize = checkSize("encrypted", encryptedSize);
+        this.literalBuffers = buffers(literalSize);
+        this.encryptedBuffers = encryptedSize == literalSize ? literalBuffers : buffers(encryptedSize);
+    }
+
+    public int getLiteralSize() {
+        return literalSize;
+    }
+
+    public int getEncryptedSize() {
+        return encryptedSize;
+    }
+
+    byte[] borrowLiteralBuffer() {
+        return literalBuffers.borrow();
+    }
+
+    void releaseLiteralBuffer(byte[] buffer) {
+        literalBuffers.release(buffer);
+    }
+
+    byte[] borrowEncryptedBuffer() {
+        return encryptedBuffers.borrow();
+    }
+
+    void releaseEncryptedBuffer(byte[] buffer) {
+        encryptedBuffers.release(buffer);
+    }
+
+    private static int checkSize(String packet, int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Partial " + packet + " data packets must be a power of two from " + MIN_SIZE
+                    + " to " + MAX_SIZE + " bytes: " + size);
+        }
+        return size;
+    }
+
+    private static ThreadLocalPool<byte[]> buffers(int size) {
+        if (size == PooledCompression.BUFFER_SIZE) {
+            return PooledCompression.BUFFERS;
+        }
+        return new ThreadLocalPool<>(() -> new byte[size], buffer -> { }, buffer -> { }, MAX_IDLE_LARGE_BUFFERS);
+    }
+}
@@ -0,0 +1,18 @@
+package io.github.nwforrer.encryption;
+
+/**
+ * Supplies the passphrases of the secret keys in a {@link KeyStoreIndex}. A passphrase is only asked for when a key is
+ * first needed to decrypt content.
+ */
+public interface PassphraseProvider {
+
+    /**
+     * Look up the passphrase of a key ring. Every key in a ring, its master key and sub keys, is unlocked with it.
+     *
+     * @param masterKeyID ID of the master key of the ring
+     * @param keyFile Path to the file holding the ring
+     * @return a new array holding the passphrase, which the caller clears once the key is unlocked, or null if this
+     * provider does not know it
+     */
+    char[] getPassphrase(long masterKeyID, String keyFile);
+}
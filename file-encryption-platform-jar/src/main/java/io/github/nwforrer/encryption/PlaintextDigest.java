@@ -0,0 +1,74 @@
+package io.github.nwforrer.encryption;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Counts and digests the plaintext written through it on its way to another stream, so that the size and digest of
+ * content come out of the same pass that encrypts or decrypts it. Without a destination the plaintext is only counted
+ * and digested, which checks content against its recorded digest without writing it anywhere.
+ */
+public class PlaintextDigest extends FilterOutputStream {
+
+    private final MessageDigest digest;
+    private long size;
+
+    /**
+     * @param out Stream the plaintext is passed on to, or null to discard it
+     * @param digest Digest to update with the plaintext
+     */
+    public PlaintextDigest(OutputStream out, MessageDigest digest) {
+        super(out);
+        this.digest = digest;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        digest.update((byte) b);
+        size++;
+        if (out != null) {
+            out.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        digest.update(b, off, len);
+        size += len;
+        if (out != null) {
+            out.write(b, off, len);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+
+    /**
+     * @return bytes of plaintext written so far
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Completes the digest, so it can only be called once all of the plaintext has been written.
+     *
+     * @return the hex encoded digest of the plaintext
+     */
+    public String getDigest() {
+        return ContentDigests.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,225 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.bcpg.BCPGOutputStream;
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
+import org.bouncycastle.openpgp.PGPException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes OpenPGP compressed data packets with deflaters and inflaters from a per-thread pool.
+ * <p>
+ * BouncyCastle creates a new deflater or inflater for every packet, and never ends the inflaters it creates, so their
+ * native memory is only freed once they are finalized. Under concurrent load that is a large share of the garbage an
+ * encryption or decryption produces. ZIP and ZLIB packets are handled here instead; BZIP2 is left to BouncyCastle.
+ */
+final class PooledCompression {
+
+    static final int BUFFER_SIZE = 8192;
+
+    private static final int MAX_IDLE = 2;
+
+    private static final ThreadLocalPool<Deflater> ZIP_DEFLATERS = deflaters(true);
+    private static final ThreadLocalPool<Deflater> ZLIB_DEFLATERS = deflaters(false);
+    private static final ThreadLocalPool<Inflater> ZIP_INFLATERS = inflaters(true);
+    private static final ThreadLocalPool<Inflater> ZLIB_INFLATERS = inflaters(false);
+
+    /**
+     * Buffers of {@link #BUFFER_SIZE} bytes, also used for the packet buffers of the encryption pipeline.
+     */
+    static final ThreadLocalPool<byte[]> BUFFERS = new ThreadLocalPool<>(() -> new byte[BUFFER_SIZE], buffer -> { }, buffer -> { }, 8);
+
+    private PooledCompression() {
+    }
+
+    /**
+     * @param out Stream to write the compressed data packet to; it is left open
+     * @param algorithm ZIP, ZLIB or BZIP2
+     * @param level Deflate compression level, or -1 for the default
+     * @return stream that compresses what is written to it. Closing it finishes the packet.
+     */
+    static OutputStream openCompressed(OutputStream out, int algorithm, int level) throws IOException, PGPException {
+        if (algorithm != CompressionAlgorithmTags.ZIP && algorithm != CompressionAlgorithmTags.ZLIB) {
+            return new PGPCompressedDataGenerator(algorithm, level).open(out);
+        }
+        ThreadLocalPool<Deflater> pool = algorithm == CompressionAlgorithmTags.ZIP ? ZIP_DEFLATERS : ZLIB_DEFLATERS;
+        Deflater deflater = pool.borrow();
+        deflater.setLevel(level);
+        byte[] packetBuffer = BUFFERS.borrow();
+        BCPGOutputStream packetOut = new BCPGOutputStream(out, PacketTags.COMPRESSED_DATA, packetBuffer);
+        packetOut.write(algorithm);
+        return new DeflatingOutputStream(packetOut, pool, deflater, packetBuffer);
+    }
+
+    /**
+     * @param data Compressed data packet
+     * @return stream of the decompressed content. The inflater goes back to the pool once the content has been read to
+     * the end, or the stream is closed.
+     */
+    static InputStream openDecompressed(PGPCompressedData data) throws PGPException {
+        int algorithm = data.getAlgorithm();
+        if (algorithm != CompressionAlgorithmTags.ZIP && algorithm != CompressionAlgorithmTags.ZLIB) {
+            return data.getDataStream();
+        }
+        ThreadLocalPool<Inflater> pool = algorithm == CompressionAlgorithmTags.ZIP ? ZIP_INFLATERS : ZLIB_INFLATERS;
+        return new InflatingInputStream(data.getInputStream(), pool, pool.borrow(), algorithm == CompressionAlgorithmTags.ZIP);
+    }
+
+    private static ThreadLocalPool<Deflater> deflaters(boolean nowrap) {
+        return new ThreadLocalPool<>(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, nowrap), Deflater::reset, Deflater::end, MAX_IDLE);
+    }
+
+    private static ThreadLocalPool<Inflater> inflaters(boolean nowrap) {
+        return new ThreadLocalPool<>(() -> new Inflater(nowrap), Inflater::reset, Inflater::end, MAX_IDLE);
+    }
+
+    private static class DeflatingOutputStream extends OutputStream {
+        private final BCPGOutputStream packetOut;
+        private final ThreadLocalPool<Deflater> pool;
+        private final byte[] packetBuffer;
+        private final byte[] buffer = new byte[1];
+        private Deflater deflater;
+        private byte[] deflated;
+
+        DeflatingOutputStream(BCPGOutputStream packetOut, ThreadLocalPool<Deflater> pool, Deflater deflater, byte[] packetBuffer) {
+            this.packetOut = packetOut;
+            this.pool = pool;
+            this.deflater = deflater;
+            this.packetBuffer = packetBuffer;
+            this.deflated = BUFFERS.borrow();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            buffer[0] = (byte) b;
+            write(buffer, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (deflater == null) {
+                throw new IOException("stream is closed");
+            }
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                deflate();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (deflater == null) {
+                return;
+            }
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate();
+                }
+                // ends the packet without closing the stream it was written to
+                packetOut.finish();
+                packetOut.flush();
+            } finally {
+                pool.release(deflater);
+                BUFFERS.release(deflated);
+                BUFFERS.release(packetBuffer);
+                deflater = null;
+                deflated = null;
+            }
+        }
+
+        private void deflate() throws IOException {
+            int len = deflater.deflate(deflated, 0, deflated.length);
+            if (len > 0) {
+                packetOut.write(deflated, 0, len);
+            }
+        }
+    }
+
+    private static class InflatingInputStream extends InputStream {
+        private final InputStream in;
+        private final ThreadLocalPool<Inflater> pool;
+        private final boolean nowrap;
+        private final byte[] single = new byte[1];
+        private Inflater inflater;
+        private byte[] compressed;
+        private boolean eof;
+
+        InflatingInputStream(InputStream in, ThreadLocalPool<Inflater> pool, Inflater inflater, boolean nowrap) {
+            this.in = in;
+            this.pool = pool;
+            this.inflater = inflater;
+            this.nowrap = nowrap;
+            this.compressed = BUFFERS.borrow();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (inflater != null) {
+                int count;
+                try {
+                    count = inflater.inflate(b, off, len);
+                } catch (DataFormatException e) {
+                    throw new IOException("corrupt compressed data: " + e.getMessage(), e);
+                }
+                if (count > 0) {
+                    return count;
+                }
+                if (inflater.finished()) {
+                    release();
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("compressed data needs a preset dictionary");
+                } else if (inflater.needsInput()) {
+                    fill();
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            release();
+            in.close();
+        }
+
+        private void fill() throws IOException {
+            int count = in.read(compressed, 0, compressed.length);
+            if (count < 0) {
+                if (eof || !nowrap) {
+                    throw new EOFException("Unexpected end of ZIP input stream");
+                }
+                // a raw deflate stream needs one byte past its end before the inflater reports it finished
+                compressed[0] = 0;
+                count = 1;
+                eof = true;
+            }
+            inflater.setInput(compressed, 0, count);
+        }
+
+        private void release() {
+            if (inflater != null) {
+                pool.release(inflater);
+                BUFFERS.release(compressed);
+                inflater = null;
+                compressed = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+
+/**
+ * Supplies unlocked private keys to {@link GPGEncryptionUtil} while decrypting content.
+ */
+public interface PrivateKeyProvider {
+
+    /**
+     * Look up the private key with the given key ID.
+     *
+     * @param keyID ID of the key the content was encrypted for
+     * @return the unlocked private key, or null if this provider does not hold the key
+     * @throws PGPException thrown when the key exists but cannot be unlocked
+     */
+    PGPPrivateKey getPrivateKey(long keyID) throws PGPException;
+}
@@ -0,0 +1,59 @@
+package io.github.nwforrer.encryption;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Holds the additional recipients configured per site in alfresco-global.properties.
+ * <p>
+ * Content encrypted in a site is also encrypted to the public key files listed in
+ * `io.github.nwforrer.encryption.site.&lt;shortName&gt;.recipient-key-paths`. Every key ring in each file is a recipient.
+ */
+public class RecipientRegistry {
+
+    private static final String PREFIX = "io.github.nwforrer.encryption.site.";
+
+    private Properties globalProperties = new Properties();
+
+    /**
+     * @param siteShortName Short name of the site, may be null for content outside a site
+     * @return paths of the public key files to also encrypt the site's content to
+     */
+    public List<String> getRecipientKeyPaths(String siteShortName) {
+        if (siteShortName == null) {
+            return Collections.emptyList();
+        }
+        return splitList(globalProperties.getProperty(PREFIX + siteShortName + ".recipient-key-paths", ""));
+    }
+
+    public void setGlobalProperties(Properties globalProperties) {
+        this.globalProperties = globalProperties;
+    }
+
+    /**
+     * Lists of key paths, such as multi-valued action parameters, arrive either as a list or as a single comma
+     * separated value.
+     *
+     * @param value List, comma separated value, or null
+     * @return the items of the list, without blank ones
+     */
+    @SuppressWarnings("unchecked")
+    public static List<String> splitList(Serializable value) {
+        if (value == null) {
+            return new ArrayList<>();
+        } else if (value instanceof Collection) {
+            return new ArrayList<>((Collection<String>) value);
+        }
+        List<String> values = new ArrayList<>();
+        for (String item : value.toString().split(",")) {
+            if (!item.trim().isEmpty()) {
+                values.add(item.trim());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Looks up the private key of content by the recipient key IDs recorded on its node when it was encrypted, rather than
+ * asking for the key of each recipient packet of the message in turn.
+ * <p>
+ * The first time a key is asked for, the recorded IDs are looked up in order and the first key held is kept; from then
+ * on only that key is given, and every other recipient is answered with null without asking the keys underneath. When
+ * nothing is recorded, or none of the recorded keys is held, every lookup goes to the keys underneath, as without this
+ * provider.
+ */
+public class RecordedKeyProvider implements PrivateKeyProvider {
+
+    private final PrivateKeyProvider keys;
+    private final List<Long> recordedKeyIDs;
+
+    private boolean resolved;
+    private PGPPrivateKey key;
+
+    /**
+     * @param keys Private keys to look the recorded keys up in
+     * @param recordedKeyIDs IDs of the recipient keys as hex, as recorded on the node, or null when none were recorded
+     */
+    public RecordedKeyProvider(PrivateKeyProvider keys, Collection<String> recordedKeyIDs) {
+        this.keys = keys;
+        if (recordedKeyIDs == null) {
+            this.recordedKeyIDs = Collections.emptyList();
+        } else {
+            this.recordedKeyIDs = new ArrayList<>();
+            for (String keyID : recordedKeyIDs) {
+                this.recordedKeyIDs.add(Long.parseUnsignedLong(keyID, 16));
+            }
+        }
+    }
+
+    @Override
+    public synchronized PGPPrivateKey getPrivateKey(long keyID) throws PGPException {
+        if (!resolved) {
+            for (int i = 0; i < recordedKeyIDs.size() && key == null; i++) {
+                key = keys.getPrivateKey(recordedKeyIDs.get(i));
+            }
+            resolved = true;
+        }
+        if (key == null) {
+            return keys.getPrivateKey(keyID);
+        }
+        return key.getKeyID() == keyID ? key : null;
+    }
+}
@@ -0,0 +1,760 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encrypts content in fixed-size segments that are sealed independently with AES-256-GCM, so that segments can be
+ * encrypted and decrypted in parallel, and a range of the content can be decrypted without decrypting everything
+ * before it.
+ * <p>
+ * The content is laid out as a header followed by the sealed segments:
+ * <pre>
+ * magic "AFES" | version (1 byte) | segment size (4 bytes) | nonce prefix (7 bytes) | wrapped key length (4 bytes) | wrapped key
+ * segment 0 | segment 1 | ... | last segment
+ * </pre>
+ * Every segment but the last holds `segment size` bytes of plaintext plus a 16 byte tag, so segment `i` starts at
+ * `header length + i * (segment size + 16)`; the segment size in the header is the index. The nonce of a segment is the
+ * nonce prefix, the segment index and a flag marking the last segment, and the header up to and including the nonce
+ * prefix is authenticated with every segment, so segments cannot be reordered, dropped from the end, or moved to
+ * another file.
+ * <p>
+ * The AES key is random per file, and is wrapped as a binary OpenPGP message, either to the recipients' public keys or
+ * with a data key. The wrapped key is not part of the authenticated data, so {@link #changeRecipients} can re-wrap it
+ * without touching the segments; a tampered wrapped key yields no key, or a key that fails every segment. Use
+ * {@link #export} to turn segmented content into a standard OpenPGP message for external recipients.
+ */
+public class SegmentedEncryption {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+
+    private static final byte[] MAGIC = {'A', 'F', 'E', 'S'};
+    private static final int VERSION = 1;
+    private static final int KEY_SIZE = 32;
+    private static final int NONCE_PREFIX_SIZE = 7;
+    private static final int NONCE_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final int AUTHENTICATED_HEADER_SIZE = MAGIC.length + 1 + 4 + NONCE_PREFIX_SIZE;
+    private static final int FIXED_HEADER_SIZE = AUTHENTICATED_HEADER_SIZE + 4;
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_WRAPPED_KEY_SIZE = 64 * 1024;
+    private static final int COPY_BUFFER_SIZE = 65536;
+
+    // the wrapped key is 32 random bytes, so there is nothing to gain from armor or compression
+    private static final EncryptionProfile KEY_WRAP_PROFILE = EncryptionProfile.builder("key-wrap").build();
+
+    // Cipher instances are not thread safe, and are expensive enough to create that each thread keeps its own
+    private static final ThreadLocal<Cipher> CIPHER = new ThreadLocal<>();
+
+    private final GPGEncryptionUtil gpgEncryptionUtil;
+    private final int parallelism;
+    private final ExecutorService executor;
+    private final SecureRandom random = new SecureRandom();
+
+    public SegmentedEncryption(GPGEncryptionUtil gpgEncryptionUtil) {
+        this(gpgEncryptionUtil, 1);
+    }
+
+    /**
+     * @param gpgEncryptionUtil Used to wrap and unwrap the content keys
+     * @param workerThreads Number of threads sealing and opening segments, or 0 for one per available processor
+     */
+    public SegmentedEncryption(GPGEncryptionUtil gpgEncryptionUtil, int workerThreads) {
+        this.gpgEncryptionUtil = gpgEncryptionUtil;
+        this.parallelism = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+        if (parallelism > 1) {
+            this.executor = Executors.newFixedThreadPool(parallelism, new NamedThreadFactory("segmented-encryption-"));
+        } else {
+            this.executor = null;
+        }
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Encrypt the content in the `in` stream for the given recipients, and write it to the `out` stream.
+     *
+     * @param in Content to be encrypted
+     * @param out Destination for the encrypted content
+     * @param recipients Public keys that can decrypt the content
+     * @param segmentSize Bytes of plaintext per segment
+     * @return the cipher, and the size and digest of the plaintext
+     * @throws IOException thrown when encountering issues reading the input or writing the output
+     * @throws PGPException thrown when unable to encrypt the content
+     */
+    public EncryptionResult encrypt(InputStream in, OutputStream out, List<PGPPublicKey> recipients, int segmentSize) throws IOException, PGPException {
+        return encrypt(in, out, recipients, null, segmentSize);
+    }
+
+    /**
+     * Encrypt the content in the `in` stream with a content key that is wrapped with a data key, and write it to the
+     * `out` stream.
+     *
+     * @param in Content to be encrypted
+     * @param out Destination for the encrypted content
+     * @param dataKey Data key to wrap the content key with
+     * @param segmentSize Bytes of plaintext per segment
+     * @return the cipher, and the size and digest of the plaintext
+     * @throws IOException thrown when encountering issues reading the input or writing the output
+     * @throws PGPException thrown when unable to encrypt the content
+     */
+    public EncryptionResult encryptWithDataKey(InputStream in, OutputStream out, char[] dataKey, int segmentSize) throws IOException, PGPException {
+        return encrypt(in, out, null, dataKey, segmentSize);
+    }
+
+    private EncryptionResult encrypt(InputStream in, OutputStream out, List<PGPPublicKey> recipients, char[] dataKey, int segmentSize) throws IOException, PGPException {
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + MAX_SEGMENT_SIZE + " bytes: " + segmentSize);
+        }
+
+        byte[] key = new byte[KEY_SIZE];
+        random.nextBytes(key);
+        byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+        random.nextBytes(noncePrefix);
+
+        ByteArrayOutputStream wrappedKey = new ByteArrayOutputStream();
+        if (dataKey != null) {
+            gpgEncryptionUtil.encryptFileWithDataKey(new ByteArrayInputStream(key), wrappedKey, dataKey, KEY_WRAP_PROFILE, null);
+        } else {
+            gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(key), wrappedKey, recipients, KEY_WRAP_PROFILE, null);
+        }
+
+        long start = System.nanoTime();
+        Header header = new Header(segmentSize, noncePrefix, wrappedKey.toByteArray());
+        header.setKey(key, gpgEncryptionUtil.getCryptoProviders().getSegmentCipherProvider());
+        try {
+            return encryptSegments(in, out, header, start);
+        } finally {
+            header.destroyKey();
+        }
+    }
+
+    private EncryptionResult encryptSegments(InputStream in, OutputStream out, Header header, long start) throws IOException, PGPException {
+        int segmentSize = header.segmentSize;
+        out.write(header.encoded);
+
+        PlaintextDigest plaintext = gpgEncryptionUtil.newPlaintextDigest(null);
+        long index = 0;
+        byte[] next = new byte[segmentSize];
+        int nextLength = readFully(in, next, segmentSize);
+        boolean last = false;
+        while (!last) {
+            List<Callable<byte[]>> batch = new ArrayList<>(parallelism);
+            while (!last && batch.size() < parallelism) {
+                final byte[] segment = next;
+                final int length = nextLength;
+                if (length < segmentSize) {
+                    last = true;
+                } else {
+                    next = new byte[segmentSize];
+                    nextLength = readFully(in, next, segmentSize);
+                    last = nextLength == 0;
+                }
+
+                final long segmentIndex = index++;
+                final boolean lastSegment = last;
+                batch.add(() -> seal(header, segmentIndex, lastSegment, segment, length));
+                plaintext.write(segment, 0, length);
+            }
+            for (byte[] sealed : run(batch)) {
+                out.write(sealed);
+            }
+        }
+
+        gpgEncryptionUtil.getMetrics().recordStage(EncryptionMetrics.ENCRYPT_STREAM, start);
+        gpgEncryptionUtil.getMetrics().recordPayload(EncryptionMetrics.ENCRYPT, plaintext.getSize());
+        return new EncryptionResult(EncryptionResult.SEGMENTED_CIPHER,
+                EncryptionProfileRegistry.compressionName(CompressionAlgorithmTags.UNCOMPRESSED), plaintext.getSize(), plaintext.getDigest());
+    }
+
+    /**
+     * Decrypt segmented content, and write it to the `out` stream.
+     *
+     * @param in Content to be decrypted
+     * @param out Destination for the decrypted content
+     * @param privateKeys Provider of the private keys used to unwrap the content key, if it is not wrapped with a data key
+     * @param dataKey Data key the content key is wrapped with, or null to unwrap it with a private key
+     * @throws IOException thrown when encountering issues reading the input or writing the output
+     * @throws PGPException thrown when the content key cannot be unwrapped, or a segment fails authentication
+     */
+    public void decrypt(InputStream in, OutputStream out, PrivateKeyProvider privateKeys, char[] dataKey) throws IOException, PGPException {
+        Header header = Header.read(in);
+        header.unwrap(gpgEncryptionUtil, privateKeys, dataKey);
+        try {
+            decryptSegments(in, out, header);
+        } finally {
+            header.destroyKey();
+        }
+    }
+
+    private void decryptSegments(InputStream in, OutputStream out, Header header) throws IOException, PGPException {
+        long start = System.nanoTime();
+        int sealedSize = header.segmentSize + TAG_SIZE;
+        long size = 0;
+        long index = 0;
+        byte[] next = new byte[sealedSize];
+        int nextLength = readFully(in, next, sealedSize);
+        boolean last = false;
+        while (!last) {
+            List<Callable<byte[]>> batch = new ArrayList<>(parallelism);
+            while (!last && batch.size() < parallelism) {
+                final byte[] segment = next;
+                final int length = nextLength;
+                if (length < sealedSize) {
+                    last = true;
+                } else {
+                    next = new byte[sealedSize];
+                    nextLength = readFully(in, next, sealedSize);
+                    last = nextLength == 0;
+                }
+
+                final long segmentIndex = index++;
+                final boolean lastSegment = last;
+                batch.add(() -> open(header, segmentIndex, lastSegment, segment, length));
+            }
+            for (byte[] plain : run(batch)) {
+                out.write(plain);
+                size += plain.length;
+            }
+        }
+
+        gpgEncryptionUtil.getMetrics().recordStage(EncryptionMetrics.DECRYPT_STREAM, start);
+        gpgEncryptionUtil.getMetrics().recordPayload(EncryptionMetrics.DECRYPT, size);
+    }
+
+    /**
+     * Open a stream that decrypts segmented content one segment at a time as it is read. Closing the returned stream
+     * closes `in`.
+     *
+     * @param in Content to be decrypted
+     * @param privateKeys Provider of the private keys used to unwrap the content key, if it is not wrapped with a data key
+     * @param dataKey Data key the content key is wrapped with, or null to unwrap it with a private key
+     * @return stream of the decrypted content
+     * @throws IOException thrown when encountering issues reading the input
+     * @throws PGPException thrown when the content key cannot be unwrapped
+     */
+    public InputStream openDecryptedStream(InputStream in, PrivateKeyProvider privateKeys, char[] dataKey) throws IOException, PGPException {
+        boolean opened = false;
+        Header header = null;
+        try {
+            header = Header.read(in);
+            header.unwrap(gpgEncryptionUtil, privateKeys, dataKey);
+            InputStream decrypted = new SegmentedInputStream(header, in, null, -1);
+            opened = true;
+            return decrypted;
+        } finally {
+            if (!opened) {
+                if (header != null) {
+                    header.destroyKey();
+                }
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Open a stream that decrypts segmented content as it is read, where skipping moves straight to the segment that
+     * holds the new position, so a range can be read by skipping to its start. Closing the returned stream closes
+     * `channel`.
+     *
+     * @param channel Content to be decrypted
+     * @param privateKeys Provider of the private keys used to unwrap the content key, if it is not wrapped with a data key
+     * @param dataKey Data key the content key is wrapped with, or null to unwrap it with a private key
+     * @return stream of the decrypted content
+     * @throws IOException thrown when encountering issues reading the input
+     * @throws PGPException thrown when the content key cannot be unwrapped
+     */
+    public InputStream openDecryptedStream(SeekableByteChannel channel, PrivateKeyProvider privateKeys, char[] dataKey) throws IOException, PGPException {
+        boolean opened = false;
+        Header header = null;
+        try {
+            channel.position(0);
+            header = Header.read(Channels.newInputStream(channel));
+            header.unwrap(gpgEncryptionUtil, privateKeys, dataKey);
+            InputStream decrypted = new SegmentedInputStream(header, null, channel, channel.size());
+            opened = true;
+            return decrypted;
+        } finally {
+            if (!opened) {
+                if (header != null) {
+                    header.destroyKey();
+                }
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Decrypt segmented content and re-encrypt it as a standard OpenPGP message, for recipients outside Alfresco.
+     *
+     * @param in Segmented content
+     * @param out Destination for the OpenPGP message
+     * @param privateKeys Provider of the private keys used to unwrap the content key, if it is not wrapped with a data key
+     * @param dataKey Data key the content key is wrapped with, or null to unwrap it with a private key
+     * @param recipients Public keys to encrypt the OpenPGP message to
+     * @param profile Cipher, compression and armor settings for the OpenPGP message
+     * @throws IOException thrown when encountering issues reading the input or writing the output
+     * @throws PGPException thrown when unable to decrypt or re-encrypt the content
+     */
+    public void export(InputStream in, OutputStream out, PrivateKeyProvider privateKeys, char[] dataKey,
+                       List<PGPPublicKey> recipients, EncryptionProfile profile) throws IOException, PGPException {
+        try (InputStream decrypted = openDecryptedStream(in, privateKeys, dataKey)) {
+            gpgEncryptionUtil.encryptFile(decrypted, out, recipients, profile, null);
+        }
+    }
+
+    /**
+     * Change who can decrypt segmented content without re-encrypting it. Only the wrapped content key in the header is
+     * rewritten, see {@link GPGEncryptionUtil#changeRecipients}; the segments are copied through unchanged.
+     *
+     * @param in Segmented content
+     * @param out Destination for the rewritten content
+     * @param privateKeys Provider of a private key for one of the current recipients. Only needed when adding recipients.
+     * @param added Public keys of recipients to add
+     * @param revokedKeyIDs Key IDs of recipients to remove
+     * @return the key IDs of the recipients of the rewritten content
+     * @throws IOException thrown when encountering issues reading the input or writing the output
+     * @throws PGPException thrown when the content key cannot be recovered or re-wrapped
+     */
+    public List<Long> changeRecipients(InputStream in, OutputStream out, PrivateKeyProvider privateKeys, Collection<PGPPublicKey> added,
+                                       Collection<Long> revokedKeyIDs) throws IOException, PGPException {
+        Header header = Header.read(in);
+        ByteArrayOutputStream wrappedKey = new ByteArrayOutputStream();
+        List<Long> recipients = gpgEncryptionUtil.changeRecipients(new ByteArrayInputStream(header.wrappedKey), wrappedKey,
+                privateKeys, added, revokedKeyIDs, EncryptionFormat.BINARY);
+
+        out.write(new Header(header.segmentSize, header.noncePrefix, wrappedKey.toByteArray()).encoded);
+        byte[] buf = new byte[COPY_BUFFER_SIZE];
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            out.write(buf, 0, len);
+        }
+        return recipients;
+    }
+
+    /**
+     * Work out the size of the plaintext from the size of the segmented content, without decrypting it.
+     *
+     * @param in Segmented content, only the header is read
+     * @param encryptedSize Total size of the segmented content
+     * @return size of the decrypted content
+     * @throws IOException thrown when the header cannot be read
+     */
+    public static long getPlaintextSize(InputStream in, long encryptedSize) throws IOException {
+        Header header = Header.read(in);
+        long sealedSize = header.segmentSize + TAG_SIZE;
+        long segments = Math.max(1, (encryptedSize - header.encoded.length + sealedSize - 1) / sealedSize);
+        return encryptedSize - header.encoded.length - segments * TAG_SIZE;
+    }
+
+    /**
+     * @param in Segmented content, only the header is read
+     * @return bytes of plaintext per segment of the content
+     * @throws IOException thrown when the header cannot be read
+     */
+    public static int getSegmentSize(InputStream in) throws IOException {
+        return Header.read(in).segmentSize;
+    }
+
+    private List<byte[]> run(List<Callable<byte[]>> batch) throws IOException, PGPException {
+        List<byte[]> results = new ArrayList<>(batch.size());
+        try {
+            if (executor == null || batch.size() == 1) {
+                for (Callable<byte[]> task : batch) {
+                    results.add(task.call());
+                }
+            } else {
+                for (Future<byte[]> result : executor.invokeAll(batch)) {
+                    results.add(result.get());
+                }
+            }
+        } catch (ExecutionException e) {
+            throw toPGPException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while processing segments", e);
+        } catch (Exception e) {
+            throw toPGPException(e);
+        }
+        return results;
+    }
+
+    private static PGPException toPGPException(Throwable e) {
+        if (e instanceof PGPException) {
+            return (PGPException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new PGPException("unable to process segment", (Exception) e);
+    }
+
+    private static byte[] seal(Header header, long index, boolean last, byte[] segment, int length) throws GeneralSecurityException {
+        Cipher cipher = cipher(header.provider);
+        cipher.init(Cipher.ENCRYPT_MODE, header.key, new GCMParameterSpec(TAG_SIZE * 8, nonce(header, index, last)));
+        cipher.updateAAD(header.encoded, 0, AUTHENTICATED_HEADER_SIZE);
+        return cipher.doFinal(segment, 0, length);
+    }
+
+    private static byte[] open(Header header, long index, boolean last, byte[] segment, int length) throws PGPException {
+        if (length < TAG_SIZE) {
+            throw new PGPException("segment " + index + " is truncated");
+        }
+        try {
+            Cipher cipher = cipher(header.provider);
+            cipher.init(Cipher.DECRYPT_MODE, header.key, new GCMParameterSpec(TAG_SIZE * 8, nonce(header, index, last)));
+            cipher.updateAAD(header.encoded, 0, AUTHENTICATED_HEADER_SIZE);
+            return cipher.doFinal(segment, 0, length);
+        } catch (GeneralSecurityException e) {
+            throw new PGPException("segment " + index + " failed authentication", e);
+        }
+    }
+
+    /**
+     * @param provider Provider of the cipher, or null for the first installed provider of it
+     * @return this thread's cipher from the provider
+     */
+    private static Cipher cipher(Provider provider) throws GeneralSecurityException {
+        Cipher cipher = CIPHER.get();
+        if (cipher == null || (provider != null && cipher.getProvider() != provider)) {
+            cipher = provider == null ? Cipher.getInstance(CryptoProviders.SEGMENT_CIPHER) : Cipher.getInstance(CryptoProviders.SEGMENT_CIPHER, provider);
+            CIPHER.set(cipher);
+        }
+        return cipher;
+    }
+
+    private static byte[] nonce(Header header, long index, boolean last) {
+        if (index > 0xffffffffL) {
+            throw new IllegalArgumentException("too many segments");
+        }
+        byte[] nonce = new byte[NONCE_SIZE];
+        System.arraycopy(header.noncePrefix, 0, nonce, 0, NONCE_PREFIX_SIZE);
+        nonce[NONCE_PREFIX_SIZE] = (byte) (index >>> 24);
+        nonce[NONCE_PREFIX_SIZE + 1] = (byte) (index >>> 16);
+        nonce[NONCE_PREFIX_SIZE + 2] = (byte) (index >>> 8);
+        nonce[NONCE_PREFIX_SIZE + 3] = (byte) index;
+        nonce[NONCE_SIZE - 1] = (byte) (last ? 1 : 0);
+        return nonce;
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int length) throws IOException {
+        int total = 0;
+        int read;
+        while (total < length && (read = in.read(buf, total, length - total)) >= 0) {
+            total += read;
+        }
+        return total;
+    }
+
+    private static class Header {
+        private final int segmentSize;
+        private final byte[] noncePrefix;
+        private final byte[] wrappedKey;
+        private final byte[] encoded;
+        private ContentKey key;
+        private Provider provider;
+
+        Header(int segmentSize, byte[] noncePrefix, byte[] wrappedKey) {
+            this.segmentSize = segmentSize;
+            this.noncePrefix = noncePrefix;
+            this.wrappedKey = wrappedKey;
+            this.encoded = ByteBuffer.allocate(FIXED_HEADER_SIZE + wrappedKey.length)
+                    .put(MAGIC)
+                    .put((byte) VERSION)
+                    .putInt(segmentSize)
+                    .put(noncePrefix)
+                    .putInt(wrappedKey.length)
+                    .put(wrappedKey)
+                    .array();
+        }
+
+        static Header read(InputStream in) throws IOException {
+            DataInputStream data = new DataInputStream(in);
+            try {
+                byte[] magic = new byte[MAGIC.length];
+                data.readFully(magic);
+                int version = data.readUnsignedByte();
+                if (!Arrays.equals(MAGIC, magic) || version != VERSION) {
+                    throw new IOException("content is not in the segmented format");
+                }
+                int segmentSize = data.readInt();
+                byte[] noncePrefix = new byte[NONCE_PREFIX_SIZE];
+                data.readFully(noncePrefix);
+                int wrappedKeyLength = data.readInt();
+                if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE || wrappedKeyLength <= 0 || wrappedKeyLength > MAX_WRAPPED_KEY_SIZE) {
+                    throw new IOException("segmented content has an invalid header");
+                }
+                byte[] wrappedKey = new byte[wrappedKeyLength];
+                data.readFully(wrappedKey);
+                return new Header(segmentSize, noncePrefix, wrappedKey);
+            } catch (EOFException e) {
+                throw new IOException("segmented content has a truncated header", e);
+            }
+        }
+
+        void unwrap(GPGEncryptionUtil gpgEncryptionUtil, PrivateKeyProvider privateKeys, char[] dataKey) throws IOException, PGPException {
+            ByteArrayOutputStream unwrapped = new ByteArrayOutputStream(KEY_SIZE);
+            try {
+                if (dataKey != null) {
+                    gpgEncryptionUtil.decryptFileWithDataKey(new ByteArrayInputStream(wrappedKey), unwrapped, dataKey, null, EncryptionFormat.BINARY);
+                } else {
+                    gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(wrappedKey), unwrapped, privateKeys, null, EncryptionFormat.BINARY);
+                }
+            } catch (SignatureException e) {
+                throw new PGPException("unable to unwrap content key", e);
+            }
+            byte[] bytes = unwrapped.toByteArray();
+            if (bytes.length != KEY_SIZE) {
+                throw new PGPException("content key has the wrong size");
+            }
+            setKey(bytes, gpgEncryptionUtil.getCryptoProviders().getSegmentCipherProvider());
+        }
+
+        /**
+         * @param bytes Content key, which is cleared once it has been copied
+         * @param provider Provider of the cipher, or null for the first installed provider of it
+         */
+        void setKey(byte[] bytes, Provider provider) {
+            this.key = new ContentKey(bytes);
+            this.provider = provider;
+            Arrays.fill(bytes, (byte) 0);
+        }
+
+        void destroyKey() {
+            if (key != null) {
+                key.destroy();
+            }
+        }
+    }
+
+    /**
+     * An AES key whose bytes can be cleared once the content is processed, which the JDK's key spec does not allow.
+     * Providers copy the key when a cipher is initialised, so only this copy is cleared.
+     */
+    private static final class ContentKey implements SecretKey {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] bytes;
+        private volatile boolean destroyed;
+
+        ContentKey(byte[] bytes) {
+            this.bytes = bytes.clone();
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "AES";
+        }
+
+        @Override
+        public String getFormat() {
+            return "RAW";
+        }
+
+        @Override
+        public byte[] getEncoded() {
+            if (destroyed) {
+                throw new IllegalStateException("content key has been destroyed");
+            }
+            return bytes.clone();
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+            Arrays.fill(bytes, (byte) 0);
+        }
+
+        @Override
+        public boolean isDestroyed() {
+            return destroyed;
+        }
+    }
+
+    /**
+     * Decrypts one segment at a time. Reading from a channel allows skipping to any segment; reading from a stream
+     * reads one segment ahead to find the last segment.
+     */
+    private static class SegmentedInputStream extends InputStream {
+        private final Header header;
+        private final InputStream in;
+        private final SeekableByteChannel channel;
+        private final int sealedSize;
+        private final long segmentCount;
+        private final byte[] sealed;
+
+        // reading from a stream needs a second buffer for the segment after the current one
+        private byte[] ahead;
+        private byte[] spare;
+        private int aheadLength = -1;
+
+        private long nextIndex;
+        private boolean done;
+        private byte[] plain = new byte[0];
+        private int pos;
+
+        SegmentedInputStream(Header header, InputStream in, SeekableByteChannel channel, long size) {
+            this.header = header;
+            this.in = in;
+            this.channel = channel;
+            this.sealedSize = header.segmentSize + TAG_SIZE;
+            this.sealed = new byte[sealedSize];
+            this.segmentCount = channel == null ? -1
+                    : Math.max(1, (size - header.encoded.length + sealedSize - 1) / sealedSize);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return plain[pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, plain.length - pos);
+            System.arraycopy(plain, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            long buffered = plain.length - pos;
+            if (n <= buffered || channel == null || done) {
+                long skipped = 0;
+                while (skipped < n && fill()) {
+                    int step = (int) Math.min(n - skipped, plain.length - pos);
+                    pos += step;
+                    skipped += step;
+                }
+                return skipped;
+            }
+
+            // jump straight to the segment holding the new position
+            long remaining = n - buffered;
+            long target = nextIndex + (remaining / header.segmentSize);
+            int offset = (int) (remaining % header.segmentSize);
+            if (target >= segmentCount) {
+                // past the end: read the last segment to find out how much was actually skipped
+                target = segmentCount - 1;
+                offset = Integer.MAX_VALUE;
+            }
+            long skipped = buffered + (target - nextIndex) * header.segmentSize;
+            nextIndex = target;
+            plain = new byte[0];
+            pos = 0;
+            if (!fill()) {
+                return skipped;
+            }
+            int step = Math.min(offset, plain.length);
+            pos = step;
+            return skipped + step;
+        }
+
+        @Override
+        public int available() {
+            return plain.length - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            done = true;
+            header.destroyKey();
+            if (channel != null) {
+                channel.close();
+            } else {
+                in.close();
+            }
+        }
+
+        private boolean fill() throws IOException {
+            while (pos >= plain.length) {
+                if (done) {
+                    return false;
+                }
+                try {
+                    plain = channel != null ? readFromChannel() : readFromStream();
+                } catch (PGPException e) {
+                    throw new IOException(e.getMessage(), e);
+                }
+                pos = 0;
+            }
+            return true;
+        }
+
+        private byte[] readFromChannel() throws IOException, PGPException {
+            long index = nextIndex++;
+            boolean last = index == segmentCount - 1;
+            done = last;
+            channel.position(header.encoded.length + index * sealedSize);
+            ByteBuffer buffer = ByteBuffer.wrap(sealed);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the segment is complete
+            }
+            return open(header, index, last, sealed, buffer.position());
+        }
+
+        private byte[] readFromStream() throws IOException, PGPException {
+            if (aheadLength < 0) {
+                ahead = sealed;
+                spare = new byte[sealedSize];
+                aheadLength = readFully(in, ahead, sealedSize);
+            }
+            byte[] current = ahead;
+            int length = aheadLength;
+            boolean last = length < sealedSize;
+            if (!last) {
+                ahead = spare;
+                spare = current;
+                aheadLength = readFully(in, ahead, sealedSize);
+                last = aheadLength == 0;
+            }
+            done = last;
+            return open(header, nextIndex++, last, current, length);
+        }
+    }
+}
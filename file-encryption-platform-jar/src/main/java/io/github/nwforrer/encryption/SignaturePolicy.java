@@ -0,0 +1,54 @@
+package io.github.nwforrer.encryption;
+
+/**
+ * What decryption does with the signature on content, configured as `io.github.nwforrer.encryption.signature-policy`.
+ */
+public enum SignaturePolicy {
+    /**
+     * Signatures are not checked.
+     */
+    IGNORE,
+    /**
+     * Signatures are checked and the result is recorded, but content is decrypted whatever the result.
+     */
+    RECORD,
+    /**
+     * Content with an invalid signature, or a signature by a key that is not trusted, is not decrypted. Unsigned
+     * content is.
+     */
+    VERIFY,
+    /**
+     * Only content with a valid signature by a trusted key is decrypted.
+     */
+    REQUIRE;
+
+    /**
+     * @param value Policy name as configured, in any case
+     * @return the matching policy
+     * @throws IllegalArgumentException thrown when no policy has the given name
+     */
+    public static SignaturePolicy fromValue(String value) {
+        for (SignaturePolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(value.trim())) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("unknown signature policy: " + value);
+    }
+
+    /**
+     * @param verification Result of checking the signature
+     * @return true if this policy accepts the content
+     */
+    public boolean accepts(SignatureVerification verification) {
+        switch (this) {
+            case VERIFY:
+                return verification.getStatus() == SignatureVerification.Status.UNSIGNED
+                        || verification.getStatus() == SignatureVerification.Status.VALID;
+            case REQUIRE:
+                return verification.getStatus() == SignatureVerification.Status.VALID;
+            default:
+                return true;
+        }
+    }
+}
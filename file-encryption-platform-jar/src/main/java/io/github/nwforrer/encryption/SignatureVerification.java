@@ -0,0 +1,65 @@
+package io.github.nwforrer.encryption;
+
+/**
+ * Outcome of checking the signature on decrypted content.
+ */
+public class SignatureVerification {
+
+    public enum Status {
+        /**
+         * The content carries no signature.
+         */
+        UNSIGNED("unsigned"),
+        /**
+         * The content was signed by a trusted key, and the signature matches.
+         */
+        VALID("valid"),
+        /**
+         * The content was signed by a trusted key, but the signature does not match the content.
+         */
+        INVALID("invalid"),
+        /**
+         * The content was signed by a key that is not trusted, so the signature was not checked.
+         */
+        UNTRUSTED("untrusted");
+
+        private final String value;
+
+        Status(String value) {
+            this.value = value;
+        }
+
+        /**
+         * @return the value stored in the encryption:signatureStatus property
+         */
+        public String getValue() {
+            return value;
+        }
+    }
+
+    public static final SignatureVerification UNSIGNED = new SignatureVerification(Status.UNSIGNED, null);
+
+    private final Status status;
+    private final Long signerKeyID;
+
+    SignatureVerification(Status status, Long signerKeyID) {
+        this.status = status;
+        this.signerKeyID = signerKeyID;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return ID of the key that signed the content, or null if it is unsigned
+     */
+    public Long getSignerKeyID() {
+        return signerKeyID;
+    }
+
+    @Override
+    public String toString() {
+        return signerKeyID == null ? status.getValue() : status.getValue() + " (" + Long.toHexString(signerKeyID) + ")";
+    }
+}
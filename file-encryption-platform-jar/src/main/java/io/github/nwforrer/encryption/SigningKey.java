@@ -0,0 +1,33 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.openpgp.PGPPrivateKey;
+
+/**
+ * An unlocked private key that content is signed with, along with the public key algorithm the signer needs.
+ */
+public class SigningKey {
+
+    private final PGPPrivateKey privateKey;
+    private final int algorithm;
+
+    /**
+     * @param privateKey Unlocked private key
+     * @param algorithm OpenPGP public key algorithm ID of the key
+     */
+    public SigningKey(PGPPrivateKey privateKey, int algorithm) {
+        this.privateKey = privateKey;
+        this.algorithm = algorithm;
+    }
+
+    public PGPPrivateKey getPrivateKey() {
+        return privateKey;
+    }
+
+    public int getAlgorithm() {
+        return algorithm;
+    }
+
+    public long getKeyID() {
+        return privateKey.getKeyID();
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.nwforrer.encryption;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Per-thread pool of objects that are expensive to create, such as deflaters and packet buffers.
+ * <p>
+ * Objects are borrowed for the life of a stream rather than held by the thread, so a thread can have several streams
+ * open at once, for example while re-encrypting the stream it is decrypting. An object may be released on another
+ * thread than the one that borrowed it; it then joins that thread's pool. Each thread keeps at most `maxIdle` objects,
+ * and objects beyond that are discarded.
+ *
+ * @param <T> Type of the pooled objects
+ */
+class ThreadLocalPool<T> {
+
+    private final ThreadLocal<ArrayDeque<T>> idle = ThreadLocal.withInitial(ArrayDeque::new);
+    private final Supplier<T> factory;
+    private final Consumer<T> reset;
+    private final Consumer<T> discard;
+    private final int maxIdle;
+
+    /**
+     * @param factory Creates an object when the thread has none idle
+     * @param reset Returns a released object to its initial state
+     * @param discard Frees an object that does not fit in the pool
+     * @param maxIdle Number of idle objects kept per thread
+     */
+    ThreadLocalPool(Supplier<T> factory, Consumer<T> reset, Consumer<T> discard, int maxIdle) {
+        this.factory = factory;
+        this.reset = reset;
+        this.discard = discard;
+        this.maxIdle = maxIdle;
+    }
+
+    T borrow() {
+        T value = idle.get().pollFirst();
+        return value != null ? value : factory.get();
+    }
+
+    void release(T value) {
+        ArrayDeque<T> pool = idle.get();
+        if (pool.size() < maxIdle) {
+            reset.accept(value);
+            pool.addFirst(value);
+        } else {
+            discard.accept(value);
+        }
+    }
+
+    /**
+     * @return number of idle objects held by the current thread
+     */
+    int idleCount() {
+        return idle.get().size();
+    }
+}
@@ -0,0 +1,58 @@
+package io.github.nwforrer.encryption;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Measures the time spent writing to a stream, and records it as a single stage in {@link EncryptionMetrics} when the
+ * stream is closed.
+ */
+public class TimedOutputStream extends FilterOutputStream {
+
+    private final EncryptionMetrics metrics;
+    private final String stage;
+    private long nanos;
+    private boolean closed;
+
+    public TimedOutputStream(OutputStream out, EncryptionMetrics metrics, String stage) {
+        super(out);
+        this.metrics = metrics;
+        this.stage = stage;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        out.write(b);
+        nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        out.write(b, off, len);
+        nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        out.flush();
+        nanos += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long start = System.nanoTime();
+        try {
+            out.close();
+        } finally {
+            metrics.recordStageNanos(stage, nanos + System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.nwforrer.encryption;
+
+import java.io.IOException;
+
+/**
+ * Durable storage for data keys, which are only ever stored wrapped with a public key.
+ */
+public interface WrappedKeyStore {
+
+    /**
+     * Store a wrapped data key. This must be durable by the time the method returns, since content may be encrypted
+     * with the key straight away.
+     *
+     * @param keyId Id of the data key
+     * @param wrappedKey Data key, encrypted with the public key
+     * @throws IOException thrown when the key cannot be stored
+     */
+    void put(String keyId, byte[] wrappedKey) throws IOException;
+
+    /**
+     * @param keyId Id of the data key
+     * @return the wrapped data key, or null if there is no key with the given id
+     * @throws IOException thrown when the key cannot be read
+     */
+    byte[] get(String keyId) throws IOException;
+}
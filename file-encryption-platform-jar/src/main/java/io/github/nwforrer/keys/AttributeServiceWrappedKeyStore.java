@@ -0,0 +1,38 @@
+package io.github.nwforrer.keys;
+
+import io.github.nwforrer.encryption.WrappedKeyStore;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.ServiceRegistry;
+
+/**
+ * Stores wrapped data keys in the repository's attribute table.
+ * <p>
+ * Keys are written in their own transaction, so that a key is never lost when the transaction that first used it is
+ * rolled back after other content was already encrypted with it.
+ */
+public class AttributeServiceWrappedKeyStore implements WrappedKeyStore {
+
+    private static final String ATTRIBUTE_KEY = "io.github.nwforrer.encryption.dataKey";
+
+    private final ServiceRegistry serviceRegistry;
+
+    public AttributeServiceWrappedKeyStore(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    @Override
+    public void put(final String keyId, final byte[] wrappedKey) {
+        RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        txnHelper.doInTransaction(() -> {
+            serviceRegistry.getAttributeService().setAttribute(wrappedKey, ATTRIBUTE_KEY, keyId);
+            return null;
+        }, false, true);
+    }
+
+    @Override
+    public byte[] get(final String keyId) {
+        RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        return txnHelper.doInTransaction(
+                () -> (byte[]) serviceRegistry.getAttributeService().getAttribute(ATTRIBUTE_KEY, keyId), true, false);
+    }
+}
@@ -6,4 +6,29 @@ public class EncryptionModel {
     public static final String NAMESPACE_ENCRYPTION_MODEL = "http://nwforrer.github.io/encryption/model/content/1.0";
 
     public static final QName ASPECT_ENCRYPTED = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "encrypted");
+    public static final QName PROP_FORMAT = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "format");
+    public static final QName PROP_DATA_KEY_ID = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "dataKeyId");
+    public static final QName PROP_MIMETYPE = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "mimetype");
+    public static final QName PROP_ORIGINAL_NAME = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "originalName");
+    public static final QName PROP_ADDED_ASPECTS = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "addedAspects");
+    public static final QName PROP_KEY_IDS = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "keyIds");
+    public static final QName PROP_SIGNER_KEY_ID = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "signerKeyId");
+    public static final QName PROP_CIPHER = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "cipher");
+    public static final QName PROP_COMPRESSION = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "compression");
+    public static final QName PROP_PLAINTEXT_SIZE = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "plaintextSize");
+    public static final QName PROP_PLAINTEXT_DIGEST = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "plaintextDigest");
+    public static final QName PROP_ENCRYPTED_AT = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "encryptedAt");
+
+    public static final QName ASPECT_SIGNATURE_VERIFIED = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "signatureVerified");
+    public static final QName PROP_SIGNATURE_STATUS = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "signatureStatus");
+    public static final QName PROP_VERIFIED_SIGNER_KEY_ID = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "verifiedSignerKeyId");
+    public static final QName PROP_SIGNATURE_VERIFIED_AT = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "signatureVerifiedAt");
+
+    public static final String MIMETYPE_ENCRYPTED = "application/pgp-encrypted";
+
+    public static final QName ASPECT_PENDING = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "pending");
+    public static final QName PROP_QUEUED_AT = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "queuedAt");
+    public static final QName PROP_ATTEMPTS = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "attempts");
+    public static final QName PROP_LAST_ERROR = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "lastError");
+    public static final QName PROP_GAVE_UP = QName.createQName(NAMESPACE_ENCRYPTION_MODEL, "gaveUp");
 }
@@ -0,0 +1,205 @@
+package io.github.nwforrer.queue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only file of queued encryption work, so that queued nodes survive a restart.
+ * <p>
+ * Each line either adds an entry (`+ id params`) or completes one (`- id`). Entries are synced to disk before
+ * {@link #append} returns. The file is rewritten with only the outstanding entries when it is opened, and truncated
+ * whenever nothing is outstanding.
+ */
+public class EncryptionJournal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EncryptionJournal.class);
+
+    private static final String ADD = "+";
+    private static final String COMPLETE = "-";
+    private static final String SEPARATOR = "\t";
+
+    private final File file;
+    private final Map<String, Map<String, String>> outstanding = new LinkedHashMap<>();
+
+    private FileOutputStream fileOut;
+    private Writer writer;
+
+    /**
+     * Open the journal, creating it if it does not exist.
+     *
+     * @param file Journal file
+     * @throws IOException thrown when the journal cannot be read or written
+     */
+    public EncryptionJournal(File file) throws IOException {
+        this.file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + parent);
+        }
+        if (file.exists()) {
+            load();
+        }
+        rewrite();
+    }
+
+    /**
+     * Record an entry. Appending an entry that is already outstanding replaces its parameters.
+     *
+     * @param id Id of the entry
+     * @param params Parameters of the entry
+     * @throws IOException thrown when the entry cannot be written
+     */
+    public synchronized void append(String id, Map<String, String> params) throws IOException {
+        writeLine(ADD + SEPARATOR + encode(id) + SEPARATOR + encodeParams(params));
+        outstanding.put(id, new LinkedHashMap<>(params));
+    }
+
+    /**
+     * Record that an entry is finished with. Unknown ids are ignored.
+     *
+     * @param id Id of the entry
+     * @throws IOException thrown when the completion cannot be written
+     */
+    public synchronized void complete(String id) throws IOException {
+        if (outstanding.remove(id) == null) {
+            return;
+        }
+        if (outstanding.isEmpty()) {
+            rewrite();
+        } else {
+            writeLine(COMPLETE + SEPARATOR + encode(id));
+        }
+    }
+
+    /**
+     * @param id Id of the entry
+     * @return the parameters of the entry, or null if the entry is not outstanding
+     */
+    public synchronized Map<String, String> get(String id) {
+        Map<String, String> params = outstanding.get(id);
+        return params == null ? null : Collections.unmodifiableMap(params);
+    }
+
+    /**
+     * @return ids of the outstanding entries, oldest first
+     */
+    public synchronized List<String> getOutstanding() {
+        return new ArrayList<>(outstanding.keySet());
+    }
+
+    public synchronized int size() {
+        return outstanding.size();
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            fileOut = null;
+        }
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(SEPARATOR, -1);
+                if (fields.length == 3 && ADD.equals(fields[0])) {
+                    outstanding.put(decode(fields[1]), decodeParams(fields[2]));
+                } else if (fields.length == 2 && COMPLETE.equals(fields[0])) {
+                    outstanding.remove(decode(fields[1]));
+                } else {
+                    // a torn write from a crash can only affect the last line
+                    LOGGER.warn("Ignoring malformed line in encryption journal {}", file);
+                }
+            }
+        }
+        LOGGER.info("Loaded {} outstanding entries from encryption journal {}", outstanding.size(), file);
+    }
+
+    private void rewrite() throws IOException {
+        close();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmpOut = new FileOutputStream(tmp);
+             Writer tmpWriter = new OutputStreamWriter(tmpOut, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Map<String, String>> entry : outstanding.entrySet()) {
+                tmpWriter.write(ADD + SEPARATOR + encode(entry.getKey()) + SEPARATOR + encodeParams(entry.getValue()) + "\n");
+            }
+            tmpWriter.flush();
+            tmpOut.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        fileOut = new FileOutputStream(file, true);
+        writer = new OutputStreamWriter(fileOut, StandardCharsets.UTF_8);
+    }
+
+    private void writeLine(String line) throws IOException {
+        if (writer == null) {
+            throw new IOException("Encryption journal " + file + " is closed");
+        }
+        writer.write(line + "\n");
+        writer.flush();
+        fileOut.getFD().sync();
+    }
+
+    private static String encodeParams(Map<String, String> params) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (param.getValue() == null) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(encode(param.getKey())).append('=').append(encode(param.getValue()));
+        }
+        return sb.toString();
+    }
+
+    private static Map<String, String> decodeParams(String value) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String param : value.split("&")) {
+            int idx = param.indexOf('=');
+            if (idx > 0) {
+                params.put(decode(param.substring(0, idx)), decode(param.substring(idx + 1)));
+            }
+        }
+        return params;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package io.github.nwforrer.queue;
+
+import io.github.nwforrer.actions.ActionParams;
+import io.github.nwforrer.actions.EncryptFileAction;
+import io.github.nwforrer.encryption.NamedThreadFactory;
+import io.github.nwforrer.model.EncryptionModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.tenant.TenantService;
+import org.alfresco.repo.tenant.TenantUtil;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.action.Action;
+import org.alfresco.service.cmr.action.ActionDefinition;
+import org.alfresco.service.cmr.action.ParameterDefinition;
+import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.QName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encrypts nodes in the background, so that the transaction that asks for encryption does not wait for it.
+ * <p>
+ * Queued nodes get the `encryption:pending` aspect in the caller's transaction, and once that transaction commits are
+ * given an entry in an {@link EncryptionJournal} and handed to the worker pool, so that the caller's transaction does
+ * not wait for the journal to be synced. A node whose entry was lost, because the server stopped between the commit
+ * and the journal write, stays pending and can be queued again. The pool's queue is bounded: when it is full the node
+ * stays in the journal and is picked up by the next sweep, so callers never block. Nodes are encrypted as the user who
+ * queued them. Failed nodes are retried with exponential backoff until `maxAttempts` is reached, after which the
+ * error is left on the node and it is marked as given up, so that it can be queued again.
+ */
+public class EncryptionQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EncryptionQueue.class);
+
+    // journal keys kept alongside the action parameters, which cannot clash with parameter names
+    static final String QUEUED_BY = "queue:user";
+    static final String QUEUED_IN = "queue:tenant";
+
+    private final ServiceRegistry serviceRegistry;
+
+    private String journalPath;
+    private int workerThreads;
+    private int capacity;
+    private int maxAttempts;
+    private long retryDelay;
+    private long maxRetryDelay;
+    private long sweepInterval;
+
+    private EncryptionJournal journal;
+    private ThreadPoolExecutor workers;
+    private ScheduledExecutorService scheduler;
+
+    // nodes handed to the worker pool, so that a node is never encrypted by two workers at once
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    // nodes waiting to be retried, and when
+    private final Map<String, Long> retryAt = new ConcurrentHashMap<>();
+
+    public EncryptionQueue(ServiceRegistry serviceRegistry) {
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    public void init() throws IOException {
+        journal = new EncryptionJournal(new File(journalPath));
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity), new NamedThreadFactory("EncryptionQueue-worker-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("EncryptionQueue-scheduler-"));
+        // the first sweep also resumes the nodes left in the journal by the last shutdown
+        scheduler.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy() throws IOException {
+        scheduler.shutdownNow();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+                // unfinished nodes are still in the journal, and are resumed on the next start
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    /**
+     * Queue a node to be encrypted once the current transaction commits.
+     *
+     * @param nodeRef Node to encrypt
+     * @param params Parameters of the encrypt file action
+     */
+    public void enqueue(final NodeRef nodeRef, Map<String, Serializable> params) {
+        NodeService nodeService = serviceRegistry.getNodeService();
+        Map<QName, Serializable> aspectProperties = new HashMap<>();
+        aspectProperties.put(EncryptionModel.PROP_QUEUED_AT, new Date());
+        aspectProperties.put(EncryptionModel.PROP_ATTEMPTS, 0);
+        aspectProperties.put(EncryptionModel.PROP_GAVE_UP, false);
+        if (!nodeService.hasAspect(nodeRef, EncryptionModel.ASPECT_PENDING)) {
+            nodeService.addAspect(nodeRef, EncryptionModel.ASPECT_PENDING, aspectProperties);
+        } else if (Boolean.TRUE.equals(nodeService.getProperty(nodeRef, EncryptionModel.PROP_GAVE_UP))
+                || journal.get(nodeRef.toString()) == null) {
+            // queued again after the last attempts failed, or after its journal entry was lost, starting over
+            nodeService.addProperties(nodeRef, aspectProperties);
+            nodeService.removeProperty(nodeRef, EncryptionModel.PROP_LAST_ERROR);
+        } else {
+            LOGGER.debug("Node {} is already queued for encryption", nodeRef);
+            return;
+        }
+
+        final String id = nodeRef.toString();
+        final Map<String, String> journalParams = ActionParams.encode(params);
+        String user = AuthenticationUtil.getFullyAuthenticatedUser();
+        journalParams.put(QUEUED_BY, user == null ? AuthenticationUtil.getSystemUserName() : user);
+        journalParams.put(QUEUED_IN, TenantUtil.getCurrentDomain());
+
+        AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter() {
+            @Override
+            public void afterCommit() {
+                try {
+                    journal.append(id, journalParams);
+                } catch (IOException e) {
+                    LOGGER.error("Failed to queue node " + id + " for encryption, it stays pending until it is queued again", e);
+                    return;
+                }
+                submit(id);
+            }
+        });
+    }
+
+    /**
+     * @return the number of nodes waiting to be encrypted, including the ones being encrypted now
+     */
+    public int getQueuedCount() {
+        return journal.size();
+    }
+
+    void sweep() {
+        long now = System.currentTimeMillis();
+        for (String id : journal.getOutstanding()) {
+            Long at = retryAt.get(id);
+            if (at == null || at <= now) {
+                if (!submit(id)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false if the worker pool is full
+     */
+    private boolean submit(final String id) {
+        if (!inFlight.add(id)) {
+            return true;
+        }
+        try {
+            workers.execute(() -> process(id));
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(id);
+            LOGGER.debug("Encryption queue is full, node {} will be picked up by a later sweep", id);
+            return false;
+        }
+    }
+
+    private void process(final String id) {
+        final NodeRef nodeRef = new NodeRef(id);
+        final RetryingTransactionHelper txnHelper = serviceRegistry.getRetryingTransactionHelper();
+        final NodeService nodeService = serviceRegistry.getNodeService();
+
+        try {
+            Map<String, String> entry = journal.get(id);
+            if (entry == null) {
+                return;
+            }
+            final Map<String, String> params = new HashMap<>(entry);
+            // entries journaled before the user was kept are run as the system user of the default tenant
+            String user = params.remove(QUEUED_BY);
+            String tenant = params.remove(QUEUED_IN);
+            final String runAsUser = user == null ? AuthenticationUtil.getSystemUserName() : user;
+            final String tenantDomain = tenant == null ? TenantService.DEFAULT_DOMAIN : tenant;
+
+            try {
+                TenantUtil.runAsUserTenant(() -> txnHelper.doInTransaction(() -> {
+                    // the node may have been deleted, or encrypted by some other means, since it was queued
+                    if (!nodeService.exists(nodeRef) || !nodeService.hasAspect(nodeRef, EncryptionModel.ASPECT_PENDING)) {
+                        return null;
+                    }
+                    if (!nodeService.hasAspect(nodeRef, EncryptionModel.ASPECT_ENCRYPTED)) {
+                        Action action = serviceRegistry.getActionService().createAction(EncryptFileAction.NAME, toActionParams(nodeRef, params));
+                        serviceRegistry.getActionService().executeAction(action, nodeRef, false, false);
+                    }
+                    nodeService.removeAspect(nodeRef, EncryptionModel.ASPECT_PENDING);
+                    return null;
+                }, false, true), runAsUser, tenantDomain);
+                complete(id);
+            } catch (RuntimeException e) {
+                retryOrGiveUp(nodeRef, tenantDomain, e);
+            }
+        } finally {
+            inFlight.remove(id);
+        }
+    }
+
+    private Map<String, Serializable> toActionParams(NodeRef nodeRef, Map<String, String> params) {
+        for (String value : params.values()) {
+            if (!ActionParams.isTagged(value)) {
+                LOGGER.warn("Node {} was queued before parameter types were kept, reading its parameters by the types of the action", nodeRef);
+                return ActionParams.decode(params, getParameterTypes());
+            }
+        }
+        return ActionParams.decode(params);
+    }
+
+    /**
+     * @return the types of the parameters of the encrypt file action, for parameters journaled without their type
+     */
+    private Map<String, Class<?>> getParameterTypes() {
+        Map<String, Class<?>> types = new HashMap<>();
+        ActionDefinition definition = serviceRegistry.getActionService().getActionDefinition(EncryptFileAction.NAME);
+        for (ParameterDefinition parameter : definition.getParameterDefintions()) {
+            if (parameter.isMultiValued()) {
+                types.put(parameter.getName(), List.class);
+            } else if (DataTypeDefinition.BOOLEAN.equals(parameter.getType())) {
+                types.put(parameter.getName(), Boolean.class);
+            } else if (DataTypeDefinition.INT.equals(parameter.getType())) {
+                types.put(parameter.getName(), Integer.class);
+            } else if (DataTypeDefinition.LONG.equals(parameter.getType())) {
+                types.put(parameter.getName(), Long.class);
+            }
+        }
+        return types;
+    }
+
+    private void retryOrGiveUp(final NodeRef nodeRef, String tenantDomain, final RuntimeException failure) {
+        final String id = nodeRef.toString();
+        final String error = failure.getMessage() == null ? failure.getClass().getName() : failure.getMessage();
+        final NodeService nodeService = serviceRegistry.getNodeService();
+
+        int attempts;
+        try {
+            attempts = TenantUtil.runAsSystemTenant(() -> serviceRegistry.getRetryingTransactionHelper().doInTransaction(() -> {
+                if (!nodeService.exists(nodeRef) || !nodeService.hasAspect(nodeRef, EncryptionModel.ASPECT_PENDING)) {
+                    return maxAttempts;
+                }
+                Integer previous = (Integer) nodeService.getProperty(nodeRef, EncryptionModel.PROP_ATTEMPTS);
+                int current = (previous == null ? 0 : previous) + 1;
+                nodeService.setProperty(nodeRef, EncryptionModel.PROP_ATTEMPTS, current);
+                nodeService.setProperty(nodeRef, EncryptionModel.PROP_LAST_ERROR, error);
+                if (current >= maxAttempts) {
+                    nodeService.setProperty(nodeRef, EncryptionModel.PROP_GAVE_UP, true);
+                }
+                return current;
+            }, false, true), tenantDomain);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to record encryption failure on node " + nodeRef, e);
+            attempts = 1;
+        }
+
+        if (attempts >= maxAttempts) {
+            LOGGER.error("Giving up encrypting node " + nodeRef + " after " + attempts + " attempts", failure);
+            complete(id);
+            return;
+        }
+
+        long delay = retryDelay(attempts);
+        LOGGER.warn("Failed to encrypt node {} (attempt {}), retrying in {} ms: {}", nodeRef, attempts, delay, error);
+        retryAt.put(id, System.currentTimeMillis() + delay);
+        scheduler.schedule(() -> {
+            retryAt.remove(id);
+            submit(id);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    long retryDelay(int attempts) {
+        long delay = retryDelay << Math.min(attempts - 1, 30);
+        return delay > 0 && delay < maxRetryDelay ? delay : maxRetryDelay;
+    }
+
+    private void complete(String id) {
+        retryAt.remove(id);
+        try {
+            journal.complete(id);
+        } catch (IOException e) {
+            // the node will be picked up again after a restart, and skipped because it is no longer pending
+            LOGGER.warn("Failed to remove node " + id + " from the encryption journal", e);
+        }
+    }
+
+    public void setJournalPath(String journalPath) {
+        this.journalPath = journalPath;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    public void setMaxRetryDelay(long maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    public void setSweepInterval(long sweepInterval) {
+        this.sweepInterval = sweepInterval;
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.nwforrer.rekey;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out permits evenly, so that a background job does not use more of the repository than it has been given.
+ */
+class RateLimiter {
+
+    private final long intervalNanos;
+    private long next;
+
+    /**
+     * @param permitsPerSecond Permits handed out per second, or 0 or less for no limit
+     */
+    RateLimiter(double permitsPerSecond) {
+        this.intervalNanos = permitsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+    }
+
+    /**
+     * Wait until the next permit is due.
+     *
+     * @throws InterruptedException thrown when the thread is interrupted while waiting
+     */
+    synchronized void acquire() throws InterruptedException {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (next - now > 0) {
+            TimeUnit.NANOSECONDS.sleep(next - now);
+            now = next;
+        }
+        next = now + intervalNanos;
+    }
+}
@@ -0,0 +1,160 @@
+package io.github.nwforrer.rekey;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Progress of a re-key job, saved to disk so that the job picks up where it left off after a restart.
+ * <p>
+ * Nodes are re-keyed in order of their database id, and {@link #getLastDbId()} is only moved past a page of nodes once
+ * every node in the page has been handled, so resuming never skips a node. Nodes handled twice are harmless: a node
+ * that is no longer encrypted to the old key is skipped.
+ */
+public class ReKeyCheckpoint {
+
+    public enum State {
+        IDLE, RUNNING, PAUSED, FINISHED
+    }
+
+    private static final String STATE = "state";
+    private static final String FROM_KEY_ID = "fromKeyId";
+    private static final String LAST_DB_ID = "lastDbId";
+    private static final String PROCESSED = "processed";
+    private static final String SKIPPED = "skipped";
+    private static final String FAILED = "failed";
+    private static final String STARTED_AT = "startedAt";
+
+    private State state = State.IDLE;
+    private String fromKeyId;
+    private long lastDbId;
+    private long processed;
+    private long skipped;
+    private long failed;
+    private long startedAt;
+
+    /**
+     * Start a new job, discarding the progress of the previous one.
+     *
+     * @param fromKeyId Id of the key to move content off
+     */
+    public synchronized void start(String fromKeyId) {
+        this.state = State.RUNNING;
+        this.fromKeyId = fromKeyId;
+        this.lastDbId = 0;
+        this.processed = 0;
+        this.skipped = 0;
+        this.failed = 0;
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Read a checkpoint, or start from an idle one if the file does not exist.
+     *
+     * @param file Checkpoint file
+     * @return the saved checkpoint
+     * @throws IOException thrown when the file cannot be read
+     */
+    public static ReKeyCheckpoint load(File file) throws IOException {
+        ReKeyCheckpoint checkpoint = new ReKeyCheckpoint();
+        if (!file.exists()) {
+            return checkpoint;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        }
+        checkpoint.state = State.valueOf(properties.getProperty(STATE, State.IDLE.name()));
+        checkpoint.fromKeyId = properties.getProperty(FROM_KEY_ID);
+        checkpoint.lastDbId = Long.parseLong(properties.getProperty(LAST_DB_ID, "0"));
+        checkpoint.processed = Long.parseLong(properties.getProperty(PROCESSED, "0"));
+        checkpoint.skipped = Long.parseLong(properties.getProperty(SKIPPED, "0"));
+        checkpoint.failed = Long.parseLong(properties.getProperty(FAILED, "0"));
+        checkpoint.startedAt = Long.parseLong(properties.getProperty(STARTED_AT, "0"));
+        return checkpoint;
+    }
+
+    /**
+     * Write the checkpoint. The file is replaced atomically, so a crash leaves either the old or the new checkpoint.
+     *
+     * @param file Checkpoint file
+     * @throws IOException thrown when the file cannot be written
+     */
+    public synchronized void save(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create checkpoint directory " + parent);
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty(STATE, state.name());
+        if (fromKeyId != null) {
+            properties.setProperty(FROM_KEY_ID, fromKeyId);
+        }
+        properties.setProperty(LAST_DB_ID, Long.toString(lastDbId));
+        properties.setProperty(PROCESSED, Long.toString(processed));
+        properties.setProperty(SKIPPED, Long.toString(skipped));
+        properties.setProperty(FAILED, Long.toString(failed));
+        properties.setProperty(STARTED_AT, Long.toString(startedAt));
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmpOut = new FileOutputStream(tmp)) {
+            properties.store(tmpOut, "re-key job checkpoint");
+            tmpOut.flush();
+            tmpOut.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized void setState(State state) {
+        this.state = state;
+    }
+
+    public synchronized String getFromKeyId() {
+        return fromKeyId;
+    }
+
+    public synchronized long getLastDbId() {
+        return lastDbId;
+    }
+
+    public synchronized void setLastDbId(long lastDbId) {
+        this.lastDbId = lastDbId;
+    }
+
+    public synchronized long getProcessed() {
+        return processed;
+    }
+
+    public synchronized void recordProcessed() {
+        processed++;
+    }
+
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+
+    public synchronized void recordSkipped() {
+        skipped++;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public synchronized void recordFailed() {
+        failed++;
+    }
+
+    public synchronized long getStartedAt() {
+        return startedAt;
+    }
+}
@@ -0,0 +1,526 @@
+package io.github.nwforrer.rekey;
+
+import io.github.nwforrer.content.ContentStreams;
+import io.github.nwforrer.encryption.DataKeyManager;
+import io.github.nwforrer.encryption.EncryptionFormat;
+import io.github.nwforrer.encryption.EncryptionMetrics;
+import io.github.nwforrer.encryption.EncryptionProfile;
+import io.github.nwforrer.encryption.EncryptionProfileRegistry;
+import io.github.nwforrer.encryption.EncryptionResult;
+import io.github.nwforrer.encryption.GPGEncryptionUtil;
+import io.github.nwforrer.encryption.KeyRingCache;
+import io.github.nwforrer.encryption.NamedThreadFactory;
+import io.github.nwforrer.encryption.PrivateKeyProvider;
+import io.github.nwforrer.encryption.RecipientRegistry;
+import io.github.nwforrer.encryption.SegmentedEncryption;
+import io.github.nwforrer.encryption.TimedOutputStream;
+import io.github.nwforrer.model.EncryptionModel;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves encrypted content off an old key after the key has been rotated, exported over JMX as
+ * `io.github.nwforrer.encryption:type=ReKeyJob`.
+ * <p>
+ * Nodes are found by the key ids recorded in `encryption:keyIds`. Content encrypted with a data key is left as it is,
+ * and the data key is wrapped with the current public key instead, once for all the nodes that share it. Content
+ * encrypted to public keys is re-encrypted in a single pass: the old content is decrypted as it is read and encrypted
+ * again as it is written, so the plaintext is never stored, to the current public key in place of the old one and to
+ * its other recipients. Each node keeps its format and segment size. Signatures of re-encrypted content are not
+ * carried over.
+ * <p>
+ * Nodes are handed to a pool of workers, at most `maxNodesPerSecond` a second, and each node is re-keyed in its own
+ * transaction. Progress is saved to a {@link ReKeyCheckpoint} after every page of nodes, and a job that was running when
+ * the repository stopped is resumed on the next start. Nodes that fail are logged and left on the old key; starting the
+ * job again retries them.
+ */
+public class ReKeyJob implements ReKeyJobMXBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReKeyJob.class);
+
+    private final ServiceRegistry serviceRegistry;
+    private final GPGEncryptionUtil gpgEncryptionUtil;
+    private final KeyRingCache keyRingCache;
+    private final DataKeyManager dataKeyManager;
+    private final SegmentedEncryption segmentedEncryption;
+    private final EncryptionProfileRegistry encryptionProfileRegistry;
+    private final RecipientRegistry recipientRegistry;
+
+    private EncryptionMetrics metrics = new EncryptionMetrics();
+    private String publicKeyPath;
+    private String privateKeyPath;
+    private String privateKeyPassword;
+    private List<String> recipientKeyPaths = new ArrayList<>();
+    private String profileName;
+    private String checkpointPath;
+    private int workerThreads;
+    private int pageSize;
+    private double maxNodesPerSecond;
+    private long resumeDelay;
+
+    private File checkpointFile;
+    private ReKeyCheckpoint checkpoint;
+    private ExecutorService workers;
+    private ScheduledExecutorService scheduler;
+    private Future<?> run;
+    private volatile long remaining;
+    private volatile String lastError;
+
+    public ReKeyJob(ServiceRegistry serviceRegistry, GPGEncryptionUtil gpgEncryptionUtil, KeyRingCache keyRingCache,
+                    DataKeyManager dataKeyManager, SegmentedEncryption segmentedEncryption,
+                    EncryptionProfileRegistry encryptionProfileRegistry, RecipientRegistry recipientRegistry) {
+        this.serviceRegistry = serviceRegistry;
+        this.gpgEncryptionUtil = gpgEncryptionUtil;
+        this.keyRingCache = keyRingCache;
+        this.dataKeyManager = dataKeyManager;
+        this.segmentedEncryption = segmentedEncryption;
+        this.encryptionProfileRegistry = encryptionProfileRegistry;
+        this.recipientRegistry = recipientRegistry;
+    }
+
+    public synchronized void init() throws IOException {
+        checkpointFile = new File(checkpointPath);
+        checkpoint = ReKeyCheckpoint.load(checkpointFile);
+        int threads = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+        workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("ReKeyJob-worker-"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ReKeyJob-scheduler-"));
+        if (checkpoint.getState() == ReKeyCheckpoint.State.RUNNING) {
+            LOGGER.info("Resuming re-key of nodes encrypted to key {} in {} ms", checkpoint.getFromKeyId(), resumeDelay);
+            run = scheduler.schedule(this::run, resumeDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void destroy() {
+        // the checkpoint is left as it is, so a running job is resumed on the next start
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized void start(String fromKeyId) {
+        if (run != null && !run.isDone()) {
+            throw new IllegalStateException("A re-key job is already running");
+        }
+        String keyId;
+        try {
+            keyId = Long.toHexString(Long.parseUnsignedLong(fromKeyId.trim().replaceFirst("^0[xX]", ""), 16));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a key id: " + fromKeyId, e);
+        }
+
+        checkpoint.start(keyId);
+        saveCheckpoint();
+        lastError = null;
+        LOGGER.info("Starting re-key of nodes encrypted to key {}", keyId);
+        run = scheduler.submit(this::run);
+    }
+
+    @Override
+    public synchronized void pause() {
+        if (checkpoint.getState() == ReKeyCheckpoint.State.RUNNING) {
+            checkpoint.setState(ReKeyCheckpoint.State.PAUSED);
+            saveCheckpoint();
+        }
+    }
+
+    @Override
+    public synchronized void resume() {
+        if (checkpoint.getState() != ReKeyCheckpoint.State.PAUSED) {
+            throw new IllegalStateException("The re-key job is not paused");
+        }
+        if (run != null && !run.isDone()) {
+            // still finishing the page it was paused in
+            throw new IllegalStateException("The re-key job is still pausing");
+        }
+        checkpoint.setState(ReKeyCheckpoint.State.RUNNING);
+        saveCheckpoint();
+        run = scheduler.submit(this::run);
+    }
+
+    private void run() {
+        try {
+            AuthenticationUtil.runAsSystem(() -> {
+                runPages();
+                return null;
+            });
+        } catch (RuntimeException e) {
+            // the checkpoint still says running, so the job is picked up again on the next start
+            lastError = describe(e);
+            LOGGER.error("Re-key job stopped", e);
+        }
+    }
+
+    private void runPages() {
+        String keyId = checkpoint.getFromKeyId();
+        RateLimiter rateLimiter = new RateLimiter(maxNodesPerSecond);
+
+        while (checkpoint.getState() == ReKeyCheckpoint.State.RUNNING) {
+            Map<NodeRef, Long> page = nextPage(keyId, checkpoint.getLastDbId());
+            if (page.isEmpty()) {
+                synchronized (this) {
+                    checkpoint.setState(ReKeyCheckpoint.State.FINISHED);
+                    saveCheckpoint();
+                }
+                LOGGER.info("Re-key of nodes encrypted to key {} finished: {} re-keyed, {} skipped, {} failed",
+                        keyId, checkpoint.getProcessed(), checkpoint.getSkipped(), checkpoint.getFailed());
+                return;
+            }
+
+            // nodes come in database id order, so once every submitted node is done the checkpoint can move past the
+            // last of them, even when the job is paused part way through the page
+            List<Future<?>> tasks = new ArrayList<>();
+            long lastDbId = checkpoint.getLastDbId();
+            for (Map.Entry<NodeRef, Long> entry : page.entrySet()) {
+                if (checkpoint.getState() != ReKeyCheckpoint.State.RUNNING) {
+                    break;
+                }
+                try {
+                    rateLimiter.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                final NodeRef nodeRef = entry.getKey();
+                tasks.add(workers.submit(() -> reKey(nodeRef, keyId)));
+                lastDbId = entry.getValue();
+            }
+
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (InterruptedException e) {
+                    // shutting down; the page is repeated on the next start
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    LOGGER.warn("Re-key worker failed", e.getCause());
+                }
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+
+            synchronized (this) {
+                checkpoint.setLastDbId(lastDbId);
+                saveCheckpoint();
+            }
+            LOGGER.info("Re-key of key {}: {} re-keyed, {} skipped, {} failed, about {} left", keyId,
+                    checkpoint.getProcessed(), checkpoint.getSkipped(), checkpoint.getFailed(), remaining);
+        }
+    }
+
+    /**
+     * @return the next nodes encrypted to the key, after the given database id, with their database ids
+     */
+    private Map<NodeRef, Long> nextPage(String keyId, long afterDbId) {
+        return serviceRegistry.getRetryingTransactionHelper().doInTransaction(() -> {
+            SearchParameters sp = new SearchParameters();
+            sp.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+            sp.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+            sp.setQuery("ASPECT:\"" + EncryptionModel.ASPECT_ENCRYPTED + "\" AND encryption:keyIds:\"" + keyId + "\""
+                    + " AND sys:node-dbid:[" + (afterDbId + 1) + " TO MAX]");
+            sp.addSort("@" + ContentModel.PROP_NODE_DBID, true);
+            sp.setMaxItems(pageSize);
+
+            ResultSet results = serviceRegistry.getSearchService().query(sp);
+            try {
+                remaining = results.getNumberFound();
+                Map<NodeRef, Long> page = new LinkedHashMap<>();
+                for (NodeRef nodeRef : results.getNodeRefs()) {
+                    Long dbId = (Long) serviceRegistry.getNodeService().getProperty(nodeRef, ContentModel.PROP_NODE_DBID);
+                    if (dbId != null && dbId > afterDbId) {
+                        page.put(nodeRef, dbId);
+                    }
+                }
+                return page;
+            } finally {
+                results.close();
+            }
+        }, true, true);
+    }
+
+    private void reKey(final NodeRef nodeRef, final String keyId) {
+        AuthenticationUtil.runAsSystem(() -> {
+            long start = System.nanoTime();
+            try {
+                boolean reKeyed = serviceRegistry.getRetryingTransactionHelper().doInTransaction(
+                        () -> reKeyInTransaction(nodeRef, keyId), false, true);
+                if (reKeyed) {
+                    checkpoint.recordProcessed();
+                    metrics.recordStage(EncryptionMetrics.REKEY, start);
+                } else {
+                    checkpoint.recordSkipped();
+                }
+            } catch (RuntimeException e) {
+                checkpoint.recordFailed();
+                metrics.recordFailure(EncryptionMetrics.REKEY, e);
+                lastError = nodeRef + ": " + describe(e);
+                LOGGER.warn("Failed to re-key node " + nodeRef, e);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return false if the node no longer needs re-keying
+     */
+    @SuppressWarnings("unchecked")
+    private boolean reKeyInTransaction(NodeRef nodeRef, String keyId) throws IOException, PGPException {
+        NodeService nodeService = serviceRegistry.getNodeService();
+        if (!nodeService.exists(nodeRef) || !nodeService.hasAspect(nodeRef, EncryptionModel.ASPECT_ENCRYPTED)
+                || nodeService.hasAspect(nodeRef, EncryptionModel.ASPECT_PENDING)) {
+            return false;
+        }
+        List<String> keyIds = (List<String>) nodeService.getProperty(nodeRef, EncryptionModel.PROP_KEY_IDS);
+        if (keyIds == null || !keyIds.contains(keyId)) {
+            return false;
+        }
+
+        PGPPublicKey publicKey = keyRingCache.getPublicKey(publicKeyPath);
+        if (Long.toHexString(publicKey.getKeyID()).equals(keyId)) {
+            throw new IllegalStateException("The public key at " + publicKeyPath + " is the key being replaced");
+        }
+
+        PrivateKeyProvider privateKeys = keyRingCache.getPrivateKeyProvider(privateKeyPath, privateKeyPassword.toCharArray());
+        String dataKeyId = (String) nodeService.getProperty(nodeRef, EncryptionModel.PROP_DATA_KEY_ID);
+        if (dataKeyId != null) {
+            // the content stays as it is: its data key is wrapped with the new public key, once for every node sharing it
+            nodeService.setProperty(nodeRef, EncryptionModel.PROP_DATA_KEY_ID, dataKeyManager.rewrap(dataKeyId, privateKeys, publicKey));
+            nodeService.setProperty(nodeRef, EncryptionModel.PROP_KEY_IDS,
+                    new ArrayList<>(Collections.singletonList(Long.toHexString(publicKey.getKeyID()))));
+            return true;
+        }
+
+        EncryptionFormat format = EncryptionFormat.fromValue((String) nodeService.getProperty(nodeRef, EncryptionModel.PROP_FORMAT));
+        String mimetype = (String) nodeService.getProperty(nodeRef, EncryptionModel.PROP_MIMETYPE);
+        // only the cipher and compression settings of the profile are used; the node keeps its own format
+        EncryptionProfile profile = encryptionProfileRegistry.getProfile(profileName).withArmored(format != EncryptionFormat.BINARY);
+
+        ContentReader reader = serviceRegistry.getContentService().getReader(nodeRef, ContentModel.PROP_CONTENT);
+        ContentWriter writer = serviceRegistry.getContentService().getWriter(nodeRef, ContentModel.PROP_CONTENT, true);
+        // segmented content keeps the segment size it was written with
+        int segmentSize = format == EncryptionFormat.SEGMENTED ? getSegmentSize(reader.getReader()) : 0;
+
+        EncryptionResult result;
+        List<PGPPublicKey> recipients = getRecipients(nodeRef, keyIds, keyId, publicKey);
+        try (InputStream encrypted = ContentStreams.openInputStream(reader, gpgEncryptionUtil.getChannelStreams());
+             InputStream plaintext = openDecrypted(encrypted, format, privateKeys);
+             OutputStream out = new TimedOutputStream(ContentStreams.openOutputStream(writer, gpgEncryptionUtil.getChannelStreams()),
+                     metrics, EncryptionMetrics.CONTENT_WRITE)) {
+            if (format == EncryptionFormat.SEGMENTED) {
+                result = segmentedEncryption.encrypt(plaintext, out, recipients, segmentSize);
+            } else {
+                result = gpgEncryptionUtil.encryptFile(plaintext, out, recipients, profile, mimetype);
+            }
+        }
+        ArrayList<String> newKeyIds = new ArrayList<>();
+        for (PGPPublicKey recipient : recipients) {
+            newKeyIds.add(Long.toHexString(recipient.getKeyID()));
+        }
+
+        // the plaintext must come out unchanged; throwing rolls back the content written above
+        String recordedDigest = (String) nodeService.getProperty(nodeRef, EncryptionModel.PROP_PLAINTEXT_DIGEST);
+        if (recordedDigest != null && !recordedDigest.equals(result.getPlaintextDigest())) {
+            throw new PGPException("Content of node " + nodeRef + " does not match its recorded digest: expected " + recordedDigest
+                    + ", got " + result.getPlaintextDigest());
+        }
+
+        nodeService.setProperty(nodeRef, EncryptionModel.PROP_KEY_IDS, newKeyIds);
+        nodeService.setProperty(nodeRef, EncryptionModel.PROP_CIPHER, result.getCipher());
+        nodeService.setProperty(nodeRef, EncryptionModel.PROP_COMPRESSION, result.getCompression());
+        nodeService.setProperty(nodeRef, EncryptionModel.PROP_PLAINTEXT_SIZE, result.getPlaintextSize());
+        if (recordedDigest == null) {
+            // content encrypted before digests were recorded gets one here
+            nodeService.setProperty(nodeRef, EncryptionModel.PROP_PLAINTEXT_DIGEST, result.getPlaintextDigest());
+        }
+        nodeService.removeProperty(nodeRef, EncryptionModel.PROP_SIGNER_KEY_ID);
+        return true;
+    }
+
+    private InputStream openDecrypted(InputStream in, EncryptionFormat format, PrivateKeyProvider privateKeys)
+            throws IOException, PGPException {
+        if (format == EncryptionFormat.SEGMENTED) {
+            return segmentedEncryption.openDecryptedStream(in, privateKeys, null);
+        }
+        return gpgEncryptionUtil.openDecryptedStream(in, privateKeys, format);
+    }
+
+    private static int getSegmentSize(ContentReader reader) throws IOException {
+        try (InputStream in = reader.getContentInputStream()) {
+            return SegmentedEncryption.getSegmentSize(in);
+        }
+    }
+
+    /**
+     * @return the current public key, followed by every other recipient of the node. Recipients are looked up in the
+     * site's recipient key files and in `recipientKeyPaths`; a recipient that cannot be found fails the node rather than
+     * losing access to it.
+     */
+    private List<PGPPublicKey> getRecipients(NodeRef nodeRef, List<String> keyIds, String oldKeyId, PGPPublicKey publicKey)
+            throws IOException, PGPException {
+        List<String> paths = new ArrayList<>(recipientRegistry.getRecipientKeyPaths(
+                serviceRegistry.getSiteService().getSiteShortName(nodeRef)));
+        paths.addAll(recipientKeyPaths);
+        Map<String, PGPPublicKey> available = new HashMap<>();
+        for (String path : paths) {
+            for (PGPPublicKey key : keyRingCache.getPublicKeys(path)) {
+                available.put(Long.toHexString(key.getKeyID()), key);
+            }
+        }
+
+        Map<Long, PGPPublicKey> recipients = new LinkedHashMap<>();
+        recipients.put(publicKey.getKeyID(), publicKey);
+        for (String keyId : keyIds) {
+            if (keyId.equals(oldKeyId) || keyId.equals(Long.toHexString(publicKey.getKeyID()))) {
+                continue;
+            }
+            PGPPublicKey recipient = available.get(keyId);
+            if (recipient == null) {
+                throw new PGPException("no public key found for recipient " + keyId);
+            }
+            recipients.put(recipient.getKeyID(), recipient);
+        }
+        return new ArrayList<>(recipients.values());
+    }
+
+    private void saveCheckpoint() {
+        try {
+            checkpoint.save(checkpointFile);
+        } catch (IOException e) {
+            // the job carries on; at worst a restart repeats the work done since the last saved checkpoint
+            LOGGER.warn("Failed to save re-key checkpoint " + checkpointFile, e);
+        }
+    }
+
+    private static String describe(Throwable e) {
+        return e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+    }
+
+    @Override
+    public String getState() {
+        return checkpoint.getState().name();
+    }
+
+    @Override
+    public String getFromKeyId() {
+        return checkpoint.getFromKeyId();
+    }
+
+    @Override
+    public long getProcessedCount() {
+        return checkpoint.getProcessed();
+    }
+
+    @Override
+    public long getSkippedCount() {
+        return checkpoint.getSkipped();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return checkpoint.getFailed();
+    }
+
+    @Override
+    public long getRemainingCount() {
+        return remaining;
+    }
+
+    @Override
+    public double getNodesPerSecond() {
+        long elapsed = System.currentTimeMillis() - checkpoint.getStartedAt();
+        return checkpoint.getStartedAt() == 0 || elapsed <= 0 ? 0 : checkpoint.getProcessed() * 1000.0 / elapsed;
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setMetrics(EncryptionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setPublicKeyPath(String publicKeyPath) {
+        this.publicKeyPath = publicKeyPath;
+    }
+
+    public void setPrivateKeyPath(String privateKeyPath) {
+        this.privateKeyPath = privateKeyPath;
+    }
+
+    public void setPrivateKeyPassword(String privateKeyPassword) {
+        this.privateKeyPassword = privateKeyPassword;
+    }
+
+    /**
+     * @param recipientKeyPaths Comma separated public key files of recipients that are not site recipients
+     */
+    public void setRecipientKeyPaths(String recipientKeyPaths) {
+        this.recipientKeyPaths = new ArrayList<>();
+        for (String path : recipientKeyPaths.split(",")) {
+            if (!path.trim().isEmpty()) {
+                this.recipientKeyPaths.add(path.trim());
+            }
+        }
+    }
+
+    public void setProfile(String profileName) {
+        this.profileName = profileName;
+    }
+
+    public void setCheckpointPath(String checkpointPath) {
+        this.checkpointPath = checkpointPath;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public void setPageSize(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public void setMaxNodesPerSecond(double maxNodesPerSecond) {
+        this.maxNodesPerSecond = maxNodesPerSecond;
+    }
+
+    public void setResumeDelay(long resumeDelay) {
+        this.resumeDelay = resumeDelay;
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.nwforrer.rekey;
+
+/**
+ * Management interface of {@link ReKeyJob}.
+ */
+public interface ReKeyJobMXBean {
+
+    /**
+     * Start moving every node encrypted to the given key onto the current public key. Progress of a previous job is
+     * discarded.
+     *
+     * @param fromKeyId Id of the old key, in hex as recorded in encryption:keyIds
+     */
+    void start(String fromKeyId);
+
+    /**
+     * Stop handing out nodes. Nodes already being re-keyed are finished.
+     */
+    void pause();
+
+    /**
+     * Continue a paused job from its checkpoint.
+     */
+    void resume();
+
+    /**
+     * @return IDLE, RUNNING, PAUSED or FINISHED
+     */
+    String getState();
+
+    String getFromKeyId();
+
+    long getProcessedCount();
+
+    /**
+     * @return number of nodes found by the search that no longer needed re-keying
+     */
+    long getSkippedCount();
+
+    long getFailedCount();
+
+    /**
+     * @return number of nodes still to be re-keyed, as estimated by the last search. Failed nodes are not counted; they
+     * are retried the next time the job is started.
+     */
+    long getRemainingCount();
+
+    /**
+     * @return average number of nodes re-keyed per second since the job started
+     */
+    double getNodesPerSecond();
+
+    String getLastError();
+}
@@ -0,0 +1,184 @@
+package io.github.nwforrer.webscripts;
+
+import io.github.nwforrer.content.DecryptedContentService;
+import io.github.nwforrer.encryption.ContentDigests;
+import io.github.nwforrer.encryption.EncryptionMetrics;
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.ServiceRegistry;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Streams the plaintext of an encrypted node to the client, without writing it back to the repository. Nodes that are
+ * not encrypted are streamed as they are.
+ * <p>
+ * The content is decrypted as the response is written, one buffer at a time, so a slow client slows decryption down
+ * instead of the plaintext piling up in memory. The length is not known up front and the response is sent chunked.
+ * <p>
+ * The ETag is derived from the node and the URL of its encrypted content, which changes whenever the content does, so
+ * a client that already has the plaintext can revalidate it without anything being decrypted.
+ * <p>
+ * Content is only shown inline when its mimetype is on an allow-list of types a browser cannot run script from. Anything
+ * else, HTML and SVG in particular, is always downloaded, since it would otherwise run with the repository's origin.
+ */
+public class DecryptedContentGet extends AbstractWebScript {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecryptedContentGet.class);
+
+    private static final Set<String> INLINE_MIMETYPES = new HashSet<>(Arrays.asList(
+            "text/plain", "text/csv", "application/pdf", "application/json",
+            "image/png", "image/jpeg", "image/gif", "image/bmp", "image/webp", "image/tiff",
+            "audio/mpeg", "audio/ogg", "audio/wav", "video/mp4", "video/ogg", "video/webm"));
+
+    private final ServiceRegistry serviceRegistry;
+    private final DecryptedContentService decryptedContentService;
+
+    private EncryptionMetrics metrics = new EncryptionMetrics();
+    private int bufferSize = 65536;
+
+    public DecryptedContentGet(ServiceRegistry serviceRegistry, DecryptedContentService decryptedContentService) {
+        this.serviceRegistry = serviceRegistry;
+        this.decryptedContentService = decryptedContentService;
+    }
+
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException {
+        Map<String, String> templateVars = req.getServiceMatch().getTemplateVars();
+        NodeRef nodeRef = new NodeRef(templateVars.get("store_type"), templateVars.get("store_id"), templateVars.get("id"));
+        if (!serviceRegistry.getNodeService().exists(nodeRef)) {
+            throw new WebScriptException(Status.STATUS_NOT_FOUND, "Node " + nodeRef + " does not exist");
+        }
+
+        ContentReader reader = decryptedContentService.getReader(nodeRef, ContentModel.PROP_CONTENT);
+        if (reader == null || !reader.exists()) {
+            throw new WebScriptException(Status.STATUS_NOT_FOUND, "Node " + nodeRef + " has no content");
+        }
+
+        // the reader of an encrypted node carries the URL of the encrypted content
+        String eTag = '"' + ContentDigests.sha256(nodeRef + "\n" + reader.getContentUrl()) + '"';
+        res.setHeader("ETag", eTag);
+        // the plaintext must never be kept by a shared cache, and a private one has to revalidate it every time
+        res.setHeader("Cache-Control", "private, no-cache");
+        if (matches(req.getHeader("If-None-Match"), eTag)) {
+            res.setStatus(Status.STATUS_NOT_MODIFIED);
+            return;
+        }
+
+        String fileName = (String) serviceRegistry.getNodeService().getProperty(nodeRef, ContentModel.PROP_NAME);
+        boolean attach = !"false".equals(req.getParameter("a")) || !isSafeInline(reader.getMimetype());
+        res.setContentType(reader.getMimetype());
+        if (reader.getEncoding() != null) {
+            res.setContentEncoding(reader.getEncoding());
+        }
+        res.setHeader("Content-Disposition", (attach ? "attachment" : "inline") + "; filename*=UTF-8''" + encode(stripExtension(fileName)));
+        res.setHeader("X-Content-Type-Options", "nosniff");
+
+        long size = 0;
+        try (InputStream in = reader.getContentInputStream()) {
+            OutputStream out = res.getOutputStream();
+            byte[] buf = new byte[bufferSize];
+            int len;
+            while ((len = read(in, buf, size)) >= 0) {
+                try {
+                    out.write(buf, 0, len);
+                } catch (IOException e) {
+                    // nothing more to decrypt for a client that has gone away
+                    LOGGER.debug("Client stopped reading the decrypted content of {} after {} bytes", nodeRef, size, e);
+                    return;
+                }
+                size += len;
+            }
+            out.flush();
+        } catch (ContentIOException e) {
+            metrics.recordFailure(EncryptionMetrics.DECRYPT, e);
+            LOGGER.error("Failed to stream the decrypted content of {}", nodeRef, e);
+            throw new WebScriptException(Status.STATUS_INTERNAL_SERVER_ERROR, "Failed to decrypt the content of " + nodeRef, e);
+        }
+        metrics.recordPayload(EncryptionMetrics.DECRYPT, size);
+    }
+
+    /**
+     * @param mimetype Mimetype of the content
+     * @return whether content of the mimetype can be shown inline without a browser running script from it
+     */
+    static boolean isSafeInline(String mimetype) {
+        if (mimetype == null) {
+            return false;
+        }
+        int parameters = mimetype.indexOf(';');
+        String type = (parameters < 0 ? mimetype : mimetype.substring(0, parameters)).trim().toLowerCase(Locale.ROOT);
+        return INLINE_MIMETYPES.contains(type);
+    }
+
+    /**
+     * Failures to read are failures to decrypt; they are told apart from the client closing the connection, which
+     * fails the write.
+     */
+    private static int read(InputStream in, byte[] buf, long position) {
+        try {
+            return in.read(buf);
+        } catch (IOException e) {
+            throw new ContentIOException("Failed to read the decrypted content at byte " + position, e);
+        }
+    }
+
+    /**
+     * @param ifNoneMatch Value of the If-None-Match header, a list of entity tags or "*"
+     * @param eTag Current entity tag of the content
+     * @return whether the client already has the current content
+     */
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            // weak comparison, as If-None-Match requires
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripExtension(String fileName) {
+        if (fileName.endsWith(".pgp") || fileName.endsWith(".asc") || fileName.endsWith(".gpg")) {
+            return fileName.substring(0, fileName.length() - 4);
+        }
+        return fileName;
+    }
+
+    private static String encode(String fileName) throws UnsupportedEncodingException {
+        return URLEncoder.encode(fileName, "UTF-8").replace("+", "%20");
+    }
+
+    public void setMetrics(EncryptionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+}
@@ -0,0 +1,59 @@
+package io.github.nwforrer.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs several members of a cluster in one JVM, each with its own {@link WorkCoordinator} over one shared store, so that
+ * sharing, stealing and taking over work can be tried out without a cluster. Members are given short leases and poll
+ * often, to keep tests quick.
+ */
+class ClusterHarness implements AutoCloseable {
+
+    final InMemoryWorkLeaseStore store = new InMemoryWorkLeaseStore();
+    private final List<WorkCoordinator> members = new ArrayList<>();
+
+    int workerThreads = 2;
+    long chunkSize = 100;
+    long leaseDuration = 1000;
+    long retryDelay = 20;
+    int maxAttempts = 3;
+
+    /**
+     * Start a member with a worker for one type of job.
+     */
+    WorkCoordinator start(String memberId, String type, RangeWorker worker) {
+        WorkCoordinator member = new WorkCoordinator(store, memberId);
+        member.setWorkerThreads(workerThreads);
+        member.setChunkSize(chunkSize);
+        member.setLeaseDuration(leaseDuration);
+        member.setPollInterval(10);
+        member.setRetryDelay(retryDelay);
+        member.setMaxAttempts(maxAttempts);
+        member.register(type, worker);
+        member.init();
+        members.add(member);
+        return member;
+    }
+
+    /**
+     * Wait for every job to finish or be given up on.
+     */
+    void awaitIdle(long timeoutMillis) throws InterruptedException, TimeoutException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!store.read().isEmpty()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new TimeoutException("Jobs still running after " + timeoutMillis + " ms: " + members.get(0).getJobs());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (WorkCoordinator member : members) {
+            member.destroy();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package io.github.nwforrer.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keeps the table in memory for the members of a {@link ClusterHarness}. The table is serialized between updates, as the
+ * attribute table would store it, so members never share the objects of the table.
+ */
+class InMemoryWorkLeaseStore implements WorkLeaseStore {
+
+    private byte[] stored;
+    private int writes;
+
+    @Override
+    public synchronized WorkTable read() {
+        return WorkTable.fromMap(readMap());
+    }
+
+    @Override
+    public synchronized <T> T update(Function<WorkTable, T> change) {
+        Map<String, Serializable> before = readMap();
+        WorkTable table = WorkTable.fromMap(before);
+        T result = change.apply(table);
+        HashMap<String, Serializable> after = table.toMap();
+        if (!after.equals(before == null ? Collections.emptyMap() : before)) {
+            write(after);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of times the table was saved
+     */
+    synchronized int getWrites() {
+        return writes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Serializable> readMap() {
+        if (stored == null) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(stored))) {
+            return (Map<String, Serializable>) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(HashMap<String, Serializable> table) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(table);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        stored = bytes.toByteArray();
+        writes++;
+    }
+}
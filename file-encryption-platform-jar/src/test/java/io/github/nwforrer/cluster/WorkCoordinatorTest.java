@@ -0,0 +1,164 @@
+package io.github.nwforrer.cluster;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class WorkCoordinatorTest {
+
+    private static final String TYPE = "test";
+
+    @Test
+    public void everyPosition_isWorkedOnOnce_byEveryMember() throws Exception {
+        Map<Long, AtomicInteger> counts = new ConcurrentHashMap<>();
+        try (ClusterHarness cluster = new ClusterHarness()) {
+            CountingWorker[] workers = new CountingWorker[3];
+            WorkCoordinator first = null;
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new CountingWorker(counts, 1);
+                WorkCoordinator member = cluster.start("member-" + i, TYPE, workers[i]);
+                first = first == null ? member : first;
+            }
+
+            // fewer ranges than worker threads, so the rest of the threads only get work by stealing it
+            first.submit(TYPE, Collections.emptyMap(), 0, 20000, 2);
+            cluster.awaitIdle(30000);
+
+            assertEquals(20000, counts.size());
+            for (Map.Entry<Long, AtomicInteger> count : counts.entrySet()) {
+                assertEquals("times " + count.getKey() + " was worked on", 1, count.getValue().get());
+            }
+            for (CountingWorker worker : workers) {
+                assertTrue(worker.processed.get() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void rangesOfFailedMember_areTakenOver() throws Exception {
+        Map<Long, AtomicInteger> counts = new ConcurrentHashMap<>();
+        try (ClusterHarness cluster = new ClusterHarness()) {
+            cluster.workerThreads = 1;
+            cluster.leaseDuration = 300;
+            CountingWorker failing = new CountingWorker(counts, 5);
+            WorkCoordinator member = cluster.start("member-0", TYPE, failing);
+            member.submit(TYPE, Collections.emptyMap(), 0, 5000, 1);
+            while (failing.processed.get() < 1000) {
+                Thread.sleep(5);
+            }
+            member.halt();
+            long doneBeforeFailing = failing.processed.get();
+
+            CountingWorker takingOver = new CountingWorker(counts, 1);
+            cluster.start("member-1", TYPE, takingOver);
+            cluster.awaitIdle(30000);
+
+            assertEquals(5000, counts.size());
+            assertTrue(takingOver.processed.get() >= 5000 - doneBeforeFailing);
+            // only the chunk in progress when the member failed is worked on twice
+            long twice = counts.values().stream().filter(count -> count.get() > 1).count();
+            assertTrue("worked on twice: " + twice, twice <= cluster.chunkSize);
+        }
+    }
+
+    @Test
+    public void failingChunk_isRetried_thenItsRangeGivenUp() throws Exception {
+        Map<Long, AtomicInteger> counts = new ConcurrentHashMap<>();
+        AtomicInteger attempts = new AtomicInteger();
+        try (ClusterHarness cluster = new ClusterHarness()) {
+            CountingWorker worker = new CountingWorker(counts, 0) {
+                @Override
+                public RangeProgress process(WorkJob job, long from, long to) throws Exception {
+                    if (from <= 300 && 300 < to) {
+                        attempts.incrementAndGet();
+                        throw new Exception("failing chunk");
+                    }
+                    return super.process(job, from, to);
+                }
+            };
+            cluster.start("member-0", TYPE, worker).submit(TYPE, Collections.emptyMap(), 0, 1000, 4);
+            cluster.awaitIdle(30000);
+
+            assertEquals(cluster.maxAttempts, attempts.get());
+            for (long position = 0; position < 1000; position++) {
+                // the failing chunk is [250, 350) of range [250, 500)
+                boolean givenUp = position >= 250 && position < 500;
+                assertEquals("position " + position, givenUp, !counts.containsKey(position));
+            }
+        }
+    }
+
+    @Test
+    public void cancelledJob_isDropped() throws Exception {
+        Map<Long, AtomicInteger> counts = new ConcurrentHashMap<>();
+        try (ClusterHarness cluster = new ClusterHarness()) {
+            CountingWorker worker = new CountingWorker(counts, 5);
+            WorkCoordinator member = cluster.start("member-0", TYPE, worker);
+            String jobId = member.submit(TYPE, Collections.emptyMap(), 0, 100000, 2);
+            while (worker.processed.get() == 0) {
+                Thread.sleep(5);
+            }
+            assertTrue(member.getJobs().containsKey(jobId));
+
+            member.cancel(jobId);
+            cluster.awaitIdle(5000);
+            long processed = worker.processed.get();
+            Thread.sleep(100);
+
+            assertFalse(member.getJobs().containsKey(jobId));
+            // at most the chunks in progress when the job was cancelled are finished
+            assertTrue(worker.processed.get() - processed <= cluster.workerThreads * cluster.chunkSize);
+            assertTrue(processed < 100000);
+        }
+    }
+
+    @Test
+    public void idleMembers_doNotSaveTheTable() throws Exception {
+        Map<Long, AtomicInteger> counts = new ConcurrentHashMap<>();
+        try (ClusterHarness cluster = new ClusterHarness()) {
+            WorkCoordinator member = cluster.start("member-0", TYPE, new CountingWorker(counts, 0));
+            cluster.start("member-1", TYPE, new CountingWorker(counts, 0));
+            // many poll intervals with nothing to do
+            Thread.sleep(200);
+            assertTrue(member.getJobs().isEmpty());
+            assertEquals(0, cluster.store.getWrites());
+
+            member.submit(TYPE, Collections.emptyMap(), 0, 1000, 2);
+            cluster.awaitIdle(30000);
+            int writes = cluster.store.getWrites();
+            Thread.sleep(200);
+            assertTrue(member.getJobs().isEmpty());
+            assertEquals(writes, cluster.store.getWrites());
+        }
+    }
+
+    /**
+     * Counts how many times each position is worked on, across every member sharing the counts.
+     */
+    private static class CountingWorker implements RangeWorker {
+        private final Map<Long, AtomicInteger> counts;
+        private final long millisPerChunk;
+        final AtomicLong processed = new AtomicLong();
+
+        CountingWorker(Map<Long, AtomicInteger> counts, long millisPerChunk) {
+            this.counts = counts;
+            this.millisPerChunk = millisPerChunk;
+        }
+
+        @Override
+        public RangeProgress process(WorkJob job, long from, long to) throws Exception {
+            Thread.sleep(millisPerChunk);
+            for (long position = from; position < to; position++) {
+                counts.computeIfAbsent(position, p -> new AtomicInteger()).incrementAndGet();
+            }
+            processed.addAndGet(to - from);
+            return new RangeProgress(to, to - from, 0);
+        }
+    }
+}
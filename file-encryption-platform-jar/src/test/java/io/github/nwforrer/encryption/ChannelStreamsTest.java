@@ -0,0 +1,116 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.Security;
+import java.security.SignatureException;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChannelStreamsTest {
+    private static final int CHUNK_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void canCopyThroughChannels() throws IOException {
+        for (boolean mapFiles : new boolean[]{false, true}) {
+            ChannelStreams channelStreams = new ChannelStreams(CHUNK_SIZE, mapFiles);
+            for (int size : new int[]{0, 1, CHUNK_SIZE, 5 * CHUNK_SIZE + 3}) {
+                byte[] contents = randomBytes(size);
+                File source = writeFile(contents);
+                File target = folder.newFile();
+
+                try (InputStream in = channelStreams.newInputStream(FileChannel.open(source.toPath()));
+                     OutputStream out = channelStreams.newOutputStream(FileChannel.open(target.toPath(), StandardOpenOption.WRITE))) {
+                    byte[] buf = new byte[777];
+                    int len;
+                    while ((len = in.read(buf)) >= 0) {
+                        out.write(buf, 0, len);
+                    }
+                }
+                assertArrayEquals("mapped " + mapFiles + ", size " + size, contents, Files.readAllBytes(target.toPath()));
+            }
+        }
+    }
+
+    @Test
+    public void sizeHint_shrinksBufferForSmallContent() {
+        ChannelStreams channelStreams = new ChannelStreams(ChannelStreams.DEFAULT_CHUNK_SIZE, false);
+        assertEquals(ChannelStreams.DEFAULT_CHUNK_SIZE, channelStreams.bufferSize(-1));
+        assertEquals(ChannelStreams.MIN_SIZED_CHUNK, channelStreams.bufferSize(0));
+        assertEquals(100000, channelStreams.bufferSize(100000));
+        assertEquals(ChannelStreams.DEFAULT_CHUNK_SIZE, channelStreams.bufferSize(Long.MAX_VALUE));
+        assertEquals(CHUNK_SIZE, new ChannelStreams(CHUNK_SIZE, false).bufferSize(100000));
+    }
+
+    @Test
+    public void mappedStream_skipsWithoutReading() throws IOException {
+        byte[] contents = randomBytes(5 * CHUNK_SIZE);
+        File source = writeFile(contents);
+
+        try (InputStream in = new ChannelStreams(CHUNK_SIZE, true).newInputStream(FileChannel.open(source.toPath()))) {
+            assertEquals(contents[0] & 0xff, in.read());
+            assertEquals(3000, in.skip(3000));
+            assertEquals(contents[3001] & 0xff, in.read());
+            assertEquals(contents.length - 3002, in.skip(Long.MAX_VALUE));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void canEncryptAndDecryptBetweenChannels() throws IOException, PGPException, SignatureException {
+        Security.addProvider(new BouncyCastleProvider());
+        GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+        gpgEncryptionUtil.setChannelStreams(new ChannelStreams(CHUNK_SIZE, true));
+
+        PGPPublicKey publicKey = GPGEncryptionUtil.readPublicKey(
+                new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-public-key.asc"))));
+        PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(
+                PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-private-key.asc")));
+
+        byte[] contents = randomBytes(20 * CHUNK_SIZE + 11);
+        File plain = writeFile(contents);
+        File encrypted = folder.newFile();
+        File decrypted = folder.newFile();
+
+        try (FileChannel in = FileChannel.open(plain.toPath());
+             FileChannel out = FileChannel.open(encrypted.toPath(), StandardOpenOption.WRITE)) {
+            gpgEncryptionUtil.encryptFile(in, out, Collections.singletonList(publicKey), EncryptionProfile.DEFAULT.withArmored(false), null);
+        }
+        try (FileChannel in = FileChannel.open(encrypted.toPath());
+             FileChannel out = FileChannel.open(decrypted.toPath(), StandardOpenOption.WRITE)) {
+            gpgEncryptionUtil.decryptFile(in, out, keyID -> GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray()),
+                    publicKey, EncryptionFormat.BINARY);
+        }
+
+        assertArrayEquals(contents, Files.readAllBytes(decrypted.toPath()));
+    }
+
+    private File writeFile(byte[] contents) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), contents);
+        return file;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.nwforrer.encryption;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ContentDigestsTest {
+    private static final String DIGEST = "2c26b46b68ffc68ff99b453c1d30413413422d706483bfa0f98a5e886266e7ae";
+
+    @Test
+    public void sha256_matchesKnownDigest() throws IOException {
+        assertEquals(DIGEST, ContentDigests.sha256(new ByteArrayInputStream("foo".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void sha256_ofText_matchesDigestOfItsBytes() {
+        assertEquals(DIGEST, ContentDigests.sha256("foo"));
+    }
+
+    @Test
+    public void dedupKey_ignoresRecipientOrder() {
+        assertEquals(ContentDigests.dedupKey("", EncryptionProfile.DEFAULT, Arrays.asList(1L, 2L), DIGEST),
+                ContentDigests.dedupKey("", EncryptionProfile.DEFAULT, Arrays.asList(2L, 1L), DIGEST));
+    }
+
+    @Test
+    public void dedupKey_differsForAnythingThatChangesTheCiphertext() {
+        String key = ContentDigests.dedupKey("", EncryptionProfile.DEFAULT, Collections.singletonList(1L), DIGEST);
+
+        assertNotEquals(key, ContentDigests.dedupKey("acme", EncryptionProfile.DEFAULT, Collections.singletonList(1L), DIGEST));
+        assertNotEquals(key, ContentDigests.dedupKey("", EncryptionProfile.DEFAULT.withArmored(false), Collections.singletonList(1L), DIGEST));
+        assertNotEquals(key, ContentDigests.dedupKey("", EncryptionProfile.DEFAULT, Arrays.asList(1L, 2L), DIGEST));
+        assertNotEquals(key, ContentDigests.dedupKey("", EncryptionProfile.DEFAULT, Collections.singletonList(1L), DIGEST.replace('2', '3')));
+    }
+}
@@ -0,0 +1,117 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SignatureException;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CryptoProvidersTest {
+
+    @Test
+    public void configuredProvider_isUsedForTheAlgorithmsItImplements() {
+        CryptoProviders cryptoProviders = new CryptoProviders("SunJCE", "SUN");
+        cryptoProviders.init();
+
+        assertEquals("SunJCE", cryptoProviders.getCipherProvider(SymmetricKeyAlgorithmTags.AES_256).getName());
+        assertEquals("SUN", cryptoProviders.getDigestProvider(HashAlgorithmTags.SHA256).getName());
+        // the JDK has no Twofish
+        assertSame(CryptoProviders.BOUNCY_CASTLE, cryptoProviders.getCipherProvider(SymmetricKeyAlgorithmTags.TWOFISH));
+        // SunJCE rejects the triple DES keys BouncyCastle makes
+        assertSame(CryptoProviders.BOUNCY_CASTLE, cryptoProviders.getCipherProvider(SymmetricKeyAlgorithmTags.TRIPLE_DES));
+    }
+
+    @Test
+    public void segmentCipher_comesFromAProviderThatGivesTheKnownAnswer() throws IOException, PGPException {
+        CryptoProviders jdk = new CryptoProviders("SunJCE", "SUN");
+        jdk.init();
+        assertEquals("SunJCE", jdk.getSegmentCipherProvider().getName());
+
+        // this BouncyCastle does not take GCM parameters, so the first installed provider is used
+        CryptoProviders bouncyCastle = new CryptoProviders();
+        bouncyCastle.init();
+        assertNull(bouncyCastle.getSegmentCipherProvider());
+
+        byte[] contents = new byte[100000];
+        new Random(0).nextBytes(contents);
+        GPGEncryptionUtil encryptor = new GPGEncryptionUtil();
+        encryptor.setCryptoProviders(jdk);
+        GPGEncryptionUtil decryptor = new GPGEncryptionUtil();
+        decryptor.setCryptoProviders(bouncyCastle);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        new SegmentedEncryption(encryptor).encrypt(new ByteArrayInputStream(contents), encrypted, Collections.singletonList(readPublicKey()), 4096);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        new SegmentedEncryption(decryptor).decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, privateKeys(), null);
+        assertArrayEquals(contents, decrypted.toByteArray());
+    }
+
+    @Test
+    public void missingProvider_fallsBackToBouncyCastle() {
+        CryptoProviders cryptoProviders = new CryptoProviders("NoSuchProvider", "NoSuchProvider");
+        cryptoProviders.init();
+
+        assertSame(CryptoProviders.BOUNCY_CASTLE, cryptoProviders.getCipherProvider(SymmetricKeyAlgorithmTags.AES_256));
+        assertSame(CryptoProviders.BOUNCY_CASTLE, cryptoProviders.getDigestProvider(HashAlgorithmTags.SHA256));
+    }
+
+    @Test
+    public void contentEncryptedWithOneProvider_decryptsWithAnother() throws IOException, PGPException, SignatureException {
+        CryptoProviders jdk = new CryptoProviders("SunJCE", "SUN");
+        jdk.init();
+        CryptoProviders auto = new CryptoProviders(CryptoProviders.AUTO, CryptoProviders.AUTO);
+        auto.setBenchmarkMillis(5);
+        auto.init();
+
+        for (int cipher : new int[]{SymmetricKeyAlgorithmTags.AES_128, SymmetricKeyAlgorithmTags.AES_256, SymmetricKeyAlgorithmTags.TRIPLE_DES}) {
+            EncryptionProfile profile = EncryptionProfile.builder("test").cipher(cipher).build();
+            assertRoundTrip(profile, jdk, new CryptoProviders());
+            assertRoundTrip(profile, new CryptoProviders(), jdk);
+            assertRoundTrip(profile, auto, jdk);
+        }
+    }
+
+    private void assertRoundTrip(EncryptionProfile profile, CryptoProviders encryptWith, CryptoProviders decryptWith)
+            throws IOException, PGPException, SignatureException {
+        GPGEncryptionUtil encryptor = new GPGEncryptionUtil();
+        encryptor.setCryptoProviders(encryptWith);
+        GPGEncryptionUtil decryptor = new GPGEncryptionUtil();
+        decryptor.setCryptoProviders(decryptWith);
+
+        byte[] contents = new byte[100000];
+        new Random(profile.getSymmetricAlgorithm()).nextBytes(contents);
+        char[] dataKey = "data key".toCharArray();
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        encryptor.encryptFile(new ByteArrayInputStream(contents), encrypted, Collections.singletonList(readPublicKey()), profile, null);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        decryptor.decryptFile(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, privateKeys(), null, EncryptionFormat.BINARY);
+        assertArrayEquals(contents, decrypted.toByteArray());
+
+        encrypted.reset();
+        encryptor.encryptFileWithDataKey(new ByteArrayInputStream(contents), encrypted, dataKey, profile, null);
+        decrypted.reset();
+        decryptor.decryptFileWithDataKey(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, dataKey, null, EncryptionFormat.BINARY);
+        assertArrayEquals(contents, decrypted.toByteArray());
+    }
+
+    private PGPPublicKey readPublicKey() throws IOException, PGPException {
+        return GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-public-key.asc"))));
+    }
+
+    private PrivateKeyProvider privateKeys() throws IOException, PGPException {
+        PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-private-key.asc")));
+        return keyID -> GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray());
+    }
+}
@@ -0,0 +1,145 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.security.SignatureException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DataKeyManagerTest {
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+    private final InMemoryWrappedKeyStore store = new InMemoryWrappedKeyStore();
+
+    private PGPPublicKey publicKey;
+    private PrivateKeyProvider privateKeys;
+
+    @Before
+    public void setUp() throws IOException, PGPException {
+        Security.addProvider(new BouncyCastleProvider());
+
+        publicKey = GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-public-key.asc"))));
+        PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-private-key.asc")));
+        privateKeys = keyID -> GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray());
+    }
+
+    @Test
+    public void currentKey_isReusedWithinRotationPeriod() throws IOException, PGPException {
+        DataKeyManager manager = new DataKeyManager(store, gpgEncryptionUtil);
+
+        DataKey first = manager.getCurrentKey("", publicKey);
+        DataKey second = manager.getCurrentKey("", publicKey);
+
+        assertEquals(first.getId(), second.getId());
+        assertArrayEquals(first.getKey(), second.getKey());
+        assertEquals(1, store.keys.size());
+    }
+
+    @Test
+    public void eachTenant_hasItsOwnKey() throws IOException, PGPException {
+        DataKeyManager manager = new DataKeyManager(store, gpgEncryptionUtil);
+
+        assertNotEquals(manager.getCurrentKey("", publicKey).getId(), manager.getCurrentKey("tenant", publicKey).getId());
+    }
+
+    @Test
+    public void expiredKey_isRotated() throws IOException, PGPException {
+        DataKeyManager manager = new DataKeyManager(store, gpgEncryptionUtil);
+        manager.setRotationPeriod(0);
+
+        assertNotEquals(manager.getCurrentKey("", publicKey).getId(), manager.getCurrentKey("", publicKey).getId());
+        assertEquals(2, store.keys.size());
+    }
+
+    @Test
+    public void storedKey_isUnwrappedWithPrivateKey() throws IOException, PGPException {
+        DataKey dataKey = new DataKeyManager(store, gpgEncryptionUtil).getCurrentKey("", publicKey);
+
+        char[] unwrapped = new DataKeyManager(store, gpgEncryptionUtil).getKey(dataKey.getId(), privateKeys);
+
+        assertArrayEquals(dataKey.getKey(), unwrapped);
+    }
+
+    @Test
+    public void rewrappedKey_isWrappedOnceWithTheNewPublicKey() throws IOException, PGPException {
+        PGPPublicKey recipientKey = GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-recipient-public-key.asc"))));
+        PGPSecretKeyRingCollection recipientSecretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-recipient-private-key.asc")));
+        DataKey dataKey = new DataKeyManager(store, gpgEncryptionUtil).getCurrentKey("", publicKey);
+        DataKeyManager manager = new DataKeyManager(store, gpgEncryptionUtil);
+
+        String rewrapped = manager.rewrap(dataKey.getId(), privateKeys, recipientKey);
+
+        assertNotEquals(dataKey.getId(), rewrapped);
+        assertEquals(rewrapped, manager.rewrap(dataKey.getId(), privateKeys, recipientKey));
+        assertEquals(2, store.keys.size());
+        char[] unwrapped = new DataKeyManager(store, gpgEncryptionUtil).getKey(rewrapped,
+                keyID -> GPGEncryptionUtil.findSecretKey(recipientSecretKeys, keyID, "password".toCharArray()));
+        assertArrayEquals(dataKey.getKey(), unwrapped);
+    }
+
+    @Test(expected = PGPException.class)
+    public void unknownKey_isRejected() throws IOException, PGPException {
+        new DataKeyManager(store, gpgEncryptionUtil).getKey("missing", privateKeys);
+    }
+
+    @Test
+    public void contentEncryptedWithDataKey_canBeDecrypted() throws IOException, PGPException, SignatureException {
+        DataKey dataKey = new DataKeyManager(store, gpgEncryptionUtil).getCurrentKey("", publicKey);
+        byte[] contents = "this is a file".getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFileWithDataKey(new ByteArrayInputStream(contents), encrypted, dataKey.getKey(),
+                EncryptionProfile.DEFAULT, "text/plain");
+
+        char[] key = new DataKeyManager(store, gpgEncryptionUtil).getKey(dataKey.getId(), privateKeys);
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        gpgEncryptionUtil.decryptFileWithDataKey(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, key, null,
+                EncryptionFormat.ARMORED);
+        assertArrayEquals(contents, decrypted.toByteArray());
+
+        try (InputStream in = gpgEncryptionUtil.openDecryptedStreamWithDataKey(
+                new ByteArrayInputStream(encrypted.toByteArray()), key, EncryptionFormat.ARMORED)) {
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                streamed.write(buffer, 0, read);
+            }
+            assertArrayEquals(contents, streamed.toByteArray());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void contentEncryptedToPublicKey_isRejectedByDataKeyDecrypt() throws IOException, PGPException, SignatureException {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream("this is a file".getBytes(StandardCharsets.UTF_8)), encrypted, publicKey);
+
+        gpgEncryptionUtil.decryptFileWithDataKey(new ByteArrayInputStream(encrypted.toByteArray()), new ByteArrayOutputStream(),
+                "key".toCharArray(), null, EncryptionFormat.ARMORED);
+    }
+
+    private static class InMemoryWrappedKeyStore implements WrappedKeyStore {
+        private final Map<String, byte[]> keys = new HashMap<>();
+
+        @Override
+        public void put(String keyId, byte[] wrappedKey) {
+            keys.put(keyId, wrappedKey);
+        }
+
+        @Override
+        public byte[] get(String keyId) {
+            return keys.get(keyId);
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package io.github.nwforrer.encryption;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPEncryptedData;
 import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.util.io.Streams;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -9,6 +17,10 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.security.Security;
 import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -181,4 +193,352 @@ public class GPGEncryptionUtilTest {
             assertEquals(contents, decryptedString);
         }
     }
+
+    @Test
+    public void canEncryptFileWithProfile() throws IOException, PGPException, SignatureException {
+        EncryptionProfile profile = EncryptionProfile.builder("test").cipher(PGPEncryptedData.AES_128).armored(true).build();
+
+        assertRoundTrip("this is a file".getBytes(), profile, "text/plain");
+    }
+
+    @Test
+    public void canEncryptIncompressibleFileWithAdaptiveProfile() throws IOException, PGPException, SignatureException {
+        EncryptionProfile profile = EncryptionProfile.builder("test").compression(PGPCompressedData.ZLIB).compressionLevel(9)
+                .adaptiveCompression(true).incompressibleMimetypes(Collections.singleton("application/pdf")).armored(true).build();
+        byte[] contents = new byte[100000];
+        new Random(1).nextBytes(contents);
+
+        assertRoundTrip(contents, profile, "application/pdf");
+        assertRoundTrip(contents, profile, null);
+    }
+
+    @Test
+    public void encryptionResult_recordsWhatWasApplied() throws IOException, PGPException {
+        EncryptionProfile profile = EncryptionProfile.builder("test").compression(PGPCompressedData.ZLIB).compressionLevel(9)
+                .adaptiveCompression(true).incompressibleMimetypes(Collections.singleton("application/pdf")).armored(true).build();
+        PGPPublicKey publicKey = GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-public-key.asc"))));
+        byte[] contents = new byte[100000];
+        new Random(1).nextBytes(contents);
+
+        EncryptionResult result = gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), new ByteArrayOutputStream(), publicKey, profile, "application/pdf");
+        assertEquals("AES_256", result.getCipher());
+        assertEquals("NONE", result.getCompression());
+        assertEquals(contents.length, result.getPlaintextSize());
+
+        result = gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(new byte[5000]), new ByteArrayOutputStream(), publicKey, profile, "text/plain");
+        assertEquals("ZLIB", result.getCompression());
+        assertEquals(5000, result.getPlaintextSize());
+    }
+
+    @Test
+    public void encryptionResult_hasDigestOfPlaintext() throws IOException, PGPException {
+        byte[] contents = new byte[100000];
+        new Random(2).nextBytes(contents);
+        String expected = ContentDigests.sha256(new ByteArrayInputStream(contents));
+
+        // compression is chosen from a sample read ahead of the rest, which has to be digested too
+        EncryptionProfile profile = EncryptionProfile.builder("test").compression(PGPCompressedData.ZLIB).adaptiveCompression(true).armored(true).build();
+        EncryptionResult result = gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), new ByteArrayOutputStream(), readPublicKey("test-public-key.asc"), profile, null);
+        assertEquals(expected, result.getPlaintextDigest());
+
+        result = gpgEncryptionUtil.encryptFileWithDataKey(new ByteArrayInputStream(contents), new ByteArrayOutputStream(), "data key".toCharArray(), EncryptionProfile.DEFAULT, null);
+        assertEquals(expected, result.getPlaintextDigest());
+    }
+
+    @Test
+    public void withConfiguredPartialPackets_canDecrypt() throws IOException, PGPException, SignatureException {
+        byte[] contents = new byte[300000];
+        new Random(3).nextBytes(contents);
+        EncryptionProfile profile = EncryptionProfile.builder("test").cipher(PGPEncryptedData.AES_128).build();
+
+        for (int[] sizes : new int[][]{{PartialPackets.MIN_SIZE, PartialPackets.MIN_SIZE}, {65536, 1024}, {1024, 1 << 20}}) {
+            gpgEncryptionUtil.setPartialPackets(new PartialPackets(sizes[0], sizes[1]));
+            assertRoundTrip(contents, profile, null);
+        }
+    }
+
+    @Test
+    public void partialPackets_mustBePowerOfTwo() {
+        for (int size : new int[]{0, 256, 8000, PartialPackets.MAX_SIZE + 1}) {
+            try {
+                new PartialPackets(size, PartialPackets.DEFAULT_SIZE);
+                fail("accepted partial packets of " + size + " bytes");
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("power of two"));
+            }
+        }
+    }
+
+    @Test
+    public void plaintextDigest_withoutDestination_onlyDigests() throws IOException {
+        byte[] contents = "some plaintext".getBytes(StandardCharsets.UTF_8);
+        PlaintextDigest digest = gpgEncryptionUtil.newPlaintextDigest(null);
+        digest.write(contents[0]);
+        digest.write(contents, 1, contents.length - 1);
+        digest.close();
+
+        assertEquals(contents.length, digest.getSize());
+        assertEquals(ContentDigests.sha256(new ByteArrayInputStream(contents)), digest.getDigest());
+    }
+
+    @Test
+    public void canEncryptFileWithBinaryProfile() throws IOException, PGPException, SignatureException {
+        EncryptionProfile profile = EncryptionProfile.DEFAULT.withArmored(false);
+        byte[] contents = "this is a file".getBytes();
+
+        assertRoundTrip(contents, profile, "text/plain");
+
+        try (ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+             ByteArrayOutputStream armoredOutStream = new ByteArrayOutputStream();
+             ByteArrayOutputStream decryptedOutStream = new ByteArrayOutputStream()) {
+            PGPPublicKey publicKey = GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-public-key.asc"))));
+            gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), encryptedOutStream, publicKey, profile, "text/plain");
+            assertTrue(encryptedOutStream.toByteArray()[0] < 0);
+
+            gpgEncryptionUtil.armor(new ByteArrayInputStream(encryptedOutStream.toByteArray()), armoredOutStream);
+            assertTrue(new String(armoredOutStream.toByteArray()).startsWith("-----BEGIN PGP MESSAGE-----"));
+
+            PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-private-key.asc")));
+            gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(armoredOutStream.toByteArray()), decryptedOutStream,
+                    keyID -> GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray()), publicKey, EncryptionFormat.ARMORED);
+            assertArrayEquals(contents, decryptedOutStream.toByteArray());
+        }
+    }
+
+    @Test
+    public void canStreamDecryptedContent() throws IOException, PGPException {
+        byte[] contents = new byte[200000];
+        new Random(1).nextBytes(contents);
+
+        try (ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream()) {
+            PGPPublicKey publicKey = GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-public-key.asc"))));
+            gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), encryptedOutStream, publicKey);
+            PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-private-key.asc")));
+
+            try (InputStream in = gpgEncryptionUtil.openDecryptedStream(new ByteArrayInputStream(encryptedOutStream.toByteArray()),
+                    keyID -> GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray()), null)) {
+                assertEquals(150000, in.skip(150000));
+                byte[] range = new byte[100];
+                assertEquals(100, in.read(range));
+                assertArrayEquals(Arrays.copyOfRange(contents, 150000, 150100), range);
+                assertEquals(contents.length - 150100, in.skip(Long.MAX_VALUE));
+                assertEquals(-1, in.read());
+            }
+        }
+    }
+
+    @Test
+    public void tamperedContent_failsStreamedDecryption() throws IOException, PGPException {
+        byte[] contents = new byte[200000];
+        new Random(1).nextBytes(contents);
+
+        try (ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream()) {
+            PGPPublicKey publicKey = GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-public-key.asc"))));
+            gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), encryptedOutStream, publicKey);
+            PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-private-key.asc")));
+            byte[] encrypted;
+            try (InputStream decoded = PGPUtil.getDecoderStream(new ByteArrayInputStream(encryptedOutStream.toByteArray()))) {
+                encrypted = Streams.readAll(decoded);
+            }
+
+            // one byte of the content, and one byte of the integrity packet at the end
+            for (int position : new int[]{encrypted.length / 2, encrypted.length - 10}) {
+                byte[] tampered = encrypted.clone();
+                tampered[position] ^= 1;
+                try (InputStream in = gpgEncryptionUtil.openDecryptedStream(new ByteArrayInputStream(tampered),
+                        keyID -> GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray()), null)) {
+                    in.skip(Long.MAX_VALUE);
+                    in.read();
+                    fail("tampered byte " + position + " was not detected");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage(), position < encrypted.length - 22 || e.getMessage().contains("integrity check"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void encryptAndDecrypt_areRecordedInMetrics() throws IOException, PGPException, SignatureException {
+        EncryptionMetrics metrics = new EncryptionMetrics();
+        gpgEncryptionUtil.setMetrics(metrics);
+
+        assertRoundTrip(new byte[2000], EncryptionProfile.DEFAULT, null);
+
+        assertEquals(1, metrics.getEncryptCount());
+        assertEquals(1, metrics.getDecryptCount());
+        assertEquals(2000, metrics.getDecryptedBytes());
+        assertEquals(Long.valueOf(1), metrics.getPayloadSizeHistogram().get("encrypt.le_64KB"));
+        assertEquals(Long.valueOf(1), metrics.getStageCounts().get(EncryptionMetrics.SESSION_KEY_DECRYPT));
+        assertEquals(Long.valueOf(1), metrics.getStageCounts().get(EncryptionMetrics.DECRYPT_STREAM));
+    }
+
+    @Test
+    public void canEncryptFileForMultipleRecipients() throws IOException, PGPException, SignatureException {
+        byte[] contents = "this is a file".getBytes();
+
+        ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), encryptedOutStream,
+                Arrays.asList(readPublicKey("test-public-key.asc"), readPublicKey("test-recipient-public-key.asc")), EncryptionProfile.DEFAULT, "text/plain");
+
+        assertArrayEquals(contents, decrypt(encryptedOutStream.toByteArray(), "test-private-key.asc"));
+        assertArrayEquals(contents, decrypt(encryptedOutStream.toByteArray(), "test-recipient-private-key.asc"));
+    }
+
+    @Test
+    public void addingRecipient_onlyRewritesSessionKeys() throws IOException, PGPException, SignatureException {
+        byte[] contents = new byte[100000];
+        new Random(1).nextBytes(contents);
+        PGPPublicKey recipient = readPublicKey("test-recipient-public-key.asc");
+
+        ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), encryptedOutStream, readPublicKey("test-public-key.asc"),
+                EncryptionProfile.DEFAULT.withArmored(false), null);
+        byte[] encrypted = encryptedOutStream.toByteArray();
+
+        ByteArrayOutputStream rewrittenOutStream = new ByteArrayOutputStream();
+        List<Long> recipients = gpgEncryptionUtil.changeRecipients(new ByteArrayInputStream(encrypted), rewrittenOutStream,
+                privateKeys("test-private-key.asc"), Collections.singletonList(recipient), Collections.<Long>emptyList(), EncryptionFormat.BINARY);
+        byte[] rewritten = rewrittenOutStream.toByteArray();
+
+        assertEquals(2, recipients.size());
+        assertTrue(rewritten.length > encrypted.length);
+        assertArrayEquals(Arrays.copyOfRange(encrypted, encrypted.length - 99000, encrypted.length),
+                Arrays.copyOfRange(rewritten, rewritten.length - 99000, rewritten.length));
+        assertArrayEquals(contents, decrypt(rewritten, "test-recipient-private-key.asc"));
+        assertArrayEquals(contents, decrypt(rewritten, "test-private-key.asc"));
+    }
+
+    @Test
+    public void revokedRecipient_cannotDecrypt() throws IOException, PGPException, SignatureException {
+        byte[] contents = "this is a file".getBytes();
+        PGPPublicKey publicKey = readPublicKey("test-public-key.asc");
+
+        ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), encryptedOutStream,
+                Arrays.asList(publicKey, readPublicKey("test-recipient-public-key.asc")), EncryptionProfile.DEFAULT, null);
+
+        ByteArrayOutputStream rewrittenOutStream = new ByteArrayOutputStream();
+        gpgEncryptionUtil.changeRecipients(new ByteArrayInputStream(encryptedOutStream.toByteArray()), rewrittenOutStream,
+                null, Collections.<PGPPublicKey>emptyList(), Collections.singletonList(publicKey.getKeyID()), null);
+        byte[] rewritten = rewrittenOutStream.toByteArray();
+
+        assertTrue(new String(rewritten).startsWith("-----BEGIN PGP MESSAGE-----"));
+        assertArrayEquals(contents, decrypt(rewritten, "test-recipient-private-key.asc"));
+        try {
+            decrypt(rewritten, "test-private-key.asc");
+            fail("revoked recipient could still decrypt the message");
+        } catch (IllegalArgumentException e) {
+            assertEquals("secret key for message not found.", e.getMessage());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void revokingEveryRecipient_isRejected() throws IOException, PGPException {
+        PGPPublicKey publicKey = readPublicKey("test-public-key.asc");
+        ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream("this is a file".getBytes()), encryptedOutStream, publicKey);
+
+        gpgEncryptionUtil.changeRecipients(new ByteArrayInputStream(encryptedOutStream.toByteArray()), new ByteArrayOutputStream(),
+                null, Collections.<PGPPublicKey>emptyList(), Collections.singletonList(publicKey.getKeyID()), EncryptionFormat.ARMORED);
+    }
+
+    @Test
+    public void signedContent_isVerifiedWhileDecrypting() throws IOException, PGPException, SignatureException {
+        byte[] contents = "signed content".getBytes(StandardCharsets.UTF_8);
+        byte[] encrypted = encryptSigned(contents, EncryptionProfile.DEFAULT);
+
+        ByteArrayOutputStream decryptedOutStream = new ByteArrayOutputStream();
+        SignatureVerification verification = gpgEncryptionUtil.decryptAndVerify(new ByteArrayInputStream(encrypted), decryptedOutStream,
+                privateKeys("test-recipient-private-key.asc"), GPGEncryptionUtil.readAllPublicKeys(publicKeyRings("test-public-key.asc")), null);
+
+        assertArrayEquals(contents, decryptedOutStream.toByteArray());
+        assertEquals(SignatureVerification.Status.VALID, verification.getStatus());
+        assertEquals(signingKey().getKeyID(), verification.getSignerKeyID().longValue());
+    }
+
+    @Test
+    public void signatureByUnknownKey_isUntrusted() throws IOException, PGPException, SignatureException {
+        byte[] contents = "signed content".getBytes(StandardCharsets.UTF_8);
+        byte[] encrypted = encryptSigned(contents, EncryptionProfile.DEFAULT.withArmored(false));
+
+        ByteArrayOutputStream decryptedOutStream = new ByteArrayOutputStream();
+        SignatureVerification verification = gpgEncryptionUtil.decryptAndVerify(new ByteArrayInputStream(encrypted), decryptedOutStream,
+                privateKeys("test-recipient-private-key.asc"), Collections.singletonList(readPublicKey("test-recipient-public-key.asc")), EncryptionFormat.BINARY);
+
+        assertArrayEquals(contents, decryptedOutStream.toByteArray());
+        assertEquals(SignatureVerification.Status.UNTRUSTED, verification.getStatus());
+        assertFalse(SignaturePolicy.VERIFY.accepts(verification));
+        assertTrue(SignaturePolicy.RECORD.accepts(verification));
+    }
+
+    @Test
+    public void unsignedContent_isReportedAsUnsigned() throws IOException, PGPException, SignatureException {
+        byte[] contents = "unsigned content".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), encryptedOutStream, readPublicKey("test-public-key.asc"), EncryptionProfile.DEFAULT, null);
+
+        SignatureVerification verification = gpgEncryptionUtil.decryptAndVerify(new ByteArrayInputStream(encryptedOutStream.toByteArray()),
+                new ByteArrayOutputStream(), privateKeys("test-private-key.asc"), Collections.singletonList(readPublicKey("test-public-key.asc")), null);
+
+        assertEquals(SignatureVerification.Status.UNSIGNED, verification.getStatus());
+        assertTrue(SignaturePolicy.VERIFY.accepts(verification));
+        assertFalse(SignaturePolicy.REQUIRE.accepts(verification));
+    }
+
+    @Test
+    public void entropy_distinguishesRandomFromText() {
+        byte[] random = new byte[4096];
+        new Random(1).nextBytes(random);
+        byte[] text = "the quick brown fox jumps over the lazy dog ".getBytes();
+
+        assertTrue(GPGEncryptionUtil.entropy(random, random.length) > 7.5);
+        assertTrue(GPGEncryptionUtil.entropy(text, text.length) < 5);
+    }
+
+    private byte[] encryptSigned(byte[] contents, EncryptionProfile profile) throws IOException, PGPException {
+        ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), encryptedOutStream,
+                Collections.singletonList(readPublicKey("test-recipient-public-key.asc")), profile, null, signingKey());
+        return encryptedOutStream.toByteArray();
+    }
+
+    private SigningKey signingKey() throws IOException, PGPException {
+        PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-private-key.asc")));
+        PGPSecretKey secretKey = GPGEncryptionUtil.readSigningKey(secretKeys);
+        return new SigningKey(GPGEncryptionUtil.findSecretKey(secretKeys, secretKey.getKeyID(), "password".toCharArray()),
+                secretKey.getPublicKey().getAlgorithm());
+    }
+
+    private PGPPublicKeyRingCollection publicKeyRings(String resource) throws IOException, PGPException {
+        return new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream(resource)));
+    }
+
+    private PGPPublicKey readPublicKey(String resource) throws IOException, PGPException {
+        return GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream(resource))));
+    }
+
+    private PrivateKeyProvider privateKeys(String resource) throws IOException, PGPException {
+        PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream(resource)));
+        return keyID -> GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray());
+    }
+
+    private byte[] decrypt(byte[] encrypted, String privateKeyResource) throws IOException, PGPException, SignatureException {
+        ByteArrayOutputStream decryptedOutStream = new ByteArrayOutputStream();
+        gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(encrypted), decryptedOutStream, privateKeys(privateKeyResource), null);
+        return decryptedOutStream.toByteArray();
+    }
+
+    private void assertRoundTrip(byte[] contents, EncryptionProfile profile, String mimetype) throws IOException, PGPException, SignatureException {
+        try (ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+             ByteArrayOutputStream decryptedOutStream = new ByteArrayOutputStream()) {
+            gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents), encryptedOutStream,
+                    GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-public-key.asc")))),
+                    profile, mimetype);
+
+            gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(encryptedOutStream.toByteArray()), decryptedOutStream,
+                    getClass().getResourceAsStream("test-private-key.asc"), getClass().getResourceAsStream("test-public-key.asc"), "password".toCharArray());
+
+            assertArrayEquals(contents, decryptedOutStream.toByteArray());
+        }
+    }
 }
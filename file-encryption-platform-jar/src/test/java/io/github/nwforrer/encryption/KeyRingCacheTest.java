@@ -0,0 +1,128 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.Security;
+import java.security.SignatureException;
+
+import static org.junit.Assert.*;
+
+public class KeyRingCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+
+    private String publicKeyPath;
+    private String privateKeyPath;
+
+    @Before
+    public void setUp() throws IOException {
+        Security.addProvider(new BouncyCastleProvider());
+
+        publicKeyPath = copyResource("test-public-key.asc");
+        privateKeyPath = copyResource("test-private-key.asc");
+    }
+
+    @Test
+    public void unchangedKeyFile_isOnlyParsedOnce() throws IOException, PGPException {
+        KeyRingCache cache = new KeyRingCache();
+
+        assertSame(cache.getPublicKeyRings(publicKeyPath), cache.getPublicKeyRings(publicKeyPath));
+    }
+
+    @Test
+    public void touchedKeyFileWithSameContent_isNotReparsed() throws IOException, PGPException {
+        KeyRingCache cache = new KeyRingCache();
+        Object keys = cache.getPublicKeyRings(publicKeyPath);
+
+        File file = new File(publicKeyPath);
+        assertTrue(file.setLastModified(file.lastModified() - 60000));
+
+        assertSame(keys, cache.getPublicKeyRings(publicKeyPath));
+    }
+
+    @Test
+    public void modifiedKeyFile_isReparsed() throws IOException, PGPException {
+        KeyRingCache cache = new KeyRingCache();
+        Object keys = cache.getPublicKeyRings(publicKeyPath);
+
+        Files.write(new File(publicKeyPath).toPath(), "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        assertNotSame(keys, cache.getPublicKeyRings(publicKeyPath));
+    }
+
+    @Test
+    public void unlockedPrivateKey_isCached() throws IOException, PGPException {
+        KeyRingCache cache = new KeyRingCache();
+        long keyID = cache.getPublicKey(publicKeyPath).getKeyID();
+
+        PGPPrivateKey key = cache.getPrivateKey(privateKeyPath, keyID, "password".toCharArray());
+
+        assertNotNull(key);
+        assertSame(key, cache.getPrivateKey(privateKeyPath, keyID, "password".toCharArray()));
+    }
+
+    @Test
+    public void cachedPrivateKey_isNotGivenForWrongPassphrase() throws IOException, PGPException {
+        KeyRingCache cache = new KeyRingCache();
+        long keyID = cache.getPublicKey(publicKeyPath).getKeyID();
+        assertNotNull(cache.getPrivateKey(privateKeyPath, keyID, "password".toCharArray()));
+
+        try {
+            cache.getPrivateKey(privateKeyPath, keyID, "wrong".toCharArray());
+            fail("a wrong passphrase was given the cached key");
+        } catch (PGPException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("checksum mismatch"));
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedPrivateKey_isEvicted() throws IOException, PGPException {
+        KeyRingCache cache = new KeyRingCache(1);
+        String otherPrivateKeyPath = copyResource("test-private-key.asc");
+        long keyID = cache.getPublicKey(publicKeyPath).getKeyID();
+
+        PGPPrivateKey key = cache.getPrivateKey(privateKeyPath, keyID, "password".toCharArray());
+        cache.getPrivateKey(otherPrivateKeyPath, keyID, "password".toCharArray());
+
+        assertNotSame(key, cache.getPrivateKey(privateKeyPath, keyID, "password".toCharArray()));
+    }
+
+    @Test
+    public void cachedKeys_canEncryptAndDecrypt() throws IOException, PGPException, SignatureException {
+        KeyRingCache cache = new KeyRingCache();
+        String contents = "this is a file";
+        PGPPublicKey publicKey = cache.getPublicKey(publicKeyPath);
+
+        try (ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+             ByteArrayOutputStream decryptedOutStream = new ByteArrayOutputStream()) {
+            gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents.getBytes()), encryptedOutStream, publicKey);
+
+            gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(encryptedOutStream.toByteArray()), decryptedOutStream,
+                    cache.getPrivateKeyProvider(privateKeyPath, "password".toCharArray()), publicKey);
+
+            assertEquals(contents, new String(decryptedOutStream.toByteArray()));
+        }
+    }
+
+    private String copyResource(String name) throws IOException {
+        File file = folder.newFile();
+        try (InputStream in = getClass().getResourceAsStream(name)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file.getAbsolutePath();
+    }
+}
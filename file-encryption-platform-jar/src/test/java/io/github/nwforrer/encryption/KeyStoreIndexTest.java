@@ -0,0 +1,206 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSecretKeyRing;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.Security;
+import java.security.SignatureException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeyStoreIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+    private final AtomicInteger passphraseLookups = new AtomicInteger();
+    private final PassphraseProvider passphrases = (masterKeyID, keyFile) -> {
+        passphraseLookups.incrementAndGet();
+        return "password".toCharArray();
+    };
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        Security.addProvider(new BouncyCastleProvider());
+
+        directory = folder.newFolder("keys");
+        copyResource("test-private-key.asc");
+        copyResource("test-recipient-private-key.asc");
+        // not a secret key file, so it is skipped
+        copyResource("test-public-key.asc");
+    }
+
+    @Test
+    public void masterAndSubKeysOfEveryFile_areIndexed() throws IOException, PGPException {
+        KeyStoreIndex index = new KeyStoreIndex(directory.getPath(), passphrases);
+        index.init();
+
+        Set<Long> expected = new HashSet<>();
+        expected.addAll(secretKeyIDs("test-private-key.asc"));
+        expected.addAll(secretKeyIDs("test-recipient-private-key.asc"));
+        assertTrue(expected.size() > 2);
+        assertEquals(expected, index.getKeyIDs());
+    }
+
+    @Test
+    public void contentForAnyKey_canBeDecrypted() throws IOException, PGPException, SignatureException {
+        KeyStoreIndex index = new KeyStoreIndex(directory.getPath(), passphrases);
+        index.init();
+
+        for (String publicKey : new String[]{"test-public-key.asc", "test-recipient-public-key.asc"}) {
+            assertEquals("contents for " + publicKey, decrypt(encrypt("contents for " + publicKey, publicKey), index));
+        }
+    }
+
+    @Test
+    public void keys_areUnlockedWhenFirstUsed() throws IOException, PGPException, SignatureException {
+        KeyStoreIndex index = new KeyStoreIndex(directory.getPath(), passphrases);
+        index.init();
+        assertEquals(0, passphraseLookups.get());
+
+        byte[] encrypted = encrypt("contents", "test-recipient-public-key.asc");
+        decrypt(encrypted, index);
+        decrypt(encrypted, index);
+
+        assertEquals(1, passphraseLookups.get());
+        assertEquals(1, index.getUnlockedCount());
+    }
+
+    @Test
+    public void unknownKey_rescansAtMostEveryInterval() throws IOException, PGPException {
+        File keyFile = new File(directory, "test-recipient-private-key.asc");
+        long keyID = secretKeyIDs("test-recipient-private-key.asc").iterator().next();
+        assertTrue(keyFile.delete());
+        KeyStoreIndex index = new KeyStoreIndex(directory.getPath(), passphrases);
+        index.setRescanInterval(60000);
+        index.init();
+        assertNull(index.getPrivateKey(keyID));
+
+        copyResource("test-recipient-private-key.asc");
+        assertNull(index.getPrivateKey(keyID));
+
+        index.setRescanInterval(0);
+        assertNotNull(index.getPrivateKey(keyID));
+    }
+
+    @Test
+    public void changedAndRemovedFiles_leaveTheIndex() throws IOException, PGPException {
+        KeyStoreIndex index = new KeyStoreIndex(directory.getPath(), passphrases);
+        index.init();
+        long keyID = secretKeyIDs("test-private-key.asc").iterator().next();
+        PGPPrivateKey key = index.getPrivateKey(keyID);
+
+        File keyFile = new File(directory, "test-private-key.asc");
+        Files.write(keyFile.toPath(), "\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        index.scan();
+        PGPPrivateKey reloaded = index.getPrivateKey(keyID);
+        assertNotNull(reloaded);
+        assertNotSame(key, reloaded);
+
+        assertTrue(keyFile.delete());
+        index.scan();
+        assertFalse(index.getKeyIDs().contains(keyID));
+        assertEquals(0, index.getUnlockedCount());
+    }
+
+    @Test(expected = PGPException.class)
+    public void keyWithoutPassphrase_cannotBeUnlocked() throws IOException, PGPException {
+        KeyStoreIndex index = new KeyStoreIndex(directory.getPath(), (masterKeyID, keyFile) -> null);
+        index.init();
+
+        index.getPrivateKey(secretKeyIDs("test-private-key.asc").iterator().next());
+    }
+
+    @Test
+    public void keyWithWrongPassphrase_failsUntilTheNextScan() throws IOException, PGPException {
+        AtomicInteger lookups = new AtomicInteger();
+        KeyStoreIndex index = new KeyStoreIndex(directory.getPath(), (masterKeyID, keyFile) -> {
+            lookups.incrementAndGet();
+            return "wrong".toCharArray();
+        });
+        index.init();
+        long keyID = secretKeyIDs("test-private-key.asc").iterator().next();
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                index.getPrivateKey(keyID);
+                fail("key should not have been unlocked");
+            } catch (PGPException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("checksum mismatch"));
+            }
+        }
+        assertEquals(1, lookups.get());
+
+        index.scan();
+        try {
+            index.getPrivateKey(keyID);
+            fail("key should not have been unlocked");
+        } catch (PGPException e) {
+            assertEquals(2, lookups.get());
+        }
+    }
+
+    @Test
+    public void keyRingCache_fallsBackToKeyStore() throws IOException, PGPException, SignatureException {
+        KeyStoreIndex index = new KeyStoreIndex(directory.getPath(), passphrases);
+        index.init();
+        KeyRingCache cache = new KeyRingCache();
+        cache.setKeyStore(index);
+        String privateKeyPath = new File(directory, "test-private-key.asc").getPath();
+
+        byte[] encrypted = encrypt("contents", "test-recipient-public-key.asc");
+        assertEquals("contents", decrypt(encrypted, cache.getPrivateKeyProvider(privateKeyPath, "password".toCharArray())));
+        assertEquals("contents", decrypt(encrypted, cache.getPrivateKeyProvider("", new char[0])));
+    }
+
+    private byte[] encrypt(String contents, String publicKeyResource) throws IOException, PGPException {
+        PGPPublicKey publicKey = GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream(publicKeyResource))));
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)), encrypted, publicKey);
+        return encrypted.toByteArray();
+    }
+
+    private String decrypt(byte[] encrypted, PrivateKeyProvider privateKeys) throws IOException, PGPException, SignatureException {
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(encrypted), decrypted, privateKeys, null);
+        return new String(decrypted.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private Set<Long> secretKeyIDs(String resource) throws IOException, PGPException {
+        Set<Long> keyIDs = new HashSet<>();
+        PGPSecretKeyRingCollection rings = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream(resource)));
+        for (Iterator<?> ringIt = rings.getKeyRings(); ringIt.hasNext(); ) {
+            for (Iterator<?> keyIt = ((PGPSecretKeyRing) ringIt.next()).getSecretKeys(); keyIt.hasNext(); ) {
+                keyIDs.add(((PGPSecretKey) keyIt.next()).getKeyID());
+            }
+        }
+        return keyIDs;
+    }
+
+    private void copyResource(String name) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(name)) {
+            Files.copy(in, new File(directory, name).toPath());
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPEncryptedData;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pushes many gigabytes through encryption and decryption at once and checks that neither holds on to the content:
+ * the heap left after garbage collection stays flat, and throughput does not drop, as the amount of content grows.
+ * <p>
+ * Not part of the normal build; run it with `mvn test -Psoak`, which gives it a small heap. `-Dsoak.bytes` sets the
+ * bytes pushed through per test, 10 GB by default.
+ */
+public class LargeContentSoak {
+
+    private static final long BYTES = Long.getLong("soak.bytes", 10L * 1024 * 1024 * 1024);
+    private static final int CHECKPOINTS = Integer.getInteger("soak.checkpoints", 10);
+    // growth allowed between checkpoints for what is not the content: JIT code, class metadata, pool buffers
+    private static final long HEAP_SLACK = 8 * 1024 * 1024;
+    // slowest interval allowed, as a fraction of the median interval
+    private static final double MIN_RELATIVE_THROUGHPUT = 0.5;
+    private static final int PIPE_SIZE = 1024 * 1024;
+
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+
+    private List<PGPPublicKey> recipients;
+    private PrivateKeyProvider privateKeys;
+
+    @Before
+    public void setUp() throws IOException, PGPException {
+        Security.addProvider(new BouncyCastleProvider());
+        // as configured in the repository, so the soak runs at the speed it would there
+        CryptoProviders cryptoProviders = new CryptoProviders("auto", "auto");
+        cryptoProviders.init();
+        gpgEncryptionUtil.setCryptoProviders(cryptoProviders);
+        recipients = Collections.singletonList(GPGEncryptionUtil.readPublicKey(
+                new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-public-key.asc")))));
+        PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-private-key.asc")));
+        privateKeys = keyID -> GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray());
+    }
+
+    @Test
+    public void binaryUncompressed_staysFlat() throws Exception {
+        assertFlat(EncryptionProfile.builder("soak-binary").cipher(PGPEncryptedData.AES_128).build());
+    }
+
+    @Test
+    public void armoredCompressed_staysFlat() throws Exception {
+        assertFlat(EncryptionProfile.builder("soak-armored").compression(PGPCompressedData.ZIP).armored(true).build());
+    }
+
+    @Test
+    public void largePartialPackets_stayFlat() throws Exception {
+        gpgEncryptionUtil.setPartialPackets(new PartialPackets(1024 * 1024, 1024 * 1024));
+        assertFlat(EncryptionProfile.builder("soak-large-packets").cipher(PGPEncryptedData.AES_128).build());
+    }
+
+    /**
+     * Encrypt synthetic content on one thread into a pipe, and decrypt it from the pipe on this one, taking the heap
+     * and the throughput at every checkpoint.
+     */
+    private void assertFlat(EncryptionProfile profile) throws Exception {
+        PipedInputStream encrypted = new PipedInputStream(PIPE_SIZE);
+        PipedOutputStream encryptedOut = new PipedOutputStream(encrypted);
+        ExecutorService encryptor = Executors.newSingleThreadExecutor();
+        try {
+            Future<EncryptionResult> encryption = encryptor.submit(() -> {
+                try (OutputStream out = encryptedOut) {
+                    return gpgEncryptionUtil.encryptFile(new SyntheticInputStream(BYTES), out, recipients, profile, null);
+                }
+            });
+
+            Checkpoints checkpoints = new Checkpoints(BYTES / CHECKPOINTS);
+            PlaintextDigest decrypted = gpgEncryptionUtil.newPlaintextDigest(checkpoints);
+            try (InputStream in = encrypted) {
+                gpgEncryptionUtil.decryptFile(in, decrypted, privateKeys, null, profile.isArmored() ? EncryptionFormat.ARMORED : EncryptionFormat.BINARY);
+            }
+            EncryptionResult result = encryption.get();
+
+            assertEquals(BYTES, decrypted.getSize());
+            assertEquals(result.getPlaintextDigest(), decrypted.getDigest());
+            checkpoints.assertFlat(profile.getName());
+        } finally {
+            encryptor.shutdownNow();
+        }
+    }
+
+    /**
+     * Content of a given length that compresses somewhat, as documents do, generated rather than held in memory.
+     */
+    private static class SyntheticInputStream extends InputStream {
+        private static final int BLOCK_SIZE = 1024 * 1024;
+
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private long remaining;
+        private int position;
+
+        SyntheticInputStream(long size) {
+            this.remaining = size;
+            Random random = new Random(size);
+            for (int i = 0; i < block.length; i++) {
+                // 32 symbols, so about 5 bits of entropy a byte
+                block[i] = (byte) ('A' + random.nextInt(32));
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = (int) Math.min(Math.min(len, remaining), block.length - position);
+            System.arraycopy(block, position, b, off, n);
+            position = (position + n) % block.length;
+            remaining -= n;
+            return n;
+        }
+    }
+
+    /**
+     * Discards the decrypted content, taking the heap after a collection and the throughput every `interval` bytes.
+     */
+    private static class Checkpoints extends OutputStream {
+        private final long interval;
+        private final List<Long> heap = new ArrayList<>();
+        private final List<Double> throughput = new ArrayList<>();
+        private long written;
+        private long next;
+        private long intervalStart = System.nanoTime();
+
+        Checkpoints(long interval) {
+            this.interval = Math.max(1, interval);
+            this.next = this.interval;
+        }
+
+        @Override
+        public void write(int b) {
+            written++;
+            checkpoint();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written += len;
+            checkpoint();
+        }
+
+        private void checkpoint() {
+            if (written < next) {
+                return;
+            }
+            long elapsed = System.nanoTime() - intervalStart;
+            throughput.add(interval / 1048576.0 / (elapsed / 1e9));
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            heap.add(runtime.totalMemory() - runtime.freeMemory());
+            next += interval;
+            intervalStart = System.nanoTime();
+        }
+
+        void assertFlat(String name) {
+            String checkpoints = name + ": heap after each checkpoint " + heap + " bytes, throughput " + throughput + " MB/s";
+            assertFalse(name + ": no checkpoints were reached", heap.isEmpty());
+
+            // the first interval includes loading classes and warming up the JIT, so later ones are compared with it
+            long baseline = heap.get(0);
+            for (int i = 1; i < heap.size(); i++) {
+                assertTrue(checkpoints + "; heap grew from " + baseline + " to " + heap.get(i) + " bytes by checkpoint " + i,
+                        heap.get(i) <= baseline + HEAP_SLACK);
+            }
+
+            if (throughput.size() > 2) {
+                List<Double> steady = new ArrayList<>(throughput.subList(1, throughput.size()));
+                List<Double> sorted = new ArrayList<>(steady);
+                Collections.sort(sorted);
+                double median = sorted.get(sorted.size() / 2);
+                for (int i = 0; i < steady.size(); i++) {
+                    assertTrue(checkpoints + "; throughput dropped to " + steady.get(i) + " MB/s at checkpoint " + (i + 1) + ", median " + median,
+                            steady.get(i) >= median * MIN_RELATIVE_THROUGHPUT);
+                }
+            }
+        }
+    }
+}
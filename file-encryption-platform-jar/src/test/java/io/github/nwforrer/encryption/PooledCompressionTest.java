@@ -0,0 +1,132 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPObjectFactory;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class PooledCompressionTest {
+    private static final int[] ALGORITHMS = {CompressionAlgorithmTags.ZIP, CompressionAlgorithmTags.ZLIB};
+
+    @Test
+    public void pooledPackets_canBeReadByBouncyCastle() throws IOException, PGPException {
+        byte[] contents = textBytes(100000);
+        for (int algorithm : ALGORITHMS) {
+            ByteArrayOutputStream packet = new ByteArrayOutputStream();
+            try (OutputStream out = PooledCompression.openCompressed(packet, algorithm, 6)) {
+                out.write(contents);
+            }
+
+            PGPCompressedData data = (PGPCompressedData) new PGPObjectFactory(packet.toByteArray()).nextObject();
+            assertEquals(algorithm, data.getAlgorithm());
+            assertArrayEquals("algorithm " + algorithm, contents, readAll(data.getDataStream()));
+        }
+    }
+
+    @Test
+    public void bouncyCastlePackets_canBeReadPooled() throws IOException, PGPException {
+        byte[] contents = textBytes(100000);
+        for (int algorithm : ALGORITHMS) {
+            ByteArrayOutputStream packet = new ByteArrayOutputStream();
+            PGPCompressedDataGenerator generator = new PGPCompressedDataGenerator(algorithm);
+            try (OutputStream out = generator.open(packet)) {
+                out.write(contents);
+            }
+
+            PGPCompressedData data = (PGPCompressedData) new PGPObjectFactory(packet.toByteArray()).nextObject();
+            assertArrayEquals("algorithm " + algorithm, contents, readAll(PooledCompression.openDecompressed(data)));
+        }
+    }
+
+    @Test
+    public void interleavedStreams_onOneThread_doNotShareState() throws IOException, PGPException {
+        byte[] first = textBytes(50000);
+        byte[] second = new byte[50000];
+        new Random(2).nextBytes(second);
+
+        InputStream firstIn = PooledCompression.openDecompressed(compress(first));
+        InputStream secondIn = PooledCompression.openDecompressed(compress(second));
+        ByteArrayOutputStream firstOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int firstLen = 0;
+        int secondLen = 0;
+        while (firstLen >= 0 || secondLen >= 0) {
+            if (firstLen >= 0 && (firstLen = firstIn.read(buf)) > 0) {
+                firstOut.write(buf, 0, firstLen);
+            }
+            if (secondLen >= 0 && (secondLen = secondIn.read(buf)) > 0) {
+                secondOut.write(buf, 0, secondLen);
+            }
+        }
+        assertArrayEquals(first, firstOut.toByteArray());
+        assertArrayEquals(second, secondOut.toByteArray());
+    }
+
+    @Test
+    public void concurrentEncryption_roundTrips() throws Exception {
+        GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+        EncryptionProfile profile = EncryptionProfile.builder("test").compression(CompressionAlgorithmTags.ZLIB).build();
+        char[] dataKey = "data key".toCharArray();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                byte[] contents = textBytes(20000 + i * 1000);
+                results.add(executor.submit(() -> {
+                    ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+                    gpgEncryptionUtil.encryptFileWithDataKey(new ByteArrayInputStream(contents), encrypted, dataKey, profile, null);
+                    ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+                    gpgEncryptionUtil.decryptFileWithDataKey(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, dataKey, null, EncryptionFormat.BINARY);
+                    assertArrayEquals(contents, decrypted.toByteArray());
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static PGPCompressedData compress(byte[] contents) throws IOException, PGPException {
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        try (OutputStream out = PooledCompression.openCompressed(packet, CompressionAlgorithmTags.ZIP, -1)) {
+            out.write(contents);
+        }
+        return (PGPCompressedData) new PGPObjectFactory(packet.toByteArray()).nextObject();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[777];
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] textBytes(int size) {
+        Random random = new Random(size);
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.Security;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordedKeyProviderTest {
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+
+    private final List<Long> lookups = new ArrayList<>();
+    private PrivateKeyProvider privateKeys;
+    private PGPPublicKey publicKey;
+    private PGPPublicKey recipientKey;
+    private byte[] encrypted;
+
+    @Before
+    public void setUp() throws IOException, PGPException {
+        Security.addProvider(new BouncyCastleProvider());
+        publicKey = readPublicKey("test-public-key.asc");
+        recipientKey = readPublicKey("test-recipient-public-key.asc");
+        PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(
+                PGPUtil.getDecoderStream(getClass().getResourceAsStream("test-recipient-private-key.asc")));
+        // holds only the second recipient's key, and records every key asked for
+        privateKeys = keyID -> {
+            lookups.add(keyID);
+            return GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray());
+        };
+
+        ByteArrayOutputStream encryptedOutStream = new ByteArrayOutputStream();
+        gpgEncryptionUtil.encryptFile(new ByteArrayInputStream("this is a file".getBytes()), encryptedOutStream,
+                Arrays.asList(publicKey, recipientKey), EncryptionProfile.DEFAULT, "text/plain");
+        encrypted = encryptedOutStream.toByteArray();
+    }
+
+    @Test
+    public void recordedKey_isLookedUpDirectly() throws IOException, PGPException, SignatureException {
+        PrivateKeyProvider recorded = new RecordedKeyProvider(privateKeys, Collections.singletonList(Long.toHexString(recipientKey.getKeyID())));
+
+        assertEquals("this is a file", decrypt(recorded));
+        assertEquals(Collections.singletonList(recipientKey.getKeyID()), lookups);
+    }
+
+    @Test
+    public void withoutRecordedKeys_everyRecipientIsTried() throws IOException, PGPException, SignatureException {
+        assertEquals("this is a file", decrypt(new RecordedKeyProvider(privateKeys, null)));
+        assertEquals(Arrays.asList(publicKey.getKeyID(), recipientKey.getKeyID()), lookups);
+    }
+
+    @Test
+    public void recordedKeysNotHeld_fallBackToEveryRecipient() throws IOException, PGPException, SignatureException {
+        PrivateKeyProvider recorded = new RecordedKeyProvider(privateKeys, Collections.singletonList(Long.toHexString(publicKey.getKeyID())));
+
+        assertEquals("this is a file", decrypt(recorded));
+        assertEquals(Arrays.asList(publicKey.getKeyID(), publicKey.getKeyID(), recipientKey.getKeyID()), lookups);
+    }
+
+    private String decrypt(PrivateKeyProvider keys) throws IOException, PGPException, SignatureException {
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(encrypted), decrypted, keys, null);
+        return new String(decrypted.toByteArray());
+    }
+
+    private PGPPublicKey readPublicKey(String resource) throws IOException, PGPException {
+        return GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream(resource))));
+    }
+}
@@ -0,0 +1,211 @@
+package io.github.nwforrer.encryption;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPSecretKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.Security;
+import java.security.SignatureException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SegmentedEncryptionTest {
+    private static final int SEGMENT_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final GPGEncryptionUtil gpgEncryptionUtil = new GPGEncryptionUtil();
+    private final SegmentedEncryption segmentedEncryption = new SegmentedEncryption(gpgEncryptionUtil, 4);
+
+    private List<PGPPublicKey> recipients;
+    private PrivateKeyProvider privateKeys;
+
+    @Before
+    public void setUp() throws IOException, PGPException {
+        Security.addProvider(new BouncyCastleProvider());
+
+        recipients = Collections.singletonList(readPublicKey("test-public-key.asc"));
+        privateKeys = privateKeys("test-private-key.asc");
+    }
+
+    @After
+    public void tearDown() {
+        segmentedEncryption.destroy();
+    }
+
+    @Test
+    public void canEncryptAndDecrypt() throws IOException, PGPException {
+        for (int size : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, 3 * SEGMENT_SIZE, 10 * SEGMENT_SIZE + 7}) {
+            byte[] contents = randomBytes(size);
+            byte[] encrypted = encrypt(contents);
+
+            ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+            segmentedEncryption.decrypt(new ByteArrayInputStream(encrypted), decrypted, privateKeys, null);
+            assertArrayEquals("size " + size, contents, decrypted.toByteArray());
+
+            try (InputStream in = segmentedEncryption.openDecryptedStream(new ByteArrayInputStream(encrypted), privateKeys, null)) {
+                assertArrayEquals("size " + size, contents, readAll(in));
+            }
+            assertEquals(size, SegmentedEncryption.getPlaintextSize(new ByteArrayInputStream(encrypted), encrypted.length));
+        }
+    }
+
+    @Test
+    public void encryptionResult_hasDigestOfPlaintext() throws IOException, PGPException {
+        byte[] contents = randomBytes(3 * SEGMENT_SIZE + 7);
+        EncryptionResult result = segmentedEncryption.encrypt(new ByteArrayInputStream(contents), new ByteArrayOutputStream(), recipients, SEGMENT_SIZE);
+        assertEquals(contents.length, result.getPlaintextSize());
+        assertEquals(ContentDigests.sha256(new ByteArrayInputStream(contents)), result.getPlaintextDigest());
+    }
+
+    @Test
+    public void sequentialAndParallel_produceCompatibleContent() throws IOException, PGPException {
+        SegmentedEncryption sequential = new SegmentedEncryption(gpgEncryptionUtil);
+        byte[] contents = randomBytes(20 * SEGMENT_SIZE + 3);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        sequential.encrypt(new ByteArrayInputStream(contents), encrypted, recipients, SEGMENT_SIZE);
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        segmentedEncryption.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, privateKeys, null);
+        assertArrayEquals(contents, decrypted.toByteArray());
+    }
+
+    @Test
+    public void canDecryptRangeWithoutDecryptingFromStart() throws IOException, PGPException {
+        byte[] contents = randomBytes(10 * SEGMENT_SIZE + 7);
+        File file = folder.newFile();
+        Files.write(file.toPath(), encrypt(contents));
+
+        try (InputStream in = segmentedEncryption.openDecryptedStream(FileChannel.open(file.toPath(), StandardOpenOption.READ), privateKeys, null)) {
+            assertEquals(7500, in.skip(7500));
+            byte[] range = new byte[100];
+            assertEquals(100, in.read(range));
+            assertArrayEquals(Arrays.copyOfRange(contents, 7500, 7600), range);
+
+            assertEquals(2000, in.skip(2000));
+            assertEquals(contents[9600] & 0xff, in.read());
+            assertEquals(contents.length - 9601, in.skip(Long.MAX_VALUE));
+            assertEquals(-1, in.read());
+            assertEquals(0, in.skip(10));
+        }
+    }
+
+    @Test
+    public void canEncryptWithDataKey() throws IOException, PGPException {
+        byte[] contents = randomBytes(5 * SEGMENT_SIZE);
+        char[] dataKey = "0123456789abcdef".toCharArray();
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        segmentedEncryption.encryptWithDataKey(new ByteArrayInputStream(contents), encrypted, dataKey, SEGMENT_SIZE);
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        segmentedEncryption.decrypt(new ByteArrayInputStream(encrypted.toByteArray()), decrypted, null, dataKey);
+        assertArrayEquals(contents, decrypted.toByteArray());
+    }
+
+    @Test
+    public void modifiedSegment_failsAuthentication() throws IOException, PGPException {
+        byte[] encrypted = encrypt(randomBytes(5 * SEGMENT_SIZE));
+        encrypted[encrypted.length - 2 * SEGMENT_SIZE] ^= 1;
+
+        assertDecryptFails(encrypted);
+    }
+
+    @Test
+    public void droppedLastSegment_failsAuthentication() throws IOException, PGPException {
+        byte[] encrypted = encrypt(randomBytes(5 * SEGMENT_SIZE + 10));
+
+        assertDecryptFails(Arrays.copyOf(encrypted, encrypted.length - 10 - 16));
+    }
+
+    @Test
+    public void addedRecipient_canDecryptWithoutReencryption() throws IOException, PGPException {
+        byte[] contents = randomBytes(5 * SEGMENT_SIZE);
+        byte[] encrypted = encrypt(contents);
+
+        ByteArrayOutputStream rewritten = new ByteArrayOutputStream();
+        List<Long> keyIDs = segmentedEncryption.changeRecipients(new ByteArrayInputStream(encrypted), rewritten, privateKeys,
+                Collections.singletonList(readPublicKey("test-recipient-public-key.asc")), Collections.<Long>emptyList());
+
+        assertEquals(2, keyIDs.size());
+        int segments = 5 * (SEGMENT_SIZE + 16);
+        assertArrayEquals(Arrays.copyOfRange(encrypted, encrypted.length - segments, encrypted.length),
+                Arrays.copyOfRange(rewritten.toByteArray(), rewritten.size() - segments, rewritten.size()));
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        segmentedEncryption.decrypt(new ByteArrayInputStream(rewritten.toByteArray()), decrypted, privateKeys("test-recipient-private-key.asc"), null);
+        assertArrayEquals(contents, decrypted.toByteArray());
+    }
+
+    @Test
+    public void canExportAsOpenPGP() throws IOException, PGPException, SignatureException {
+        byte[] contents = randomBytes(3 * SEGMENT_SIZE + 1);
+
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        segmentedEncryption.export(new ByteArrayInputStream(encrypt(contents)), exported, privateKeys, null,
+                Collections.singletonList(readPublicKey("test-recipient-public-key.asc")), EncryptionProfile.DEFAULT);
+
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        gpgEncryptionUtil.decryptFile(new ByteArrayInputStream(exported.toByteArray()), decrypted,
+                privateKeys("test-recipient-private-key.asc"), null, EncryptionFormat.ARMORED);
+        assertArrayEquals(contents, decrypted.toByteArray());
+    }
+
+    private void assertDecryptFails(byte[] encrypted) throws IOException {
+        try {
+            segmentedEncryption.decrypt(new ByteArrayInputStream(encrypted), new ByteArrayOutputStream(), privateKeys, null);
+            fail("tampered content was decrypted");
+        } catch (PGPException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("failed authentication"));
+        }
+    }
+
+    private byte[] encrypt(byte[] contents) throws IOException, PGPException {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        segmentedEncryption.encrypt(new ByteArrayInputStream(contents), encrypted, recipients, SEGMENT_SIZE);
+        return encrypted.toByteArray();
+    }
+
+    private PGPPublicKey readPublicKey(String resource) throws IOException, PGPException {
+        return GPGEncryptionUtil.readPublicKey(new PGPPublicKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream(resource))));
+    }
+
+    private PrivateKeyProvider privateKeys(String resource) throws IOException, PGPException {
+        PGPSecretKeyRingCollection secretKeys = new PGPSecretKeyRingCollection(PGPUtil.getDecoderStream(getClass().getResourceAsStream(resource)));
+        return keyID -> GPGEncryptionUtil.findSecretKey(secretKeys, keyID, "password".toCharArray());
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[333];
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+}
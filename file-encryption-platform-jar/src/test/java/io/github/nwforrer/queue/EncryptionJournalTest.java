@@ -0,0 +1,117 @@
+package io.github.nwforrer.queue;
+
+import io.github.nwforrer.actions.ActionParams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class EncryptionJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void outstandingEntries_surviveReopening() throws IOException {
+        File file = new File(folder.getRoot(), "queue/encryption.journal");
+        Map<String, String> params = new HashMap<>();
+        params.put("public_key_path", "/keys/public key.asc");
+        params.put("encryption_profile", "a&b=c");
+
+        EncryptionJournal journal = new EncryptionJournal(file);
+        journal.append("workspace://SpacesStore/1", params);
+        journal.append("workspace://SpacesStore/2", Collections.<String, String>emptyMap());
+        journal.append("workspace://SpacesStore/3", Collections.<String, String>emptyMap());
+        journal.complete("workspace://SpacesStore/2");
+        journal.close();
+
+        EncryptionJournal reopened = new EncryptionJournal(file);
+        assertEquals(Arrays.asList("workspace://SpacesStore/1", "workspace://SpacesStore/3"), reopened.getOutstanding());
+        assertEquals(params, reopened.get("workspace://SpacesStore/1"));
+        assertNull(reopened.get("workspace://SpacesStore/2"));
+        reopened.close();
+    }
+
+    @Test
+    public void queuedEncryptWithSign_keepsParameterTypes() throws IOException {
+        File file = folder.newFile();
+        Map<String, Serializable> params = new HashMap<>();
+        params.put("public_key_path", "/keys/public.asc");
+        params.put("armor", false);
+        params.put("sign", true);
+        params.put("recipient_key_paths", new ArrayList<>(Arrays.asList("/keys/a.asc", "/keys/b,c.asc")));
+
+        EncryptionJournal journal = new EncryptionJournal(file);
+        journal.append("workspace://SpacesStore/1", ActionParams.encode(params));
+        journal.close();
+
+        EncryptionJournal reopened = new EncryptionJournal(file);
+        Map<String, Serializable> queued = ActionParams.decode(reopened.get("workspace://SpacesStore/1"));
+        assertEquals(params, queued);
+        assertEquals(Boolean.TRUE, queued.get("sign"));
+        reopened.close();
+    }
+
+    @Test
+    public void entryJournaledWithoutTypes_isReadByParameterTypes() throws IOException {
+        File file = folder.newFile();
+        Map<String, String> legacy = new HashMap<>();
+        legacy.put("public_key_path", "/keys/public.asc");
+        legacy.put("armor", "true");
+        legacy.put("recipient_key_paths", "/keys/a.asc,/keys/b.asc");
+        EncryptionJournal journal = new EncryptionJournal(file);
+        journal.append("workspace://SpacesStore/1", legacy);
+        journal.close();
+
+        Map<String, Class<?>> types = new HashMap<>();
+        types.put("armor", Boolean.class);
+        types.put("recipient_key_paths", List.class);
+        EncryptionJournal reopened = new EncryptionJournal(file);
+        Map<String, Serializable> queued = ActionParams.decode(reopened.get("workspace://SpacesStore/1"), types);
+        assertEquals(Boolean.TRUE, queued.get("armor"));
+        assertEquals(Arrays.asList("/keys/a.asc", "/keys/b.asc"), queued.get("recipient_key_paths"));
+        assertEquals("/keys/public.asc", queued.get("public_key_path"));
+        reopened.close();
+    }
+
+    @Test
+    public void journal_isTruncatedWhenNothingIsOutstanding() throws IOException {
+        File file = folder.newFile();
+        EncryptionJournal journal = new EncryptionJournal(file);
+        journal.append("workspace://SpacesStore/1", Collections.<String, String>emptyMap());
+        assertTrue(file.length() > 0);
+
+        journal.complete("workspace://SpacesStore/1");
+        journal.complete("workspace://SpacesStore/unknown");
+
+        assertEquals(0, file.length());
+        assertEquals(0, journal.size());
+        journal.close();
+    }
+
+    @Test
+    public void tornLastLine_isIgnored() throws IOException {
+        File file = folder.newFile();
+        EncryptionJournal journal = new EncryptionJournal(file);
+        journal.append("workspace://SpacesStore/1", Collections.<String, String>emptyMap());
+        journal.close();
+        Files.write(file.toPath(), "+\tworkspace".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        EncryptionJournal reopened = new EncryptionJournal(file);
+        assertEquals(Collections.singletonList("workspace://SpacesStore/1"), reopened.getOutstanding());
+        reopened.close();
+    }
+}
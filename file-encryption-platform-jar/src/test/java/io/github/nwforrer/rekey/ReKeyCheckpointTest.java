@@ -0,0 +1,62 @@
+package io.github.nwforrer.rekey;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ReKeyCheckpointTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void progress_survivesReloading() throws IOException {
+        File file = new File(folder.getRoot(), "rekey/rekey.checkpoint");
+        ReKeyCheckpoint checkpoint = new ReKeyCheckpoint();
+        checkpoint.start("fe8b6ee1937768c5");
+        checkpoint.recordProcessed();
+        checkpoint.recordProcessed();
+        checkpoint.recordSkipped();
+        checkpoint.recordFailed();
+        checkpoint.setLastDbId(1234);
+        checkpoint.save(file);
+
+        ReKeyCheckpoint reloaded = ReKeyCheckpoint.load(file);
+        assertEquals(ReKeyCheckpoint.State.RUNNING, reloaded.getState());
+        assertEquals("fe8b6ee1937768c5", reloaded.getFromKeyId());
+        assertEquals(1234, reloaded.getLastDbId());
+        assertEquals(2, reloaded.getProcessed());
+        assertEquals(1, reloaded.getSkipped());
+        assertEquals(1, reloaded.getFailed());
+        assertEquals(checkpoint.getStartedAt(), reloaded.getStartedAt());
+    }
+
+    @Test
+    public void missingCheckpoint_isIdle() throws IOException {
+        ReKeyCheckpoint checkpoint = ReKeyCheckpoint.load(new File(folder.getRoot(), "missing"));
+        assertEquals(ReKeyCheckpoint.State.IDLE, checkpoint.getState());
+        assertNull(checkpoint.getFromKeyId());
+        assertEquals(0, checkpoint.getLastDbId());
+    }
+
+    @Test
+    public void startingAgain_discardsProgress() throws IOException {
+        File file = folder.newFile();
+        ReKeyCheckpoint checkpoint = new ReKeyCheckpoint();
+        checkpoint.start("1");
+        checkpoint.recordFailed();
+        checkpoint.setLastDbId(99);
+        checkpoint.setState(ReKeyCheckpoint.State.FINISHED);
+        checkpoint.save(file);
+
+        ReKeyCheckpoint reloaded = ReKeyCheckpoint.load(file);
+        reloaded.start("2");
+        assertEquals(ReKeyCheckpoint.State.RUNNING, reloaded.getState());
+        assertEquals(0, reloaded.getLastDbId());
+        assertEquals(0, reloaded.getFailed());
+    }
+}
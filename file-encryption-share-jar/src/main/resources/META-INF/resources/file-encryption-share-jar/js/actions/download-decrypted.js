@@ -0,0 +1,16 @@
+/**
+ * Document library action that downloads the decrypted content of an encrypted document. The content is decrypted by
+ * the repository as it is downloaded; nothing is written back to the document.
+ */
+(function()
+{
+   YAHOO.Bubbling.fire("registerAction",
+   {
+      actionName: "onActionDownloadDecrypted",
+      fn: function FileEncryption_onActionDownloadDecrypted(record)
+      {
+         window.location.href = Alfresco.constants.PROXY_URI + "io/github/nwforrer/encryption/node/" +
+               record.jsNode.nodeRef.uri + "/content/decrypted?a=true";
+      }
+   });
+})();
@@ -0,0 +1,130 @@
+package io.github.nwforrer.queue;
+
+import io.github.nwforrer.actions.EncryptFileAction;
+import io.github.nwforrer.model.EncryptionModel;
+import org.alfresco.model.ContentModel;
+import org.alfresco.rad.test.AbstractAlfrescoIT;
+import org.alfresco.rad.test.AlfrescoTestRunner;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+@RunWith(value = AlfrescoTestRunner.class)
+public class EncryptionQueueIT extends AbstractAlfrescoIT {
+
+    private static final long TIMEOUT = 30000;
+
+    private EncryptionQueue queue;
+    private NodeService nodeService;
+    private RetryingTransactionHelper txnHelper;
+    private NodeRef nodeRef;
+
+    @Before
+    public void setUp() {
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getAdminUserName());
+        queue = (EncryptionQueue) getApplicationContext().getBean("EncryptionQueue");
+        nodeService = getServiceRegistry().getNodeService();
+        txnHelper = getServiceRegistry().getRetryingTransactionHelper();
+        // give up after the first failure, rather than after several backed off retries
+        queue.setMaxAttempts(1);
+
+        nodeRef = txnHelper.doInTransaction(() -> {
+            NodeRef companyHome = getServiceRegistry().getNodeLocatorService().getNode("companyhome", null, null);
+            String name = "EncryptionQueueIT-" + UUID.randomUUID() + ".txt";
+            NodeRef node = nodeService.createNode(companyHome, ContentModel.ASSOC_CONTAINS,
+                    QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, name), ContentModel.TYPE_CONTENT,
+                    Collections.<QName, Serializable>singletonMap(ContentModel.PROP_NAME, name)).getChildRef();
+            ContentWriter writer = getServiceRegistry().getContentService().getWriter(node, ContentModel.PROP_CONTENT, true);
+            writer.setMimetype("text/plain");
+            writer.putContent("contents");
+            return node;
+        }, false, true);
+    }
+
+    @After
+    public void tearDown() {
+        Properties properties = (Properties) getApplicationContext().getBean("global-properties");
+        queue.setMaxAttempts(Integer.parseInt(properties.getProperty("io.github.nwforrer.encryption.queue.max-attempts")));
+        txnHelper.doInTransaction(() -> {
+            if (nodeService.exists(nodeRef)) {
+                nodeService.deleteNode(nodeRef);
+            }
+            return null;
+        }, false, true);
+        AuthenticationUtil.clearCurrentSecurityContext();
+    }
+
+    @Test
+    public void nodeGivenUpOn_canBeQueuedAgain() throws InterruptedException {
+        Map<String, Serializable> params = new HashMap<>();
+        // a key that does not exist, so that every attempt fails
+        params.put(EncryptFileAction.PARAM_PUBLIC_KEY_PATH, "/nonexistent/" + UUID.randomUUID() + ".asc");
+
+        enqueue(params);
+        awaitGaveUp();
+        assertEquals(1, nodeService.getProperty(nodeRef, EncryptionModel.PROP_ATTEMPTS));
+
+        txnHelper.doInTransaction(() -> {
+            queue.enqueue(nodeRef, params);
+            assertEquals(Boolean.FALSE, nodeService.getProperty(nodeRef, EncryptionModel.PROP_GAVE_UP));
+            assertEquals(0, nodeService.getProperty(nodeRef, EncryptionModel.PROP_ATTEMPTS));
+            assertNull(nodeService.getProperty(nodeRef, EncryptionModel.PROP_LAST_ERROR));
+            return null;
+        }, false, true);
+        awaitGaveUp();
+        assertEquals(1, nodeService.getProperty(nodeRef, EncryptionModel.PROP_ATTEMPTS));
+        assertNotNull(nodeService.getProperty(nodeRef, EncryptionModel.PROP_LAST_ERROR));
+    }
+
+    @Test
+    public void rolledBackQueueing_isNotJournaled() {
+        Map<String, Serializable> params = new HashMap<>();
+        params.put(EncryptFileAction.PARAM_PUBLIC_KEY_PATH, "/nonexistent/" + UUID.randomUUID() + ".asc");
+        int queued = queue.getQueuedCount();
+
+        try {
+            txnHelper.doInTransaction(() -> {
+                queue.enqueue(nodeRef, params);
+                assertEquals("the journal is only written once the transaction commits", queued, queue.getQueuedCount());
+                throw new IllegalStateException("rollback");
+            }, false, true);
+            fail("transaction should have rolled back");
+        } catch (IllegalStateException e) {
+            assertEquals("rollback", e.getMessage());
+        }
+        assertEquals(queued, queue.getQueuedCount());
+        assertFalse(txnHelper.doInTransaction(() -> nodeService.hasAspect(nodeRef, EncryptionModel.ASPECT_PENDING), true, true));
+    }
+
+    private void enqueue(Map<String, Serializable> params) {
+        txnHelper.doInTransaction(() -> {
+            queue.enqueue(nodeRef, params);
+            return null;
+        }, false, true);
+    }
+
+    private void awaitGaveUp() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!txnHelper.doInTransaction(() -> Boolean.TRUE.equals(nodeService.getProperty(nodeRef, EncryptionModel.PROP_GAVE_UP)), true, true)) {
+            assertTrue("node was not given up on within " + TIMEOUT + " ms", System.currentTimeMillis() < deadline);
+            Thread.sleep(100);
+        }
+    }
+}